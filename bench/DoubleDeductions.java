@@ -0,0 +1,59 @@
+/**
+ * The floating-point deduction calculation the payroll used before amounts were held in cents
+ *
+ * Kept only as the baseline of the deduction benchmarks. Every deduction is an unrounded
+ * double, the total and the net income are rounded to 2 decimal places at the end.
+ * The brackets are the built-in 2025 federal and Quebec brackets.
+ */
+class DoubleDeductions {
+
+    /** Lower bounds of the federal brackets, the inclusive 16129 stored as the double just below it */
+    private static final double[] FEDERAL_BOUNDS = {
+            Double.NEGATIVE_INFINITY, Math.nextDown(16129.0), 57375, 114750, 177882, 253414};
+
+    /** Rates of the federal brackets, in percent */
+    private static final double[] FEDERAL_RATES = {0, 15, 20.5, 26, 29, 33};
+
+    /** Lower bounds of the Quebec brackets */
+    private static final double[] QUEBEC_BOUNDS = {Double.NEGATIVE_INFINITY, 18571, 53255, 106495, 129590};
+
+    /** Rates of the Quebec brackets, in percent */
+    private static final double[] QUEBEC_RATES = {0, 14, 19, 24, 25.75};
+
+    /**
+     * Default constructor for DoubleDeductions
+     * Only static methods are provided
+     */
+    private DoubleDeductions() {
+    }
+
+    /**
+     * Calculates the total of the deductions and the net income of a gross income
+     * @param GrossIncome The employee gross income
+     * @param Result      The buffer receiving the total and the net income
+     */
+    static void calculateAll(double GrossIncome, double[] Result) {
+        double Provincial = bracketTax(GrossIncome, QUEBEC_BOUNDS, QUEBEC_RATES);
+        double Federal = bracketTax(GrossIncome, FEDERAL_BOUNDS, FEDERAL_RATES);
+        double Insurance = GrossIncome >= 65700 ? 1077.48 : GrossIncome * (1.64 / 100);
+        double ParentalPlan = GrossIncome >= 98000 ? 494.12 : GrossIncome * (0.494 / 100);
+        double PensionPlan = GrossIncome >= 71300 ? 7700.40 : GrossIncome * (10.8 / 100);
+
+        double Total = Math.round((Provincial + Federal + Insurance + ParentalPlan + PensionPlan) * 100.00) / 100.00;
+        Result[0] = Total;
+        Result[1] = Math.round((GrossIncome - Total) * 100.00) / 100.00;
+    }
+
+    /**
+     * Taxes the whole income at the rate of its bracket
+     * @param GrossIncome The employee gross income
+     * @param Bounds      The lower bounds of the brackets
+     * @param Rates       The rates of the brackets, in percent
+     * @return The tax
+     */
+    private static double bracketTax(double GrossIncome, double[] Bounds, double[] Rates) {
+        int Bracket = 0;
+        while (Bracket + 1 < Bounds.length && GrossIncome > Bounds[Bracket + 1]) Bracket++;
+        return (GrossIncome * Rates[Bracket]) / 100;
+    }
+}
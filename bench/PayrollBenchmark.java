@@ -0,0 +1,782 @@
+import benchmarks.PayrollHarness;
+import deductions.Deduction;
+import deductions.DeductionCache;
+import deductions.DeductionKernel;
+import deductions.DeductionSet;
+import deductions.EmploymentInsurance;
+import deductions.FederalTax;
+import deductions.PeriodDeductions;
+import deductions.ProvincialTax;
+import deductions.QCParentalPlan;
+import deductions.QCPensionPlan;
+import deductions.RuleEvaluator;
+import deductions.RuleSet;
+import deductions.TaxBracketTable;
+import deductions.YearToDateStore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleFunction;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks of the payroll hot paths
+ *
+ * Each benchmark runs over every row of a synthetic payroll file. It is repeated a few
+ * times to warm up the JIT compiler, then measured a few more times, and the time per
+ * row of the best and of the average measured run is displayed. The same cases run under JMH,
+ * with forks and its own warmup, through the benchmarks of the jmh module.
+ *
+ * Usage:
+ * >java -cp out PayrollBenchmark [--rows 1000,100000,10000000] [--invalid 0.1]
+ *                                [--warmup 3] [--iterations 5] [--only name]
+ */
+public class PayrollBenchmark implements PayrollHarness {
+
+    /**
+     * One benchmark, run over every row of a data set
+     */
+    private interface Case {
+
+        /**
+         * Runs the benchmark once over the data set
+         * @param Data The data set
+         * @return A value depending on every result, so the work cannot be optimized away
+         * @throws IOException If a file cannot be read
+         */
+        long run(DataSet Data) throws IOException;
+    }
+
+    /**
+     * The inputs of the benchmarks for one number of rows
+     */
+    static class DataSet {
+
+        /** The synthetic payroll file */
+        final Path File;
+
+        /** The number of lines of the file */
+        final int Rows;
+
+        /** The snapshot compiled from the file */
+        final Path Snapshot;
+
+        /** The file compressed as one gzip stream */
+        final Path Gzip;
+
+        /** The file compressed in blocks */
+        final Path Blocks;
+
+        /** The lines of the file, kept in memory when the file is small enough */
+        final List<String> Lines;
+
+        /** The hours worked of the valid lines */
+        final double[] Hours;
+
+        /** The hourly rates of the valid lines */
+        final double[] Rates;
+
+        /** The gross incomes of the valid lines */
+        final double[] Gross;
+
+        /** The gross incomes of the valid lines, in cents */
+        final long[] GrossCents;
+
+        /** The year to date of every valid line, created by the first pay period benchmark */
+        YearToDateStore YearToDate;
+
+        /** The query index of the file, created by the first query benchmark */
+        PayrollIndex Index;
+
+        /**
+         * Loads a data set from a synthetic payroll file
+         * @param file The synthetic payroll file
+         * @param rows The number of lines of the file
+         * @throws IOException If the file cannot be read
+         */
+        DataSet(Path file, int rows) throws IOException {
+            this.File = file;
+            this.Rows = rows;
+            this.Lines = rows <= IN_MEMORY_ROWS ? Files.readAllLines(file) : null;
+            this.Snapshot = snapshotOf(file);
+            try (MappedPayrollReader Reader = new MappedPayrollReader(file.toString())) {
+                PayrollSnapshot.write(Reader, file, Snapshot);
+            }
+            this.Gzip = gzipOf(file);
+            try (OutputStream Out = new GZIPOutputStream(Files.newOutputStream(Gzip), 64 * 1024)) {
+                Files.copy(file, Out);
+            }
+            this.Blocks = blocksOf(file);
+            try (OutputStream Out = new BlockCompressedOutputStream(Files.newOutputStream(Blocks))) {
+                Files.copy(file, Out);
+            }
+
+            // Keep the fields of the valid lines for the calculation benchmarks, in columns that grow like EmployeeTable
+            double[][] Columns = {new double[1024], new double[1024]};
+            int[] Valid = new int[1];
+            PayrollRecordParser Parser = new PayrollRecordParser();
+            try (MappedPayrollReader Reader = new MappedPayrollReader(file.toString())) {
+                Reader.forEachLine((Buffer, Offset, Length, Position) -> {
+                    // Invalid lines are only used by the parsing benchmarks
+                    if (Parser.validate(Buffer, Offset, Length) != RejectReason.NONE) return;
+                    if (Valid[0] == Columns[0].length) {
+                        Columns[0] = Arrays.copyOf(Columns[0], Valid[0] * 2);
+                        Columns[1] = Arrays.copyOf(Columns[1], Valid[0] * 2);
+                    }
+                    Columns[0][Valid[0]] = Parser.getHoursWorked();
+                    Columns[1][Valid[0]] = Parser.getHourRate();
+                    Valid[0]++;
+                });
+            }
+            Hours = Arrays.copyOf(Columns[0], Valid[0]);
+            Rates = Arrays.copyOf(Columns[1], Valid[0]);
+            Gross = new double[Valid[0]];
+            GrossCents = new long[Valid[0]];
+            for (int Index = 0; Index < Valid[0]; Index++) {
+                GrossCents[Index] = Employee.calculateGrossCents(Hours[Index], Rates[Index]);
+                Gross[Index] = Employee.calculateGrossIncome(Hours[Index], Rates[Index]);
+            }
+        }
+
+        /**
+         * Gets the path of the snapshot compiled from a synthetic payroll file
+         * @param File The synthetic payroll file
+         * @return The snapshot, next to the file
+         */
+        static Path snapshotOf(Path File) {
+            return File.resolveSibling(File.getFileName() + ".snap");
+        }
+
+        /**
+         * Gets the path of the gzip copy of a synthetic payroll file
+         * @param File The synthetic payroll file
+         * @return The gzip file, next to the file
+         */
+        static Path gzipOf(Path File) {
+            return File.resolveSibling(File.getFileName() + ".gz");
+        }
+
+        /**
+         * Gets the path of the block compressed copy of a synthetic payroll file
+         * @param File The synthetic payroll file
+         * @return The block compressed file, next to the file
+         */
+        static Path blocksOf(Path File) {
+            return File.resolveSibling(File.getFileName() + ".bgz");
+        }
+    }
+
+    /** Largest number of lines kept in memory as Strings */
+    private static final int IN_MEMORY_ROWS = 1_000_000;
+
+    /** Number of rows a deduction kernel calculates at once */
+    private static final int KERNEL_BLOCK = 4096;
+
+    /** Names of the benchmarks, in the order they run */
+    private static final List<String> Names = new ArrayList<>();
+
+    /** The benchmarks, in the order they run */
+    private static final List<Case> Cases = new ArrayList<>();
+
+    /** Extra information displayed under the timings of a benchmark, set by its last run */
+    private static String Note;
+
+    /** The synthetic payroll file, null until a data set is loaded */
+    private Path File;
+
+    /** The data set of the synthetic payroll file */
+    private DataSet Data;
+
+    /**
+     * Default constructor for PayrollBenchmark, registers the benchmarks the first time
+     */
+    public PayrollBenchmark() {
+        synchronized (Cases) {
+            if (Cases.isEmpty()) registerCases();
+        }
+    }
+
+    @Override
+    public List<String> names() {
+        return Collections.unmodifiableList(Names);
+    }
+
+    @Override
+    public void load(int Rows, double InvalidShare) throws IOException {
+        close();
+        File = Files.createTempFile("payroll-" + Rows + "-", ".txt");
+        SyntheticPayroll.write(File, Rows, InvalidShare, 42);
+        Data = new DataSet(File, Rows);
+    }
+
+    @Override
+    public long run(String Name) throws IOException {
+        int Index = Names.indexOf(Name);
+        if (Index < 0) {
+            throw new IllegalArgumentException("Unknown benchmark " + Name);
+        }
+        return Cases.get(Index).run(Data);
+    }
+
+    @Override
+    public String takeNote() {
+        String Taken = Note;
+        Note = null;
+        return Taken;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (File == null) return;
+        Data = null;
+        Files.deleteIfExists(File);
+        Files.deleteIfExists(DataSet.snapshotOf(File));
+        Files.deleteIfExists(DataSet.gzipOf(File));
+        Files.deleteIfExists(DataSet.blocksOf(File));
+        File = null;
+    }
+
+    /**
+     * Registers a benchmark
+     * @param Name      The name displayed for the benchmark
+     * @param Benchmark The benchmark
+     */
+    private static void add(String Name, Case Benchmark) {
+        Names.add(Name);
+        Cases.add(Benchmark);
+    }
+
+    /**
+     * Registers every benchmark
+     */
+    private static void registerCases() {
+        // Line validation, from Strings and from the mapped file
+        add("parse.lines", Data -> {
+            PayrollRecordParser Parser = new PayrollRecordParser();
+            long Sum = 0;
+            if (Data.Lines != null) {
+                for (String Line : Data.Lines) {
+                    Sum += parseLine(Parser, Line);
+                }
+                return Sum;
+            }
+            // Too many lines to keep in memory, the Strings are read from the file as they are parsed
+            try (BufferedReader Reader = Files.newBufferedReader(Data.File)) {
+                String Line;
+                while ((Line = Reader.readLine()) != null) {
+                    Sum += parseLine(Parser, Line);
+                }
+            }
+            Note = "lines read from the file, more than " + IN_MEMORY_ROWS + " do not fit in memory";
+            return Sum;
+        });
+        add("parse.mapped", Data -> {
+            PayrollRecordParser Parser = new PayrollRecordParser();
+            long[] Sum = new long[1];
+            try (MappedPayrollReader Reader = new MappedPayrollReader(Data.File.toString())) {
+                Reader.forEachLine((Buffer, Offset, Length, Position) -> {
+                    try {
+                        Parser.parse(Buffer, Offset, Length);
+                        Sum[0] += Parser.getID();
+                    } catch (Exception e) {
+                        Sum[0]--;
+                    }
+                });
+            }
+            return Sum[0];
+        });
+        add("parse.validate", Data -> {
+            PayrollRecordParser Parser = new PayrollRecordParser();
+            long[] Sum = new long[1];
+            try (MappedPayrollReader Reader = new MappedPayrollReader(Data.File.toString())) {
+                Reader.forEachLine((Buffer, Offset, Length, Position) -> {
+                    if (Parser.validate(Buffer, Offset, Length) == RejectReason.NONE) {
+                        Sum[0] += Parser.getID();
+                    } else {
+                        Sum[0]--;
+                    }
+                });
+            }
+            return Sum[0];
+        });
+
+        // The same rows read from a snapshot compiled once from the file, opening included
+        add("snapshot.read", Data -> {
+            long Sum = 0;
+            try (PayrollSnapshot Snapshot = PayrollSnapshot.open(Data.Snapshot)) {
+                for (int Row = 0; Row < Snapshot.size(); Row++) {
+                    Sum += Snapshot.getID(Row) + Snapshot.getGrossCents(Row)
+                            + Snapshot.getFirstName(Row).length() + Snapshot.getLastName(Row).length();
+                }
+                Sum -= Snapshot.getRejectedCount();
+            }
+            return Sum;
+        });
+
+        // Gross income rounding done by the Employee constructor
+        add("employee.constructor", Data -> {
+            long Sum = 0;
+            for (int Index = 0; Index < Data.Gross.length; Index++) {
+                Employee Current = new Employee(Index, "First", "Last", Data.Hours[Index], Data.Rates[Index]);
+                Sum += Current.getGrossCents();
+            }
+            return Sum;
+        });
+
+        // Each deduction through calculateTax(), one object per employee like the original loop
+        addDeduction("deduction.federal", FederalTax::new);
+        addDeduction("deduction.provincial", ProvincialTax::new);
+        addDeduction("deduction.employmentInsurance", EmploymentInsurance::new);
+        addDeduction("deduction.parentalPlan", QCParentalPlan::new);
+        addDeduction("deduction.pensionPlan", QCPensionPlan::new);
+
+        // Every deduction, the total and the net income, in doubles like before and in cents
+        add("deduction.all.double", Data -> {
+            double[] Result = new double[2];
+            long Sum = 0;
+            for (double Gross : Data.Gross) {
+                DoubleDeductions.calculateAll(Gross, Result);
+                Sum += Double.doubleToRawLongBits(Result[1]);
+            }
+            return Sum;
+        });
+        add("deduction.all.cents", Data -> {
+            DeductionSet Deductions = new DeductionSet();
+            long[] Result = DeductionSet.newResult();
+            long Sum = 0;
+            for (long Gross : Data.GrossCents) {
+                Deductions.calculateAll(Gross, Result);
+                Sum += Result[DeductionSet.NET_INCOME];
+            }
+            return Sum;
+        });
+
+        // The same through the abstract Deduction, one call site for every deduction
+        add("deduction.all.virtual", Data -> {
+            Deduction[] Deductions = {new ProvincialTax(), new FederalTax(), new EmploymentInsurance(),
+                    new QCParentalPlan(), new QCPensionPlan()};
+            long Sum = 0;
+            for (long Gross : Data.GrossCents) {
+                long Total = 0;
+                for (Deduction Current : Deductions) {
+                    Total += Current.calculateCents(Gross);
+                }
+                Sum += Gross - Total;
+            }
+            return Sum;
+        });
+
+        // The same from the rules of the tax year, walked for each income and compiled once
+        addRules("deduction.rules.interpreted", RuleEvaluator::createInterpreter);
+        addRules("deduction.rules.compiled", RuleEvaluator::create);
+
+        // The same a block of rows at a time, through the scalar and the vectorized kernels
+        addKernel("deduction.kernel.scalar", DeductionKernel::createScalar);
+        addKernel("deduction.kernel.vector", DeductionKernel::create);
+
+        // The same through a deduction cache, large enough for the whole rate grid and too small for it
+        addCachedDeductions("deduction.cache.4096", 4096);
+        addCachedDeductions("deduction.cache.64", 64);
+
+        // One pay period of every employee through the year-to-date store, new and already known employees
+        add("ytd.period.new", Data -> payPeriod(new YearToDateStore(TaxBracketTable.DEFAULT_YEAR, 52), Data));
+        add("ytd.period", Data -> {
+            if (Data.YearToDate == null) {
+                Data.YearToDate = new YearToDateStore(TaxBracketTable.DEFAULT_YEAR, 52);
+            }
+            return payPeriod(Data.YearToDate, Data);
+        });
+
+        // Saving and loading the year-to-date store of every employee
+        add("ytd.save", Data -> {
+            YearToDateStore Store = new YearToDateStore(TaxBracketTable.DEFAULT_YEAR, 52);
+            payPeriod(Store, Data);
+            Path File = Files.createTempFile("payroll-ytd-", ".bin");
+            try {
+                long Start = System.nanoTime();
+                Store.save(File);
+                long Saved = System.nanoTime();
+                YearToDateStore Loaded = YearToDateStore.load(File);
+                Note = String.format("save %.1f ms, load %.1f ms, %d bytes",
+                        (Saved - Start) / 1e6, (System.nanoTime() - Saved) / 1e6, Files.size(File));
+                return Loaded.size();
+            } finally {
+                Files.deleteIfExists(File);
+            }
+        });
+
+        // Loading a payroll file into a query index, then one lookup by ID and one range query per row
+        add("index.build", Data -> PayrollIndex.load(Data.File, new DeductionSet()).size());
+        add("index.lookup", Data -> {
+            PayrollIndex Index = indexOf(Data);
+            EmployeeTable Employees = Index.getEmployees();
+            int Size = Index.size();
+            long Sum = 0;
+            for (int Query = 0; Query < Data.Rows; Query++) {
+                // A row far from the previous one, so the lookups do not follow the table
+                long ID = Employees.getID((int) ((Query * 0x9E3779B1L & 0xFFFFFFFFL) % Size));
+                Sum += Index.find(ID);
+            }
+            return Sum;
+        });
+        add("index.range", Data -> {
+            PayrollIndex Index = indexOf(Data);
+            long Sum = 0;
+            for (int Query = 0; Query < Data.Rows; Query++) {
+                long Min = Data.GrossCents[Query % Data.GrossCents.length];
+                Sum += Index.countByGross(Min, Min + 100_000);
+                Sum += Index.rangeByNet(Min / 2, Min / 2 + 100_000, 10).length;
+            }
+            return Sum;
+        });
+
+        // The whole streaming pipeline, without and with the stage metrics
+        addStream("stream.plain", false);
+        addStream("stream.metrics", true);
+
+        // The same from the compressed copies: decompressed to a temporary file first, then straight
+        // into the stream as one gzip stream, and in blocks on one thread and on every processor
+        add("stream.gunzip.temp", Data -> {
+            Path Temporary = Files.createTempFile("payroll-gunzip-", ".txt");
+            try {
+                try (InputStream In = CompressedPayrollReader.openStream(Data.Gzip)) {
+                    Files.copy(In, Temporary, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try (MappedPayrollReader Reader = new MappedPayrollReader(Temporary.toString())) {
+                    return stream(Reader::forEachLine);
+                }
+            } finally {
+                Files.deleteIfExists(Temporary);
+            }
+        });
+        addCompressedStream("stream.gzip", Data -> Data.Gzip, 1);
+        addCompressedStream("stream.blocks", Data -> Data.Blocks, 1);
+        addCompressedStream("stream.blocks.parallel", Data -> Data.Blocks, Runtime.getRuntime().availableProcessors());
+
+        // Report row formatting through printf
+        add("report.printf", Data -> {
+            CountingWriter Counter = new CountingWriter();
+            PrintWriter Report = new PrintWriter(Counter);
+            for (int Index = 0; Index < Data.Gross.length; Index++) {
+                Report.printf(PayrollManager.REPORT_ROW + "\n", (long) Index, "First", "Last", Data.Gross[Index],
+                        Math.round(Data.Gross[Index] * 40.0) / 100.0, Math.round(Data.Gross[Index] * 60.0) / 100.0);
+            }
+            Report.flush();
+            return Counter.Count;
+        });
+        add("report.rowWriter", Data -> {
+            CountingWriter Counter = new CountingWriter();
+            PrintWriter Report = new PrintWriter(Counter);
+            ReportRowWriter Rows = new ReportRowWriter(Report, "\n\n");
+            for (int Index = 0; Index < Data.GrossCents.length; Index++) {
+                Rows.writeRow(Index, "First", "Last", Data.GrossCents[Index],
+                        Math.round(Data.Gross[Index] * 40.0), Math.round(Data.Gross[Index] * 60.0));
+            }
+            Rows.flush();
+            Report.flush();
+            return Counter.Count;
+        });
+    }
+
+    /**
+     * Parses one line like the original loop, with an exception for a rejected line
+     * @param Parser The parser
+     * @param Line   The line
+     * @return The ID of a valid line, -1 for a rejected one
+     */
+    private static long parseLine(PayrollRecordParser Parser, String Line) {
+        try {
+            Parser.parse(Line);
+            return Parser.getID();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the query index of a data set, loading it the first time
+     * @param Data The data set
+     * @return The index of the synthetic payroll file
+     * @throws IOException If the file cannot be read
+     */
+    private static PayrollIndex indexOf(DataSet Data) throws IOException {
+        if (Data.Index == null) {
+            Data.Index = PayrollIndex.load(Data.File, new DeductionSet());
+        }
+        return Data.Index;
+    }
+
+    /**
+     * Pays one pay period to every row of a data set, the row number being the employee ID
+     * @param Store The year to date of the employees
+     * @param Data  The data set
+     * @return The sum of the net incomes of the period
+     */
+    private static long payPeriod(YearToDateStore Store, DataSet Data) {
+        PeriodDeductions Period = new PeriodDeductions(new DeductionSet(), Store);
+        long[] Result = DeductionSet.newResult();
+        long Sum = 0;
+        for (int Index = 0; Index < Data.GrossCents.length; Index++) {
+            Period.calculate(Index, Period.periodGross(Data.GrossCents[Index]), Result);
+            Sum += Result[DeductionSet.NET_INCOME];
+        }
+        return Sum;
+    }
+
+    /**
+     * Registers the benchmark of a deduction kernel, run over the gross incomes in blocks
+     * @param Name   The name displayed for the benchmark
+     * @param Kernel Creates the kernel from the deductions
+     */
+    private static void addKernel(String Name, Function<DeductionSet, DeductionKernel> Kernel) {
+        add(Name, Data -> {
+            DeductionKernel Calculation = Kernel.apply(new DeductionSet());
+            long[][] Columns = DeductionKernel.newColumns(KERNEL_BLOCK);
+            long[] Block = new long[KERNEL_BLOCK];
+            long Sum = 0;
+            for (int Start = 0; Start < Data.GrossCents.length; Start += KERNEL_BLOCK) {
+                int Rows = Math.min(KERNEL_BLOCK, Data.GrossCents.length - Start);
+                System.arraycopy(Data.GrossCents, Start, Block, 0, Rows);
+                Calculation.calculateColumns(Block, 0, Rows, Columns);
+                for (int Row = 0; Row < Rows; Row++) {
+                    Sum += Columns[DeductionSet.NET_INCOME][Row];
+                }
+            }
+            Note = "kernel: " + Calculation.describe();
+            return Sum;
+        });
+    }
+
+    /**
+     * Registers the benchmark of a rule evaluator
+     * The evaluator is built once, like at the start of the program, and its build time is displayed under the timings
+     * @param Name      The name displayed for the benchmark
+     * @param Evaluator Creates the evaluator from the rules
+     */
+    private static void addRules(String Name, Function<RuleSet, RuleEvaluator> Evaluator) {
+        RuleSet Set = RuleSet.of(new DeductionSet());
+        long Start = System.nanoTime();
+        RuleEvaluator Rules = Evaluator.apply(Set);
+        String Built = String.format("evaluator: %s, built in %.2f ms", Rules.describe(), (System.nanoTime() - Start) / 1e6);
+        add(Name, Data -> {
+            long[] Result = DeductionSet.newResult();
+            long Sum = 0;
+            for (long Gross : Data.GrossCents) {
+                Rules.calculateAll(Gross, Result);
+                Sum += Result[DeductionSet.NET_INCOME];
+            }
+            Note = Built;
+            return Sum;
+        });
+    }
+
+    /**
+     * Registers a benchmark of the streaming payroll over the mapped file, writing to counting writers
+     * @param Name    The name displayed for the benchmark
+     * @param Metrics True to record the time of every stage
+     */
+    private static void addStream(String Name, boolean Metrics) {
+        add(Name, Data -> {
+            CountingWriter Report = new CountingWriter();
+            CountingWriter Errors = new CountingWriter();
+            StreamingPayroll Stream = new StreamingPayroll(new PrintWriter(Report), new PrintWriter(Errors), null, new DeductionSet());
+            PayrollMetrics Recorded = Metrics ? new PayrollMetrics() : null;
+            Stream.setMetrics(Recorded);
+            try (MappedPayrollReader Reader = new MappedPayrollReader(Data.File.toString())) {
+                Reader.forEachLine((Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+            }
+            Stream.finish();
+            return Report.Count + Errors.Count;
+        });
+    }
+
+    /**
+     * Registers a benchmark of the streaming payroll over a compressed copy of the file, writing to counting writers
+     * @param Name    The name displayed for the benchmark
+     * @param File    Gets the compressed copy from the data set
+     * @param Threads The number of threads decompressing the blocks
+     */
+    private static void addCompressedStream(String Name, Function<DataSet, Path> File, int Threads) {
+        add(Name, Data -> {
+            CompressedPayrollReader Reader = new CompressedPayrollReader(File.apply(Data), Threads);
+            long Count = stream(Reader::forEachLine);
+            Note = Reader.summary();
+            return Count;
+        });
+    }
+
+    /**
+     * Reads every line of a payroll file through the streaming payroll, writing to counting writers
+     * @param Source Hands every line of the file to a handler
+     * @return The number of characters written
+     * @throws IOException If the file cannot be read
+     */
+    private static long stream(LineSource Source) throws IOException {
+        CountingWriter Report = new CountingWriter();
+        CountingWriter Errors = new CountingWriter();
+        StreamingPayroll Stream = new StreamingPayroll(new PrintWriter(Report), new PrintWriter(Errors), null, new DeductionSet());
+        Source.forEachLine((Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+        Stream.finish();
+        return Report.Count + Errors.Count;
+    }
+
+    /**
+     * A reader handing every line of a payroll file to a handler
+     */
+    private interface LineSource {
+
+        /**
+         * Reads the whole file
+         * @param Handler The handler receiving the lines
+         * @throws IOException If the file cannot be read
+         */
+        void forEachLine(MappedPayrollReader.LineHandler Handler) throws IOException;
+    }
+
+    /**
+     * Registers the benchmark of one deduction
+     * @param Name      The name displayed for the benchmark
+     * @param Deduction Builds the deduction of a gross income
+     */
+    private static void addDeduction(String Name, DoubleFunction<Deduction> Deduction) {
+        add(Name, Data -> {
+            long Sum = 0;
+            for (double Gross : Data.Gross) {
+                Sum += Double.doubleToRawLongBits(Deduction.apply(Gross).calculateTax());
+            }
+            return Sum;
+        });
+    }
+
+    /**
+     * Registers the benchmark of every deduction through a cache
+     * Each run starts with an empty cache, its counters are displayed under the timings
+     * @param Name     The name displayed for the benchmark
+     * @param Capacity The number of gross incomes the cache holds
+     */
+    private static void addCachedDeductions(String Name, int Capacity) {
+        add(Name, Data -> {
+            DeductionCache Cache = new DeductionCache(new DeductionSet(), Capacity);
+            long[] Result = DeductionSet.newResult();
+            long Sum = 0;
+            for (long Gross : Data.GrossCents) {
+                Cache.calculateAll(Gross, Result);
+                Sum += Result[DeductionSet.NET_INCOME];
+            }
+            Note = DeductionCache.summary(Cache.getHits(), Cache.getMisses(), Cache.getEvictions());
+            return Sum;
+        });
+    }
+
+    /**
+     * Writer counting the characters written to it and dropping them
+     */
+    static class CountingWriter extends Writer {
+
+        /** Number of characters written */
+        long Count;
+
+        @Override
+        public void write(char[] Buffer, int Offset, int Length) {
+            Count += Length;
+        }
+
+        @Override
+        public void write(String Text, int Offset, int Length) {
+            Count += Length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs the benchmarks
+     * @param args See the class description
+     * @throws IOException If a synthetic file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        String RowList = "1000,100000";
+        double InvalidShare = 0.1;
+        int Warmup = 3;
+        int Iterations = 5;
+        String Only = null;
+        for (int Index = 0; Index < args.length; Index++) {
+            switch (args[Index]) {
+                case "--rows":       RowList = args[++Index]; break;
+                case "--invalid":    InvalidShare = Double.parseDouble(args[++Index]); break;
+                case "--warmup":     Warmup = Integer.parseInt(args[++Index]); break;
+                case "--iterations": Iterations = Integer.parseInt(args[++Index]); break;
+                case "--only":       Only = args[++Index]; break;
+                default:
+                    System.out.println("Unknown option " + args[Index]);
+                    return;
+            }
+        }
+        PayrollBenchmark Harness = new PayrollBenchmark();
+
+        System.out.printf("%-32s %10s %12s %12s %14s%n", "Benchmark", "Rows", "Best ns/row", "Avg ns/row", "Rows/s (best)");
+        for (String RowText : RowList.split(",")) {
+            int Rows = Integer.parseInt(RowText.trim());
+            try {
+                Harness.load(Rows, InvalidShare);
+                for (int Index = 0; Index < Cases.size(); Index++) {
+                    if (Only != null && !Names.get(Index).startsWith(Only)) continue;
+                    measure(Names.get(Index), Cases.get(Index), Harness.Data, Warmup, Iterations);
+                }
+            } finally {
+                Harness.close();
+            }
+        }
+    }
+
+    /**
+     * Warms up and measures one benchmark, then displays its timings
+     * @param Name       The name of the benchmark
+     * @param Benchmark  The benchmark
+     * @param Data       The data set
+     * @param Warmup     The number of runs before measuring
+     * @param Iterations The number of measured runs
+     * @throws IOException If a file cannot be read
+     */
+    private static void measure(String Name, Case Benchmark, DataSet Data, int Warmup, int Iterations) throws IOException {
+        long Checksum = 0;
+        for (int Run = 0; Run < Warmup; Run++) {
+            Checksum += Benchmark.run(Data);
+        }
+        long Best = Long.MAX_VALUE;
+        long Total = 0;
+        for (int Run = 0; Run < Iterations; Run++) {
+            long Start = System.nanoTime();
+            Checksum += Benchmark.run(Data);
+            long Elapsed = System.nanoTime() - Start;
+            Best = Math.min(Best, Elapsed);
+            Total += Elapsed;
+        }
+        double BestPerRow = (double) Best / Data.Rows;
+        double AveragePerRow = (double) Total / Iterations / Data.Rows;
+        System.out.printf("%-32s %10d %12.1f %12.1f %14.0f   (checksum %d)%n",
+                Name, Data.Rows, BestPerRow, AveragePerRow, 1e9 / BestPerRow, Checksum & 0xFFFF);
+        if (Note != null) {
+            System.out.println("    " + Note);
+            Note = null;
+        }
+    }
+}
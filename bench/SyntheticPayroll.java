@@ -0,0 +1,87 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates synthetic payroll files for the benchmarks
+ *
+ * Valid lines follow the "ID FirstName LastName HoursWorked HourRate" format with hours
+ * and rates taken from a standard grid. A configurable share of the lines is invalid,
+ * using the same kinds of errors as the ones found in data/payrollError.txt.
+ */
+public class SyntheticPayroll {
+
+    /** First names used for the valid lines */
+    private static final String[] FIRST_NAMES = {
+            "John", "Jane", "Michael", "Sarah", "Robert", "Alice", "Tom", "Emily", "Daniel", "Jessica"
+    };
+
+    /** Last names used for the valid lines */
+    private static final String[] LAST_NAMES = {
+            "Doe", "Smith", "Johnson", "Lee", "Brown", "White", "Black", "Green", "King", "Moore"
+    };
+
+    /** Weekly hours used for the valid lines */
+    private static final String[] HOURS = {"20", "30", "35", "37.5", "38", "40", "42", "44", "45", "50"};
+
+    /** Hourly rates used for the valid lines */
+    private static final String[] RATES = {
+            "15.75", "16.50", "17.25", "18.75", "20.50", "21.50", "22.00", "25.00", "30.00", "45.75", "60.00", "95.00"
+    };
+
+    /**
+     * Default constructor for SyntheticPayroll
+     */
+    private SyntheticPayroll() {
+    }
+
+    /**
+     * Writes a synthetic payroll file
+     * @param File         The file to write
+     * @param Rows         The number of lines to write
+     * @param InvalidShare The share of invalid lines, between 0 and 1
+     * @param Seed         The seed of the random generator, the same seed gives the same file
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path File, int Rows, double InvalidShare, long Seed) throws IOException {
+        Random Generator = new Random(Seed);
+        try (BufferedWriter Writer = Files.newBufferedWriter(File, StandardCharsets.US_ASCII)) {
+            for (int Row = 0; Row < Rows; Row++) {
+                Writer.write(line(Generator, 100 + Row, InvalidShare));
+                Writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Builds one synthetic payroll line
+     * @param Generator    The random generator
+     * @param ID           The employee ID of the line
+     * @param InvalidShare The share of invalid lines, between 0 and 1
+     * @return The line, without its line terminator
+     */
+    public static String line(Random Generator, long ID, double InvalidShare) {
+        String FirstName = FIRST_NAMES[Generator.nextInt(FIRST_NAMES.length)];
+        String LastName = LAST_NAMES[Generator.nextInt(LAST_NAMES.length)];
+        String Hours = HOURS[Generator.nextInt(HOURS.length)];
+        String Rate = RATES[Generator.nextInt(RATES.length)];
+
+        if (Generator.nextDouble() >= InvalidShare) {
+            return ID + " " + FirstName + " " + LastName + " " + Hours + " " + Rate;
+        }
+        // Same kinds of errors as in data/payrollError.txt
+        switch (Generator.nextInt(8)) {
+            case 0:  return "ABC" + ID + " " + FirstName + " " + Hours + " -10.00";          // Invalid ID
+            case 1:  return ID + " " + FirstName + " " + LastName + " -" + Hours + " " + Rate; // Negative hours
+            case 2:  return ID + " " + FirstName + " " + LastName + " " + Hours + " -" + Rate; // Negative rate
+            case 3:  return ID + " " + FirstName + " " + LastName + " " + Hours + " 14.00";   // Below minimum wage
+            case 4:  return ID + " " + FirstName + " " + LastName + " " + Hours + " XX";      // Invalid rate
+            case 5:  return ID + " " + FirstName + " " + Hours;                               // Missing fields
+            case 6:  return ID + " " + FirstName + " " + FirstName + " " + LastName + " " + Rate; // Extra name
+            default: return ID + " TooLowWage " + Hours + " 13.00";                           // Missing last name
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The bench harness as the JMH benchmarks see it
+ *
+ * The harness and the payroll classes it measures are in the default package, which a class
+ * in a package cannot import. The JMH benchmarks load the harness by its name and run its
+ * cases through this interface, so both run exactly the same code.
+ */
+public interface PayrollHarness extends Closeable {
+
+    /** Name of the class implementing the harness */
+    String IMPLEMENTATION = "PayrollBenchmark";
+
+    /**
+     * Gets the names of the cases
+     * @return The names, in the order the harness runs them
+     */
+    List<String> names();
+
+    /**
+     * Writes a synthetic payroll file and loads its data set, replacing the one loaded before
+     * @param Rows         The number of lines of the file
+     * @param InvalidShare The share of invalid lines, from 0 to 1
+     * @throws IOException If the file cannot be written or read
+     */
+    void load(int Rows, double InvalidShare) throws IOException;
+
+    /**
+     * Runs a case once over every row of the data set
+     * @param Name The name of the case
+     * @return A value depending on every result, so the work cannot be optimized away
+     * @throws IOException If a file cannot be read
+     */
+    long run(String Name) throws IOException;
+
+    /**
+     * Gets the extra information of the last case run, and clears it
+     * @return The information, such as the counters of a cache, or null if there is none
+     */
+    String takeNote();
+
+    /**
+     * Deletes the synthetic payroll file and its copies
+     * @throws IOException If a file cannot be deleted
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the payroll hot paths
+ *
+ * Each benchmark runs one case of the bench harness over every row of a synthetic payroll
+ * file, so the score is the time of one pass over the file: divide it by the number of rows
+ * for the time per row. JMH forks a JVM for every case, warms it up and consumes the
+ * result of every pass. The vectorized deduction kernel is loaded in the forks, which start
+ * with the incubating Vector API module.
+ *
+ * Usage, from the root of the repository:
+ * >mvn -B package -DskipTests
+ * >java -jar jmh/target/benchmarks.jar -p Case=deduction.all.cents,deduction.kernel.vector -p Rows=100000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PayrollBenchmarks {
+
+    /** The case of the harness to run */
+    @Param({"parse.lines", "parse.mapped", "parse.validate", "snapshot.read", "employee.constructor",
+            "deduction.federal", "deduction.provincial", "deduction.employmentInsurance",
+            "deduction.parentalPlan", "deduction.pensionPlan", "deduction.all.double", "deduction.all.cents",
+            "deduction.all.virtual", "deduction.rules.interpreted", "deduction.rules.compiled",
+            "deduction.kernel.scalar", "deduction.kernel.vector", "deduction.cache.4096", "deduction.cache.64",
+            "ytd.period.new", "ytd.period", "ytd.save", "index.build", "index.lookup", "index.range",
+            "stream.plain", "stream.metrics", "stream.gunzip.temp", "stream.gzip", "stream.blocks",
+            "stream.blocks.parallel", "report.printf", "report.rowWriter"})
+    public String Case;
+
+    /** The number of lines of the synthetic payroll file */
+    @Param({"1000", "100000", "10000000"})
+    public int Rows;
+
+    /** The share of invalid lines of the synthetic payroll file */
+    @Param({"0.1"})
+    public double InvalidShare;
+
+    /** The bench harness, loaded by its name */
+    private PayrollHarness Harness;
+
+    /**
+     * Loads the harness and writes the synthetic payroll file
+     * @throws Exception If the harness cannot be loaded or the file cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Harness = (PayrollHarness) Class.forName(PayrollHarness.IMPLEMENTATION).getConstructor().newInstance();
+        if (!Harness.names().contains(Case)) {
+            throw new IllegalArgumentException("Unknown benchmark " + Case + ", the harness has " + Harness.names());
+        }
+        Harness.load(Rows, InvalidShare);
+    }
+
+    /**
+     * Runs the case once over every row
+     * @return A value depending on every result, consumed by JMH
+     * @throws IOException If a file cannot be read
+     */
+    @Benchmark
+    public long run() throws IOException {
+        return Harness.run(Case);
+    }
+
+    /**
+     * Displays the extra information of the case and deletes the synthetic payroll file
+     * @throws IOException If a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        String Note = Harness.takeNote();
+        if (Note != null) {
+            System.out.println("> " + Case + ": " + Note);
+        }
+        Harness.close();
+    }
+}
@@ -0,0 +1,213 @@
+package deductions;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Calculates a column of gross incomes several rows at a time with the Vector API
+ *
+ * Every deduction is a rate applied to the gross income: the rate of a tax bracket is
+ * picked with one masked blend per bracket bound, and the capped contributions replace
+ * the amount by their maximum with a mask. The rate is applied like Money.applyRate(),
+ * (Cents * Rate + 500000) / 1000000, in double lanes since the vector units cannot divide
+ * longs. Below 2^48 the numerator is exact in a double and its product by 10^-6 is off by
+ * less than 10^-7, while the exact quotient is always at least 10^-6 away from the next
+ * whole number; rounding the quotient minus 0.4999995 to the nearest whole number therefore
+ * gives the same cents as the long division. The kernel matches DeductionSet.calculateAll()
+ * to the cent.
+ *
+ * The lanes move between longs and doubles through the bits of 2^52 rather than with a
+ * conversion, which the JIT compiler of Java 17 cannot vectorize: the bits of a whole
+ * number n below 2^52 or-ed into those of 2^52 are the double 2^52 + n, and adding 2^52 to a
+ * double rounds it to a whole number held in the low bits.
+ *
+ * A group of rows holding an income out of that range (negative, or above about 2.8 million
+ * dollars) is calculated by the scalar kernel instead, as well as the last rows that do not
+ * fill a whole vector.
+ *
+ * This class is compiled from the src-vector folder with --add-modules jdk.incubator.vector
+ * and is only loaded by DeductionKernel.create().
+ */
+public class VectorDeductionKernel extends DeductionKernel {
+
+    /** Shape of the vectors, the widest the processor handles */
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /** Number of millionths in a whole */
+    private static final long MILLIONTHS = 1_000_000;
+
+    /** Largest income calculated in the vector lanes, in cents: Cents * 10^6 + 500000 stays below 2^48 */
+    private static final long MAX_VECTOR_CENTS = ((1L << 48) - MILLIONTHS / 2) / MILLIONTHS - 1;
+
+    /** 2^52, whose doubles have a unit step */
+    private static final double TWO_POW_52 = 0x1p52;
+
+    /** The bits of 2^52 */
+    private static final long TWO_POW_52_BITS = Double.doubleToRawLongBits(TWO_POW_52);
+
+    /** Subtracted from a quotient before rounding it, so that rounding truncates it */
+    private static final double HALF_BELOW = 0.5 - 0.5 / MILLIONTHS;
+
+    /** Calculates the groups of rows out of the vector range */
+    private final ScalarDeductionKernel Scalar;
+
+    /** Bracket bounds and rates of the provincial tax */
+    private final long[] ProvincialBounds;
+    private final long[] ProvincialRates;
+
+    /** Bracket bounds and rates of the federal tax */
+    private final long[] FederalBounds;
+    private final long[] FederalRates;
+
+    /** Salary cap, largest amount and rate of the Employment Insurance */
+    private final long InsuranceCap;
+    private final long InsuranceMax;
+    private final long InsuranceRate;
+
+    /** Salary cap, largest amount and rate of the Quebec Parental Insurance Plan */
+    private final long ParentalCap;
+    private final long ParentalMax;
+    private final long ParentalRate;
+
+    /** Salary cap, largest amount and rate of the Quebec Pension Plan */
+    private final long PensionCap;
+    private final long PensionMax;
+    private final long PensionRate;
+
+    /**
+     * Constructs a VectorDeductionKernel for a set of deductions
+     * @param Deductions The deductions to calculate
+     * @throws IllegalArgumentException If a rate is not between 0 and 100 %, which the lanes cannot hold
+     */
+    public VectorDeductionKernel(DeductionSet Deductions) {
+        this.Scalar = new ScalarDeductionKernel(Deductions);
+        this.ProvincialBounds = Deductions.getProvincial().getBrackets().getLowerBounds();
+        this.ProvincialRates = checkRates(Deductions.getProvincial().getBrackets().getRates());
+        this.FederalBounds = Deductions.getFederal().getBrackets().getLowerBounds();
+        this.FederalRates = checkRates(Deductions.getFederal().getBrackets().getRates());
+        EmploymentInsurance Insurance = Deductions.getInsurance();
+        this.InsuranceCap = Insurance.MAX_EI_SALARY;
+        this.InsuranceMax = Insurance.MAX_EI_DEDUCTION;
+        this.InsuranceRate = checkRate(Insurance.EIRate);
+        QCParentalPlan Parental = Deductions.getParentalPlan();
+        this.ParentalCap = Parental.MAX_QPIP_SALARY;
+        this.ParentalMax = Parental.MAX_QPIP_DEDUCTION;
+        this.ParentalRate = checkRate(Parental.QPIPRate);
+        QCPensionPlan Pension = Deductions.getPensionPlan();
+        this.PensionCap = Pension.MAX_QPP_SALARY;
+        this.PensionMax = Pension.MAX_QPP_DEDUCTION;
+        this.PensionRate = checkRate(Pension.QPPRate);
+    }
+
+    @Override
+    public void calculateColumns(long[] GrossCents, int From, int To, long[][] Columns) {
+        int Lanes = LONGS.length();
+        int Row = From;
+        for (; Row + Lanes <= To; Row += Lanes) {
+            LongVector Gross = LongVector.fromArray(LONGS, GrossCents, Row);
+            if (Gross.compare(VectorOperators.LT, 0).or(Gross.compare(VectorOperators.GT, MAX_VECTOR_CENTS)).anyTrue()) {
+                Scalar.calculateColumns(GrossCents, Row, Row + Lanes, Columns);
+                continue;
+            }
+            DoubleVector Amount = toDoubles(Gross);
+
+            LongVector Provincial = applyRate(Amount, bracketRate(Gross, ProvincialBounds, ProvincialRates));
+            LongVector Federal = applyRate(Amount, bracketRate(Gross, FederalBounds, FederalRates));
+            LongVector Insurance = capped(Gross, Amount, InsuranceCap, InsuranceMax, InsuranceRate);
+            LongVector Parental = capped(Gross, Amount, ParentalCap, ParentalMax, ParentalRate);
+            LongVector Pension = capped(Gross, Amount, PensionCap, PensionMax, PensionRate);
+            LongVector Total = Provincial.add(Federal).add(Insurance).add(Parental).add(Pension);
+
+            Provincial.intoArray(Columns[DeductionSet.PROVINCIAL_TAX], Row);
+            Federal.intoArray(Columns[DeductionSet.FEDERAL_TAX], Row);
+            Insurance.intoArray(Columns[DeductionSet.EMPLOYMENT_INSURANCE], Row);
+            Parental.intoArray(Columns[DeductionSet.PARENTAL_PLAN], Row);
+            Pension.intoArray(Columns[DeductionSet.PENSION_PLAN], Row);
+            Total.intoArray(Columns[DeductionSet.TOTAL], Row);
+            Gross.sub(Total).intoArray(Columns[DeductionSet.NET_INCOME], Row);
+        }
+        if (Row < To) {
+            Scalar.calculateColumns(GrossCents, Row, To, Columns);
+        }
+    }
+
+    /**
+     * Picks the rate of the bracket of each income, the last bracket whose bound it is above
+     * @param Gross  The incomes, in cents
+     * @param Bounds The lower bounds of the brackets, in increasing order
+     * @param Rates  The rates of the brackets, in millionths
+     * @return The rate of each income
+     */
+    private static LongVector bracketRate(LongVector Gross, long[] Bounds, long[] Rates) {
+        LongVector Rate = LongVector.broadcast(LONGS, Rates[0]);
+        for (int Bracket = 1; Bracket < Bounds.length; Bracket++) {
+            Rate = Rate.blend(Rates[Bracket], Gross.compare(VectorOperators.GT, Bounds[Bracket]));
+        }
+        return Rate;
+    }
+
+    /**
+     * Calculates a contribution with a salary cap
+     * @param Gross  The incomes, in cents
+     * @param Amount The same incomes as doubles
+     * @param Cap    The salary from which the largest amount is due, in cents
+     * @param Max    The largest amount, in cents
+     * @param Rate   The rate, in millionths
+     * @return The contribution of each income, in cents
+     */
+    private static LongVector capped(LongVector Gross, DoubleVector Amount, long Cap, long Max, long Rate) {
+        return applyRate(Amount, LongVector.broadcast(LONGS, Rate)).blend(Max, Gross.compare(VectorOperators.GE, Cap));
+    }
+
+    /**
+     * Applies a rate to each income, rounding to the nearest cent like Money.applyRate()
+     * @param Amount The incomes in cents as doubles, between 0 and MAX_VECTOR_CENTS
+     * @param Rate   The rates, in millionths, between 0 and 10^6
+     * @return The amounts, in cents
+     */
+    private static LongVector applyRate(DoubleVector Amount, LongVector Rate) {
+        DoubleVector Quotient = Amount.mul(toDoubles(Rate)).add(MILLIONTHS / 2).mul(1.0 / MILLIONTHS);
+        return Quotient.sub(HALF_BELOW).add(TWO_POW_52).reinterpretAsLongs().sub(TWO_POW_52_BITS);
+    }
+
+    /**
+     * Converts whole numbers to doubles through the bits of 2^52
+     * @param Values The numbers, between 0 and 2^52
+     * @return The same numbers as doubles
+     */
+    private static DoubleVector toDoubles(LongVector Values) {
+        return Values.or(TWO_POW_52_BITS).reinterpretAsDoubles().sub(TWO_POW_52);
+    }
+
+    /**
+     * Checks that every rate of a table fits the vector lanes
+     * @param Rates The rates, in millionths
+     * @return The same rates
+     */
+    private static long[] checkRates(long[] Rates) {
+        for (long Rate : Rates) {
+            checkRate(Rate);
+        }
+        return Rates;
+    }
+
+    /**
+     * Checks that a rate fits the vector lanes
+     * @param Rate The rate, in millionths
+     * @return The same rate
+     * @throws IllegalArgumentException If the rate is not between 0 and 100 %
+     */
+    private static long checkRate(long Rate) {
+        if (Rate < 0 || Rate > MILLIONTHS) {
+            throw new IllegalArgumentException("Rate out of the vector range: " + Rate);
+        }
+        return Rate;
+    }
+
+    @Override
+    public String describe() {
+        return "vector " + LONGS.length() + " lanes";
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writer displaying its text on the console from a background thread
+ *
+ * The text is gathered in blocks and queued in a bounded queue. A daemon thread takes the
+ * blocks and writes them to the console, so the payroll never waits on console I/O while
+ * the queue has room. When the queue is full, the BLOCK policy waits for room and the
+ * DROP policy throws the block away and counts its lines.
+ *
+ * Only one thread may write to the sink.
+ */
+public class AsyncConsoleSink extends Writer {
+
+    /**
+     * What to do with a block when the queue is full
+     */
+    public enum Policy {
+        /** Wait until the console thread makes room */
+        BLOCK,
+        /** Throw the block away and count its lines */
+        DROP
+    }
+
+    /** Number of characters gathered before a block is queued */
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    /** Queued after the last block to stop the console thread */
+    private static final String END = new String("end of console output");
+
+    /** The blocks waiting to be displayed */
+    private final BlockingQueue<String> Queue;
+
+    /** What to do with a block when the queue is full */
+    private final Policy FullQueuePolicy;
+
+    /** The stream the blocks are displayed on */
+    private final PrintStream Console;
+
+    /** The thread displaying the blocks */
+    private final Thread ConsoleThread;
+
+    /** The text not queued yet */
+    private final StringBuilder Pending = new StringBuilder(BLOCK_SIZE);
+
+    /** Number of lines thrown away because the queue was full */
+    private long DroppedLines;
+
+    /** True once the sink is closed */
+    private boolean Closed;
+
+    /**
+     * Constructs a sink displaying on System.out
+     * @param capacity The number of blocks the queue can hold
+     * @param policy   What to do with a block when the queue is full
+     */
+    public AsyncConsoleSink(int capacity, Policy policy) {
+        this(System.out, capacity, policy);
+    }
+
+    /**
+     * Constructs a sink displaying on a given stream
+     * @param console  The stream the text is displayed on
+     * @param capacity The number of blocks the queue can hold
+     * @param policy   What to do with a block when the queue is full
+     */
+    public AsyncConsoleSink(PrintStream console, int capacity, Policy policy) {
+        this.Console = console;
+        this.Queue = new ArrayBlockingQueue<>(capacity);
+        this.FullQueuePolicy = policy;
+        this.ConsoleThread = new Thread(this::display, "payroll-console");
+        this.ConsoleThread.setDaemon(true);
+        this.ConsoleThread.start();
+    }
+
+    /**
+     * Takes the queued blocks and displays them until the end marker is found
+     */
+    private void display() {
+        try {
+            while (true) {
+                String Block = Queue.take();
+                if (Block == END) break;
+                Console.print(Block);
+                if (Queue.isEmpty()) Console.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Console.flush();
+    }
+
+    @Override
+    public void write(char[] Buffer, int Offset, int Length) {
+        if (Closed) return;
+        Pending.append(Buffer, Offset, Length);
+        if (Pending.length() >= BLOCK_SIZE) queuePending();
+    }
+
+    @Override
+    public void write(String Text, int Offset, int Length) {
+        if (Closed) return;
+        Pending.append(Text, Offset, Offset + Length);
+        if (Pending.length() >= BLOCK_SIZE) queuePending();
+    }
+
+    /**
+     * Queues the text gathered so far, it is displayed as soon as the console thread gets to it
+     */
+    @Override
+    public void flush() {
+        if (!Closed && Pending.length() > 0) queuePending();
+    }
+
+    /**
+     * Queues the text gathered so far following the full queue policy
+     */
+    private void queuePending() {
+        String Block = Pending.toString();
+        Pending.setLength(0);
+        if (FullQueuePolicy == Policy.DROP) {
+            if (!Queue.offer(Block)) {
+                DroppedLines += Block.chars().filter(Current -> Current == '\n').count();
+            }
+            return;
+        }
+        try {
+            Queue.put(Block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the remaining text and waits until everything queued is displayed
+     */
+    @Override
+    public void close() {
+        if (Closed) return;
+        flush();
+        Closed = true;
+        try {
+            Queue.put(END);
+            ConsoleThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of lines thrown away because the queue was full
+     * @return The number of dropped lines
+     */
+    public long getDroppedLines() {
+        return DroppedLines;
+    }
+}
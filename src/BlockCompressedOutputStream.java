@@ -0,0 +1,296 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a file in compressed blocks that can be decompressed on several threads
+ *
+ * The data is cut in blocks of BLOCK_SIZE bytes and each block is written as a gzip member
+ * of its own, so the file is a valid gzip file that gunzip and GZIPInputStream read as a
+ * whole. The header of every member holds an extra field "PB" with the size of the whole
+ * member: a reader finds the next block without decompressing the current one, and can hand
+ * the blocks to several threads. An empty member ends the file, so a truncated file is found.
+ *
+ * The block layout:
+ * >1F 8B 08 04   gzip magic, deflate, extra field present
+ * >0 0 0 0 0 FF  no time, no flags, unknown system
+ * >08 00         length of the extra field
+ * >'P' 'B' 04 00 the block size field, 4 bytes long
+ * >BSIZE         size of the whole member, 4 bytes, little endian
+ * >...           the raw deflate data
+ * >CRC32 ISIZE   checksum and size of the data of the block, 4 bytes each, little endian
+ *
+ * Usage, to compress a payroll file (text or gzip) into blocks:
+ * >java -cp out BlockCompressedOutputStream data/payroll.txt data/payroll.txt.gz [THREADS]
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    /** Number of bytes of data in a full block, 256 KB */
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    /** Number of bytes of the header of a block */
+    static final int HEADER_SIZE = 20;
+
+    /** Number of bytes of the trailer of a block */
+    static final int TRAILER_SIZE = 8;
+
+    /** First byte of the block size field */
+    static final byte FIELD_ID1 = 'P';
+
+    /** Second byte of the block size field */
+    static final byte FIELD_ID2 = 'B';
+
+    /** Number of blocks waiting to be written for each thread */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /** The stream the blocks are written to */
+    private final OutputStream Out;
+
+    /** Number of threads compressing the blocks, 1 to compress them on the writing thread */
+    private final int Threads;
+
+    /** The pool compressing the blocks, null when they are compressed on the writing thread */
+    private final ForkJoinPool Pool;
+
+    /** The blocks being compressed, in the order of the file */
+    private final ArrayDeque<Future<byte[]>> Pending = new ArrayDeque<>();
+
+    /** The data of the block being filled */
+    private byte[] Block = new byte[BLOCK_SIZE];
+
+    /** Number of bytes in the block being filled */
+    private int BlockLength;
+
+    /** Number of blocks written, the end-of-file block excluded */
+    private long BlockCounter;
+
+    /** True once the stream is closed */
+    private boolean Closed;
+
+    /**
+     * Constructs a stream compressing its blocks on the writing thread
+     * @param out The stream the blocks are written to
+     */
+    public BlockCompressedOutputStream(OutputStream out) {
+        this(out, 1);
+    }
+
+    /**
+     * Constructs a stream compressing its blocks on several threads
+     * @param out     The stream the blocks are written to
+     * @param threads The number of threads compressing the blocks
+     */
+    public BlockCompressedOutputStream(OutputStream out, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.Out = out;
+        this.Threads = threads;
+        this.Pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    @Override
+    public void write(int Value) throws IOException {
+        if (Closed) throw new IOException("Stream closed");
+        if (BlockLength == BLOCK_SIZE) writeBlock();
+        Block[BlockLength++] = (byte) Value;
+    }
+
+    @Override
+    public void write(byte[] Buffer, int Offset, int Length) throws IOException {
+        if (Closed) throw new IOException("Stream closed");
+        while (Length > 0) {
+            if (BlockLength == BLOCK_SIZE) writeBlock();
+            int Copied = Math.min(Length, BLOCK_SIZE - BlockLength);
+            System.arraycopy(Buffer, Offset, Block, BlockLength, Copied);
+            BlockLength += Copied;
+            Offset += Copied;
+            Length -= Copied;
+        }
+    }
+
+    /**
+     * Writes the blocks already compressed to the underlying stream
+     * Like GZIPOutputStream, the block being filled is only written once it is full or the stream is closed.
+     * @throws IOException If the blocks cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        Out.flush();
+    }
+
+    /**
+     * Writes the last block and the end-of-file block, then closes the underlying stream
+     * @throws IOException If the blocks cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (Closed) return;
+        try {
+            if (BlockLength > 0) writeBlock();
+            while (!Pending.isEmpty()) {
+                Out.write(next());
+            }
+            Out.write(compress(Block, 0));
+            Out.flush();
+        } finally {
+            Closed = true;
+            if (Pool != null) Pool.shutdownNow();
+            Out.close();
+        }
+    }
+
+    /**
+     * Gets the number of blocks written so far
+     * @return The number of blocks, the end-of-file block excluded
+     */
+    public long getBlockCounter() {
+        return BlockCounter;
+    }
+
+    /**
+     * Compresses the block being filled, or hands it to the pool, and starts a new one
+     * @throws IOException If a block cannot be written
+     */
+    private void writeBlock() throws IOException {
+        BlockCounter++;
+        if (Pool == null) {
+            Out.write(compress(Block, BlockLength));
+            BlockLength = 0;
+            return;
+        }
+        // Keep every thread busy while the oldest block is being written
+        if (Pending.size() >= Threads * BLOCKS_PER_THREAD) {
+            Out.write(next());
+        }
+        byte[] Full = Block;
+        int Length = BlockLength;
+        Pending.add(Pool.submit(() -> compress(Full, Length)));
+        Block = new byte[BLOCK_SIZE];
+        BlockLength = 0;
+    }
+
+    /**
+     * Waits for the oldest block handed to the pool
+     * @return The compressed block
+     * @throws IOException If the thread is interrupted
+     */
+    private byte[] next() throws IOException {
+        try {
+            return Pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compression interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress a block", e.getCause());
+        }
+    }
+
+    /**
+     * Compresses the data of one block into a gzip member with its block size field
+     * @param Data   The data of the block
+     * @param Length The number of bytes of data
+     * @return The whole member
+     */
+    static byte[] compress(byte[] Data, int Length) {
+        Deflater Compressor = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            Compressor.setInput(Data, 0, Length);
+            Compressor.finish();
+            // Deflate never grows the data by more than a few bytes per 16 KB stored block
+            byte[] Member = new byte[HEADER_SIZE + Length + (Length >> 12) + 64 + TRAILER_SIZE];
+            int Size = HEADER_SIZE;
+            while (!Compressor.finished()) {
+                if (Size == Member.length - TRAILER_SIZE) {
+                    Member = Arrays.copyOf(Member, Member.length * 2);
+                }
+                Size += Compressor.deflate(Member, Size, Member.length - TRAILER_SIZE - Size);
+            }
+            CRC32 Checksum = new CRC32();
+            Checksum.update(Data, 0, Length);
+            Size += TRAILER_SIZE;
+
+            Member[0] = 0x1F;
+            Member[1] = (byte) 0x8B;
+            Member[2] = 8;              // Deflate
+            Member[3] = 4;              // Extra field present
+            Member[9] = (byte) 0xFF;    // Unknown system
+            Member[10] = 8;             // Length of the extra field, 2 bytes
+            Member[12] = FIELD_ID1;
+            Member[13] = FIELD_ID2;
+            Member[14] = 4;
+            Member[15] = 0;
+            putInt(Member, 16, Size);
+            putInt(Member, Size - TRAILER_SIZE, (int) Checksum.getValue());
+            putInt(Member, Size - 4, Length);
+            return Size == Member.length ? Member : Arrays.copyOf(Member, Size);
+        } finally {
+            Compressor.end();
+        }
+    }
+
+    /**
+     * Writes an int in little endian order
+     * @param Buffer The buffer
+     * @param Offset The index of the first byte
+     * @param Value  The value
+     */
+    private static void putInt(byte[] Buffer, int Offset, int Value) {
+        Buffer[Offset] = (byte) Value;
+        Buffer[Offset + 1] = (byte) (Value >>> 8);
+        Buffer[Offset + 2] = (byte) (Value >>> 16);
+        Buffer[Offset + 3] = (byte) (Value >>> 24);
+    }
+
+    /**
+     * Compresses a file into blocks
+     * The file can be text or gzip, a gzip file is decompressed first
+     * @param args The source file, the block compressed file, and optionally the number of threads
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: java -cp out BlockCompressedOutputStream SOURCE TARGET [THREADS]");
+            System.exit(2);
+        }
+        Path Source = Paths.get(args[0]);
+        Path Target = Paths.get(args[1]);
+        int Threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Path Temporary = Target.resolveSibling(Target.getFileName() + ".tmp");
+        long Started = System.nanoTime();
+        try {
+            BlockCompressedOutputStream Out;
+            try (InputStream In = CompressedPayrollReader.detect(Source) != null
+                    ? CompressedPayrollReader.openStream(Source) : new BufferedInputStream(Files.newInputStream(Source));
+                 BlockCompressedOutputStream Blocks = new BlockCompressedOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(Temporary), 1024 * 1024), Threads)) {
+                In.transferTo(Blocks);
+                Out = Blocks;
+            }
+            // Read once the stream is closed, so the last block is counted
+            Files.move(Temporary, Target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("> " + Target + " written: " + Out.getBlockCounter() + " blocks, " + Files.size(Source) + " bytes into "
+                    + Files.size(Target) + " bytes in " + (System.nanoTime() - Started) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.out.println("Error... " + e.getMessage());
+            try {
+                Files.deleteIfExists(Temporary);
+            } catch (IOException Ignored) {
+                // Nothing more can be done
+            }
+            System.exit(1);
+        }
+    }
+}
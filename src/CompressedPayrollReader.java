@@ -0,0 +1,446 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a compressed payroll file and hands its lines to a LineHandler, without any temporary file
+ *
+ * A gzip file is decompressed as one stream, on the reading thread. A file written by
+ * BlockCompressedOutputStream is read one block at a time: the size field of each block gives
+ * the position of the next one, so the blocks can be decompressed on several threads while
+ * their lines are handed to the handler in the order of the file. Each block is checked
+ * against its CRC32, and a block file must end with its end-of-file block.
+ *
+ * Lines end with "\n", "\r\n" or "\r" like in MappedPayrollReader, and a line may cross the
+ * end of a block. The position given with a line is its position in the decompressed data.
+ */
+public class CompressedPayrollReader {
+
+    /**
+     * The compression of a payroll file
+     */
+    public enum Format {
+
+        /** A gzip stream, decompressed on one thread */
+        GZIP,
+
+        /** Gzip blocks with their size field, decompressed on several threads */
+        BLOCKS
+    }
+
+    /** Size of the buffer a gzip stream is decompressed into, 64 KB */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /** Largest size of the data of a block, larger sizes are taken as damage */
+    private static final int MAX_BLOCK_DATA = 64 * 1024 * 1024;
+
+    /** Number of blocks waiting to be handed to the handler for each thread */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /** The compressed payroll file */
+    private final Path File;
+
+    /** The compression of the file */
+    private final Format Compression;
+
+    /** Number of threads decompressing the blocks, 1 to decompress them on the reading thread */
+    private final int Threads;
+
+    /** Number of blocks decompressed, 0 for a gzip stream */
+    private long BlockCounter;
+
+    /** Number of bytes of decompressed data */
+    private long DataSize;
+
+    /**
+     * Opens a compressed payroll file
+     * @param file    The compressed payroll file
+     * @param threads The number of threads decompressing its blocks, only a block file uses more than one
+     * @throws IOException If the file cannot be read or is not compressed
+     */
+    public CompressedPayrollReader(Path file, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        Format Detected = detect(file);
+        if (Detected == null) {
+            if (Files.notExists(file)) throw new NoSuchFileException(file.toString());
+            throw new ZipException(file + " is not a gzip file");
+        }
+        this.File = file;
+        this.Compression = Detected;
+        this.Threads = Detected == Format.BLOCKS ? threads : 1;
+    }
+
+    /**
+     * Finds the compression of a file from its first bytes
+     * @param File The file
+     * @return The compression, or null if the file is not compressed or cannot be read
+     */
+    public static Format detect(Path File) {
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            ByteBuffer Header = ByteBuffer.allocate(BlockCompressedOutputStream.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (Header.hasRemaining()) {
+                if (Channel.read(Header) < 0) break;
+            }
+            if (Header.position() < 10 || Header.get(0) != 0x1F || Header.get(1) != (byte) 0x8B || Header.get(2) != 8) {
+                return null;
+            }
+            return isBlockHeader(Header.array(), Header.position()) ? Format.BLOCKS : Format.GZIP;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens a compressed file as one decompressed stream
+     * A block file is a valid gzip file, so both formats are read this way on one thread.
+     * @param File The compressed file
+     * @return The decompressed stream, to be closed
+     * @throws IOException If the file cannot be opened or does not start with a gzip header
+     */
+    public static InputStream openStream(Path File) throws IOException {
+        InputStream In = new BufferedInputStream(Files.newInputStream(File), STREAM_BUFFER_SIZE);
+        try {
+            return new GZIPInputStream(In, STREAM_BUFFER_SIZE);
+        } catch (IOException e) {
+            In.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the compression of the file
+     * @return GZIP or BLOCKS
+     */
+    public Format getFormat() {
+        return Compression;
+    }
+
+    /**
+     * Gets the number of threads decompressing the file
+     * @return 1 for a gzip stream
+     */
+    public int getThreads() {
+        return Threads;
+    }
+
+    /**
+     * Describes the last read, for the summary of the run
+     * @return The format, the number of blocks and threads, and the sizes
+     * @throws IOException If the size of the file cannot be read
+     */
+    public String summary() throws IOException {
+        String Read = Compression == Format.BLOCKS
+                ? "blocks, " + BlockCounter + " blocks on " + Threads + (Threads == 1 ? " thread" : " threads")
+                : "gzip, one stream";
+        return Read + ", " + Files.size(File) + " bytes into " + DataSize;
+    }
+
+    /**
+     * Decompresses the whole file and hands every line to the handler, in order
+     * @param Handler The handler receiving the lines
+     * @throws IOException If the file cannot be read, is damaged or truncated
+     */
+    public void forEachLine(MappedPayrollReader.LineHandler Handler) throws IOException {
+        LineSplitter Lines = new LineSplitter(Handler);
+        BlockCounter = 0;
+        if (Compression == Format.GZIP) {
+            readStream(Lines);
+        } else {
+            readBlocks(Lines);
+        }
+        Lines.finish();
+        DataSize = Lines.Position;
+    }
+
+    /**
+     * Decompresses a gzip stream on this thread
+     * @param Lines Receives the decompressed data
+     * @throws IOException If the file cannot be read, is damaged or truncated
+     */
+    private void readStream(LineSplitter Lines) throws IOException {
+        byte[] Buffer = new byte[STREAM_BUFFER_SIZE];
+        try (InputStream In = openStream(File)) {
+            int Read;
+            while ((Read = In.readNBytes(Buffer, 0, Buffer.length)) > 0) {
+                Lines.add(Buffer, Read);
+            }
+        } catch (EOFException e) {
+            throw new ZipException(File + " is truncated");
+        }
+    }
+
+    /**
+     * Reads the blocks in order, decompressing them on the pool when there is more than one thread
+     * @param Lines Receives the decompressed data
+     * @throws IOException If the file cannot be read, is damaged or truncated
+     */
+    private void readBlocks(LineSplitter Lines) throws IOException {
+        ForkJoinPool Pool = Threads > 1 ? new ForkJoinPool(Threads) : null;
+        ArrayDeque<Future<byte[]>> Pending = new ArrayDeque<>();
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            long FileSize = Channel.size();
+            long Position = 0;
+            boolean Ended = false;
+            while (!Ended || !Pending.isEmpty()) {
+                // Keep every thread busy while the oldest block is being split into lines
+                while (!Ended && Pending.size() < Threads * BLOCKS_PER_THREAD) {
+                    byte[] Member = readBlock(Channel, Position, FileSize);
+                    long BlockPosition = Position;
+                    Position += Member.length;
+                    if (getInt(Member, Member.length - 4) == 0) {
+                        // The end-of-file block
+                        if (Position != FileSize) {
+                            throw new ZipException(File + " has data after its end-of-file block");
+                        }
+                        Ended = true;
+                    } else if (Pool == null) {
+                        BlockCounter++;
+                        byte[] Data = inflate(Member, BlockPosition);
+                        Lines.add(Data, Data.length);
+                    } else {
+                        BlockCounter++;
+                        Pending.add(Pool.submit(() -> inflate(Member, BlockPosition)));
+                    }
+                }
+                if (!Pending.isEmpty()) {
+                    byte[] Data = Pending.remove().get();
+                    Lines.add(Data, Data.length);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Decompression interrupted", e);
+        } catch (ExecutionException e) {
+            // The pool wraps the checked exceptions of its tasks
+            for (Throwable Cause = e.getCause(); Cause != null; Cause = Cause.getCause()) {
+                if (Cause instanceof IOException) throw (IOException) Cause;
+            }
+            throw new IOException("Could not decompress " + File, e.getCause());
+        } finally {
+            if (Pool != null) Pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads one whole block from the file
+     * @param Channel  The channel of the file
+     * @param Position The position of the block
+     * @param FileSize The size of the file
+     * @return The bytes of the block, header and trailer included
+     * @throws IOException If the block cannot be read, or its header is not a block header
+     */
+    private byte[] readBlock(FileChannel Channel, long Position, long FileSize) throws IOException {
+        if (Position >= FileSize) {
+            throw new ZipException(File + " is truncated, its end-of-file block is missing");
+        }
+        byte[] Header = new byte[BlockCompressedOutputStream.HEADER_SIZE];
+        readFully(Channel, ByteBuffer.wrap(Header), Position);
+        int Size = getInt(Header, 16);
+        if (!isBlockHeader(Header, Header.length)
+                || Size < BlockCompressedOutputStream.HEADER_SIZE + BlockCompressedOutputStream.TRAILER_SIZE) {
+            throw new ZipException(File + " has a damaged block header at position " + Position);
+        }
+        if (Position + Size > FileSize) {
+            throw new ZipException(File + " is truncated in the block at position " + Position);
+        }
+        byte[] Member = new byte[Size];
+        System.arraycopy(Header, 0, Member, 0, Header.length);
+        readFully(Channel, ByteBuffer.wrap(Member, Header.length, Size - Header.length), Position + Header.length);
+        return Member;
+    }
+
+    /**
+     * Decompresses one block and checks its data against its trailer
+     * @param Member   The bytes of the block
+     * @param Position The position of the block in the file, for the messages
+     * @return The data of the block
+     * @throws ZipException If the block is damaged
+     */
+    private byte[] inflate(byte[] Member, long Position) throws ZipException {
+        int Checksum = getInt(Member, Member.length - 8);
+        int Length = getInt(Member, Member.length - 4);
+        if (Length < 0 || Length > MAX_BLOCK_DATA) {
+            throw new ZipException(File + " has a damaged block at position " + Position);
+        }
+        byte[] Data = new byte[Length];
+        Inflater Decompressor = new Inflater(true);
+        try {
+            Decompressor.setInput(Member, BlockCompressedOutputStream.HEADER_SIZE,
+                    Member.length - BlockCompressedOutputStream.HEADER_SIZE - BlockCompressedOutputStream.TRAILER_SIZE);
+            int Inflated = 0;
+            while (Inflated < Length && !Decompressor.finished()) {
+                int Count = Decompressor.inflate(Data, Inflated, Length - Inflated);
+                if (Count == 0 && (Decompressor.needsInput() || Decompressor.needsDictionary())) break;
+                Inflated += Count;
+            }
+            if (Inflated != Length) {
+                throw new ZipException(File + " has a damaged block at position " + Position);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(File + " has a damaged block at position " + Position + ": " + e.getMessage());
+        } finally {
+            Decompressor.end();
+        }
+        CRC32 Expected = new CRC32();
+        Expected.update(Data, 0, Length);
+        if ((int) Expected.getValue() != Checksum) {
+            throw new ZipException(File + " fails the checksum of the block at position " + Position);
+        }
+        return Data;
+    }
+
+    /**
+     * Checks if a gzip header holds the block size field first in its extra field
+     * @param Header The first bytes of the member
+     * @param Length The number of bytes read
+     * @return true for a block written by BlockCompressedOutputStream
+     */
+    private static boolean isBlockHeader(byte[] Header, int Length) {
+        return Length >= BlockCompressedOutputStream.HEADER_SIZE
+                && Header[0] == 0x1F && Header[1] == (byte) 0x8B && Header[2] == 8 && (Header[3] & 4) != 0
+                && Header[10] == 8 && Header[11] == 0
+                && Header[12] == BlockCompressedOutputStream.FIELD_ID1 && Header[13] == BlockCompressedOutputStream.FIELD_ID2
+                && Header[14] == 4 && Header[15] == 0;
+    }
+
+    /**
+     * Reads bytes from a position until the buffer is full
+     * @param Channel  The channel of the file
+     * @param Buffer   The buffer to fill
+     * @param Position The position of the first byte
+     * @throws IOException If the file ends before the buffer is full
+     */
+    private void readFully(FileChannel Channel, ByteBuffer Buffer, long Position) throws IOException {
+        while (Buffer.hasRemaining()) {
+            int Read = Channel.read(Buffer, Position);
+            if (Read < 0) throw new ZipException(File + " is truncated");
+            Position += Read;
+        }
+    }
+
+    /**
+     * Reads an int in little endian order
+     * @param Buffer The buffer
+     * @param Offset The index of the first byte
+     * @return The value
+     */
+    private static int getInt(byte[] Buffer, int Offset) {
+        return (Buffer[Offset] & 0xFF) | (Buffer[Offset + 1] & 0xFF) << 8
+                | (Buffer[Offset + 2] & 0xFF) << 16 | (Buffer[Offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Cuts the decompressed data into lines, a line may cross the end of a block
+     */
+    private static class LineSplitter {
+
+        /** The handler receiving the lines */
+        private final MappedPayrollReader.LineHandler Handler;
+
+        /** The start of the line crossing the end of the last data, copied out of it */
+        private byte[] Partial = new byte[128];
+
+        /** Number of bytes in Partial */
+        private int PartialLength;
+
+        /** True when the last data ended with a "\r", which may be the first half of a "\r\n" */
+        private boolean AfterReturn;
+
+        /** Position in the decompressed data of the next byte added */
+        private long Position;
+
+        /**
+         * Constructs a splitter handing its lines to a handler
+         * @param handler The handler receiving the lines
+         */
+        private LineSplitter(MappedPayrollReader.LineHandler handler) {
+            this.Handler = handler;
+        }
+
+        /**
+         * Hands every complete line of the data to the handler and keeps the rest
+         * @param Data   The decompressed data, which may be reused once this method returns
+         * @param Length The number of bytes of data
+         */
+        private void add(byte[] Data, int Length) {
+            int Index = 0;
+            if (AfterReturn && Length > 0) {
+                AfterReturn = false;
+                if (Data[0] == '\n') Index++;
+            }
+            int LineStart = Index;
+            while (Index < Length) {
+                byte Current = Data[Index];
+                if (Current != '\n' && Current != '\r') {
+                    Index++;
+                    continue;
+                }
+                long LinePosition = Position + LineStart - PartialLength;
+                if (PartialLength > 0) {
+                    append(Data, LineStart, Index - LineStart);
+                    Handler.handleLine(Partial, 0, PartialLength, LinePosition);
+                    PartialLength = 0;
+                } else {
+                    Handler.handleLine(Data, LineStart, Index - LineStart, LinePosition);
+                }
+                Index++;
+                if (Current == '\r') {
+                    if (Index == Length) {
+                        AfterReturn = true;
+                    } else if (Data[Index] == '\n') {
+                        Index++;
+                    }
+                }
+                LineStart = Index;
+            }
+            append(Data, LineStart, Length - LineStart);
+            Position += Length;
+        }
+
+        /**
+         * Hands the last line to the handler when it does not end with a line terminator
+         */
+        private void finish() {
+            if (PartialLength > 0) {
+                Handler.handleLine(Partial, 0, PartialLength, Position - PartialLength);
+                PartialLength = 0;
+            }
+        }
+
+        /**
+         * Copies the start of a line out of the data
+         * @param Data   The data
+         * @param Offset The index of the first byte to copy
+         * @param Length The number of bytes to copy
+         */
+        private void append(byte[] Data, int Offset, int Length) {
+            if (Length == 0) return;
+            if (PartialLength + Length > Partial.length) {
+                byte[] Larger = new byte[Math.max(PartialLength + Length, Partial.length * 2)];
+                System.arraycopy(Partial, 0, Larger, 0, PartialLength);
+                Partial = Larger;
+            }
+            System.arraycopy(Data, Offset, Partial, PartialLength, Length);
+            PartialLength += Length;
+        }
+    }
+}
@@ -1,7 +1,11 @@
+import deductions.Money;
+
 /**
  * Represents an Employee with attributes such as
  * ID, first name, last name, hours worked, hourly rate, and gross income
  *
+ * The gross income is held as a whole number of cents, see deductions.Money
+ *
  * The class provides constructors, getter and setter methods, and overrides
  * the equals and toString methods
  *
@@ -24,8 +28,8 @@ public class Employee {
     /** The hourly rate of pay for the employee. */
     private double HourRate;
 
-    /** The calculated gross income of the employee. */
-    private double GrossIncome;
+    /** The calculated gross income of the employee, in cents. */
+    private long GrossCents;
 
     /**
      * Default constructor for Employee
@@ -42,6 +46,7 @@ public class Employee {
      * @param lastName    The last name of the employee
      * @param hoursWorked The number of hours worked per week
      * @param hourRate    The hourly pay rate
+     * @throws ArithmeticException If the gross income is not a number or is too large
      */
     public Employee(long ID, String firstName, String lastName, double hoursWorked, double hourRate) {
         this.ID = ID;
@@ -49,7 +54,39 @@ public class Employee {
         this.LastName = lastName;
         this.HoursWorked = hoursWorked;
         this.HourRate = hourRate;
-        this.GrossIncome = Math.round((52.00 * HourRate * HoursWorked) * 100.00) / 100.00;
+        this.GrossCents = calculateGrossCents(hoursWorked, hourRate);
+    }
+
+    /**
+     * Calculates the gross income for 52 weeks in a year, rounded to 2 decimal places
+     * @param hoursWorked The number of hours worked per week
+     * @param hourRate    The hourly pay rate
+     * @return The yearly gross income
+     * @throws ArithmeticException If the gross income is not a number or is too large
+     */
+    public static double calculateGrossIncome(double hoursWorked, double hourRate) {
+        return Money.toDollars(calculateGrossCents(hoursWorked, hourRate));
+    }
+
+    /**
+     * Calculates the gross income for 52 weeks in a year, in cents
+     * @param hoursWorked The number of hours worked per week
+     * @param hourRate    The hourly pay rate
+     * @return The yearly gross income, in cents
+     * @throws ArithmeticException If the gross income is not a number or is too large
+     */
+    public static long calculateGrossCents(double hoursWorked, double hourRate) {
+        return Money.fromDollars(52.00 * hourRate * hoursWorked);
+    }
+
+    /**
+     * Checks if the gross income of an employee can be held in cents
+     * @param hoursWorked The number of hours worked per week
+     * @param hourRate    The hourly pay rate
+     * @return true if calculateGrossCents accepts the values
+     */
+    public static boolean isGrossInRange(double hoursWorked, double hourRate) {
+        return Money.fits(52.00 * hourRate * hoursWorked);
     }
 
     /**
@@ -97,7 +134,15 @@ public class Employee {
      * @return The calculated gross income
      */
     public double getGrossIncome() {
-        return GrossIncome;
+        return Money.toDollars(GrossCents);
+    }
+
+    /**
+     * Gets the gross income of the employee in cents
+     * @return The calculated gross income, in cents
+     */
+    public long getGrossCents() {
+        return GrossCents;
     }
 
     /**
@@ -142,10 +187,11 @@ public class Employee {
 
     /**
      * Sets the gross income of the employee
-     * @param grossIncome The new gross income value
+     * @param grossIncome The new gross income value, rounded to the cent
+     * @throws ArithmeticException If the gross income is not a number or is too large
      */
     public void setGrossIncome(double grossIncome) {
-        this.GrossIncome = grossIncome;
+        this.GrossCents = Money.fromDollars(grossIncome);
     }
 
     /**
@@ -174,6 +220,6 @@ public class Employee {
                 "\nLast Name: " + LastName +
                 "\nHours Worked: " + HoursWorked +
                 "\nHour Rate: " + HourRate +
-                "\nGross Income: " + GrossIncome;
+                "\nGross Income: " + getGrossIncome();
     }
 }
@@ -0,0 +1,487 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Columnar store of employees, one primitive array per field
+ *
+ * An employee is a row index into the columns instead of an object. The ID, hours worked,
+ * hourly rate and gross income in cents are held in primitive arrays. The names are interned:
+ * each distinct name is stored once as UTF-8 bytes in a shared arena, and the rows only hold
+ * the number of their first and last names. A row cannot be changed once added, so the gross
+ * income always matches the hours and the rate it was calculated from.
+ *
+ * The rows are read through a Cursor, which walks the columns in order without creating
+ * any object, or as Employee objects for code that still needs them.
+ */
+public class EmployeeTable {
+
+    /** Capacity of a table built with the default constructor */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Number of rows */
+    private int Size;
+
+    /** The employee IDs */
+    private long[] IDs;
+
+    /** The number of hours worked per week */
+    private double[] HoursWorked;
+
+    /** The hourly rates */
+    private double[] HourRates;
+
+    /** The yearly gross incomes, in cents */
+    private long[] GrossCents;
+
+    /** The number of the first name of each row */
+    private int[] FirstNames;
+
+    /** The number of the last name of each row */
+    private int[] LastNames;
+
+    /** The UTF-8 bytes of every distinct name, one after the other */
+    private byte[] NameArena = new byte[256];
+
+    /** Number of bytes used in the name arena */
+    private int ArenaSize;
+
+    /** Start of each distinct name in the arena, with the end of the last name after it */
+    private int[] NameStarts = new int[DEFAULT_CAPACITY + 1];
+
+    /** Number of distinct names */
+    private int NameCount;
+
+    /** Open addressing hash table of the name numbers plus one, 0 for an empty slot */
+    private int[] NameSlots = new int[2 * DEFAULT_CAPACITY];
+
+    /** Names already decoded to Strings, by name number */
+    private String[] NameStrings = new String[DEFAULT_CAPACITY];
+
+    /** Holds the bytes of the name being interned */
+    private byte[] Scratch = new byte[64];
+
+    /**
+     * Default constructor for EmployeeTable
+     * Builds an empty table that grows as rows are added
+     */
+    public EmployeeTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty EmployeeTable with room for a number of rows
+     * @param capacity The number of rows the table can hold before growing
+     */
+    public EmployeeTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.IDs = new long[capacity];
+        this.HoursWorked = new double[capacity];
+        this.HourRates = new double[capacity];
+        this.GrossCents = new long[capacity];
+        this.FirstNames = new int[capacity];
+        this.LastNames = new int[capacity];
+    }
+
+    /**
+     * Adds a row
+     * @param ID          The employee ID
+     * @param firstName   The first name of the employee
+     * @param lastName    The last name of the employee
+     * @param hoursWorked The number of hours worked per week
+     * @param hourRate    The hourly pay rate
+     * @param grossCents  The yearly gross income in cents, see Employee.calculateGrossCents
+     * @return The index of the new row
+     */
+    public int add(long ID, String firstName, String lastName, double hoursWorked, double hourRate, long grossCents) {
+        if (Size == IDs.length) {
+            int Capacity = IDs.length * 2;
+            IDs = Arrays.copyOf(IDs, Capacity);
+            HoursWorked = Arrays.copyOf(HoursWorked, Capacity);
+            HourRates = Arrays.copyOf(HourRates, Capacity);
+            GrossCents = Arrays.copyOf(GrossCents, Capacity);
+            FirstNames = Arrays.copyOf(FirstNames, Capacity);
+            LastNames = Arrays.copyOf(LastNames, Capacity);
+        }
+        IDs[Size] = ID;
+        HoursWorked[Size] = hoursWorked;
+        HourRates[Size] = hourRate;
+        GrossCents[Size] = grossCents;
+        FirstNames[Size] = intern(firstName);
+        LastNames[Size] = intern(lastName);
+        return Size++;
+    }
+
+    /**
+     * Adds the line last read by a parser as a row
+     * @param Parser The parser holding a valid line
+     * @return The index of the new row
+     */
+    public int add(PayrollRecordParser Parser) {
+        return add(Parser.getID(), Parser.getFirstName(), Parser.getLastName(),
+                Parser.getHoursWorked(), Parser.getHourRate(), Parser.getGrossCents());
+    }
+
+    /**
+     * Gets the number of rows
+     * @return The number of rows
+     */
+    public int size() {
+        return Size;
+    }
+
+    /**
+     * Gets the number of distinct names stored in the arena
+     * @return The number of distinct first and last names
+     */
+    public int getNameCount() {
+        return NameCount;
+    }
+
+    /**
+     * Gets the employee ID of a row
+     * @param Row The index of the row
+     * @return The employee ID
+     */
+    public long getID(int Row) {
+        checkRow(Row);
+        return IDs[Row];
+    }
+
+    /**
+     * Gets the first name of a row
+     * @param Row The index of the row
+     * @return The first name
+     */
+    public String getFirstName(int Row) {
+        checkRow(Row);
+        return nameString(FirstNames[Row]);
+    }
+
+    /**
+     * Gets the last name of a row
+     * @param Row The index of the row
+     * @return The last name
+     */
+    public String getLastName(int Row) {
+        checkRow(Row);
+        return nameString(LastNames[Row]);
+    }
+
+    /**
+     * Gets the number of hours worked per week of a row
+     * @param Row The index of the row
+     * @return The number of hours worked per week
+     */
+    public double getHoursWorked(int Row) {
+        checkRow(Row);
+        return HoursWorked[Row];
+    }
+
+    /**
+     * Gets the hourly rate of a row
+     * @param Row The index of the row
+     * @return The hourly rate
+     */
+    public double getHourRate(int Row) {
+        checkRow(Row);
+        return HourRates[Row];
+    }
+
+    /**
+     * Gets the gross income of a row
+     * @param Row The index of the row
+     * @return The yearly gross income, in cents
+     */
+    public long getGrossCents(int Row) {
+        checkRow(Row);
+        return GrossCents[Row];
+    }
+
+    /**
+     * Gets the number of the first name of a row, see getNameStart
+     * @param Row The index of the row
+     * @return The number of the name in the arena
+     */
+    int getFirstNameNumber(int Row) {
+        checkRow(Row);
+        return FirstNames[Row];
+    }
+
+    /**
+     * Gets the number of the last name of a row, see getNameStart
+     * @param Row The index of the row
+     * @return The number of the name in the arena
+     */
+    int getLastNameNumber(int Row) {
+        checkRow(Row);
+        return LastNames[Row];
+    }
+
+    /**
+     * Gets the start of a name in the name arena
+     * The end of a name is the start of the following one, so the end of the last
+     * name is found with getNameStart(getNameCount())
+     * @param Name The number of the name, up to getNameCount()
+     * @return The index of the first byte of the name in the arena
+     */
+    int getNameStart(int Name) {
+        if (Name < 0 || Name > NameCount) {
+            throw new IndexOutOfBoundsException("Name " + Name + " out of " + NameCount);
+        }
+        return NameStarts[Name];
+    }
+
+    /**
+     * Gets the gross income column, to calculate the deductions of every row at once
+     * The array is shared with the table and must not be changed
+     * @return The gross incomes in cents, only the first size() values are used
+     */
+    long[] getGrossColumn() {
+        return GrossCents;
+    }
+
+    /**
+     * Gets the UTF-8 bytes of every distinct name
+     * The array is shared with the table and must not be changed
+     * @return The name arena, only its first getNameStart(getNameCount()) bytes are used
+     */
+    byte[] getNameArena() {
+        return NameArena;
+    }
+
+    /**
+     * Builds an Employee holding the values of a row
+     * The Employee is a copy, changing it does not change the table
+     * @param Row The index of the row
+     * @return A new Employee
+     */
+    public Employee toEmployee(int Row) {
+        checkRow(Row);
+        return new Employee(IDs[Row], nameString(FirstNames[Row]), nameString(LastNames[Row]),
+                HoursWorked[Row], HourRates[Row]);
+    }
+
+    /**
+     * Creates a cursor placed before the first row
+     * @return A new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the rows of the table in order
+     *
+     * The cursor starts before the first row, next() moves it to the following row.
+     * Rows added while walking are visited too.
+     */
+    public class Cursor {
+
+        /** The index of the current row */
+        private int Row = -1;
+
+        /**
+         * Default constructor for Cursor
+         * Use EmployeeTable.cursor()
+         */
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next row
+         * @return true if there is a next row, false when every row has been visited
+         */
+        public boolean next() {
+            if (Row + 1 >= Size) return false;
+            Row++;
+            return true;
+        }
+
+        /**
+         * Gets the index of the current row
+         * @return The index of the row
+         */
+        public int getRow() {
+            return Row;
+        }
+
+        /**
+         * Gets the employee ID of the current row
+         * @return The employee ID
+         */
+        public long getID() {
+            return IDs[Row];
+        }
+
+        /**
+         * Gets the first name of the current row
+         * @return The first name
+         */
+        public String getFirstName() {
+            return nameString(FirstNames[Row]);
+        }
+
+        /**
+         * Gets the last name of the current row
+         * @return The last name
+         */
+        public String getLastName() {
+            return nameString(LastNames[Row]);
+        }
+
+        /**
+         * Gets the number of hours worked per week of the current row
+         * @return The number of hours worked per week
+         */
+        public double getHoursWorked() {
+            return HoursWorked[Row];
+        }
+
+        /**
+         * Gets the hourly rate of the current row
+         * @return The hourly rate
+         */
+        public double getHourRate() {
+            return HourRates[Row];
+        }
+
+        /**
+         * Gets the gross income of the current row
+         * @return The yearly gross income, in cents
+         */
+        public long getGrossCents() {
+            return GrossCents[Row];
+        }
+
+        /**
+         * Builds an Employee holding the values of the current row
+         * @return A new Employee
+         */
+        public Employee toEmployee() {
+            return EmployeeTable.this.toEmployee(Row);
+        }
+    }
+
+    /**
+     * Checks that a row exists
+     * @param Row The index of the row
+     * @throws IndexOutOfBoundsException If there is no such row
+     */
+    private void checkRow(int Row) {
+        if (Row < 0 || Row >= Size) {
+            throw new IndexOutOfBoundsException("Row " + Row + " out of " + Size);
+        }
+    }
+
+    /**
+     * Gets the String of a name, decoding it from the arena the first time
+     * @param Name The number of the name
+     * @return The name
+     */
+    private String nameString(int Name) {
+        String Text = NameStrings[Name];
+        if (Text == null) {
+            Text = new String(NameArena, NameStarts[Name], NameStarts[Name + 1] - NameStarts[Name], StandardCharsets.UTF_8);
+            NameStrings[Name] = Text;
+        }
+        return Text;
+    }
+
+    /**
+     * Finds the number of a name, adding it to the arena if it is new
+     * @param Name The name
+     * @return The number of the name
+     */
+    private int intern(String Name) {
+        int Length = encode(Name);
+        int Hash = 0;
+        for (int Index = 0; Index < Length; Index++) {
+            Hash = 31 * Hash + Scratch[Index];
+        }
+
+        int Mask = NameSlots.length - 1;
+        int Slot = mix(Hash) & Mask;
+        while (NameSlots[Slot] != 0) {
+            int Existing = NameSlots[Slot] - 1;
+            int Start = NameStarts[Existing];
+            if (Arrays.equals(NameArena, Start, NameStarts[Existing + 1], Scratch, 0, Length)) {
+                return Existing;
+            }
+            Slot = (Slot + 1) & Mask;
+        }
+
+        // New name, append its bytes to the arena
+        if (ArenaSize + Length > NameArena.length) {
+            NameArena = Arrays.copyOf(NameArena, Math.max(NameArena.length * 2, ArenaSize + Length));
+        }
+        System.arraycopy(Scratch, 0, NameArena, ArenaSize, Length);
+        ArenaSize += Length;
+        if (NameCount + 2 > NameStarts.length) {
+            NameStarts = Arrays.copyOf(NameStarts, NameStarts.length * 2);
+            NameStrings = Arrays.copyOf(NameStrings, NameStarts.length);
+        }
+        int Number = NameCount++;
+        NameStarts[NameCount] = ArenaSize;
+        NameSlots[Slot] = Number + 1;
+
+        // Keep the hash table at most half full
+        if (NameCount * 2 > NameSlots.length) {
+            rehash();
+        }
+        return Number;
+    }
+
+    /**
+     * Encodes a name to UTF-8 into the scratch buffer
+     * @param Name The name
+     * @return The number of bytes
+     */
+    private int encode(String Name) {
+        int Length = Name.length();
+        if (Scratch.length < Length) {
+            Scratch = new byte[Math.max(Length, Scratch.length * 2)];
+        }
+        for (int Index = 0; Index < Length; Index++) {
+            char Current = Name.charAt(Index);
+            if (Current >= 0x80) {
+                // Not ASCII, let the charset handle it
+                byte[] Bytes = Name.getBytes(StandardCharsets.UTF_8);
+                if (Scratch.length < Bytes.length) Scratch = new byte[Bytes.length];
+                System.arraycopy(Bytes, 0, Scratch, 0, Bytes.length);
+                return Bytes.length;
+            }
+            Scratch[Index] = (byte) Current;
+        }
+        return Length;
+    }
+
+    /**
+     * Doubles the hash table of the names
+     */
+    private void rehash() {
+        int[] Slots = new int[NameSlots.length * 2];
+        int Mask = Slots.length - 1;
+        for (int Name = 0; Name < NameCount; Name++) {
+            int Hash = 0;
+            for (int Index = NameStarts[Name]; Index < NameStarts[Name + 1]; Index++) {
+                Hash = 31 * Hash + NameArena[Index];
+            }
+            int Slot = mix(Hash) & Mask;
+            while (Slots[Slot] != 0) {
+                Slot = (Slot + 1) & Mask;
+            }
+            Slots[Slot] = Name + 1;
+        }
+        NameSlots = Slots;
+    }
+
+    /**
+     * Spreads the bits of a hash so that close hashes land in distant slots
+     * @param Hash The hash
+     * @return The mixed hash
+     */
+    private static int mix(int Hash) {
+        Hash *= 0x9E3779B9;
+        return Hash ^ (Hash >>> 16);
+    }
+}
@@ -0,0 +1,627 @@
+import deductions.DeductionSet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Re-runs the payroll recomputing only the lines that changed since the last run
+ *
+ * An index file keeps, for each line of the last run that starts with a plain numeric ID,
+ * the ID, a hash of the line and the gross income and total deductions calculated from it,
+ * or a mark and the reject reason when the line was invalid. A line whose ID and hash are found in the index is
+ * not validated or calculated again: only its names are cut out of the line to render the
+ * row. The other lines go through the usual validation and calculation. The report and
+ * error files are always rebuilt whole, in the order of the payroll file, and the index
+ * is replaced by the entries of the current run, so removed employees leave it.
+ *
+ * An entry takes 32 bytes in the file. The entries are kept in primitive arrays and found
+ * through an open addressing table keyed by ID, each ID leading to the chain of its lines.
+ *
+ * The index is ignored when the tax tables, the minimum wage, the locale or the charset
+ * differ from the ones it was built with. Lines without a plain numeric ID are always
+ * recomputed.
+ */
+public class IncrementalPayroll {
+
+    /** The index file, next to the report */
+    static final String INDEX_FILE = "data/payrollIndex.bin";
+
+    /** First bytes of an index file, "PRIX" */
+    private static final int MAGIC = 0x50524958;
+
+    /** Version of the index layout and of the calculation, older indexes are ignored */
+    private static final int VERSION = 2;
+
+    /** Size of an entry in the index file */
+    private static final int ENTRY_BYTES = 32;
+
+    /** Total deductions stored for an invalid line, its gross income holds the ordinal of the reject reason */
+    private static final long INVALID = Long.MIN_VALUE;
+
+    /** Longest ID read without the parser, longer ones are not indexed */
+    private static final int MAX_ID_DIGITS = 18;
+
+    /** Size of the buffer used to read and write the index */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /** Writer for the report file */
+    private final PrintWriter ReportWriter;
+
+    /** Writer for the error log */
+    private final PrintWriter ErrorWriter;
+
+    /** The deductions of every employee */
+    private final DeductionSet Deductions;
+
+    /** Describes everything the calculated amounts depend on */
+    private final String Settings;
+
+    /** Reads the fields of the changed lines */
+    private final PayrollRecordParser LineParser = new PayrollRecordParser();
+
+    /** Buffer receiving the deductions of one employee */
+    private final long[] DeductionResult = DeductionSet.newResult();
+
+    /** Renders the rows of the report */
+    private final ReportRowWriter Rows;
+
+    /** Entries of the last run: IDs, line hashes, gross incomes and total deductions */
+    private long[] PreviousIDs = new long[0];
+    private long[] PreviousHashes = new long[0];
+    private long[] PreviousGross = new long[0];
+    private long[] PreviousTotals = new long[0];
+
+    /** Next entry with the same ID, -1 at the end of the chain */
+    private int[] PreviousNext = new int[0];
+
+    /** True for the first entry of an ID whose ID is still in the payroll */
+    private boolean[] PreviousPresent = new boolean[0];
+
+    /** Open addressing table of the first entry of each ID plus one, 0 for an empty slot */
+    private int[] Slots = new int[1];
+
+    /** Entries of the current run, in the order of the payroll file */
+    private long[] CurrentIDs = new long[1024];
+    private long[] CurrentHashes = new long[1024];
+    private long[] CurrentGross = new long[1024];
+    private long[] CurrentTotals = new long[1024];
+
+    /** Number of entries of the current run */
+    private int CurrentCount;
+
+    /** True when the entries of the last run could be used */
+    private boolean IndexUsed;
+
+    /** True when the error log gets a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /** Number of valid lines */
+    private int LineCounter;
+
+    /** Number of invalid lines */
+    private int ErrorLineCounter;
+
+    /** Number of lines found unchanged in the index */
+    private int ReusedCounter;
+
+    /** Number of lines validated and calculated */
+    private int RecomputedCounter;
+
+    /**
+     * Constructs an IncrementalPayroll
+     * @param reportWriter The writer for the report file
+     * @param errorWriter  The writer for the error log
+     * @param deductions   The deductions of every employee
+     */
+    public IncrementalPayroll(PrintWriter reportWriter, PrintWriter errorWriter, DeductionSet deductions) {
+        this.ReportWriter = reportWriter;
+        this.ErrorWriter = errorWriter;
+        this.Deductions = deductions;
+        this.Rows = new ReportRowWriter(reportWriter, "\n\n");
+        this.Settings = deductions.describe() + " " + PayrollManager.MINIMUM_WAGE + " "
+                + Locale.getDefault() + " " + Charset.defaultCharset();
+    }
+
+    /**
+     * Adds a column with the reject reason of each line to the error log
+     * @param errorReasons true to add the reason column
+     */
+    public void setErrorReasons(boolean errorReasons) {
+        this.ErrorReasons = errorReasons;
+    }
+
+    /**
+     * Loads the index of the last run
+     * A missing, damaged or out of date index is ignored and every line is recomputed.
+     * @param File The index file
+     * @return true if the index can be used
+     */
+    public boolean loadIndex(Path File) {
+        IndexUsed = false;
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            ByteBuffer Buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            Buffer.limit(0);
+            fill(Channel, Buffer, 12);
+            byte[] Expected = Settings.getBytes(StandardCharsets.UTF_8);
+            if (Buffer.getInt() != MAGIC || Buffer.getInt() != VERSION || Buffer.getInt() != Expected.length) {
+                return false;
+            }
+            fill(Channel, Buffer, Expected.length + 4);
+            byte[] Found = new byte[Expected.length];
+            Buffer.get(Found);
+            if (!Arrays.equals(Found, Expected)) return false;
+
+            int Count = Buffer.getInt();
+            if (Count < 0 || (long) Count * ENTRY_BYTES > Channel.size()) return false;
+            allocatePrevious(Count);
+            for (int Entry = 0; Entry < Count; Entry++) {
+                fill(Channel, Buffer, ENTRY_BYTES);
+                PreviousIDs[Entry] = Buffer.getLong();
+                PreviousHashes[Entry] = Buffer.getLong();
+                PreviousGross[Entry] = Buffer.getLong();
+                PreviousTotals[Entry] = Buffer.getLong();
+            }
+            // Link the entries from the last to the first, so each chain is in file order
+            for (int Entry = Count - 1; Entry >= 0; Entry--) {
+                link(Entry);
+            }
+            IndexUsed = true;
+        } catch (NoSuchFileException e) {
+            // First run, nothing to reuse
+        } catch (IOException e) {
+            allocatePrevious(0);
+            System.out.println("Warning: the payroll index could not be read, every line is recomputed.");
+        }
+        return IndexUsed;
+    }
+
+    /**
+     * Writes the index of the current run
+     * The index is written to a temporary file first, then moved over the old one.
+     * @param File The index file
+     * @throws IOException If the index cannot be written
+     */
+    public void saveIndex(Path File) throws IOException {
+        Path Temporary = File.resolveSibling(File.getFileName() + ".tmp");
+        try (FileChannel Channel = FileChannel.open(Temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            byte[] SettingBytes = Settings.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer Buffer = ByteBuffer.allocate(Math.max(IO_BUFFER_SIZE, SettingBytes.length + 16));
+            Buffer.putInt(MAGIC).putInt(VERSION).putInt(SettingBytes.length).put(SettingBytes).putInt(CurrentCount);
+            for (int Entry = 0; Entry < CurrentCount; Entry++) {
+                if (Buffer.remaining() < ENTRY_BYTES) drain(Channel, Buffer);
+                Buffer.putLong(CurrentIDs[Entry]).putLong(CurrentHashes[Entry])
+                        .putLong(CurrentGross[Entry]).putLong(CurrentTotals[Entry]);
+            }
+            drain(Channel, Buffer);
+        }
+        Files.move(Temporary, File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the header of the report file
+     */
+    public void writeHeader() {
+        ReportWriter.println(PayrollManager.REPORT_TITLE);
+        ReportWriter.println(PayrollManager.REPORT_RULE);
+        ReportWriter.println(PayrollManager.REPORT_HEADER);
+        ReportWriter.println(PayrollManager.REPORT_RULE);
+    }
+
+    /**
+     * Processes every line of the payroll file
+     * @param Reader The mapped payroll file
+     * @throws IOException If the file cannot be read
+     */
+    public void run(MappedPayrollReader Reader) throws IOException {
+        Reader.forEachLine((Buffer, Offset, Length, Position) -> processLine(Buffer, Offset, Length));
+    }
+
+    /**
+     * Reuses the amounts of one line from the index, or validates and calculates it when it changed
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line, without the line terminator
+     */
+    public void processLine(byte[] Buffer, int Offset, int Length) {
+
+        if (PayrollRecordParser.isBlank(Buffer, Offset, Length)) return; // Skips empty lines
+
+        long ID = readID(Buffer, Offset, Length);
+        if (ID < 0) {
+            // Not indexed
+            recompute(Buffer, Offset, Length);
+            return;
+        }
+
+        long Hash = hash(Buffer, Offset, Length);
+        int Entry = find(ID, Hash);
+        RejectReason Known = Entry >= 0 && PreviousTotals[Entry] == INVALID
+                ? RejectReason.fromOrdinal((int) PreviousGross[Entry]) : RejectReason.NONE;
+        if (Entry >= 0 && Known != null) {
+            ReusedCounter++;
+            if (Known != RejectReason.NONE) {
+                writeError(Buffer, Offset, Length, Known);
+            } else {
+                writeKnownRow(Buffer, Offset, Length, ID, Entry);
+            }
+            remember(ID, Hash, PreviousGross[Entry], PreviousTotals[Entry]);
+            return;
+        }
+
+        RejectReason Reason = recompute(Buffer, Offset, Length);
+        if (Reason == RejectReason.NONE) {
+            remember(ID, Hash, LineParser.getGrossCents(), DeductionResult[DeductionSet.TOTAL]);
+        } else {
+            remember(ID, Hash, Reason.ordinal(), INVALID);
+        }
+    }
+
+    /**
+     * Writes the row of an unchanged valid line, with the names cut out of the line
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line
+     * @param ID     The employee ID
+     * @param Entry  The entry of the line in the index
+     */
+    private void writeKnownRow(byte[] Buffer, int Offset, int Length, long ID, int Entry) {
+        int End = Offset + Length;
+        boolean Ascii = true;
+        for (int Index = Offset; Index < End && Ascii; Index++) {
+            Ascii = Buffer[Index] >= 0;
+        }
+
+        // Skip the ID, then cut the first and last names, like the parser tokens
+        String FirstName;
+        String LastName;
+        if (Ascii) {
+            int Index = skipToken(Buffer, skipSpaces(Buffer, Offset, End), End);
+            int FirstStart = skipSpaces(Buffer, Index, End);
+            int FirstEnd = skipToken(Buffer, FirstStart, End);
+            int LastStart = skipSpaces(Buffer, FirstEnd, End);
+            int LastEnd = skipToken(Buffer, LastStart, End);
+            FirstName = new String(Buffer, FirstStart, FirstEnd - FirstStart, StandardCharsets.ISO_8859_1);
+            LastName = new String(Buffer, LastStart, LastEnd - LastStart, StandardCharsets.ISO_8859_1);
+        } else {
+            // Decoded like the parser does, the names may hold non ASCII whitespace
+            String Line = new String(Buffer, Offset, Length, Charset.defaultCharset());
+            int Index = skipToken(Line, skipSpaces(Line, 0));
+            int FirstStart = skipSpaces(Line, Index);
+            int FirstEnd = skipToken(Line, FirstStart);
+            int LastStart = skipSpaces(Line, FirstEnd);
+            FirstName = Line.substring(FirstStart, FirstEnd);
+            LastName = Line.substring(LastStart, skipToken(Line, LastStart));
+        }
+
+        long GrossCents = PreviousGross[Entry];
+        long TotalCents = PreviousTotals[Entry];
+        LineCounter++;
+        Rows.writeRow(ID, FirstName, LastName, GrossCents, TotalCents, GrossCents - TotalCents);
+    }
+
+    /**
+     * Validates and calculates a line, then writes its row or logs it as invalid
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line
+     * @return NONE if the line is valid, otherwise the reason it was rejected
+     */
+    private RejectReason recompute(byte[] Buffer, int Offset, int Length) {
+        RecomputedCounter++;
+        RejectReason Reason = LineParser.validate(Buffer, Offset, Length);
+        if (Reason != RejectReason.NONE) {
+            writeError(Buffer, Offset, Length, Reason);
+            return Reason;
+        }
+
+        LineCounter++;
+        long GrossCents = LineParser.getGrossCents();
+        Deductions.calculateAll(GrossCents, DeductionResult);
+        Rows.writeRow(LineParser.getID(), LineParser.getFirstName(), LineParser.getLastName(),
+                GrossCents, DeductionResult[DeductionSet.TOTAL], DeductionResult[DeductionSet.NET_INCOME]);
+        return RejectReason.NONE;
+    }
+
+    /**
+     * Logs an invalid line to the error file
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line
+     * @param Reason The reason the line was rejected, written when the error log has a reason column
+     */
+    private void writeError(byte[] Buffer, int Offset, int Length, RejectReason Reason) {
+        ErrorLineCounter++;
+        ErrorWriter.print(new String(Buffer, Offset, Length, Charset.defaultCharset()));
+        if (ErrorReasons) {
+            ErrorWriter.print('\t');
+            ErrorWriter.print(Reason.name());
+        }
+        ErrorWriter.println();
+    }
+
+    /**
+     * Finds the entry of the last run with an ID and a line hash
+     * @param ID   The employee ID
+     * @param Hash The hash of the line
+     * @return The index of the entry, -1 if the line is new or changed
+     */
+    private int find(long ID, long Hash) {
+        int Mask = Slots.length - 1;
+        int Slot = slot(ID, Mask);
+        while (Slots[Slot] != 0) {
+            int Entry = Slots[Slot] - 1;
+            if (PreviousIDs[Entry] == ID) {
+                PreviousPresent[Entry] = true;
+                for (; Entry >= 0; Entry = PreviousNext[Entry]) {
+                    if (PreviousHashes[Entry] == Hash) return Entry;
+                }
+                return -1;
+            }
+            Slot = (Slot + 1) & Mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an entry of the last run to the table, at the start of the chain of its ID
+     * @param Entry The index of the entry
+     */
+    private void link(int Entry) {
+        int Mask = Slots.length - 1;
+        int Slot = slot(PreviousIDs[Entry], Mask);
+        while (Slots[Slot] != 0) {
+            int Head = Slots[Slot] - 1;
+            if (PreviousIDs[Head] == PreviousIDs[Entry]) {
+                PreviousNext[Entry] = Head;
+                Slots[Slot] = Entry + 1;
+                return;
+            }
+            Slot = (Slot + 1) & Mask;
+        }
+        PreviousNext[Entry] = -1;
+        Slots[Slot] = Entry + 1;
+    }
+
+    /**
+     * Allocates the arrays of the entries of the last run
+     * @param Count The number of entries
+     */
+    private void allocatePrevious(int Count) {
+        PreviousIDs = new long[Count];
+        PreviousHashes = new long[Count];
+        PreviousGross = new long[Count];
+        PreviousTotals = new long[Count];
+        PreviousNext = new int[Count];
+        PreviousPresent = new boolean[Count];
+        // At most half full
+        Slots = new int[Integer.highestOneBit(Math.max(Count, 1)) * 4];
+    }
+
+    /**
+     * Adds an entry to the index of the current run
+     * @param ID         The employee ID
+     * @param Hash       The hash of the line
+     * @param GrossCents The gross income in cents, the ordinal of the reject reason for an invalid line
+     * @param TotalCents The total deductions in cents, INVALID for an invalid line
+     */
+    private void remember(long ID, long Hash, long GrossCents, long TotalCents) {
+        if (CurrentCount == CurrentIDs.length) {
+            int Capacity = CurrentCount * 2;
+            CurrentIDs = Arrays.copyOf(CurrentIDs, Capacity);
+            CurrentHashes = Arrays.copyOf(CurrentHashes, Capacity);
+            CurrentGross = Arrays.copyOf(CurrentGross, Capacity);
+            CurrentTotals = Arrays.copyOf(CurrentTotals, Capacity);
+        }
+        CurrentIDs[CurrentCount] = ID;
+        CurrentHashes[CurrentCount] = Hash;
+        CurrentGross[CurrentCount] = GrossCents;
+        CurrentTotals[CurrentCount] = TotalCents;
+        CurrentCount++;
+    }
+
+    /**
+     * Reads the ID at the start of a line when it is a plain decimal number
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line
+     * @return The ID, or -1 when the line does not start with a plain number
+     */
+    private static long readID(byte[] Buffer, int Offset, int Length) {
+        int End = Offset + Length;
+        int Start = skipSpaces(Buffer, Offset, End);
+        int Index = Start;
+        long ID = 0;
+        while (Index < End && Buffer[Index] >= '0' && Buffer[Index] <= '9') {
+            ID = ID * 10 + (Buffer[Index++] - '0');
+        }
+        int Digits = Index - Start;
+        if (Digits == 0 || Digits > MAX_ID_DIGITS) return -1;
+        if (Index < End && !isSpace(Buffer[Index])) return -1;
+        return ID;
+    }
+
+    /**
+     * Skips the whitespace before a token
+     * @param Buffer The buffer holding the line
+     * @param Index  The position to start from
+     * @param End    The end of the line
+     * @return The position of the next non whitespace byte, or End
+     */
+    private static int skipSpaces(byte[] Buffer, int Index, int End) {
+        while (Index < End && isSpace(Buffer[Index])) Index++;
+        return Index;
+    }
+
+    /**
+     * Skips a token
+     * @param Buffer The buffer holding the line
+     * @param Index  The start of the token
+     * @param End    The end of the line
+     * @return The position right after the token
+     */
+    private static int skipToken(byte[] Buffer, int Index, int End) {
+        while (Index < End && !isSpace(Buffer[Index])) Index++;
+        return Index;
+    }
+
+    /**
+     * Skips the whitespace before a token of a decoded line
+     * @param Line  The line
+     * @param Index The position to start from
+     * @return The position of the next non whitespace character, or the end of the line
+     */
+    private static int skipSpaces(String Line, int Index) {
+        while (Index < Line.length() && Character.isWhitespace(Line.charAt(Index))) Index++;
+        return Index;
+    }
+
+    /**
+     * Skips a token of a decoded line
+     * @param Line  The line
+     * @param Index The start of the token
+     * @return The position right after the token
+     */
+    private static int skipToken(String Line, int Index) {
+        while (Index < Line.length() && !Character.isWhitespace(Line.charAt(Index))) Index++;
+        return Index;
+    }
+
+    /**
+     * Checks if an ASCII byte is whitespace, the same characters as Character.isWhitespace
+     * @param Byte The byte
+     * @return true for tabs, line breaks, the file, group, record and unit separators and spaces
+     */
+    private static boolean isSpace(byte Byte) {
+        return Byte == ' ' || (Byte >= '\t' && Byte <= '\r') || (Byte >= 0x1C && Byte <= 0x1F);
+    }
+
+    /**
+     * Hashes the bytes of a line with 64-bit FNV-1a
+     * @param Buffer The buffer holding the line
+     * @param Offset The start of the line
+     * @param Length The length of the line
+     * @return The hash of the line
+     */
+    private static long hash(byte[] Buffer, int Offset, int Length) {
+        long Hash = 0xcbf29ce484222325L;
+        for (int Index = Offset; Index < Offset + Length; Index++) {
+            Hash = (Hash ^ (Buffer[Index] & 0xFF)) * 0x100000001b3L;
+        }
+        return Hash;
+    }
+
+    /**
+     * Finds the slot of an ID in the table
+     * @param ID   The employee ID
+     * @param Mask The size of the table minus one
+     * @return The first slot to look at
+     */
+    private static int slot(long ID, int Mask) {
+        long Mixed = ID * 0x9E3779B97F4A7C15L;
+        return (int) (Mixed ^ (Mixed >>> 32)) & Mask;
+    }
+
+    /**
+     * Makes sure a buffer holds enough bytes, reading more from a channel
+     * @param Channel The channel to read from
+     * @param Buffer  The buffer, ready to be read
+     * @param Needed  The number of bytes needed
+     * @throws IOException If the channel ends before
+     */
+    private static void fill(FileChannel Channel, ByteBuffer Buffer, int Needed) throws IOException {
+        if (Buffer.remaining() >= Needed) return;
+        if (Needed > Buffer.capacity()) throw new IOException("Index entry too large");
+        Buffer.compact();
+        while (Buffer.position() < Needed) {
+            if (Channel.read(Buffer) < 0) throw new IOException("Index file is truncated");
+        }
+        Buffer.flip();
+    }
+
+    /**
+     * Writes the content of a buffer to a channel and empties it
+     * @param Channel The channel to write to
+     * @param Buffer  The buffer, being filled
+     * @throws IOException If the channel cannot be written
+     */
+    private static void drain(FileChannel Channel, ByteBuffer Buffer) throws IOException {
+        Buffer.flip();
+        while (Buffer.hasRemaining()) {
+            Channel.write(Buffer);
+        }
+        Buffer.clear();
+    }
+
+    /**
+     * Writes the buffered rows
+     */
+    public void finish() {
+        Rows.flush();
+        ReportWriter.flush();
+        ErrorWriter.flush();
+    }
+
+    /**
+     * Checks if the index of the last run was used
+     * @return true if unchanged lines were looked up in the index
+     */
+    public boolean isIndexUsed() {
+        return IndexUsed;
+    }
+
+    /**
+     * Gets the number of valid lines
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Gets the number of lines found unchanged in the index
+     * @return The number of unchanged lines
+     */
+    public int getReusedCounter() {
+        return ReusedCounter;
+    }
+
+    /**
+     * Gets the number of lines validated and calculated
+     * @return The number of changed, added or unindexed lines
+     */
+    public int getRecomputedCounter() {
+        return RecomputedCounter;
+    }
+
+    /**
+     * Counts the employee IDs of the last run that are not in the payroll anymore
+     * @return The number of removed employee IDs
+     */
+    public int getRemovedCounter() {
+        int Removed = 0;
+        for (int Slot : Slots) {
+            if (Slot != 0 && !PreviousPresent[Slot - 1]) Removed++;
+        }
+        return Removed;
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds, with a bounded relative error
+ *
+ * The values are counted in buckets laid out like an HdrHistogram: the values below 128
+ * have a bucket each, and every power of two above is cut into 64 buckets of the same
+ * width. A value is therefore known within 1/64 of itself (about 1.6 %) whatever its size,
+ * from a nanosecond to the longest run, in a fixed array of counters. Recording a value
+ * is a few shifts and an array increment, without any allocation.
+ *
+ * A histogram is not thread safe, each thread records in its own and they are added up.
+ */
+public class LatencyHistogram {
+
+    /** Number of bits of a value kept exactly */
+    private static final int SUB_BITS = 6;
+
+    /** Number of buckets in each power of two */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** Values below this limit have a bucket each */
+    private static final int LINEAR_LIMIT = 2 * SUB_COUNT;
+
+    /** Number of buckets, enough for every positive long */
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    /** Number of values recorded in each bucket */
+    private final long[] Counts = new long[BUCKETS];
+
+    /** Number of values recorded */
+    private long Count;
+
+    /** Sum of the values recorded */
+    private long Total;
+
+    /** Smallest value recorded */
+    private long Min = Long.MAX_VALUE;
+
+    /** Largest value recorded */
+    private long Max;
+
+    /**
+     * Default constructor for LatencyHistogram
+     * Builds an empty histogram
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records one value
+     * Negative values, which a clock going backwards could give, are recorded as 0
+     * @param Nanos The latency, in nanoseconds
+     */
+    public void record(long Nanos) {
+        if (Nanos < 0) Nanos = 0;
+        Counts[bucket(Nanos)]++;
+        Count++;
+        Total += Nanos;
+        if (Nanos < Min) Min = Nanos;
+        if (Nanos > Max) Max = Nanos;
+    }
+
+    /**
+     * Adds every value of another histogram to this one
+     * @param Other The other histogram, left unchanged
+     */
+    public void add(LatencyHistogram Other) {
+        for (int Bucket = 0; Bucket < BUCKETS; Bucket++) {
+            Counts[Bucket] += Other.Counts[Bucket];
+        }
+        Count += Other.Count;
+        Total += Other.Total;
+        Min = Math.min(Min, Other.Min);
+        Max = Math.max(Max, Other.Max);
+    }
+
+    /**
+     * Removes every value
+     */
+    public void reset() {
+        Arrays.fill(Counts, 0);
+        Count = 0;
+        Total = 0;
+        Min = Long.MAX_VALUE;
+        Max = 0;
+    }
+
+    /**
+     * Gets the number of values recorded
+     * @return The number of values
+     */
+    public long getCount() {
+        return Count;
+    }
+
+    /**
+     * Gets the sum of the values recorded
+     * @return The total, in nanoseconds
+     */
+    public long getTotal() {
+        return Total;
+    }
+
+    /**
+     * Gets the smallest value recorded
+     * @return The smallest value, 0 when the histogram is empty
+     */
+    public long getMin() {
+        return Count == 0 ? 0 : Min;
+    }
+
+    /**
+     * Gets the largest value recorded
+     * @return The largest value, 0 when the histogram is empty
+     */
+    public long getMax() {
+        return Max;
+    }
+
+    /**
+     * Gets the average of the values recorded
+     * @return The mean, 0 when the histogram is empty
+     */
+    public double getMean() {
+        return Count == 0 ? 0 : (double) Total / Count;
+    }
+
+    /**
+     * Gets the value below which a share of the values fall
+     * @param Percentile The share of the values, from 0 to 100
+     * @return The largest value of the bucket holding the percentile, never above the largest
+     *         value recorded, 0 when the histogram is empty
+     */
+    public long getValueAtPercentile(double Percentile) {
+        if (Count == 0) return 0;
+        long Rank = (long) Math.ceil(Math.max(0, Math.min(100, Percentile)) / 100 * Count);
+        if (Rank < 1) Rank = 1;
+        long Seen = 0;
+        for (int Bucket = 0; Bucket < BUCKETS; Bucket++) {
+            Seen += Counts[Bucket];
+            if (Seen >= Rank) return Math.min(Max, highestValue(Bucket));
+        }
+        return Max;
+    }
+
+    /**
+     * Finds the bucket of a value
+     * @param Value The value, not negative
+     * @return The index of its bucket
+     */
+    private static int bucket(long Value) {
+        if (Value < LINEAR_LIMIT) return (int) Value;
+        // Keep the SUB_BITS + 1 highest bits: the top one gives the power of two, the others the bucket in it
+        int Shift = 63 - Long.numberOfLeadingZeros(Value) - SUB_BITS;
+        return LINEAR_LIMIT + (Shift - 1) * SUB_COUNT + (int) (Value >>> Shift) - SUB_COUNT;
+    }
+
+    /**
+     * Finds the largest value counted in a bucket
+     * @param Bucket The index of the bucket
+     * @return The largest value of the bucket
+     */
+    private static long highestValue(int Bucket) {
+        if (Bucket < LINEAR_LIMIT) return Bucket;
+        int Shift = (Bucket - LINEAR_LIMIT) / SUB_COUNT + 1;
+        long Lowest = (long) ((Bucket - LINEAR_LIMIT) % SUB_COUNT + SUB_COUNT) << Shift;
+        return Lowest + (1L << Shift) - 1;
+    }
+}
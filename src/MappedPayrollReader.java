@@ -0,0 +1,198 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the payroll file through memory mapped windows of a FileChannel
+ *
+ * The file is never decoded as a whole: the line boundaries are found directly in the
+ * mapped bytes and every line is handed to a LineHandler as a raw byte slice.
+ * Lines end with "\n", "\r\n" or "\r", like the lines read by Scanner.nextLine().
+ *
+ * A single mapping is limited to 2 GB, so the file is mapped one window at a time.
+ * When a line crosses the end of a window, the next window starts at the beginning
+ * of that line. A line longer than a whole window makes the window grow.
+ */
+public class MappedPayrollReader implements Closeable {
+
+    /** Size of a mapped window when none is given, 64 MB */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Receives the lines found by the reader
+     */
+    public interface LineHandler {
+
+        /**
+         * Handles one line, without its line terminator
+         * The buffer is reused for the next line, so it must not be kept
+         * @param Buffer   The buffer holding the line
+         * @param Offset   The index of the first byte of the line
+         * @param Length   The number of bytes of the line
+         * @param Position The position of the line in the file
+         */
+        void handleLine(byte[] Buffer, int Offset, int Length, long Position);
+    }
+
+    /** The channel of the payroll file */
+    private final FileChannel Channel;
+
+    /** The size of a mapped window */
+    private final int WindowSize;
+
+    /**
+     * Opens a payroll file with the default window size
+     * @param fileName The path of the payroll file
+     * @throws IOException If the file cannot be opened
+     */
+    public MappedPayrollReader(String fileName) throws IOException {
+        this(Paths.get(fileName), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens a payroll file with a given window size
+     * @param file       The path of the payroll file
+     * @param windowSize The number of bytes mapped at once
+     * @throws IOException If the file cannot be opened
+     */
+    public MappedPayrollReader(Path file, int windowSize) throws IOException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.Channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.WindowSize = windowSize;
+    }
+
+    /**
+     * Gets the size of the payroll file
+     * @return The number of bytes of the file
+     * @throws IOException If the size cannot be read
+     */
+    public long size() throws IOException {
+        return Channel.size();
+    }
+
+    /**
+     * Finds the first line that starts at or after a position, used to cut the file in chunks
+     * @param Position The position to search from
+     * @return The position right after the next "\n", or the size of the file if there is none
+     * @throws IOException If the file cannot be read
+     */
+    public long nextLineStart(long Position) throws IOException {
+        if (Position <= 0) return 0;
+        long FileSize = Channel.size();
+        ByteBuffer Block = ByteBuffer.allocate(8192);
+        // Starting one byte early keeps a line that begins exactly at the position
+        long Current = Position - 1;
+        while (Current < FileSize) {
+            Block.clear();
+            int Read = Channel.read(Block, Current);
+            if (Read <= 0) break;
+            for (int Index = 0; Index < Read; Index++) {
+                if (Block.get(Index) == '\n') return Current + Index + 1;
+            }
+            Current += Read;
+        }
+        return FileSize;
+    }
+
+    /**
+     * Reads the whole file and hands every line to the handler, in order
+     * @param Handler The handler receiving the lines
+     * @throws IOException If the file cannot be read
+     */
+    public void forEachLine(LineHandler Handler) throws IOException {
+        forEachLine(0, Channel.size(), Handler);
+    }
+
+    /**
+     * Reads a part of the file and hands every line to the handler, in order
+     * The part must start at the beginning of a line. Several parts can be read at the
+     * same time from different threads.
+     * @param Start   The position of the first byte to read
+     * @param End     The position right after the last byte to read
+     * @param Handler The handler receiving the lines
+     * @throws IOException If the file cannot be read
+     */
+    public void forEachLine(long Start, long End, LineHandler Handler) throws IOException {
+        byte[] LineBuffer = new byte[128]; // Buffer the current line is copied into
+        long WindowStart = Start;
+        int CurrentWindowSize = WindowSize;
+
+        while (WindowStart < End) {
+            long Remaining = End - WindowStart;
+            int Length = (int) Math.min(CurrentWindowSize, Remaining);
+            boolean LastWindow = Length == Remaining;
+            MappedByteBuffer Window = Channel.map(FileChannel.MapMode.READ_ONLY, WindowStart, Length);
+
+            int LineStart = 0;
+            int Index = 0;
+            while (Index < Length) {
+                byte Current = Window.get(Index);
+                if (Current != '\n' && Current != '\r') {
+                    Index++;
+                    continue;
+                }
+                // A "\r" at the end of the window may be the first half of a "\r\n"
+                if (Current == '\r' && Index + 1 == Length && !LastWindow) break;
+
+                LineBuffer = deliver(Window, LineStart, Index - LineStart, WindowStart + LineStart, LineBuffer, Handler);
+                Index++;
+                if (Current == '\r' && Index < Length && Window.get(Index) == '\n') Index++;
+                LineStart = Index;
+            }
+
+            if (LastWindow) {
+                // The last line may not end with a line terminator
+                if (LineStart < Length) {
+                    deliver(Window, LineStart, Length - LineStart, WindowStart + LineStart, LineBuffer, Handler);
+                }
+                return;
+            }
+            if (LineStart == 0) {
+                // The line is longer than the window, map a bigger one
+                CurrentWindowSize = (int) Math.min(Integer.MAX_VALUE, 2L * CurrentWindowSize);
+                if (CurrentWindowSize == Length) {
+                    throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes at position " + WindowStart);
+                }
+            } else {
+                // Start the next window at the first line that is not complete
+                WindowStart += LineStart;
+                CurrentWindowSize = WindowSize;
+            }
+        }
+    }
+
+    /**
+     * Copies a line out of the window and hands it to the handler
+     * @param Window     The mapped window
+     * @param Start      The index of the line in the window
+     * @param Length     The number of bytes of the line
+     * @param Position   The position of the line in the file
+     * @param LineBuffer The buffer the line is copied into
+     * @param Handler    The handler receiving the line
+     * @return The buffer used, bigger than the given one if the line did not fit
+     */
+    private static byte[] deliver(MappedByteBuffer Window, int Start, int Length, long Position,
+                                  byte[] LineBuffer, LineHandler Handler) {
+        if (Length > LineBuffer.length) {
+            LineBuffer = new byte[Math.max(Length, LineBuffer.length * 2)];
+        }
+        Window.get(Start, LineBuffer, 0, Length);
+        Handler.handleLine(LineBuffer, 0, Length, Position);
+        return LineBuffer;
+    }
+
+    /**
+     * Closes the channel of the payroll file
+     * @throws IOException If the channel cannot be closed
+     */
+    public void close() throws IOException {
+        Channel.close();
+    }
+}
@@ -0,0 +1,283 @@
+import deductions.DeductionCache;
+import deductions.DeductionSet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Processes the payroll on several threads
+ *
+ * The payroll file is cut in chunks at line boundaries. Each chunk is parsed, validated
+ * and run through the deductions by a task of a ForkJoinPool, which writes its report
+ * rows and its invalid lines to its own buffers. The buffers are then appended to the
+ * report and error files in the order of the chunks, so both files are identical to the
+ * ones written by the sequential run.
+ *
+ * Only a few chunks per thread are in progress at the same time, so the memory used
+ * does not depend on the size of the payroll file.
+ */
+public class ParallelPayroll {
+
+    /** Largest size of a chunk, 8 MB */
+    private static final long MAX_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    /** Smallest size of a chunk, 64 KB */
+    private static final long MIN_CHUNK_SIZE = 64L * 1024;
+
+    /** Number of chunks waiting to be written for each thread */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The output of one chunk
+     */
+    private static class ChunkResult {
+
+        /** The report rows of the chunk */
+        private final String Report;
+
+        /** The invalid lines of the chunk */
+        private final String Errors;
+
+        /** Number of valid employee lines of the chunk */
+        private final int LineCounter;
+
+        /** Number of invalid lines of the chunk */
+        private final int ErrorLineCounter;
+
+        /**
+         * Constructs the output of a chunk
+         * @param report           The report rows of the chunk
+         * @param errors           The invalid lines of the chunk
+         * @param lineCounter      Number of valid employee lines of the chunk
+         * @param errorLineCounter Number of invalid lines of the chunk
+         */
+        private ChunkResult(String report, String errors, int lineCounter, int errorLineCounter) {
+            this.Report = report;
+            this.Errors = errors;
+            this.LineCounter = lineCounter;
+            this.ErrorLineCounter = errorLineCounter;
+        }
+    }
+
+    /** The reader of the payroll file, shared by every task */
+    private final MappedPayrollReader Reader;
+
+    /** Number of threads used to process the chunks */
+    private final int Threads;
+
+    /** The deductions applied to every employee, shared by every task */
+    private final DeductionSet Deductions;
+
+    /** Number of valid employee lines processed */
+    private int LineCounter;
+
+    /** Number of invalid lines written to the error log */
+    private int ErrorLineCounter;
+
+    /** Displays the progress of the run, null when no progress is displayed */
+    private ProgressReporter Progress;
+
+    /** Number of gross incomes each thread caches the deductions of, 0 for no cache */
+    private int CacheCapacity;
+
+    /** The deduction cache of each thread, created on its first chunk */
+    private ThreadLocal<DeductionCache> Cache;
+
+    /** Every deduction cache created, to add up their counters */
+    private final List<DeductionCache> Caches = new ArrayList<>();
+
+    /** True when the error log gets a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /** Receives the metrics of every thread at the end of the run, null when no metrics are kept */
+    private PayrollMetrics Metrics;
+
+    /** The metrics of each thread, created on its first chunk */
+    private ThreadLocal<PayrollMetrics> ThreadMetrics;
+
+    /** Every thread metrics created, to add them up */
+    private final List<PayrollMetrics> AllThreadMetrics = new ArrayList<>();
+
+    /**
+     * Constructs a ParallelPayroll reading the given payroll file
+     * @param reader     The reader of the payroll file
+     * @param threads    The number of threads to use
+     * @param deductions The deductions applied to every employee
+     */
+    public ParallelPayroll(MappedPayrollReader reader, int threads, DeductionSet deductions) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.Reader = reader;
+        this.Threads = threads;
+        this.Deductions = deductions;
+    }
+
+    /**
+     * Displays a progress line at a fixed interval while the chunks are written
+     * @param progress The progress reporter, null for no progress line
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.Progress = progress;
+    }
+
+    /**
+     * Gives each thread a deduction cache of the given capacity
+     * @param capacity The number of gross incomes cached by each thread, 0 for no cache
+     */
+    public void setCacheCapacity(int capacity) {
+        this.CacheCapacity = capacity;
+    }
+
+    /**
+     * Adds a column with the reject reason of each line to the error log
+     * @param errorReasons true to add the reason column
+     */
+    public void setErrorReasons(boolean errorReasons) {
+        this.ErrorReasons = errorReasons;
+    }
+
+    /**
+     * Keeps metrics on each thread and adds them up at the end of the run
+     * @param metrics The metrics receiving the stage times of every thread, null to keep no metrics
+     */
+    public void setMetrics(PayrollMetrics metrics) {
+        this.Metrics = metrics;
+    }
+
+    /**
+     * Processes the whole payroll file and writes the rows and the invalid lines in order
+     * The report header must already be written
+     * @param ReportWriter The writer of the payroll report
+     * @param ErrorWriter  The writer of the error log
+     * @throws IOException If the payroll file cannot be read
+     */
+    public void run(PrintWriter ReportWriter, PrintWriter ErrorWriter) throws IOException {
+        long FileSize = Reader.size();
+        long ChunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, FileSize / (Threads * CHUNKS_PER_THREAD)));
+
+        if (CacheCapacity > 0) {
+            Cache = ThreadLocal.withInitial(() -> {
+                DeductionCache Created = new DeductionCache(Deductions, CacheCapacity);
+                synchronized (Caches) {
+                    Caches.add(Created);
+                }
+                return Created;
+            });
+        }
+
+        if (Metrics != null) {
+            ThreadMetrics = ThreadLocal.withInitial(() -> {
+                PayrollMetrics Created = new PayrollMetrics();
+                synchronized (AllThreadMetrics) {
+                    AllThreadMetrics.add(Created);
+                }
+                return Created;
+            });
+        }
+
+        ForkJoinPool Pool = new ForkJoinPool(Threads);
+        ArrayDeque<Future<ChunkResult>> Pending = new ArrayDeque<>();
+        try {
+            long ChunkStart = 0;
+            while (ChunkStart < FileSize || !Pending.isEmpty()) {
+                // Keep every thread busy while the oldest chunk is being written
+                while (ChunkStart < FileSize && Pending.size() < Threads * CHUNKS_PER_THREAD) {
+                    long Start = ChunkStart;
+                    long End = Reader.nextLineStart(Math.min(FileSize, Start + ChunkSize));
+                    Pending.add(Pool.submit(() -> processChunk(Start, End)));
+                    ChunkStart = End;
+                }
+
+                ChunkResult Result = Pending.remove().get();
+                ReportWriter.write(Result.Report);
+                ErrorWriter.write(Result.Errors);
+                LineCounter += Result.LineCounter;
+                ErrorLineCounter += Result.ErrorLineCounter;
+                if (Progress != null) Progress.report(LineCounter, ErrorLineCounter);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Payroll processing interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Could not process the payroll", e.getCause());
+        } finally {
+            Pool.shutdownNow();
+        }
+
+        if (Metrics != null) {
+            synchronized (AllThreadMetrics) {
+                for (PayrollMetrics Current : AllThreadMetrics) {
+                    Metrics.add(Current);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the lines of one chunk into its own buffers
+     * @param Start The position of the first byte of the chunk
+     * @param End   The position right after the last byte of the chunk
+     * @return The output of the chunk
+     * @throws IOException If the payroll file cannot be read
+     */
+    private ChunkResult processChunk(long Start, long End) throws IOException {
+        StringWriter Report = new StringWriter();
+        StringWriter Errors = new StringWriter();
+        StreamingPayroll Stream = new StreamingPayroll(new PrintWriter(Report), new PrintWriter(Errors), null, Deductions);
+        if (Cache != null) Stream.setCache(Cache.get());
+        PayrollMetrics ChunkMetrics = ThreadMetrics != null ? ThreadMetrics.get() : null;
+        long Allocated = ChunkMetrics != null ? PayrollMetrics.threadAllocatedBytes() : 0;
+        Stream.setMetrics(ChunkMetrics);
+        Stream.setErrorReasons(ErrorReasons);
+        Reader.forEachLine(Start, End, (Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+        Stream.finish();
+        if (ChunkMetrics != null) {
+            ChunkMetrics.addAllocatedBytes(Allocated < 0 ? -1 : PayrollMetrics.threadAllocatedBytes() - Allocated);
+        }
+        return new ChunkResult(Report.toString(), Errors.toString(), Stream.getLineCounter(), Stream.getErrorLineCounter());
+    }
+
+    /**
+     * Gets the number of valid employee lines processed
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines logged
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Describes the counters of the deduction caches of every thread, added up
+     * @return The hits, misses, evictions and hit rate, or null when no cache is used
+     */
+    public String getCacheSummary() {
+        if (CacheCapacity <= 0) return null;
+        long Hits = 0;
+        long Misses = 0;
+        long Evictions = 0;
+        synchronized (Caches) {
+            for (DeductionCache Current : Caches) {
+                Hits += Current.getHits();
+                Misses += Current.getMisses();
+                Evictions += Current.getEvictions();
+            }
+        }
+        return DeductionCache.summary(Hits, Misses, Evictions);
+    }
+}
@@ -0,0 +1,393 @@
+import deductions.DeductionCache;
+import deductions.DeductionSet;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Processes many payroll files in one run
+ *
+ * The payroll files are listed by a directory, every file of it, or by a manifest holding
+ * one path per line. Each file is streamed like with --stream into its own report and
+ * error files, "client.txt" giving "clientReport.txt" and "clientError.txt" in the output
+ * directory. A consolidated summary of every file is written at the end.
+ *
+ * Each file runs on its own virtual thread when the JVM has them (Java 21 and later), so
+ * hundreds of small files share one JVM instead of starting one each. A semaphore keeps at
+ * most a given number of files in progress at the same time. On older JVMs the files run on
+ * a pool of that many platform threads instead, with the same outputs.
+ *
+ * A file that cannot be read or written is reported in the summary and does not stop the others.
+ */
+public class PayrollBatch {
+
+    /** Name of the consolidated summary, written in the output directory */
+    public static final String SUMMARY_FILE = "batchSummary.txt";
+
+    /** Default output directory of the per-file reports */
+    public static final String DEFAULT_OUTPUT = "data/batch";
+
+    /** Layout of a line of the summary */
+    private static final String SUMMARY_ROW = "| %-24s | %-8s | %10s | %10s | %10s |";
+
+    /**
+     * The outcome of one payroll file
+     */
+    private static class FileResult {
+
+        /** The payroll file read */
+        private final Path Input;
+
+        /** The report file written */
+        private final Path Report;
+
+        /** The error file written */
+        private final Path Errors;
+
+        /** Number of valid employee lines */
+        private int LineCounter;
+
+        /** Number of invalid lines */
+        private int ErrorLineCounter;
+
+        /** Time spent on the file, in milliseconds */
+        private long Millis;
+
+        /** Why the file failed, null when it was processed */
+        private String Failure;
+
+        /**
+         * Constructs the outcome of a payroll file not processed yet
+         * @param input  The payroll file read
+         * @param report The report file written
+         * @param errors The error file written
+         */
+        private FileResult(Path input, Path report, Path errors) {
+            this.Input = input;
+            this.Report = report;
+            this.Errors = errors;
+        }
+    }
+
+    /** The deductions applied to every employee, shared by every file */
+    private final DeductionSet Deductions;
+
+    /** Largest number of files processed at the same time */
+    private final int Concurrency;
+
+    /** The directory the reports, error files and summary are written to */
+    private final Path OutputDirectory;
+
+    /** Number of gross incomes each file caches the deductions of, 0 for no cache */
+    private int CacheCapacity;
+
+    /** True when the error files get a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /** True when the files ran on virtual threads */
+    private boolean VirtualThreads;
+
+    /** The outcome of every file, in the order of the list */
+    private final List<FileResult> Results = new ArrayList<>();
+
+    /**
+     * Constructs a PayrollBatch writing to the given directory
+     * @param deductions      The deductions applied to every employee
+     * @param concurrency     The largest number of files processed at the same time
+     * @param outputDirectory The directory of the reports, error files and summary
+     */
+    public PayrollBatch(DeductionSet deductions, int concurrency, Path outputDirectory) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.Deductions = deductions;
+        this.Concurrency = concurrency;
+        this.OutputDirectory = outputDirectory;
+    }
+
+    /**
+     * Gives each file a deduction cache of the given capacity
+     * @param capacity The number of gross incomes cached for each file, 0 for no cache
+     */
+    public void setCacheCapacity(int capacity) {
+        this.CacheCapacity = capacity;
+    }
+
+    /**
+     * Adds a column with the reject reason of each line to the error files
+     * @param errorReasons true to add the reason column
+     */
+    public void setErrorReasons(boolean errorReasons) {
+        this.ErrorReasons = errorReasons;
+    }
+
+    /**
+     * Lists the payroll files of a batch
+     * A directory gives every regular file it holds, hidden files aside, sorted by name.
+     * Any other file is a manifest: one path per line, relative to the manifest, with
+     * empty lines and lines starting with # skipped.
+     * @param Source The directory or the manifest
+     * @return The payroll files, in the order they are summarized
+     * @throws IOException If the directory or the manifest cannot be read
+     */
+    public static List<Path> listFiles(Path Source) throws IOException {
+        List<Path> Inputs = new ArrayList<>();
+        if (Files.isDirectory(Source)) {
+            try (DirectoryStream<Path> Entries = Files.newDirectoryStream(Source)) {
+                for (Path Entry : Entries) {
+                    if (Files.isRegularFile(Entry) && !Entry.getFileName().toString().startsWith(".")) {
+                        Inputs.add(Entry);
+                    }
+                }
+            }
+            Inputs.sort(null);
+        } else {
+            Path Base = Source.toAbsolutePath().getParent();
+            for (String Line : Files.readAllLines(Source)) {
+                String Name = Line.trim();
+                if (Name.isEmpty() || Name.startsWith("#")) continue;
+                Inputs.add(Base.resolve(Name).normalize());
+            }
+        }
+        return Inputs;
+    }
+
+    /**
+     * Processes every payroll file, then writes the summary
+     * The outcome of each file can be read from the summary or with the getters
+     * @param Inputs The payroll files
+     * @throws IOException If the output directory or the summary cannot be written
+     */
+    public void run(List<Path> Inputs) throws IOException {
+        Files.createDirectories(OutputDirectory);
+
+        // Each file gets its own output names, a number is added when two files share a name
+        Set<String> Names = new HashSet<>();
+        for (Path Input : Inputs) {
+            String Name = baseName(Input);
+            String Unique = Name;
+            for (int Copy = 2; !Names.add(Unique.toLowerCase(Locale.ROOT)); Copy++) {
+                Unique = Name + "-" + Copy;
+            }
+            Results.add(new FileResult(Input,
+                    OutputDirectory.resolve(Unique + "Report.txt"), OutputDirectory.resolve(Unique + "Error.txt")));
+        }
+
+        Semaphore Slots = new Semaphore(Concurrency);
+        ExecutorService Executor = newExecutor();
+        List<Future<?>> Pending = new ArrayList<>();
+        try {
+            for (FileResult Result : Results) {
+                Pending.add(Executor.submit(() -> {
+                    Slots.acquireUninterruptibly();
+                    try {
+                        processFile(Result);
+                    } finally {
+                        Slots.release();
+                    }
+                }));
+            }
+            for (Future<?> File : Pending) {
+                File.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch processing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not process the batch", e.getCause());
+        } finally {
+            Executor.shutdownNow();
+        }
+
+        writeSummary(OutputDirectory.resolve(SUMMARY_FILE));
+    }
+
+    /**
+     * Creates the executor the files run on
+     * Executors.newVirtualThreadPerTaskExecutor() only exists from Java 21, so it is looked up
+     * by reflection; when it is missing a pool of Concurrency platform threads is used
+     * @return The executor
+     */
+    private ExecutorService newExecutor() {
+        try {
+            Method Factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService Executor = (ExecutorService) Factory.invoke(null);
+            VirtualThreads = true;
+            return Executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Older JVM, or virtual threads still in preview and not enabled
+            VirtualThreads = false;
+            return Executors.newFixedThreadPool(Concurrency);
+        }
+    }
+
+    /**
+     * Streams one payroll file into its report and error files
+     * Every failure is kept in the outcome of the file instead of being thrown
+     * @param Result The outcome of the file, filled in
+     */
+    private void processFile(FileResult Result) {
+        long Started = System.nanoTime();
+        if (!Files.isRegularFile(Result.Input)) {
+            // No empty report or error file for a payroll file that is not there
+            Result.Failure = "file not found";
+            return;
+        }
+        try (PrintWriter ReportWriter = new PrintWriter(new BufferedWriter(new FileWriter(Result.Report.toFile())));
+             PrintWriter ErrorWriter = new PrintWriter(new BufferedWriter(new FileWriter(Result.Errors.toFile())))) {
+            StreamingPayroll Stream = new StreamingPayroll(ReportWriter, ErrorWriter, null, Deductions);
+            if (CacheCapacity > 0) Stream.setCache(new DeductionCache(Deductions, CacheCapacity));
+            Stream.setErrorReasons(ErrorReasons);
+            Stream.writeHeader();
+            if (PayrollSnapshot.isSnapshot(Result.Input)) {
+                try (PayrollSnapshot Snapshot = PayrollSnapshot.open(Result.Input)) {
+                    Snapshot.replay(Stream);
+                }
+            } else {
+                try (MappedPayrollReader Reader = new MappedPayrollReader(Result.Input.toString())) {
+                    Reader.forEachLine((Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+                }
+            }
+            Stream.finish();
+            Result.LineCounter = Stream.getLineCounter();
+            Result.ErrorLineCounter = Stream.getErrorLineCounter();
+            if (ReportWriter.checkError() || ErrorWriter.checkError()) {
+                Result.Failure = "could not write the report or error file";
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            Result.Failure = "file not found";
+        } catch (IOException | RuntimeException e) {
+            Result.Failure = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        Result.Millis = (System.nanoTime() - Started) / 1_000_000;
+    }
+
+    /**
+     * Writes the summary of every file and the totals of the batch
+     * @param File The summary file
+     * @throws IOException If the summary cannot be written
+     */
+    private void writeSummary(Path File) throws IOException {
+        String Rule = String.format(SUMMARY_ROW, "", "", "", "", "").replaceAll("[^|]", "-");
+        try (PrintWriter Out = new PrintWriter(new BufferedWriter(new FileWriter(File.toFile())))) {
+            Out.println("                         Batch Summary Report");
+            Out.println(Rule);
+            Out.println(String.format(SUMMARY_ROW, "File", "Status", "Employees", "Errors", "Millis"));
+            Out.println(Rule);
+            for (FileResult Result : Results) {
+                Out.println(String.format(SUMMARY_ROW, Result.Input.getFileName(),
+                        Result.Failure == null ? "OK" : "FAILED",
+                        Result.LineCounter, Result.ErrorLineCounter, Result.Millis));
+                if (Result.Failure != null) {
+                    Out.println("  > " + Result.Input + ": " + Result.Failure);
+                }
+            }
+            Out.println(Rule);
+            Out.println(String.format(SUMMARY_ROW, "Total: " + Results.size() + " files",
+                    getFailedCounter() + " failed", getLineCounter(), getErrorLineCounter(), ""));
+            Out.println(Rule);
+            if (Out.checkError()) throw new IOException("Could not write " + File);
+        }
+    }
+
+    /**
+     * Gets the name of a payroll file without its extension
+     * @param Input The payroll file
+     * @return The name its output files start with
+     */
+    private static String baseName(Path Input) {
+        String Name = Input.getFileName().toString();
+        int Dot = Name.lastIndexOf('.');
+        return Dot > 0 ? Name.substring(0, Dot) : Name;
+    }
+
+    /**
+     * Checks if the files ran on virtual threads
+     * @return true on virtual threads, false on a pool of platform threads
+     */
+    public boolean usedVirtualThreads() {
+        return VirtualThreads;
+    }
+
+    /**
+     * Gets the number of files processed, failed ones included
+     * @return The number of files
+     */
+    public int getFileCounter() {
+        return Results.size();
+    }
+
+    /**
+     * Gets the number of files that could not be processed
+     * @return The number of failed files
+     */
+    public int getFailedCounter() {
+        int Failed = 0;
+        for (FileResult Result : Results) {
+            if (Result.Failure != null) Failed++;
+        }
+        return Failed;
+    }
+
+    /**
+     * Gets the number of valid employee lines of every file
+     * @return The number of valid lines
+     */
+    public long getLineCounter() {
+        long Lines = 0;
+        for (FileResult Result : Results) {
+            Lines += Result.LineCounter;
+        }
+        return Lines;
+    }
+
+    /**
+     * Gets the number of invalid lines of every file
+     * @return The number of invalid lines
+     */
+    public long getErrorLineCounter() {
+        long Lines = 0;
+        for (FileResult Result : Results) {
+            Lines += Result.ErrorLineCounter;
+        }
+        return Lines;
+    }
+
+    /**
+     * Gets the path of the summary file
+     * @return The summary, in the output directory
+     */
+    public Path getSummaryFile() {
+        return OutputDirectory.resolve(SUMMARY_FILE);
+    }
+
+    /**
+     * Lists the failures of the batch
+     * @return One "file: reason" line per failed file
+     */
+    public List<String> getFailures() {
+        List<String> Failures = new ArrayList<>();
+        for (FileResult Result : Results) {
+            if (Result.Failure != null) Failures.add(Result.Input + ": " + Result.Failure);
+        }
+        return Failures;
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Checkpoints of a long streaming run, so a run that dies can resume where it stopped
+ *
+ * The report and the error log are written to ".part" files next to their final names, and
+ * only moved over the final files once every line is processed: the final files are always
+ * whole, from this run or from the last one. At a fixed interval the rows still buffered are
+ * written out, both part files are forced to the disk, and a checkpoint file records:
+ * >The position in the payroll file of the first line not processed yet
+ * >The number of valid and invalid lines processed so far
+ * >The length of both part files
+ * The checkpoint file itself is written to a temporary file and moved over the old one, so
+ * it always describes a state that is completely on the disk.
+ *
+ * A restarted run whose payroll file and settings did not change, the deductions, the minimum
+ * wage, the locale and the charset included, cuts the part files back to the lengths of the
+ * checkpoint, dropping what was written after it, and goes on reading at the recorded position.
+ * The checkpoint file is deleted when the run completes.
+ */
+public class PayrollCheckpoint {
+
+    /** The checkpoint file used when none is given */
+    public static final String DEFAULT_FILE = "data/payroll.checkpoint";
+
+    /** Suffix of the output files while the run is in progress */
+    public static final String PART_SUFFIX = ".part";
+
+    /** Number of lines between two readings of the clock */
+    private static final int CHECK_EVERY = 1024;
+
+    /** Identifies a checkpoint file, "PRCK" */
+    private static final int MAGIC = 0x5052434B;
+
+    /** Version of the checkpoint format */
+    private static final int VERSION = 1;
+
+    /** The checkpoint file */
+    private final Path File;
+
+    /** The payroll file, its size and date and the settings the outputs depend on */
+    private final String Settings;
+
+    /** Time between two checkpoints, in nanoseconds */
+    private final long IntervalNanos;
+
+    /** Time the next checkpoint is due */
+    private long NextCheckpointNanos;
+
+    /** Number of lines since the clock was last read */
+    private int Calls;
+
+    /** True when the run goes on from a checkpoint of an earlier run */
+    private boolean Resumed;
+
+    /** Position in the payroll file of the first line not processed yet */
+    private long InputPosition;
+
+    /** Number of valid lines processed before the input position */
+    private int LineCounter;
+
+    /** Number of invalid lines processed before the input position */
+    private int ErrorLineCounter;
+
+    /** Length of the report part file at the checkpoint */
+    private long ReportPosition;
+
+    /** Length of the error log part file at the checkpoint */
+    private long ErrorPosition;
+
+    /** The channel of the report part file, null until opened */
+    private FileChannel ReportChannel;
+
+    /** The channel of the error log part file, null until opened */
+    private FileChannel ErrorChannel;
+
+    /** Number of checkpoints taken by this run */
+    private int CheckpointCounter;
+
+    /** Time spent taking the checkpoints, in nanoseconds */
+    private long CheckpointNanos;
+
+    /**
+     * Constructs a PayrollCheckpoint
+     * @param file            The checkpoint file
+     * @param input           The payroll file
+     * @param settings        The settings the outputs depend on, such as the deductions
+     * @param intervalSeconds The time between two checkpoints, in seconds
+     * @throws IOException If the payroll file cannot be read
+     */
+    public PayrollCheckpoint(Path file, Path input, String settings, int intervalSeconds) throws IOException {
+        this.File = file;
+        this.Settings = input.toAbsolutePath() + " " + Files.size(input) + " "
+                + Files.getLastModifiedTime(input).toMillis() + " " + settings + " "
+                + PayrollManager.MINIMUM_WAGE + " " + Locale.getDefault() + " " + Charset.defaultCharset();
+        this.IntervalNanos = intervalSeconds * 1_000_000_000L;
+        this.NextCheckpointNanos = System.nanoTime() + IntervalNanos;
+    }
+
+    /**
+     * Reads the checkpoint of an earlier run
+     * The checkpoint is only used when it was taken on the same payroll file with the same
+     * settings, and both part files are at least as long as it records.
+     * @param ReportFile The final name of the report
+     * @param ErrorFile  The final name of the error log
+     * @return true if the run resumes from the checkpoint, false if it starts from the first line
+     */
+    public boolean load(String ReportFile, String ErrorFile) {
+        Resumed = false;
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            ByteBuffer Buffer = ByteBuffer.allocate((int) Math.min(Channel.size(), 1 << 20));
+            while (Buffer.hasRemaining() && Channel.read(Buffer) > 0) {
+                // Read the whole file
+            }
+            Buffer.flip();
+            byte[] Expected = Settings.getBytes(StandardCharsets.UTF_8);
+            if (Buffer.remaining() < 12 || Buffer.getInt() != MAGIC || Buffer.getInt() != VERSION
+                    || Buffer.getInt() != Expected.length || Buffer.remaining() != Expected.length + 32) {
+                System.out.println("Warning: " + File + " is not a usable checkpoint, the run starts from the first line.");
+                return false;
+            }
+            byte[] Found = new byte[Expected.length];
+            Buffer.get(Found);
+            if (!Arrays.equals(Found, Expected)) {
+                System.out.println("> The payroll file or the settings changed since the checkpoint, the run starts from the first line");
+                return false;
+            }
+            long Input = Buffer.getLong();
+            int Lines = Buffer.getInt();
+            int Errors = Buffer.getInt();
+            long Report = Buffer.getLong();
+            long Error = Buffer.getLong();
+            if (Files.size(part(ReportFile)) < Report || Files.size(part(ErrorFile)) < Error) {
+                System.out.println("Warning: the output files are shorter than the checkpoint, the run starts from the first line.");
+                return false;
+            }
+            InputPosition = Input;
+            LineCounter = Lines;
+            ErrorLineCounter = Errors;
+            ReportPosition = Report;
+            ErrorPosition = Error;
+            Resumed = true;
+        } catch (NoSuchFileException e) {
+            // No run to resume
+        } catch (IOException e) {
+            System.out.println("Warning: " + File + " could not be read, the run starts from the first line.");
+        }
+        return Resumed;
+    }
+
+    /**
+     * Opens the part file of the report, cut back to the checkpoint when the run resumes
+     * @param ReportFile The final name of the report
+     * @return The writer of the report
+     * @throws IOException If the part file cannot be opened
+     */
+    public PrintWriter openReport(String ReportFile) throws IOException {
+        ReportChannel = open(part(ReportFile), ReportPosition);
+        return writer(ReportChannel);
+    }
+
+    /**
+     * Opens the part file of the error log, cut back to the checkpoint when the run resumes
+     * @param ErrorFile The final name of the error log
+     * @return The writer of the error log
+     * @throws IOException If the part file cannot be opened
+     */
+    public PrintWriter openErrorLog(String ErrorFile) throws IOException {
+        ErrorChannel = open(part(ErrorFile), ErrorPosition);
+        return writer(ErrorChannel);
+    }
+
+    /**
+     * Checks if a checkpoint is due, the clock is only read every few calls
+     * @return true when the interval has elapsed since the last checkpoint
+     */
+    public boolean due() {
+        if (++Calls < CHECK_EVERY) return false;
+        Calls = 0;
+        return System.nanoTime() >= NextCheckpointNanos;
+    }
+
+    /**
+     * Takes a checkpoint before a line is processed
+     * @param Position     The position of the line in the payroll file
+     * @param Stream       The payroll being written, its buffered rows are written out first
+     * @param ReportWriter The writer of the report
+     * @param ErrorWriter  The writer of the error log
+     * @throws UncheckedIOException If an output file or the checkpoint cannot be written
+     */
+    public void save(long Position, StreamingPayroll Stream, PrintWriter ReportWriter, PrintWriter ErrorWriter) {
+        long Started = System.nanoTime();
+        Stream.flush();
+        ReportWriter.flush();
+        ErrorWriter.flush();
+        try {
+            if (ReportWriter.checkError() || ErrorWriter.checkError()) {
+                throw new IOException("The output files could not be written");
+            }
+            // The outputs must be on the disk before the checkpoint that records them
+            ReportChannel.force(false);
+            ErrorChannel.force(false);
+            write(Position, Stream.getLineCounter(), Stream.getErrorLineCounter(),
+                    ReportChannel.position(), ErrorChannel.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CheckpointCounter++;
+        long Now = System.nanoTime();
+        CheckpointNanos += Now - Started;
+        NextCheckpointNanos = Now + IntervalNanos;
+    }
+
+    /**
+     * Moves the part files over the final outputs and deletes the checkpoint
+     * Must be called once every line has been processed and the rows written out
+     * @param ReportFile   The final name of the report
+     * @param ErrorFile    The final name of the error log
+     * @param ReportWriter The writer of the report, closed
+     * @param ErrorWriter  The writer of the error log, closed
+     * @throws IOException If an output file cannot be written or moved
+     */
+    public void complete(String ReportFile, String ErrorFile, PrintWriter ReportWriter, PrintWriter ErrorWriter) throws IOException {
+        ReportWriter.flush();
+        ErrorWriter.flush();
+        if (ReportWriter.checkError() || ErrorWriter.checkError()) {
+            throw new IOException("The output files could not be written");
+        }
+        ReportChannel.force(false);
+        ErrorChannel.force(false);
+        ReportWriter.close();
+        ErrorWriter.close();
+        Files.move(part(ReportFile), Paths.get(ReportFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(part(ErrorFile), Paths.get(ErrorFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(File);
+    }
+
+    /**
+     * Writes the checkpoint file through a temporary file
+     * @param Position       The position of the first line not processed yet
+     * @param Lines          The number of valid lines processed
+     * @param Errors         The number of invalid lines processed
+     * @param ReportLength   The length of the report part file
+     * @param ErrorLength    The length of the error log part file
+     * @throws IOException If the checkpoint cannot be written
+     */
+    private void write(long Position, int Lines, int Errors, long ReportLength, long ErrorLength) throws IOException {
+        byte[] SettingBytes = Settings.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer Buffer = ByteBuffer.allocate(SettingBytes.length + 44);
+        Buffer.putInt(MAGIC).putInt(VERSION).putInt(SettingBytes.length).put(SettingBytes)
+                .putLong(Position).putInt(Lines).putInt(Errors).putLong(ReportLength).putLong(ErrorLength);
+        Buffer.flip();
+        Path Temporary = File.resolveSibling(File.getFileName() + ".tmp");
+        try (FileChannel Channel = FileChannel.open(Temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (Buffer.hasRemaining()) {
+                Channel.write(Buffer);
+            }
+            Channel.force(false);
+        }
+        Files.move(Temporary, File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a part file for writing at a position, dropping everything after it
+     * @param Part     The part file
+     * @param Position The length kept, 0 for a new run
+     * @return The channel, positioned at its end
+     * @throws IOException If the file cannot be opened
+     */
+    private static FileChannel open(Path Part, long Position) throws IOException {
+        FileChannel Channel = FileChannel.open(Part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        Channel.truncate(Position);
+        Channel.position(Position);
+        return Channel;
+    }
+
+    /**
+     * Wraps a channel in a buffered writer, with the charset of FileWriter
+     * @param Channel The channel of a part file
+     * @return The writer
+     */
+    private static PrintWriter writer(FileChannel Channel) {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(Channel), Charset.defaultCharset())));
+    }
+
+    /**
+     * Gets the part file of an output
+     * @param FileName The final name of the output
+     * @return The file written while the run is in progress
+     */
+    private static Path part(String FileName) {
+        return Paths.get(FileName + PART_SUFFIX);
+    }
+
+    /**
+     * Checks if the run goes on from a checkpoint
+     * @return true if the run resumes
+     */
+    public boolean isResumed() {
+        return Resumed;
+    }
+
+    /**
+     * Gets the position the run goes on from
+     * @return The position in the payroll file of the first line not processed, 0 for a new run
+     */
+    public long getInputPosition() {
+        return InputPosition;
+    }
+
+    /**
+     * Gets the number of valid lines processed before the checkpoint
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines processed before the checkpoint
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Gets the number of checkpoints taken by this run
+     * @return The number of checkpoints
+     */
+    public int getCheckpointCounter() {
+        return CheckpointCounter;
+    }
+
+    /**
+     * Gets the time spent taking the checkpoints
+     * @return The time, in milliseconds
+     */
+    public long getCheckpointMillis() {
+        return CheckpointNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,348 @@
+import deductions.DeductionKernel;
+import deductions.DeductionSet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Employees of a payroll file and their deductions, indexed for point and range queries
+ *
+ * The valid lines are loaded once into an EmployeeTable and their deductions are calculated a
+ * whole column at a time by the DeductionKernel. Three indexes are then built over the rows:
+ * >An open addressing table of the employee IDs, for lookups by ID in constant time
+ * >The rows sorted by gross income, and the sorted gross incomes, for range queries
+ * >The rows sorted by net income, and the sorted net incomes, for range queries
+ * A range query is two binary searches in the sorted incomes. Every index is made of primitive
+ * arrays, no query creates any object but its result.
+ *
+ * When an ID appears on several lines, the lookup returns the first one; every line is in the
+ * range indexes. The index cannot be changed once built, so it can be queried from several
+ * threads at the same time.
+ */
+public class PayrollIndex {
+
+    /** The employees of the valid lines */
+    private final EmployeeTable Employees;
+
+    /** The deductions of each row, one column per result of DeductionSet */
+    private final long[][] Deductions;
+
+    /** Open addressing table of the row numbers plus one, 0 for an empty slot */
+    private final int[] Slots;
+
+    /** The rows in increasing order of gross income */
+    private final int[] ByGross;
+
+    /** The gross incomes of the rows of ByGross, in cents */
+    private final long[] SortedGross;
+
+    /** The rows in increasing order of net income */
+    private final int[] ByNet;
+
+    /** The net incomes of the rows of ByNet, in cents */
+    private final long[] SortedNet;
+
+    /** Number of lines whose ID was already used by an earlier line */
+    private int DuplicateCounter;
+
+    /** Number of invalid lines skipped while loading */
+    private int ErrorLineCounter;
+
+    /**
+     * Builds the indexes of a table of employees
+     * @param employees  The employees, not changed afterwards
+     * @param deductions The deductions applied to every employee
+     */
+    public PayrollIndex(EmployeeTable employees, DeductionSet deductions) {
+        this.Employees = employees;
+        int Size = employees.size();
+
+        this.Deductions = DeductionKernel.newColumns(Size);
+        DeductionKernel.create(deductions).calculateColumns(employees.getGrossColumn(), 0, Size, Deductions);
+
+        // At most half full
+        this.Slots = new int[Integer.highestOneBit(Math.max(Size, 1)) * 4];
+        int Mask = Slots.length - 1;
+        for (int Row = 0; Row < Size; Row++) {
+            long ID = employees.getID(Row);
+            int Slot = slot(ID, Mask);
+            boolean Duplicate = false;
+            while (Slots[Slot] != 0) {
+                if (employees.getID(Slots[Slot] - 1) == ID) {
+                    Duplicate = true;
+                    break;
+                }
+                Slot = (Slot + 1) & Mask;
+            }
+            if (Duplicate) {
+                DuplicateCounter++;
+            } else {
+                Slots[Slot] = Row + 1;
+            }
+        }
+
+        long[] Gross = Arrays.copyOf(employees.getGrossColumn(), Size);
+        this.ByGross = sortedRows(Gross);
+        this.SortedGross = gather(Gross, ByGross);
+        long[] Net = Deductions[DeductionSet.NET_INCOME];
+        this.ByNet = sortedRows(Net);
+        this.SortedNet = gather(Net, ByNet);
+    }
+
+    /**
+     * Loads the valid lines of a payroll file, a text file or a snapshot, and builds their indexes
+     * @param File       The payroll file
+     * @param deductions The deductions applied to every employee
+     * @return The index
+     * @throws IOException If the file cannot be read
+     */
+    public static PayrollIndex load(Path File, DeductionSet deductions) throws IOException {
+        EmployeeTable Employees = new EmployeeTable(1024);
+        int Rejected;
+        if (PayrollSnapshot.isSnapshot(File)) {
+            try (PayrollSnapshot Snapshot = PayrollSnapshot.open(File)) {
+                for (int Row = 0; Row < Snapshot.size(); Row++) {
+                    Employees.add(Snapshot.getID(Row), Snapshot.getFirstName(Row), Snapshot.getLastName(Row),
+                            Snapshot.getHoursWorked(Row), Snapshot.getHourRate(Row), Snapshot.getGrossCents(Row));
+                }
+                Rejected = Snapshot.getRejectedCount();
+            }
+        } else {
+            PayrollRecordParser Parser = new PayrollRecordParser();
+            int[] Invalid = new int[1];
+            try (MappedPayrollReader Reader = new MappedPayrollReader(File.toString())) {
+                Reader.forEachLine((Buffer, Offset, Length, Position) -> {
+                    if (PayrollRecordParser.isBlank(Buffer, Offset, Length)) return;
+                    if (Parser.validate(Buffer, Offset, Length) == RejectReason.NONE) {
+                        Employees.add(Parser);
+                    } else {
+                        Invalid[0]++;
+                    }
+                });
+            }
+            Rejected = Invalid[0];
+        }
+        PayrollIndex Index = new PayrollIndex(Employees, deductions);
+        Index.ErrorLineCounter = Rejected;
+        return Index;
+    }
+
+    /**
+     * Finds the row of an employee
+     * @param ID The employee ID
+     * @return The row of the first line with this ID, or -1 if there is none
+     */
+    public int find(long ID) {
+        int Mask = Slots.length - 1;
+        int Slot = slot(ID, Mask);
+        while (Slots[Slot] != 0) {
+            int Row = Slots[Slot] - 1;
+            if (Employees.getID(Row) == ID) return Row;
+            Slot = (Slot + 1) & Mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the rows whose gross income is in a range, in increasing order of gross income
+     * @param MinCents The smallest gross income, in cents (inclusive)
+     * @param MaxCents The largest gross income, in cents (inclusive)
+     * @param Limit    The largest number of rows returned
+     * @return The rows, at most Limit
+     */
+    public int[] rangeByGross(long MinCents, long MaxCents, int Limit) {
+        return range(SortedGross, ByGross, MinCents, MaxCents, Limit);
+    }
+
+    /**
+     * Finds the rows whose net income is in a range, in increasing order of net income
+     * @param MinCents The smallest net income, in cents (inclusive)
+     * @param MaxCents The largest net income, in cents (inclusive)
+     * @param Limit    The largest number of rows returned
+     * @return The rows, at most Limit
+     */
+    public int[] rangeByNet(long MinCents, long MaxCents, int Limit) {
+        return range(SortedNet, ByNet, MinCents, MaxCents, Limit);
+    }
+
+    /**
+     * Counts the rows whose gross income is in a range
+     * @param MinCents The smallest gross income, in cents (inclusive)
+     * @param MaxCents The largest gross income, in cents (inclusive)
+     * @return The number of rows
+     */
+    public int countByGross(long MinCents, long MaxCents) {
+        return count(SortedGross, MinCents, MaxCents);
+    }
+
+    /**
+     * Counts the rows whose net income is in a range
+     * @param MinCents The smallest net income, in cents (inclusive)
+     * @param MaxCents The largest net income, in cents (inclusive)
+     * @return The number of rows
+     */
+    public int countByNet(long MinCents, long MaxCents) {
+        return count(SortedNet, MinCents, MaxCents);
+    }
+
+    /**
+     * Gets the employees of the index
+     * @return The employee table, read through its rows
+     */
+    public EmployeeTable getEmployees() {
+        return Employees;
+    }
+
+    /**
+     * Builds the Employee of a row
+     * @param Row The row
+     * @return A new Employee
+     */
+    public Employee toEmployee(int Row) {
+        return Employees.toEmployee(Row);
+    }
+
+    /**
+     * Gets one of the amounts of a row
+     * @param Row    The row
+     * @param Amount The amount, a result index of DeductionSet such as FEDERAL_TAX or NET_INCOME
+     * @return The amount, in cents
+     */
+    public long getAmount(int Row, int Amount) {
+        return Deductions[Amount][Row];
+    }
+
+    /**
+     * Gets the number of rows
+     * @return The number of valid lines indexed
+     */
+    public int size() {
+        return Employees.size();
+    }
+
+    /**
+     * Gets the number of lines whose ID was already used by an earlier line
+     * @return The number of duplicate IDs
+     */
+    public int getDuplicateCounter() {
+        return DuplicateCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines skipped while loading
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Finds the rows of a sorted index whose key is in a range
+     * @param Keys     The sorted keys
+     * @param Rows     The row of each key
+     * @param MinCents The smallest key (inclusive)
+     * @param MaxCents The largest key (inclusive)
+     * @param Limit    The largest number of rows returned
+     * @return The rows, at most Limit
+     */
+    private static int[] range(long[] Keys, int[] Rows, long MinCents, long MaxCents, int Limit) {
+        int From = lowerBound(Keys, MinCents);
+        int To = MaxCents == Long.MAX_VALUE ? Keys.length : lowerBound(Keys, MaxCents + 1);
+        int Count = Math.max(0, Math.min(To - From, Limit));
+        int[] Result = new int[Count];
+        System.arraycopy(Rows, From, Result, 0, Count);
+        return Result;
+    }
+
+    /**
+     * Counts the keys of a sorted index in a range
+     * @param Keys     The sorted keys
+     * @param MinCents The smallest key (inclusive)
+     * @param MaxCents The largest key (inclusive)
+     * @return The number of keys
+     */
+    private static int count(long[] Keys, long MinCents, long MaxCents) {
+        int From = lowerBound(Keys, MinCents);
+        int To = MaxCents == Long.MAX_VALUE ? Keys.length : lowerBound(Keys, MaxCents + 1);
+        return Math.max(0, To - From);
+    }
+
+    /**
+     * Finds the first key not below a value
+     * @param Keys  The sorted keys
+     * @param Value The value
+     * @return The index of the first key greater than or equal to the value, or the number of keys
+     */
+    private static int lowerBound(long[] Keys, long Value) {
+        int Low = 0;
+        int High = Keys.length;
+        while (Low < High) {
+            int Middle = (Low + High) >>> 1;
+            if (Keys[Middle] < Value) {
+                Low = Middle + 1;
+            } else {
+                High = Middle;
+            }
+        }
+        return Low;
+    }
+
+    /**
+     * Sorts the rows by a column, keeping the rows with the same key in their order
+     * A merge sort on the row numbers, so no row is boxed
+     * @param Keys The key of each row
+     * @return The rows in increasing order of key
+     */
+    private static int[] sortedRows(long[] Keys) {
+        int Size = Keys.length;
+        int[] Rows = new int[Size];
+        for (int Row = 0; Row < Size; Row++) {
+            Rows[Row] = Row;
+        }
+        int[] Merged = new int[Size];
+        for (int Width = 1; Width < Size; Width *= 2) {
+            for (int Start = 0; Start < Size; Start += 2 * Width) {
+                int Middle = Math.min(Start + Width, Size);
+                int End = Math.min(Start + 2 * Width, Size);
+                int Left = Start;
+                int Right = Middle;
+                int Out = Start;
+                while (Left < Middle && Right < End) {
+                    Merged[Out++] = Keys[Rows[Right]] < Keys[Rows[Left]] ? Rows[Right++] : Rows[Left++];
+                }
+                while (Left < Middle) Merged[Out++] = Rows[Left++];
+                while (Right < End) Merged[Out++] = Rows[Right++];
+            }
+            int[] Swap = Rows;
+            Rows = Merged;
+            Merged = Swap;
+        }
+        return Rows;
+    }
+
+    /**
+     * Copies the keys of the rows in the order of an index
+     * @param Keys The key of each row
+     * @param Rows The rows, in the order of the index
+     * @return The keys in the order of the index
+     */
+    private static long[] gather(long[] Keys, int[] Rows) {
+        long[] Sorted = new long[Rows.length];
+        for (int Index = 0; Index < Rows.length; Index++) {
+            Sorted[Index] = Keys[Rows[Index]];
+        }
+        return Sorted;
+    }
+
+    /**
+     * Finds the home slot of an employee ID
+     * @param ID   The employee ID
+     * @param Mask The size of the table minus one
+     * @return The first slot to look at
+     */
+    private static int slot(long ID, int Mask) {
+        long Mixed = ID * 0x9E3779B97F4A7C15L;
+        return (int) (Mixed ^ (Mixed >>> 32)) & Mask;
+    }
+}
@@ -1,21 +1,31 @@
-import exceptions.InvalidFileFormatException;
-import exceptions.MinimumWageException;
-import exceptions.NegativeValueException;
-
-import deductions.FederalTax;
-import deductions.ProvincialTax;
-import deductions.EmploymentInsurance;
-import deductions.QCParentalPlan;
-import deductions.QCPensionPlan;
+import deductions.DeductionCache;
+import deductions.DeductionKernel;
+import deductions.DeductionSet;
+import deductions.PeriodDeductions;
+import deductions.RuleEvaluator;
+import deductions.RuleSet;
+import deductions.YearToDateStore;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.PrintWriter;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Scanner;
-import java.util.InputMismatchException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 /**
  * This program reads employee data from a file, calculates various tax deductions,
@@ -34,41 +44,364 @@ public class PayrollManager {
      * Reads employee data from a file, validates it, calculates tax deductions,
      * and generates payroll and error reports.
      *
-     * @param args Command line arguments (not used in this application)
+     * @param args Command line arguments, see {@link PayrollOptions} for the supported flags
      */
 
     // Define file names for input and output operations
-    private static final String PAYROLL_IN    = "data/payroll.txt";
-    private static final String REPORT_OUT    = "data/payrollReport.txt";
-    private static final String ERROR_OUT     = "data/payrollError.txt";
+    static final String PAYROLL_IN    = "data/payroll.txt";
+    static final String REPORT_OUT    = "data/payrollReport.txt";
+    static final String ERROR_OUT     = "data/payrollError.txt";
 
-    private static final double MINIMUM_WAGE  = 15.75;      // Minimum wage constant for validation
+    static final double MINIMUM_WAGE  = 15.75;      // Minimum wage constant for validation
     private static final int    MAX_EMPLOYEES = 150;    // Maximum number of employees to process
 
+    // Report layout shared by the console and the report file
+    static final String REPORT_TITLE  = "                              Final Summary Report";
+    static final String REPORT_RULE   = "-------------------------------------------------------------------------------------";
+    static final String REPORT_HEADER = String.format("| %-3s | %-10s | %-10s | %12s | %10s | %12s |",
+            "ID", "First Name", "Last Name", "Gross Salary", "Deductions", "Net Salary");
+    static final String REPORT_ROW    = "| %-3d | %-10s | %-10s | %12.2f | %10.2f | %12.2f |\n";
+
     public static void main(String[] args){
 
+        PayrollOptions Options = PayrollOptions.parse(args);
+
+        // Load the tax brackets of the selected year and province before touching any file
+        DeductionSet Deductions;
+        try {
+            Deductions = new DeductionSet(Options.getTaxYear(), Options.getProvince());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Error... " + e.getMessage());
+            return;
+        }
+
+        // In quiet mode only the progress and summary lines are displayed
+        boolean Verbose = !Options.isQuiet();
+
         // Display welcome message
-        System.out.println("\n******************************************************************************" + "\n"
-                + "|           Welcome to the Employee Payroll Calculator                       |\n"
-                + "******************************************************************************");
+        if (Verbose) {
+            System.out.println("\n******************************************************************************" + "\n"
+                    + "|           Welcome to the Employee Payroll Calculator                       |\n"
+                    + "******************************************************************************");
+        }
+
+        // Rule mode: the deductions come from the rules of the year and province, compiled or interpreted
+        if (Options.getRuleMode() != null) {
+            RuleSet Rules = RuleSet.of(Deductions);
+            Deductions = Deductions.withRules(Options.getRuleMode().equals("compiled")
+                    ? RuleEvaluator.create(Rules) : RuleEvaluator.createInterpreter(Rules));
+            if (Verbose) {
+                System.out.println("> Deductions calculated by the " + Deductions.describeEvaluator()
+                        + " rules of " + Rules.describe());
+            }
+        }
+
+        // Batch mode: many payroll files, each into its own report and error files
+        if (Options.getBatchSource() != null) {
+            runBatch(Options, Deductions, Verbose);
+            return;
+        }
+
+        // Query mode: the employees are indexed once, then queried over HTTP until the program is stopped
+        if (Options.getServePort() > 0) {
+            runServer(Options, Deductions);
+            return;
+        }
 
         // Initialize file handling objects as null for proper try-catch-finally structure
         Scanner FileScanner = null;       // For reading the input file
+        MappedPayrollReader MappedReader = null; // For reading the input file in memory mapped mode
+        CompressedPayrollReader CompressedReader = null; // For reading a compressed input file in streaming mode
         PrintWriter ReportWriter =null;   // For writing to the payroll report
         PrintWriter ErrorWriter = null;   // For writing to the error log
+        AsyncConsoleSink EchoSink = null; // For displaying the rows from a background thread
+        PayrollSnapshot Snapshot = null;  // For reading a compiled snapshot of the payroll
+        String InputFile = Options.getInputFile(); // The payroll file read, text or snapshot
+        String ReportFile = Options.getReportCompression() != null
+                ? PayrollManager.REPORT_OUT + ".gz" : PayrollManager.REPORT_OUT; // The report written, text or compressed
 
-        // Array to store employee objects. Max employees for testing
-        Employee[] EmployeeList = new Employee[MAX_EMPLOYEES];
+        // Columnar table to store the employees. Max employees for testing
+        EmployeeTable EmployeeList = new EmployeeTable(MAX_EMPLOYEES);
 
         try {
+            // Validate the text payroll once into a snapshot, then read the payroll from the snapshot
+            if (Options.getSnapshotFile() != null) {
+                if (PayrollSnapshot.isSnapshot(Paths.get(InputFile))) {
+                    System.out.println("Warning: " + InputFile + " is already a snapshot, no snapshot is written.");
+                } else if (CompressedPayrollReader.detect(Paths.get(InputFile)) != null) {
+                    System.out.println("Warning: " + InputFile + " is compressed, a snapshot is only written from a text payroll file.");
+                } else {
+                    int[] Written;
+                    try (MappedPayrollReader Source = new MappedPayrollReader(InputFile)) {
+                        Written = PayrollSnapshot.write(Source, Paths.get(InputFile), Paths.get(Options.getSnapshotFile()));
+                    }
+                    System.out.println("> Snapshot " + Options.getSnapshotFile() + " written: " + Written[0]
+                            + " employees, " + Written[1] + " rejected lines");
+                    InputFile = Options.getSnapshotFile();
+                }
+            }
+
             // Initialize file objects for reading and writing
-            FileScanner = new Scanner(new FileReader(PayrollManager.PAYROLL_IN));     // Opens input file for reading
-            ReportWriter = new PrintWriter(new BufferedWriter(new FileWriter(PayrollManager.REPORT_OUT))); // Opens report file for writing
-            ErrorWriter = new PrintWriter(new BufferedWriter(new FileWriter(PayrollManager.ERROR_OUT)));    // Opens error log for writing
+            if (PayrollSnapshot.isSnapshot(Paths.get(InputFile))) {
+                try {
+                    Snapshot = PayrollSnapshot.open(Paths.get(InputFile)); // Maps the snapshot for reading
+                } catch (IOException e) {
+                    System.out.println("Error... " + e.getMessage());
+                    return;
+                }
+                if (Options.isIncremental() || Options.getThreads() > 0 || Options.getPipelineWorkers() > 0) {
+                    System.out.println("Warning: a snapshot is replayed on one thread, --incremental, --threads and --pipeline are ignored.");
+                }
+            } else if (CompressedPayrollReader.detect(Paths.get(InputFile)) != null) {
+                if (Options.isStreaming()) {
+                    // Decompressed straight into the stream, --threads sets the threads decompressing the blocks
+                    CompressedReader = new CompressedPayrollReader(Paths.get(InputFile), Math.max(1, Options.getThreads()));
+                    if (Options.isIncremental() || Options.getPipelineWorkers() > 0 || Options.getWorkerProcesses() > 0) {
+                        System.out.println("Warning: a compressed payroll is read in order, --incremental, --pipeline and --workers are ignored.");
+                    }
+                } else {
+                    FileScanner = new Scanner(new InputStreamReader(CompressedPayrollReader.openStream(Paths.get(InputFile))));
+                }
+            } else if (Options.isMapped()) {
+                MappedReader = new MappedPayrollReader(InputFile);   // Maps input file for reading
+            } else {
+                FileScanner = new Scanner(new FileReader(InputFile)); // Opens input file for reading
+            }
+
+            // Pay period mode: the deductions of each employee depend on the year to date
+            YearToDateStore YearToDate = null;
+            if (Options.getPeriodsPerYear() > 0) {
+                if (Snapshot == null && (Options.isIncremental() || Options.getThreads() > 0 || Options.getPipelineWorkers() > 0)) {
+                    System.out.println("Warning: pay periods are calculated on one thread, --incremental, --threads and --pipeline are ignored.");
+                }
+                YearToDate = openYearToDate(Options);
+                if (YearToDate == null) return;
+            }
+
+            // Checkpoint mode: the outputs are written to part files, and a run that died resumes from its last checkpoint
+            PayrollCheckpoint Checkpoint = null;
+            if (Options.getCheckpointInterval() > 0) {
+                if (Snapshot != null || CompressedReader != null || YearToDate != null || Options.isIncremental()
+                        || Options.getThreads() > 0 || Options.getPipelineWorkers() > 0 || Options.getWorkerProcesses() > 0
+                        || Options.getReportCompression() != null) {
+                    System.out.println("Warning: checkpoints are only taken by a sequential --mmap run of text files, --checkpoint is ignored.");
+                } else {
+                    Checkpoint = new PayrollCheckpoint(Paths.get(Options.getCheckpointFile()), Paths.get(InputFile),
+                            Deductions.describe() + " " + Options.hasErrorReasons(), Options.getCheckpointInterval());
+                    if (Checkpoint.load(PayrollManager.REPORT_OUT, PayrollManager.ERROR_OUT)) {
+                        System.out.println("> Resuming from the checkpoint of an earlier run: "
+                                + (Checkpoint.getLineCounter() + Checkpoint.getErrorLineCounter())
+                                + " lines already processed, reading from position " + Checkpoint.getInputPosition());
+                    }
+                }
+            }
+            if (Checkpoint != null) {
+                ReportWriter = Checkpoint.openReport(PayrollManager.REPORT_OUT);  // Opens the report part file for writing
+                ErrorWriter = Checkpoint.openErrorLog(PayrollManager.ERROR_OUT);  // Opens the error log part file for writing
+            } else {
+                ReportWriter = openReport(ReportFile, Options.getReportCompression(), Math.max(1, Options.getThreads())); // Opens report file for writing
+                ErrorWriter = new PrintWriter(new BufferedWriter(new FileWriter(PayrollManager.ERROR_OUT)));    // Opens error log for writing
+            }
+
+            if (Options.getReportCompression() != null) {
+                System.out.println("> Report compressed " + (Options.getReportCompression() == CompressedPayrollReader.Format.GZIP
+                        ? "as one gzip stream" : "in blocks") + " into " + ReportFile);
+            }
 
             // Display status messages to console
-            System.out.println("> Opening file payroll...");
-            System.out.println("> Reading file payroll...");
+            if (Verbose) {
+                System.out.println("> Opening file payroll...");
+                System.out.println("> Reading file payroll...");
+            }
+
+            // Optional timings and counters of the run, written to a summary file at the end
+            PayrollMetrics Metrics = null;
+            long AllocatedBefore = 0;
+            if (Options.getMetricsFile() != null) {
+                Metrics = new PayrollMetrics();
+                Metrics.start();
+                AllocatedBefore = PayrollMetrics.threadAllocatedBytes();
+            }
+
+            // Incremental mode: the lines unchanged since the last run are copied from the index
+            if (Options.isIncremental() && Snapshot == null && CompressedReader == null && YearToDate == null) {
+                Path IndexFile = Paths.get(IncrementalPayroll.INDEX_FILE);
+                IncrementalPayroll Incremental = new IncrementalPayroll(ReportWriter, ErrorWriter, Deductions);
+                Incremental.setErrorReasons(Options.hasErrorReasons());
+                if (!Incremental.loadIndex(IndexFile) && Verbose) {
+                    System.out.println("> No usable index from a previous run, every line is calculated");
+                }
+                Incremental.writeHeader();
+                Incremental.run(MappedReader);
+                Incremental.finish();
+                Incremental.saveIndex(IndexFile);
+
+                if (Verbose) System.out.println("\n");
+                System.out.println("> "+Incremental.getLineCounter()+" employee information lines read from payroll document");
+                System.out.println("> "+Incremental.getErrorLineCounter()+" lines are logged into the error report");
+                System.out.println("> "+Incremental.getRecomputedCounter()+" lines recalculated, "
+                        +Incremental.getReusedCounter()+" reused and "+Incremental.getRemovedCounter()+" employees removed since the last run");
+                if (Metrics != null) {
+                    writeMetrics(Metrics, AllocatedBefore, Options.getMetricsFile(), "incremental", InputFile,
+                            Incremental.getLineCounter(), Incremental.getErrorLineCounter());
+                }
+                return;
+            }
+
+            // Streaming mode: every line is validated, calculated and written as soon as it is read
+            // A snapshot holds lines already validated, it is always streamed
+            if (Options.isStreaming() || Snapshot != null) {
+                // Rows and invalid lines go to the console directly, through a background thread, or nowhere
+                PrintWriter Console = null;
+                if (Options.getEchoPolicy() != null) {
+                    EchoSink = new AsyncConsoleSink(Options.getEchoCapacity(), Options.getEchoPolicy());
+                    Console = new PrintWriter(EchoSink);
+                } else if (Verbose) {
+                    Console = new PrintWriter(System.out);
+                }
+                ProgressReporter Progress = Verbose ? null : new ProgressReporter(Options.getProgressInterval());
+
+                // Optional cache of the deductions of recent gross incomes, useless when they depend on the year to date
+                DeductionCache Cache = Options.getCacheCapacity() > 0 && YearToDate == null
+                        ? new DeductionCache(Deductions, Options.getCacheCapacity()) : null;
+
+                StreamingPayroll Stream = new StreamingPayroll(ReportWriter, ErrorWriter, Console, Deductions);
+                Stream.setProgress(Progress);
+                Stream.setCache(Cache);
+                Stream.setMetrics(Metrics);
+                Stream.setErrorReasons(Options.hasErrorReasons());
+                Stream.setPayPeriod(YearToDate != null ? new PeriodDeductions(Deductions, YearToDate) : null);
+                if (Checkpoint != null && Checkpoint.isResumed()) {
+                    // The header and the lines before the checkpoint are already in the part files
+                    Stream.resume(Checkpoint.getLineCounter(), Checkpoint.getErrorLineCounter());
+                } else {
+                    Stream.writeHeader();
+                }
+                int LineCounter;
+                int ErrorLineCounter;
+                String CacheSummary;
+                String StageSummary = null;
+                String WorkerSummary = null;
+                String InputSummary = null;
+                String Mode;
+                if (Snapshot != null) {
+                    Mode = "snapshot";
+                    // The rows are read from the mapped columns, only the deductions are calculated
+                    Snapshot.replay(Stream);
+                    LineCounter = Stream.getLineCounter();
+                    ErrorLineCounter = Stream.getErrorLineCounter();
+                    CacheSummary = Cache == null ? null
+                            : DeductionCache.summary(Cache.getHits(), Cache.getMisses(), Cache.getEvictions());
+                } else if (CompressedReader != null) {
+                    Mode = CompressedReader.getFormat() == CompressedPayrollReader.Format.GZIP
+                            ? "gzip" : "blocks " + CompressedReader.getThreads();
+                    // The lines are handed to the stream as they are decompressed, no text file is written
+                    CompressedReader.forEachLine((Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+                    LineCounter = Stream.getLineCounter();
+                    ErrorLineCounter = Stream.getErrorLineCounter();
+                    CacheSummary = Cache == null ? null
+                            : DeductionCache.summary(Cache.getHits(), Cache.getMisses(), Cache.getEvictions());
+                    InputSummary = CompressedReader.summary();
+                } else if (Options.getWorkerProcesses() > 0 && YearToDate == null) {
+                    if (Options.getThreads() > 0 || Options.getPipelineWorkers() > 0) {
+                        System.out.println("Warning: --workers cannot be combined with --threads or --pipeline, they are ignored.");
+                    }
+                    Mode = "workers " + Options.getWorkerProcesses();
+                    // Shards of the file are processed by worker processes and written back in order
+                    ShardedPayroll Sharded = new ShardedPayroll(MappedReader, Paths.get(InputFile), Options.getWorkerProcesses(),
+                            Deductions, Options.getTaxYear(), Options.getProvince(), Options.hasErrorReasons(),
+                            Options.getCacheCapacity(), Options.getRuleMode());
+                    Sharded.setProgress(Progress);
+                    Sharded.run(ReportWriter, ErrorWriter);
+                    LineCounter = Sharded.getLineCounter();
+                    ErrorLineCounter = Sharded.getErrorLineCounter();
+                    CacheSummary = null;
+                    WorkerSummary = Sharded.getShardSummary();
+                } else if (Options.getPipelineWorkers() > 0 && YearToDate == null) {
+                    if (Options.getThreads() > 0) {
+                        System.out.println("Warning: --pipeline and --threads cannot be combined, --threads is ignored.");
+                    }
+                    Mode = "pipeline " + Options.getPipelineWorkers();
+                    // A reader, the compute workers and this thread as writer run at the same time
+                    PipelinePayroll Pipeline = new PipelinePayroll(MappedReader, Options.getPipelineWorkers(), Deductions);
+                    Pipeline.setProgress(Progress);
+                    Pipeline.setCacheCapacity(Options.getCacheCapacity());
+                    Pipeline.setMetrics(Metrics);
+                    Pipeline.setErrorReasons(Options.hasErrorReasons());
+                    Pipeline.run(ReportWriter, ErrorWriter);
+                    LineCounter = Pipeline.getLineCounter();
+                    ErrorLineCounter = Pipeline.getErrorLineCounter();
+                    CacheSummary = Pipeline.getCacheSummary();
+                    StageSummary = Pipeline.getStageSummary();
+                } else if (Options.getThreads() > 0 && YearToDate == null) {
+                    Mode = "parallel " + Options.getThreads();
+                    // Chunks of the file are processed on several threads and written back in order
+                    ParallelPayroll Parallel = new ParallelPayroll(MappedReader, Options.getThreads(), Deductions);
+                    Parallel.setProgress(Progress);
+                    Parallel.setCacheCapacity(Options.getCacheCapacity());
+                    Parallel.setMetrics(Metrics);
+                    Parallel.setErrorReasons(Options.hasErrorReasons());
+                    Parallel.run(ReportWriter, ErrorWriter);
+                    LineCounter = Parallel.getLineCounter();
+                    ErrorLineCounter = Parallel.getErrorLineCounter();
+                    CacheSummary = Parallel.getCacheSummary();
+                } else {
+                    Mode = MappedReader != null ? "mmap" : "stream";
+                    if (Checkpoint != null) {
+                        streamWithCheckpoints(MappedReader, Stream, Checkpoint, ReportWriter, ErrorWriter);
+                    } else if (MappedReader != null) {
+                        MappedReader.forEachLine((Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+                    } else {
+                        while (FileScanner.hasNextLine()) {
+                            Stream.processLine(FileScanner.nextLine());
+                        }
+                    }
+                    LineCounter = Stream.getLineCounter();
+                    ErrorLineCounter = Stream.getErrorLineCounter();
+                    CacheSummary = Cache == null ? null
+                            : DeductionCache.summary(Cache.getHits(), Cache.getMisses(), Cache.getEvictions());
+                }
+                Stream.finish();
+                if (Checkpoint != null) {
+                    // Every line is written, the part files replace the outputs of the last run
+                    Checkpoint.complete(PayrollManager.REPORT_OUT, PayrollManager.ERROR_OUT, ReportWriter, ErrorWriter);
+                }
+                if (EchoSink != null) {
+                    EchoSink.close(); // Waits until the echo is fully displayed
+                }
+                if (Verbose) System.out.println("\n");
+                System.out.println("> "+LineCounter+" employee information lines read from payroll document");
+                System.out.println("> "+ErrorLineCounter+" lines are logged into the error report");
+                if (EchoSink != null && EchoSink.getDroppedLines() > 0) {
+                    System.out.println("> "+EchoSink.getDroppedLines()+" echo lines dropped because the console fell behind");
+                }
+                if (CacheSummary != null) {
+                    System.out.println("> Deduction cache: "+CacheSummary);
+                }
+                if (StageSummary != null) {
+                    System.out.println("> Pipeline: "+StageSummary);
+                }
+                if (WorkerSummary != null) {
+                    System.out.println("> Workers: "+WorkerSummary);
+                }
+                if (InputSummary != null) {
+                    System.out.println("> Decompressed: "+InputSummary);
+                }
+                if (Checkpoint != null) {
+                    System.out.println("> "+Checkpoint.getCheckpointCounter()+" checkpoints taken in "
+                            +Checkpoint.getCheckpointMillis()+" ms");
+                }
+                if (YearToDate != null) {
+                    YearToDate.save(Paths.get(Options.getYearToDateFile()));
+                    System.out.println("> Pay period "+YearToDate.getLastPeriod()+" of "+YearToDate.getPeriodsPerYear()
+                            +" of "+YearToDate.getYear()+", year to date of "+YearToDate.size()
+                            +" employees saved to "+Options.getYearToDateFile());
+                }
+                if (Metrics != null) {
+                    writeMetrics(Metrics, AllocatedBefore, Options.getMetricsFile(), Mode, InputFile, LineCounter, ErrorLineCounter);
+                }
+                return;
+            }
 
             // Initialize counters for tracking processed lines and errors
             int LineCounter = 0;          // Tracks valid employee entries
@@ -77,6 +410,9 @@ public class PayrollManager {
             // Checker to ensure the error message header prints only once
             boolean isPrintedOnce = true;
 
+            // Reads the fields of each line without creating a Scanner per line
+            PayrollRecordParser LineParser = new PayrollRecordParser();
+
             /// ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
             // While loop to process and read each line from the input file
             while (FileScanner.hasNextLine()) {
@@ -85,69 +421,20 @@ public class PayrollManager {
 
                 if (Line.trim().isEmpty()) continue; // Skips line if any empty lines in the file
 
-                Scanner LineDecomposer = new Scanner(Line); // Create scanner to scan a line. This will treat the line read as an input
-                // By spliting line by line, we scan piece by piece what we want.
-
-                boolean isValid = true;   // Flag to track if current line has valid data
+                // Validates the line and reads its fields, without throwing for an invalid line
+                RejectReason Reason = LineParser.validate(Line);
+                boolean isValid = Reason == RejectReason.NONE;   // Flag to track if current line has valid data
 
-                // Variables to store employee data
-                long ID;                  // Employee ID
-                String FirstName;         // Employee first name
-                String LastName;          // Employee last name
-                double HoursWorked;       // Hours worked
-                double HourRate;          // Hourly wage rate
-
-                try {
-                    // Checks and read Employee ID
-                    if (!LineDecomposer.hasNextLong())
-                    {throw new InvalidFileFormatException("Invalid Employee ID!");} //Checks if the format is right (starts with long)
-                    ID = LineDecomposer.nextLong();
-                    if (ID < 0)
-                    {throw new NegativeValueException("Employee ID cannot be negative!");} //Checks if ID is a negative number
-
-                    // Checks and read First Name
-                    if (!LineDecomposer.hasNext())
-                    {throw new InvalidFileFormatException("Missing First Name!");} // Check if first name exists otherwise error
-                    FirstName = LineDecomposer.next();
-
-                    // Validate and read Last Name
-                    if (!LineDecomposer.hasNext())
-                    {throw new InvalidFileFormatException("Missing Last Name!");} // Check if last name exists otherwise error
-                    LastName = LineDecomposer.next();
-
-                    // Validate and read Hours Worked
-                    if (!LineDecomposer.hasNextDouble())
-                    {throw new InvalidFileFormatException("Invalid Hours Worked!");} //Checks if the number hours worked is a double otherwise error
-                    HoursWorked = LineDecomposer.nextDouble();
-                    if (HoursWorked< 0)
-                    {throw new NegativeValueException("Hours Worked cannot be negative!");} //Checks if the number of hours scanner is negative
-
-                    // Validate and read Hourly Rate
-                    if (!LineDecomposer.hasNextDouble())
-                    {throw new InvalidFileFormatException("Invalid Hour Rate!");} //Checks if the hourly rate is a double otherwise error
-                    HourRate = LineDecomposer.nextDouble();
-                    if (HourRate< 0)
-                    {throw new NegativeValueException("Hour Rate cannot be negative!");} //Checks if the rate is negative or not
-                    if (HourRate<MINIMUM_WAGE)
-                    {throw new MinimumWageException("Minimum Wage cannot be less than "+MINIMUM_WAGE);} //Checks if the rate is below minimum wage
-
-                    if (LineCounter >= EmployeeList.length) {
+                if (isValid) {
+                    if (LineCounter >= MAX_EMPLOYEES) {
                         System.out.println("Warning: maximum employees reached (" + MAX_EMPLOYEES + "); extra lines ignored.");
                         break; // stop processing further lines
                     }
-                    // Create and store new Employee object if all validations pass and increments the LineCounter (for correct employees)
-                    EmployeeList[LineCounter++] = new Employee(ID,FirstName,LastName,HoursWorked,HourRate);
-
-                } catch(InvalidFileFormatException | InputMismatchException | NegativeValueException | MinimumWageException e){
-                    // Handle all validation exceptions (since we just need to catch them without really outputing any sort of message)
-                    isValid=false;            // Mark current line as invalid (so that after the line read, we write it into the error logs)
+                    // Store a new row if all validations pass and increments the LineCounter (for correct employees)
+                    EmployeeList.add(LineParser);
+                    LineCounter++;
+                } else {
                     ErrorLineCounter++;       // Increment error counter to mention the amount of error lines later
-
-                } finally {
-                    // Close LineDecomposer scanner to prevent resource leaks
-                    if (LineDecomposer != null) {
-                        LineDecomposer.close();
-                    }
                 }
 
                 // Write to error log and display a message that says that it has encountered at least 1 error line
@@ -157,7 +444,12 @@ public class PayrollManager {
                         System.out.println("\n>Error lines found in the payroll");
                         isPrintedOnce=false;
                     }
-                    ErrorWriter.println(Line);    // Write invalid line to error file
+                    ErrorWriter.print(Line);      // Write invalid line to error file
+                    if (Options.hasErrorReasons()) {
+                        ErrorWriter.print('\t');
+                        ErrorWriter.print(Reason.name());
+                    }
+                    ErrorWriter.println();
                     System.out.println(Line);     // Display invalid line to console
                     continue; // Skip to next line in file
                 }
@@ -174,96 +466,309 @@ public class PayrollManager {
             System.out.println();
 
             // Output header for console display
-            System.out.println("                              Final Summary Report");
-            System.out.println("-------------------------------------------------------------------------------------");
-            System.out.printf("| %-3s | %-10s | %-10s | %12s | %10s | %12s |\n",
-                    "ID", "First Name", "Last Name", "Gross Salary", "Deductions", "Net Salary");
-            System.out.println("-------------------------------------------------------------------------------------");
+            System.out.println(REPORT_TITLE);
+            System.out.println(REPORT_RULE);
+            System.out.println(REPORT_HEADER);
+            System.out.println(REPORT_RULE);
 
 
             // Write header to report file
-            ReportWriter.println("                              Final Summary Report");
-            ReportWriter.println("-------------------------------------------------------------------------------------");
-            ReportWriter.printf("| %-3s | %-10s | %-10s | %12s | %10s | %12s |\n",
-                    "ID", "First Name", "Last Name", "Gross Salary", "Deductions", "Net Salary");
-            ReportWriter.println("-------------------------------------------------------------------------------------");
-
-            // Process each employee record to calculate taxes and output results
-            for (int i = 0; i< LineCounter; i++){
-
-                // Calculate different tax components using appropriate tax classes
-                ProvincialTax ProventialTaxCal = new ProvincialTax(EmployeeList[i].getGrossIncome());
-
-                FederalTax FederalTaxCal = new FederalTax(EmployeeList[i].getGrossIncome());
-
-                EmploymentInsurance EmployementInsuranceCal = new EmploymentInsurance(EmployeeList[i].getGrossIncome());
-
-                QCParentalPlan QCParentalPlanCal = new QCParentalPlan(EmployeeList[i].getGrossIncome());
-
-                QCPensionPlan QCPensionPlanCal = new QCPensionPlan(EmployeeList[i].getGrossIncome());
+            ReportWriter.println(REPORT_TITLE);
+            ReportWriter.println(REPORT_RULE);
+            ReportWriter.println(REPORT_HEADER);
+            ReportWriter.println(REPORT_RULE);
+
+            // Calculates every deduction of an employee at once, into a reused buffer
+            long[] DeductionResult = DeductionSet.newResult();
+            DeductionCache Cache = Options.getCacheCapacity() > 0
+                    ? new DeductionCache(Deductions, Options.getCacheCapacity()) : null;
+
+            // Without a cache, the deductions of the whole table are calculated at once, a column at a time
+            long[][] DeductionColumns = null;
+            if (Cache == null) {
+                DeductionColumns = DeductionKernel.newColumns(EmployeeList.size());
+                DeductionKernel.create(Deductions).calculateColumns(
+                        EmployeeList.getGrossColumn(), 0, EmployeeList.size(), DeductionColumns);
+            }
 
-                // Calculate total deductions, rounding to 2 decimal places
-                double TotalDeductible = Math.round((ProventialTaxCal.calculateTax() + FederalTaxCal.calculateTax() +EmployementInsuranceCal.calculateTax() + QCParentalPlanCal.calculateTax() + QCPensionPlanCal.calculateTax())*100.00)/100.00;
+            // Render the rows of the console and of the report file without printf
+            PrintWriter ConsoleWriter = new PrintWriter(System.out);
+            ReportRowWriter ConsoleRows = new ReportRowWriter(ConsoleWriter, "\n");
+            ReportRowWriter ReportRows = new ReportRowWriter(ReportWriter, "\n\n");
 
-                // Calculate net income after deductions, rounding to 2 decimal places
-                double NetIncome = Math.round((EmployeeList[i].getGrossIncome() - TotalDeductible)*100.00)/100.00;
+            // Process each employee record to calculate taxes and output results
+            EmployeeTable.Cursor Current = EmployeeList.cursor();
+            while (Current.next()) {
+
+                // Get total deductions and net income, in cents
+                long TotalCents;
+                long NetCents;
+                if (Cache != null) {
+                    Cache.calculateAll(Current.getGrossCents(), DeductionResult);
+                    TotalCents = DeductionResult[DeductionSet.TOTAL];
+                    NetCents = DeductionResult[DeductionSet.NET_INCOME];
+                } else {
+                    TotalCents = DeductionColumns[DeductionSet.TOTAL][Current.getRow()];
+                    NetCents = DeductionColumns[DeductionSet.NET_INCOME][Current.getRow()];
+                }
 
                 // Output employee data and calculations to console
-                System.out.printf("| %-3d | %-10s | %-10s | %12.2f | %10.2f | %12.2f |\n",
-                        EmployeeList[i].getID(),
-                        EmployeeList[i].getFirstName(),
-                        EmployeeList[i].getLastName(),
-                        EmployeeList[i].getGrossIncome(),
-                        TotalDeductible,
-                        NetIncome);
+                ConsoleRows.writeRow(
+                        Current.getID(),
+                        Current.getFirstName(),
+                        Current.getLastName(),
+                        Current.getGrossCents(),
+                        TotalCents,
+                        NetCents);
 
                 // Write employee data and calculations to report file
-                ReportWriter.printf("| %-3d | %-10s | %-10s | %12.2f | %10.2f | %12.2f |\n\n",
-                        EmployeeList[i].getID(),
-                        EmployeeList[i].getFirstName(),
-                        EmployeeList[i].getLastName(),
-                        EmployeeList[i].getGrossIncome(),
-                        TotalDeductible,
-                        NetIncome);
+                ReportRows.writeRow(
+                        Current.getID(),
+                        Current.getFirstName(),
+                        Current.getLastName(),
+                        Current.getGrossCents(),
+                        TotalCents,
+                        NetCents);
 
             }
+            ConsoleRows.flush();
+            ConsoleWriter.flush();
+            ReportRows.flush();
+            if (Cache != null) {
+                System.out.println("> Deduction cache: "
+                        + DeductionCache.summary(Cache.getHits(), Cache.getMisses(), Cache.getEvictions()));
+            }
 
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             // Handle case where input file cannot be found
             System.out.println("Error... Payroll file could not be found, Please check the path of the file!");
+        } catch (ZipException e) {
+            // Handle a damaged or truncated compressed payroll file
+            System.out.println("Error... Compressed payroll file could not be read: " + e.getMessage());
         } catch (IOException e){
             // Handle general input/output errors
             System.out.println("Error... Could not read or write to a file!");
         } finally {
             // Clean up resources regardless of success or failure
+            // Stop the background echo
+            if (EchoSink != null) {
+                EchoSink.close();
+            }
             // Close input file scanner
             if (FileScanner != null) {
                 try {
                     FileScanner.close();
-                    System.out.println();
-                    System.out.println("Payroll data file closed successfully.");
+                    if (Verbose) {
+                        System.out.println();
+                        System.out.println("Payroll data file closed successfully.");
+                    }
                 } catch (Exception e) {
-                    System.out.println("Error: Could not close "+PayrollManager.PAYROLL_IN+".");
+                    System.out.println("Error: Could not close "+InputFile+".");
+                }
+            }
+            // Close the snapshot
+            if (Snapshot != null) {
+                try {
+                    Snapshot.close();
+                    if (Verbose) {
+                        System.out.println();
+                        System.out.println("Payroll data file closed successfully.");
+                    }
+                } catch (Exception e) {
+                    System.out.println("Error: Could not close "+InputFile+".");
+                }
+            }
+            // The compressed input file is closed once read
+            if (CompressedReader != null && Verbose) {
+                System.out.println();
+                System.out.println("Payroll data file closed successfully.");
+            }
+            // Close memory mapped input file
+            if (MappedReader != null) {
+                try {
+                    MappedReader.close();
+                    if (Verbose) {
+                        System.out.println();
+                        System.out.println("Payroll data file closed successfully.");
+                    }
+                } catch (Exception e) {
+                    System.out.println("Error: Could not close "+InputFile+".");
                 }
             }
             // Close payroll report writer
             if (ReportWriter != null) {
                 try {
                     ReportWriter.close();
-                    System.out.println("Report text file closed successfully.");
+                    if (Verbose) System.out.println("Report text file closed successfully.");
                 } catch (Exception e) {
-                    System.out.println("Error: Could not close "+PayrollManager.REPORT_OUT+".");
+                    System.out.println("Error: Could not close "+ReportFile+".");
                 }
             }
             // Close error report writer
             if (ErrorWriter != null) {
                 try {
                     ErrorWriter.close();
-                    System.out.println("Error text file closed successfully.");
+                    if (Verbose) System.out.println("Error text file closed successfully.");
                 } catch (Exception e) {
                     System.out.println("Error: Could not close "+PayrollManager.ERROR_OUT+".");
                 }
             }
         }
     }
+
+    /**
+     * Opens the report file for writing, compressed or not
+     * @param File        The report file
+     * @param Compression The compression of the report, null for a text report
+     * @param Threads     The number of threads compressing the blocks
+     * @return The writer of the report
+     * @throws IOException If the report file cannot be created
+     */
+    private static PrintWriter openReport(String File, CompressedPayrollReader.Format Compression, int Threads) throws IOException {
+        if (Compression == null) {
+            return new PrintWriter(new BufferedWriter(new FileWriter(File)));
+        }
+        OutputStream Out = new BufferedOutputStream(new FileOutputStream(File), 1024 * 1024);
+        Out = Compression == CompressedPayrollReader.Format.GZIP
+                ? new GZIPOutputStream(Out, 64 * 1024) : new BlockCompressedOutputStream(Out, Threads);
+        // The charset of FileWriter, so the text is the same as in a text report
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(Out)));
+    }
+
+    /**
+     * Streams the mapped payroll file from the position of a checkpoint, taking a new checkpoint at every interval
+     * @param Reader       The mapped payroll file
+     * @param Stream       The payroll being written
+     * @param Checkpoint   The checkpoints of the run
+     * @param ReportWriter The writer of the report part file
+     * @param ErrorWriter  The writer of the error log part file
+     * @throws IOException If the payroll file cannot be read or a checkpoint cannot be written
+     */
+    private static void streamWithCheckpoints(MappedPayrollReader Reader, StreamingPayroll Stream, PayrollCheckpoint Checkpoint,
+                                              PrintWriter ReportWriter, PrintWriter ErrorWriter) throws IOException {
+        try {
+            Reader.forEachLine(Checkpoint.getInputPosition(), Reader.size(), (Buffer, Offset, Length, Position) -> {
+                // Taken before the line, so the position is the first line not in the outputs
+                if (Checkpoint.due()) Checkpoint.save(Position, Stream, ReportWriter, ErrorWriter);
+                Stream.processLine(Buffer, Offset, Length);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Processes every payroll file of a batch and displays the totals
+     * @param Options    The command line options
+     * @param Deductions The deductions applied to every employee
+     * @param Verbose    True to display the failed files one by one
+     */
+    private static void runBatch(PayrollOptions Options, DeductionSet Deductions, boolean Verbose) {
+        try {
+            List<Path> Inputs = PayrollBatch.listFiles(Paths.get(Options.getBatchSource()));
+            PayrollBatch Batch = new PayrollBatch(Deductions, Options.getConcurrency(), Paths.get(Options.getBatchOutput()));
+            Batch.setCacheCapacity(Options.getCacheCapacity());
+            Batch.setErrorReasons(Options.hasErrorReasons());
+            if (Verbose) System.out.println("> Processing " + Inputs.size() + " payroll files, " + Options.getConcurrency() + " at a time");
+            Batch.run(Inputs);
+
+            if (Verbose) {
+                for (String Failure : Batch.getFailures()) {
+                    System.out.println("> Failed: " + Failure);
+                }
+                System.out.println("\n");
+            }
+            System.out.println("> " + Batch.getFileCounter() + " payroll files processed on "
+                    + (Batch.usedVirtualThreads() ? "virtual threads" : "a pool of " + Options.getConcurrency() + (Options.getConcurrency() == 1 ? " thread" : " threads"))
+                    + ", " + Batch.getFailedCounter() + " failed");
+            System.out.println("> " + Batch.getLineCounter() + " employee information lines read from the payroll documents");
+            System.out.println("> " + Batch.getErrorLineCounter() + " lines are logged into the error reports");
+            System.out.println("> Batch summary written to " + Batch.getSummaryFile());
+        } catch (NoSuchFileException e) {
+            System.out.println("Error... Batch directory or manifest could not be found, Please check the path!");
+        } catch (IOException e) {
+            System.out.println("Error... Could not read or write the batch files! " + e.getMessage());
+        }
+    }
+
+    /**
+     * Indexes the employees of the payroll file and starts the query endpoint
+     * The endpoint keeps running after this method returns, until the program is stopped
+     * @param Options    The command line options
+     * @param Deductions The deductions applied to every employee
+     */
+    private static void runServer(PayrollOptions Options, DeductionSet Deductions) {
+        try {
+            long Started = System.nanoTime();
+            PayrollIndex Index = PayrollIndex.load(Paths.get(Options.getInputFile()), Deductions);
+            long Elapsed = (System.nanoTime() - Started) / 1_000_000;
+            System.out.println("> " + Index.size() + " employees indexed in " + Elapsed + " ms, "
+                    + Index.getErrorLineCounter() + " invalid lines skipped, " + Index.getDuplicateCounter() + " duplicate IDs");
+
+            PayrollQueryServer Server = new PayrollQueryServer(Index);
+            int Port = Server.start(Options.getServePort());
+            System.out.println("> Answering on http://127.0.0.1:" + Port + "/employee?id=ID and /range?by=gross&min=A&max=B");
+        } catch (NoSuchFileException e) {
+            System.out.println("Error... Payroll file could not be found, Please check the path of the file!");
+        } catch (IOException e) {
+            System.out.println("Error... Could not start the query endpoint! " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the year to date of the pay periods and starts the next period
+     * The year to date of an earlier tax year is replaced by an empty one
+     * @param Options The command line options
+     * @return The year to date, or null when no period can be paid
+     */
+    private static YearToDateStore openYearToDate(PayrollOptions Options) {
+        Path File = Paths.get(Options.getYearToDateFile());
+        YearToDateStore Store;
+        try {
+            Store = YearToDateStore.load(File);
+        } catch (IOException e) {
+            System.out.println("Error... " + e.getMessage());
+            return null;
+        }
+        if (Store != null && Store.getYear() > Options.getTaxYear()) {
+            System.out.println("Error... " + File + " holds the year to date of " + Store.getYear()
+                    + ", not " + Options.getTaxYear() + "!");
+            return null;
+        }
+        if (Store == null || Store.getYear() < Options.getTaxYear()) {
+            if (Store != null) {
+                System.out.println("> Year to date of " + Store.getYear() + " closed, " + Options.getTaxYear() + " starts");
+            }
+            Store = new YearToDateStore(Options.getTaxYear(), Options.getPeriodsPerYear());
+        } else if (Store.getPeriodsPerYear() != Options.getPeriodsPerYear()) {
+            System.out.println("Error... " + File + " holds " + Store.getPeriodsPerYear()
+                    + " pay periods a year, not " + Options.getPeriodsPerYear() + "!");
+            return null;
+        }
+        if (Store.getLastPeriod() >= Store.getPeriodsPerYear()) {
+            System.out.println("Error... Every pay period of " + Store.getYear() + " is already paid, use --tax-year for the next year!");
+            return null;
+        }
+        Store.nextPeriod();
+        return Store;
+    }
+
+    /**
+     * Ends the run metrics and writes their summary file
+     * @param Metrics         The metrics of the run
+     * @param AllocatedBefore The bytes allocated by the main thread when the run started
+     * @param File            The summary file
+     * @param Mode            The processing mode
+     * @param InputFile       The payroll file read
+     * @param LineCounter     Number of valid employee lines
+     * @param ErrorLineCounter Number of invalid lines
+     * @throws IOException If the summary file cannot be written
+     */
+    private static void writeMetrics(PayrollMetrics Metrics, long AllocatedBefore, String File, String Mode,
+                                     String InputFile, long LineCounter, long ErrorLineCounter) throws IOException {
+        Metrics.stop();
+        Metrics.addAllocatedBytes(AllocatedBefore < 0 ? -1 : PayrollMetrics.threadAllocatedBytes() - AllocatedBefore);
+        Metrics.write(File, Mode, InputFile, Files.size(Paths.get(InputFile)), LineCounter, ErrorLineCounter);
+        System.out.println("> Metrics written to "+File);
+    }
 }
@@ -0,0 +1,301 @@
+import exceptions.InvalidFileFormatException;
+import exceptions.MinimumWageException;
+import exceptions.NegativeValueException;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Timings and counters of a payroll run, written to a summary file at the end
+ *
+ * The time of each stage of a line is recorded in a LatencyHistogram: parsing (which
+ * validates the fields as it reads them), the deduction calculation and the writing of
+ * the report row or of the error line. Rejected lines are counted by reason, and by the
+ * exception type parse() throws for it.
+ * The run as a whole is measured between start() and stop(): elapsed time, garbage
+ * collections read from the JMX collector beans and peak heap use. The bytes allocated
+ * are read from the JMX thread bean by each thread that processes lines.
+ *
+ * A StreamingPayroll records into one PayrollMetrics from a single thread. The metrics of
+ * several threads are added up with add().
+ *
+ * The summary file holds one "name=value" line per measure, so it can be read as a
+ * java.util.Properties file or with grep. A processing mode can add measures of its own
+ * with addMeasure().
+ */
+public class PayrollMetrics {
+
+    /** Percentiles written for each stage */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /** Time spent parsing and validating each line */
+    private final LatencyHistogram ParseLatency = new LatencyHistogram();
+
+    /** Time spent calculating the deductions of each employee */
+    private final LatencyHistogram DeductionLatency = new LatencyHistogram();
+
+    /** Time spent writing each report row or error line */
+    private final LatencyHistogram ReportLatency = new LatencyHistogram();
+
+    /** Number of lines rejected for each reason, by ordinal */
+    private final long[] ReasonCounts = new long[RejectReason.values().length];
+
+    /** Bytes allocated by the threads that processed lines, -1 when the JVM cannot tell */
+    private long AllocatedBytes;
+
+    /** Time the run started */
+    private long StartNanos;
+
+    /** Time the run ended */
+    private long StopNanos;
+
+    /** The "name=value" lines of the measures added by the processing mode */
+    private final List<String> Measures = new ArrayList<>();
+
+    /** Garbage collections and their time when the run started, then during the run */
+    private long GcCount;
+    private long GcMillis;
+
+    /**
+     * Default constructor for PayrollMetrics
+     * Every measure starts at zero
+     */
+    public PayrollMetrics() {
+    }
+
+    /**
+     * Records the time of parsing and validating a line
+     * @param Nanos The time, in nanoseconds
+     */
+    public void recordParse(long Nanos) {
+        ParseLatency.record(Nanos);
+    }
+
+    /**
+     * Records the time of calculating the deductions of an employee
+     * @param Nanos The time, in nanoseconds
+     */
+    public void recordDeductions(long Nanos) {
+        DeductionLatency.record(Nanos);
+    }
+
+    /**
+     * Records the time of writing a report row or an error line
+     * @param Nanos The time, in nanoseconds
+     */
+    public void recordReport(long Nanos) {
+        ReportLatency.record(Nanos);
+    }
+
+    /**
+     * Counts a line rejected by the parser
+     * @param Reason The reason the line was rejected
+     */
+    public void countRejected(RejectReason Reason) {
+        ReasonCounts[Reason.ordinal()]++;
+    }
+
+    /**
+     * Adds bytes allocated by a thread while it processed lines
+     * @param Bytes The number of bytes, negative when the JVM cannot tell
+     */
+    public void addAllocatedBytes(long Bytes) {
+        if (Bytes < 0 || AllocatedBytes < 0) {
+            AllocatedBytes = -1;
+        } else {
+            AllocatedBytes += Bytes;
+        }
+    }
+
+    /**
+     * Adds the stage times, rejected lines and allocated bytes of another PayrollMetrics
+     * @param Other The other metrics, left unchanged
+     */
+    public synchronized void add(PayrollMetrics Other) {
+        ParseLatency.add(Other.ParseLatency);
+        DeductionLatency.add(Other.DeductionLatency);
+        ReportLatency.add(Other.ReportLatency);
+        for (int Reason = 0; Reason < ReasonCounts.length; Reason++) {
+            ReasonCounts[Reason] += Other.ReasonCounts[Reason];
+        }
+        addAllocatedBytes(Other.AllocatedBytes);
+    }
+
+    /**
+     * Adds a measure of the processing mode to the summary file
+     * @param Name  The name of the measure
+     * @param Value The value of the measure
+     */
+    public synchronized void addMeasure(String Name, String Value) {
+        Measures.add(Name + "=" + Value);
+    }
+
+    /**
+     * Marks the start of the run and reads the garbage collector counters
+     */
+    public void start() {
+        for (MemoryPoolMXBean Pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            Pool.resetPeakUsage();
+        }
+        GcCount = -gcCount();
+        GcMillis = -gcMillis();
+        StartNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the run and reads the garbage collector counters again
+     */
+    public void stop() {
+        StopNanos = System.nanoTime();
+        GcCount += gcCount();
+        GcMillis += gcMillis();
+    }
+
+    /**
+     * Reads the bytes allocated so far by the current thread
+     * Subtract two readings to get the bytes allocated in between
+     * @return The number of bytes, -1 when the JVM cannot tell
+     */
+    public static long threadAllocatedBytes() {
+        ThreadMXBean Threads = ManagementFactory.getThreadMXBean();
+        if (Threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean Allocations = (com.sun.management.ThreadMXBean) Threads;
+            if (Allocations.isThreadAllocatedMemorySupported() && Allocations.isThreadAllocatedMemoryEnabled()) {
+                return Allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the summary file
+     * @param File         The summary file
+     * @param Mode         The processing mode, for the record
+     * @param Input        The payroll file read
+     * @param InputBytes   The size of the payroll file
+     * @param Lines        Number of valid employee lines
+     * @param ErrorLines   Number of invalid lines
+     * @throws IOException If the file cannot be written
+     */
+    public void write(String File, String Mode, String Input, long InputBytes, long Lines, long ErrorLines) throws IOException {
+        double Seconds = (StopNanos - StartNanos) / 1e9;
+        try (PrintWriter Out = new PrintWriter(new BufferedWriter(new FileWriter(File)))) {
+            Out.println("# Payroll run metrics, times in nanoseconds unless stated");
+            Out.println("run.mode=" + Mode);
+            Out.println("run.input=" + Input);
+            Out.println("run.seconds=" + format(Seconds));
+            Out.println("input.bytes=" + InputBytes);
+            Out.println("lines.valid=" + Lines);
+            Out.println("lines.invalid=" + ErrorLines);
+            Out.println("lines.perSecond=" + format(Seconds > 0 ? (Lines + ErrorLines) / Seconds : 0));
+            Out.println("bytes.perSecond=" + format(Seconds > 0 ? InputBytes / Seconds : 0));
+            Out.println("rejected.InvalidFileFormatException=" + rejectedBy(InvalidFileFormatException.class));
+            Out.println("rejected.NegativeValueException=" + rejectedBy(NegativeValueException.class));
+            Out.println("rejected.MinimumWageException=" + rejectedBy(MinimumWageException.class));
+            for (RejectReason Reason : RejectReason.values()) {
+                if (Reason != RejectReason.NONE) Out.println("reason." + Reason.name() + "=" + ReasonCounts[Reason.ordinal()]);
+            }
+            writeStage(Out, "parse", ParseLatency);
+            writeStage(Out, "deductions", DeductionLatency);
+            writeStage(Out, "report", ReportLatency);
+            for (String Measure : Measures) {
+                Out.println(Measure);
+            }
+            Out.println("gc.count=" + GcCount);
+            Out.println("gc.millis=" + GcMillis);
+            Out.println("memory.allocatedBytes=" + AllocatedBytes);
+            Out.println("memory.heapPeakBytes=" + heapPeak());
+            if (Out.checkError()) throw new IOException("Could not write " + File);
+        }
+    }
+
+    /**
+     * Adds up the lines rejected for the reasons of one exception type
+     * @param ExceptionType The exception type
+     * @return The number of lines parse() would have thrown this exception for
+     */
+    private long rejectedBy(Class<? extends Exception> ExceptionType) {
+        long Count = 0;
+        for (RejectReason Reason : RejectReason.values()) {
+            if (Reason.getExceptionType() == ExceptionType) Count += ReasonCounts[Reason.ordinal()];
+        }
+        return Count;
+    }
+
+    /**
+     * Writes the measures of one stage
+     * @param Out     The summary file
+     * @param Stage   The name of the stage
+     * @param Latency The times of the stage
+     */
+    private static void writeStage(PrintWriter Out, String Stage, LatencyHistogram Latency) {
+        String Prefix = "stage." + Stage + ".";
+        Out.println(Prefix + "count=" + Latency.getCount());
+        Out.println(Prefix + "total=" + Latency.getTotal());
+        Out.println(Prefix + "mean=" + format(Latency.getMean()));
+        Out.println(Prefix + "min=" + Latency.getMin());
+        for (double Percentile : PERCENTILES) {
+            String Name = Percentile == Math.rint(Percentile)
+                    ? String.valueOf((long) Percentile) : String.valueOf(Percentile).replace(".", "");
+            Out.println(Prefix + "p" + Name + "=" + Latency.getValueAtPercentile(Percentile));
+        }
+        Out.println(Prefix + "max=" + Latency.getMax());
+    }
+
+    /**
+     * Formats a measure with a dot as decimal separator whatever the locale
+     * @param Value The measure
+     * @return The measure with 1 decimal place
+     */
+    private static String format(double Value) {
+        return String.format(Locale.ROOT, "%.1f", Value);
+    }
+
+    /**
+     * Adds up the collections of every garbage collector
+     * @return The number of collections since the JVM started
+     */
+    private static long gcCount() {
+        long Count = 0;
+        for (GarbageCollectorMXBean Collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Count += Math.max(0, Collector.getCollectionCount());
+        }
+        return Count;
+    }
+
+    /**
+     * Adds up the collection time of every garbage collector
+     * @return The time spent collecting since the JVM started, in milliseconds
+     */
+    private static long gcMillis() {
+        long Millis = 0;
+        for (GarbageCollectorMXBean Collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Millis += Math.max(0, Collector.getCollectionTime());
+        }
+        return Millis;
+    }
+
+    /**
+     * Adds up the peak use of every heap memory pool since start()
+     * @return The number of bytes, an upper bound of the peak heap use
+     */
+    private static long heapPeak() {
+        long Bytes = 0;
+        for (MemoryPoolMXBean Pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (Pool.getType() == MemoryType.HEAP && Pool.getPeakUsage() != null) {
+                Bytes += Pool.getPeakUsage().getUsed();
+            }
+        }
+        return Bytes;
+    }
+}
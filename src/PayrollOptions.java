@@ -0,0 +1,586 @@
+import deductions.TaxBracketTable;
+import deductions.YearToDateStore;
+
+/**
+ * Holds the command line options given to the PayrollManager
+ *
+ * Supported flags:
+ * >--stream     Process the payroll one line at a time, without any limit on the number of employees
+ * >--mmap       Stream the payroll through a memory mapped reader instead of a Scanner (implies --stream)
+ * >--parallel   Process the payroll on every available processor (implies --mmap)
+ * >--threads N  Process the payroll on N threads (implies --mmap)
+ * >--pipeline N Read, calculate and write the payroll at the same time, with N calculating threads (implies --mmap)
+ * >--workers N  Process the payroll in N worker processes coordinated over loopback sockets (implies --mmap)
+ * >--tax-year Y Use the tax brackets of year Y
+ * >--province P Use the provincial tax brackets of jurisdiction P
+ * >--quiet      Batch mode: only progress and summary lines on the console (implies --stream)
+ * >--progress S Seconds between two progress lines in quiet mode, 10 by default
+ * >--echo block|drop  Display the rows and invalid lines from a background thread, waiting for
+ *                     room or dropping lines when the console falls behind (implies --stream)
+ * >--echo-capacity N  Number of 8 KB blocks the background echo can hold, 256 by default
+ * >--incremental      Recompute only the lines that changed since the last incremental run (implies --mmap)
+ * >--deduction-cache N Keep the deductions of the N most recently used gross incomes
+ * >--input FILE       Read the payroll from FILE, a text payroll file, a gzip or block compressed
+ *                     text payroll file, or a snapshot
+ * >--write-snapshot FILE  Validate the text payroll file once into the snapshot FILE, then
+ *                         process the payroll from it (implies --stream)
+ * >--error-reasons    Add a tab separated column with the reject reason of each line to the error log
+ * >--metrics FILE     Time every stage of each line and write a summary of the run to FILE (implies --stream)
+ * >--batch DIR|FILE   Process every payroll file of the directory DIR, or listed in the manifest FILE,
+ *                     each into its own report and error files, then write a summary of the batch
+ * >--batch-out DIR    Directory of the batch reports and summary, data/batch by default
+ * >--concurrency N    Largest number of batch files processed at the same time, the number of processors by default
+ * >--pay-period weekly|biweekly  Report the pay of the next pay period, with the caps applied to the
+ *                     year to date of each employee (implies --stream)
+ * >--ytd-file FILE    Year-to-date file of the pay periods, data/payrollYtd.bin by default
+ * >--serve PORT       Index the employees of the payroll and answer queries over HTTP on
+ *                     127.0.0.1:PORT until stopped
+ * >--checkpoint S     Take a checkpoint every S seconds, and resume from the last one when the same
+ *                     run is started again after a crash (implies --mmap)
+ * >--checkpoint-file FILE  Checkpoint file, data/payroll.checkpoint by default
+ * >--rules compiled|interpreted  Calculate the deductions from the rules of the tax year and the province,
+ *                     compiled once into a class of their own or interpreted
+ * >--compress-report gzip|blocks  Write the report compressed to data/payrollReport.txt.gz, as one gzip
+ *                     stream or in blocks compressed on the --threads threads
+ */
+public class PayrollOptions {
+
+    /** True when the payroll should be processed in streaming mode */
+    private boolean Streaming;
+
+    /** True when the payroll file should be read through memory mapped windows */
+    private boolean Mapped;
+
+    /** Number of threads used to process the payroll, 0 for a sequential run */
+    private int Threads;
+
+    /** Number of compute workers of the pipeline, 0 when no pipeline is used */
+    private int PipelineWorkers;
+
+    /** Number of worker processes, 0 when the payroll is processed in this process */
+    private int WorkerProcesses;
+
+    /** The tax year of the brackets */
+    private int TaxYear = TaxBracketTable.DEFAULT_YEAR;
+
+    /** The jurisdiction code of the provincial brackets */
+    private String Province = TaxBracketTable.QUEBEC;
+
+    /** True when only the progress and summary lines are displayed */
+    private boolean Quiet;
+
+    /** Seconds between two progress lines in quiet mode */
+    private int ProgressInterval = 10;
+
+    /** Policy of the background echo, null when the echo is displayed directly */
+    private AsyncConsoleSink.Policy EchoPolicy;
+
+    /** Number of blocks the background echo can hold */
+    private int EchoCapacity = 256;
+
+    /** True when the unchanged lines are copied from the index of the last run */
+    private boolean Incremental;
+
+    /** Number of gross incomes the deduction cache holds, 0 for no cache */
+    private int CacheCapacity;
+
+    /** The payroll file read, a text payroll file or a snapshot */
+    private String InputFile = PayrollManager.PAYROLL_IN;
+
+    /** The snapshot written from the text payroll file, null when none is written */
+    private String SnapshotFile;
+
+    /** The summary file of the run metrics, null when no metrics are kept */
+    private String MetricsFile;
+
+    /** True when the error log gets a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /** The directory or manifest of the batch payroll files, null when a single payroll is processed */
+    private String BatchSource;
+
+    /** The directory of the batch reports and summary */
+    private String BatchOutput = PayrollBatch.DEFAULT_OUTPUT;
+
+    /** Largest number of batch files processed at the same time */
+    private int Concurrency = Runtime.getRuntime().availableProcessors();
+
+    /** Number of pay periods in the year, 0 to report the yearly amounts */
+    private int PeriodsPerYear;
+
+    /** The year-to-date file of the pay periods */
+    private String YearToDateFile = YearToDateStore.DEFAULT_FILE;
+
+    /** The port of the query endpoint, 0 when no endpoint is started */
+    private int ServePort;
+
+    /** Seconds between two checkpoints, 0 when no checkpoint is taken */
+    private int CheckpointInterval;
+
+    /** The checkpoint file */
+    private String CheckpointFile = PayrollCheckpoint.DEFAULT_FILE;
+
+    /** How the rules of the deductions are calculated, null for the deduction objects */
+    private String RuleMode;
+
+    /** The compression of the report, null for a text report */
+    private CompressedPayrollReader.Format ReportCompression;
+
+    /**
+     * Default constructor for PayrollOptions
+     * Every option is turned off
+     */
+    public PayrollOptions() {
+    }
+
+    /**
+     * Builds the options from the command line arguments
+     * Unknown arguments are reported on the console and ignored
+     * @param args The command line arguments
+     * @return The parsed options
+     */
+    public static PayrollOptions parse(String[] args) {
+        PayrollOptions Options = new PayrollOptions();
+        for (int Index = 0; Index < args.length; Index++) {
+            String Arg = args[Index];
+            switch (Arg) {
+                case "--stream":
+                    Options.Streaming = true;
+                    break;
+                case "--mmap":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    break;
+                case "--parallel":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.Threads = Runtime.getRuntime().availableProcessors();
+                    break;
+                case "--threads":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.Threads = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--pipeline":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.PipelineWorkers = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--workers":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.WorkerProcesses = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--tax-year":
+                    Options.TaxYear = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--province":
+                    if (++Index < args.length) {
+                        Options.Province = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a jurisdiction code, " + Options.Province + " is used.");
+                    }
+                    break;
+                case "--quiet":
+                    Options.Streaming = true;
+                    Options.Quiet = true;
+                    break;
+                case "--progress":
+                    Options.ProgressInterval = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--echo":
+                    Options.Streaming = true;
+                    Options.EchoPolicy = parsePolicy(args, ++Index);
+                    break;
+                case "--echo-capacity":
+                    Options.EchoCapacity = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--deduction-cache":
+                    Options.CacheCapacity = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--incremental":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.Incremental = true;
+                    break;
+                case "--input":
+                    if (++Index < args.length) {
+                        Options.InputFile = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a file name, " + Options.InputFile + " is used.");
+                    }
+                    break;
+                case "--write-snapshot":
+                    if (++Index < args.length) {
+                        Options.Streaming = true;
+                        Options.SnapshotFile = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a file name, no snapshot is written.");
+                    }
+                    break;
+                case "--error-reasons":
+                    Options.ErrorReasons = true;
+                    break;
+                case "--metrics":
+                    if (++Index < args.length) {
+                        Options.Streaming = true;
+                        Options.MetricsFile = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a file name, no metrics are kept.");
+                    }
+                    break;
+                case "--batch":
+                    if (++Index < args.length) {
+                        Options.BatchSource = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a directory or a manifest, no batch is run.");
+                    }
+                    break;
+                case "--batch-out":
+                    if (++Index < args.length) {
+                        Options.BatchOutput = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a directory, " + Options.BatchOutput + " is used.");
+                    }
+                    break;
+                case "--concurrency":
+                    Options.Concurrency = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--pay-period":
+                    Options.Streaming = true;
+                    Options.PeriodsPerYear = parsePeriod(args, ++Index);
+                    break;
+                case "--serve":
+                    Options.ServePort = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--checkpoint":
+                    Options.Streaming = true;
+                    Options.Mapped = true;
+                    Options.CheckpointInterval = parsePositive(args, ++Index, Arg);
+                    break;
+                case "--checkpoint-file":
+                    if (++Index < args.length) {
+                        Options.CheckpointFile = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a file name, " + Options.CheckpointFile + " is used.");
+                    }
+                    break;
+                case "--rules":
+                    Options.RuleMode = parseRuleMode(args, ++Index);
+                    break;
+                case "--compress-report":
+                    Options.ReportCompression = parseCompression(args, ++Index);
+                    break;
+                case "--ytd-file":
+                    if (++Index < args.length) {
+                        Options.YearToDateFile = args[Index];
+                    } else {
+                        System.out.println("Warning: " + Arg + " expects a file name, " + Options.YearToDateFile + " is used.");
+                    }
+                    break;
+                default:
+                    System.out.println("Warning: unknown option " + Arg + " ignored.");
+            }
+        }
+        return Options;
+    }
+
+    /**
+     * Reads the positive number following a flag
+     * When the number is missing or invalid, a warning is displayed and 1 is used
+     * @param args  The command line arguments
+     * @param Index The index of the number
+     * @param Flag  The flag the number belongs to
+     * @return The number read
+     */
+    private static int parsePositive(String[] args, int Index, String Flag) {
+        try {
+            int Value = Integer.parseInt(args[Index]);
+            if (Value > 0) return Value;
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // Reported below
+        }
+        System.out.println("Warning: " + Flag + " expects a positive number, 1 is used.");
+        return 1;
+    }
+
+    /**
+     * Reads the full queue policy following --echo
+     * When the policy is missing or invalid, a warning is displayed and BLOCK is used
+     * @param args  The command line arguments
+     * @param Index The index of the policy
+     * @return The policy read
+     */
+    private static AsyncConsoleSink.Policy parsePolicy(String[] args, int Index) {
+        if (Index < args.length) {
+            if (args[Index].equalsIgnoreCase("block")) return AsyncConsoleSink.Policy.BLOCK;
+            if (args[Index].equalsIgnoreCase("drop")) return AsyncConsoleSink.Policy.DROP;
+        }
+        System.out.println("Warning: --echo expects block or drop, block is used.");
+        return AsyncConsoleSink.Policy.BLOCK;
+    }
+
+    /**
+     * Reads the pay period following --pay-period
+     * When the period is missing or invalid, a warning is displayed and weekly is used
+     * @param args  The command line arguments
+     * @param Index The index of the period
+     * @return The number of pay periods in the year
+     */
+    private static int parsePeriod(String[] args, int Index) {
+        if (Index < args.length) {
+            if (args[Index].equalsIgnoreCase("weekly")) return 52;
+            if (args[Index].equalsIgnoreCase("biweekly")) return 26;
+        }
+        System.out.println("Warning: --pay-period expects weekly or biweekly, weekly is used.");
+        return 52;
+    }
+
+    /**
+     * Reads the rule mode following --rules
+     * When the mode is missing or invalid, a warning is displayed and compiled is used
+     * @param args  The command line arguments
+     * @param Index The index of the mode
+     * @return "compiled" or "interpreted"
+     */
+    private static String parseRuleMode(String[] args, int Index) {
+        if (Index < args.length) {
+            if (args[Index].equalsIgnoreCase("compiled")) return "compiled";
+            if (args[Index].equalsIgnoreCase("interpreted")) return "interpreted";
+        }
+        System.out.println("Warning: --rules expects compiled or interpreted, compiled is used.");
+        return "compiled";
+    }
+
+    /**
+     * Reads the report compression following --compress-report
+     * When the compression is missing or invalid, a warning is displayed and gzip is used
+     * @param args  The command line arguments
+     * @param Index The index of the compression
+     * @return The compression of the report
+     */
+    private static CompressedPayrollReader.Format parseCompression(String[] args, int Index) {
+        if (Index < args.length) {
+            if (args[Index].equalsIgnoreCase("gzip")) return CompressedPayrollReader.Format.GZIP;
+            if (args[Index].equalsIgnoreCase("blocks")) return CompressedPayrollReader.Format.BLOCKS;
+        }
+        System.out.println("Warning: --compress-report expects gzip or blocks, gzip is used.");
+        return CompressedPayrollReader.Format.GZIP;
+    }
+
+    /**
+     * Checks if the streaming mode is turned on
+     * @return true if the payroll should be streamed
+     */
+    public boolean isStreaming() {
+        return Streaming;
+    }
+
+    /**
+     * Checks if the payroll file should be read through memory mapped windows
+     * @return true if the memory mapped reader should be used
+     */
+    public boolean isMapped() {
+        return Mapped;
+    }
+
+    /**
+     * Gets the number of threads used to process the payroll
+     * @return The number of threads, 0 for a sequential run
+     */
+    public int getThreads() {
+        return Threads;
+    }
+
+    /**
+     * Gets the number of compute workers of the pipeline
+     * @return The number of workers, 0 when no pipeline is used
+     */
+    public int getPipelineWorkers() {
+        return PipelineWorkers;
+    }
+
+    /**
+     * Gets the tax year of the brackets
+     * @return The tax year
+     */
+    public int getTaxYear() {
+        return TaxYear;
+    }
+
+    /**
+     * Gets the jurisdiction code of the provincial brackets
+     * @return The jurisdiction code
+     */
+    public String getProvince() {
+        return Province;
+    }
+
+    /**
+     * Checks if only the progress and summary lines should be displayed
+     * @return true in quiet mode
+     */
+    public boolean isQuiet() {
+        return Quiet;
+    }
+
+    /**
+     * Gets the time between two progress lines in quiet mode
+     * @return The interval in seconds
+     */
+    public int getProgressInterval() {
+        return ProgressInterval;
+    }
+
+    /**
+     * Gets the full queue policy of the background echo
+     * @return The policy, null when the echo is displayed directly
+     */
+    public AsyncConsoleSink.Policy getEchoPolicy() {
+        return EchoPolicy;
+    }
+
+    /**
+     * Gets the number of blocks the background echo can hold
+     * @return The capacity of the echo queue
+     */
+    public int getEchoCapacity() {
+        return EchoCapacity;
+    }
+
+    /**
+     * Checks if only the lines that changed since the last run should be recomputed
+     * @return true in incremental mode
+     */
+    public boolean isIncremental() {
+        return Incremental;
+    }
+
+    /**
+     * Gets the number of gross incomes the deduction cache holds
+     * @return The capacity of the cache, 0 when no cache is used
+     */
+    public int getCacheCapacity() {
+        return CacheCapacity;
+    }
+
+    /**
+     * Gets the payroll file to read
+     * @return The path of a text payroll file or of a snapshot
+     */
+    public String getInputFile() {
+        return InputFile;
+    }
+
+    /**
+     * Gets the snapshot to write from the text payroll file before processing it
+     * @return The path of the snapshot, null when no snapshot is written
+     */
+    public String getSnapshotFile() {
+        return SnapshotFile;
+    }
+
+    /**
+     * Gets the summary file of the run metrics
+     * @return The path of the summary file, null when no metrics are kept
+     */
+    public String getMetricsFile() {
+        return MetricsFile;
+    }
+
+    /**
+     * Checks if the error log gets a column with the reject reason of each line
+     * @return true if the reason column is written
+     */
+    public boolean hasErrorReasons() {
+        return ErrorReasons;
+    }
+
+    /**
+     * Gets the directory or manifest of the batch payroll files
+     * @return The path of the directory or manifest, null when a single payroll is processed
+     */
+    public String getBatchSource() {
+        return BatchSource;
+    }
+
+    /**
+     * Gets the directory the batch reports and summary are written to
+     * @return The path of the output directory
+     */
+    public String getBatchOutput() {
+        return BatchOutput;
+    }
+
+    /**
+     * Gets the largest number of batch files processed at the same time
+     * @return The concurrency limit
+     */
+    public int getConcurrency() {
+        return Concurrency;
+    }
+
+    /**
+     * Gets the number of pay periods in the year
+     * @return 52 for weekly, 26 for biweekly, 0 to report the yearly amounts
+     */
+    public int getPeriodsPerYear() {
+        return PeriodsPerYear;
+    }
+
+    /**
+     * Gets the year-to-date file of the pay periods
+     * @return The file name
+     */
+    public String getYearToDateFile() {
+        return YearToDateFile;
+    }
+
+    /**
+     * Gets the port of the query endpoint
+     * @return The port, 0 when no endpoint is started
+     */
+    public int getServePort() {
+        return ServePort;
+    }
+
+    /**
+     * Gets how the rules of the deductions are calculated
+     * @return "compiled", "interpreted", or null for the deduction objects
+     */
+    public String getRuleMode() {
+        return RuleMode;
+    }
+
+    /**
+     * Gets the time between two checkpoints
+     * @return The interval in seconds, 0 when no checkpoint is taken
+     */
+    public int getCheckpointInterval() {
+        return CheckpointInterval;
+    }
+
+    /**
+     * Gets the checkpoint file
+     * @return The file name
+     */
+    public String getCheckpointFile() {
+        return CheckpointFile;
+    }
+
+    /**
+     * Gets the number of worker processes
+     * @return The number of workers, 0 when the payroll is processed in this process
+     */
+    public int getWorkerProcesses() {
+        return WorkerProcesses;
+    }
+
+    /**
+     * Gets the compression of the report
+     * @return GZIP or BLOCKS, null for a text report
+     */
+    public CompressedPayrollReader.Format getReportCompression() {
+        return ReportCompression;
+    }
+}
@@ -0,0 +1,293 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import deductions.DeductionSet;
+import deductions.Money;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small HTTP endpoint answering queries on a PayrollIndex, listening on the loopback address only
+ *
+ * Requests:
+ * >GET /employee?id=ID                          The employee and its deductions, 404 if unknown
+ * >GET /range?by=gross|net&min=A&max=B&limit=N  The employees whose gross or net income in dollars is
+ *                                               between A and B, in increasing order, at most N (100 by default)
+ * The answers are JSON objects with the amounts in dollars. A malformed query gets a 400 answer.
+ *
+ * The index is read only, so the requests are answered by a small pool of threads at the same time.
+ */
+public class PayrollQueryServer {
+
+    /** Number of employees returned by a range query without a limit */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /** The queried index */
+    private final PayrollIndex Index;
+
+    /** The HTTP server, null until started */
+    private HttpServer Server;
+
+    /** The threads answering the requests */
+    private ExecutorService Workers;
+
+    /**
+     * Constructs a PayrollQueryServer
+     * @param index The queried index
+     */
+    public PayrollQueryServer(PayrollIndex index) {
+        this.Index = index;
+    }
+
+    /**
+     * Starts listening on the loopback address
+     * @param Port The port, 0 for any free port
+     * @return The port listened on
+     * @throws IOException If the port cannot be opened
+     */
+    public int start(int Port) throws IOException {
+        Server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), Port), 0);
+        Workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        Server.setExecutor(Workers);
+        Server.createContext("/employee", Exchange -> answer(Exchange, this::employee));
+        Server.createContext("/range", Exchange -> answer(Exchange, this::range));
+        Server.start();
+        return Server.getAddress().getPort();
+    }
+
+    /**
+     * Stops listening, the requests in progress are dropped
+     */
+    public void stop() {
+        if (Server != null) {
+            Server.stop(0);
+            Workers.shutdown();
+        }
+    }
+
+    /**
+     * Answers one query
+     */
+    private interface Query {
+
+        /**
+         * Writes the JSON answer of a query
+         * @param Parameters The query string of the request, may be null
+         * @param Json       Receives the answer
+         * @return The HTTP status
+         */
+        int answer(String Parameters, StringBuilder Json);
+    }
+
+    /**
+     * Runs a query and sends its answer
+     * @param Exchange The request
+     * @param Handler  The query
+     * @throws IOException If the answer cannot be sent
+     */
+    private static void answer(HttpExchange Exchange, Query Handler) throws IOException {
+        StringBuilder Json = new StringBuilder(256);
+        int Status;
+        if (!Exchange.getRequestMethod().equals("GET")) {
+            Status = 405;
+            error(Json, "only GET is supported");
+        } else {
+            try {
+                Status = Handler.answer(Exchange.getRequestURI().getRawQuery(), Json);
+            } catch (IllegalArgumentException e) {
+                Json.setLength(0);
+                Status = 400;
+                error(Json, e.getMessage());
+            }
+        }
+        byte[] Body = Json.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        Exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        Exchange.sendResponseHeaders(Status, Body.length);
+        try (OutputStream Out = Exchange.getResponseBody()) {
+            Out.write(Body);
+        }
+    }
+
+    /**
+     * Answers /employee?id=ID
+     * @param Parameters The query string
+     * @param Json       Receives the employee
+     * @return 200, or 404 if no employee has the ID
+     */
+    private int employee(String Parameters, StringBuilder Json) {
+        long ID = parseLong(parameter(Parameters, "id"), "id");
+        int Row = Index.find(ID);
+        if (Row < 0) {
+            error(Json, "no employee " + ID);
+            return 404;
+        }
+        appendEmployee(Json, Row, true);
+        return 200;
+    }
+
+    /**
+     * Answers /range?by=gross|net&min=A&max=B&limit=N
+     * @param Parameters The query string
+     * @param Json       Receives the number of employees in the range and the first ones
+     * @return 200
+     */
+    private int range(String Parameters, StringBuilder Json) {
+        String By = parameter(Parameters, "by");
+        String Min = parameter(Parameters, "min");
+        String Max = parameter(Parameters, "max");
+        String Limit = parameter(Parameters, "limit");
+        long MinCents = Min == null ? Long.MIN_VALUE : parseCents(Min, "min");
+        long MaxCents = Max == null ? Long.MAX_VALUE : parseCents(Max, "max");
+        int Count = Limit == null ? DEFAULT_LIMIT : (int) Math.min(Integer.MAX_VALUE, Math.max(0, parseLong(Limit, "limit")));
+
+        int Total;
+        int[] Rows;
+        if (By == null || By.equals("gross")) {
+            Total = Index.countByGross(MinCents, MaxCents);
+            Rows = Index.rangeByGross(MinCents, MaxCents, Count);
+        } else if (By.equals("net")) {
+            Total = Index.countByNet(MinCents, MaxCents);
+            Rows = Index.rangeByNet(MinCents, MaxCents, Count);
+        } else {
+            throw new IllegalArgumentException("by must be gross or net");
+        }
+
+        Json.append("{\"count\":").append(Total).append(",\"employees\":[");
+        for (int Position = 0; Position < Rows.length; Position++) {
+            if (Position > 0) Json.append(',');
+            appendEmployee(Json, Rows[Position], false);
+        }
+        Json.append("]}");
+        return 200;
+    }
+
+    /**
+     * Writes an employee as a JSON object
+     * @param Json     Receives the object
+     * @param Row      The row of the employee
+     * @param Detailed True to add the hours, the rate and each deduction
+     */
+    private void appendEmployee(StringBuilder Json, int Row, boolean Detailed) {
+        EmployeeTable Employees = Index.getEmployees();
+        Json.append("{\"id\":").append(Employees.getID(Row));
+        Json.append(",\"firstName\":");
+        appendString(Json, Employees.getFirstName(Row));
+        Json.append(",\"lastName\":");
+        appendString(Json, Employees.getLastName(Row));
+        if (Detailed) {
+            Json.append(",\"hoursWorked\":").append(Employees.getHoursWorked(Row));
+            Json.append(",\"hourRate\":").append(Employees.getHourRate(Row));
+        }
+        appendAmount(Json, "gross", Employees.getGrossCents(Row));
+        if (Detailed) {
+            appendAmount(Json, "provincialTax", Index.getAmount(Row, DeductionSet.PROVINCIAL_TAX));
+            appendAmount(Json, "federalTax", Index.getAmount(Row, DeductionSet.FEDERAL_TAX));
+            appendAmount(Json, "employmentInsurance", Index.getAmount(Row, DeductionSet.EMPLOYMENT_INSURANCE));
+            appendAmount(Json, "parentalPlan", Index.getAmount(Row, DeductionSet.PARENTAL_PLAN));
+            appendAmount(Json, "pensionPlan", Index.getAmount(Row, DeductionSet.PENSION_PLAN));
+        }
+        appendAmount(Json, "deductions", Index.getAmount(Row, DeductionSet.TOTAL));
+        appendAmount(Json, "net", Index.getAmount(Row, DeductionSet.NET_INCOME));
+        Json.append('}');
+    }
+
+    /**
+     * Writes an amount in dollars as a JSON member
+     * @param Json  Receives the member
+     * @param Name  The name of the member
+     * @param Cents The amount, in cents
+     */
+    private static void appendAmount(StringBuilder Json, String Name, long Cents) {
+        Json.append(",\"").append(Name).append("\":");
+        if (Cents < 0) Json.append('-');
+        long Absolute = Math.abs(Cents);
+        Json.append(Absolute / 100).append('.');
+        long Part = Absolute % 100;
+        if (Part < 10) Json.append('0');
+        Json.append(Part);
+    }
+
+    /**
+     * Writes a string as a JSON string
+     * @param Json  Receives the string
+     * @param Value The string
+     */
+    private static void appendString(StringBuilder Json, String Value) {
+        Json.append('"');
+        for (int Index = 0; Index < Value.length(); Index++) {
+            char Current = Value.charAt(Index);
+            if (Current == '"' || Current == '\\') {
+                Json.append('\\').append(Current);
+            } else if (Current < 0x20) {
+                Json.append(String.format("\\u%04x", (int) Current));
+            } else {
+                Json.append(Current);
+            }
+        }
+        Json.append('"');
+    }
+
+    /**
+     * Writes an error as a JSON object
+     * @param Json    Receives the object
+     * @param Message The error message
+     */
+    private static void error(StringBuilder Json, String Message) {
+        Json.append("{\"error\":");
+        appendString(Json, Message);
+        Json.append('}');
+    }
+
+    /**
+     * Finds a parameter of a query string
+     * @param Parameters The query string, may be null
+     * @param Name       The name of the parameter
+     * @return The value of the first parameter with this name, or null if there is none
+     */
+    private static String parameter(String Parameters, String Name) {
+        if (Parameters == null) return null;
+        for (String Pair : Parameters.split("&")) {
+            int Equals = Pair.indexOf('=');
+            if (Equals == Name.length() && Pair.startsWith(Name)) {
+                return Pair.substring(Equals + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a whole number parameter
+     * @param Value The value, may be null
+     * @param Name  The name of the parameter, for the error message
+     * @return The number
+     * @throws IllegalArgumentException If the value is missing or not a whole number
+     */
+    private static long parseLong(String Value, String Name) {
+        if (Value == null) throw new IllegalArgumentException(Name + " is missing");
+        try {
+            return Long.parseLong(Value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(Name + " must be a whole number");
+        }
+    }
+
+    /**
+     * Reads an amount parameter in dollars
+     * @param Value The value
+     * @param Name  The name of the parameter, for the error message
+     * @return The amount, in cents
+     * @throws IllegalArgumentException If the value is not an amount
+     */
+    private static long parseCents(String Value, String Name) {
+        try {
+            return Money.fromDollars(Double.parseDouble(Value));
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException(Name + " must be an amount in dollars");
+        }
+    }
+}
@@ -0,0 +1,466 @@
+import exceptions.InvalidFileFormatException;
+import exceptions.MinimumWageException;
+import exceptions.NegativeValueException;
+
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.InputMismatchException;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * Parses the "ID FirstName LastName HoursWorked HourRate" lines of the payroll file
+ *
+ * The fields are read straight from a character buffer: the tokens are found by hand
+ * and the ID, the hours and the rate are converted without creating any String.
+ * Only the two names become Strings. One parser is meant to be reused for every line,
+ * the values of the last parsed line are available through the getters.
+ *
+ * validate() reports a rejected line with a RejectReason, without throwing or allocating
+ * anything; parse() throws the matching exception instead, for the callers that want it.
+ *
+ * A line is accepted or rejected exactly like java.util.Scanner does it. Plain numbers
+ * such as 40, -10, 20.50 or 1e2 are converted directly, anything unusual (group separators,
+ * NaN, hexadecimal, non ASCII digits...) is handed to a Scanner so the result stays the same,
+ * except a token starting with a letter no number of the locale can start with, which is
+ * rejected at once.
+ */
+public class PayrollRecordParser {
+
+    /** Exact powers of ten usable for a correctly rounded decimal conversion */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest number of digits whose value always fits exactly in a double */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /** Largest number of digits that always fits in a long */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    /**
+     * True when the default locale reads numbers like 20.50, which is when the direct conversion
+     * gives the same answer as a Scanner. Otherwise every number goes through a Scanner.
+     */
+    private static final boolean PLAIN_NUMBERS = usesPlainNumbers();
+
+    /** ASCII letters a whole number can start with after its sign, from the prefixes of the locale */
+    private static final String LONG_LETTERS = startLetters(false);
+
+    /** ASCII letters a decimal number can start with after its sign, NaN and Infinity included */
+    private static final String DOUBLE_LETTERS = startLetters(true);
+
+    /** Buffer the String lines are copied into, grows when a longer line is read */
+    private char[] LineBuffer = new char[128];
+
+    /** Start of the current token in the buffer */
+    private int TokenStart;
+
+    /** End (exclusive) of the current token in the buffer */
+    private int TokenEnd;
+
+    /** The employee ID of the last parsed line */
+    private long ID;
+
+    /** The first name of the last parsed line */
+    private String FirstName;
+
+    /** The last name of the last parsed line */
+    private String LastName;
+
+    /** The number of hours worked of the last parsed line */
+    private double HoursWorked;
+
+    /** The hourly rate of the last parsed line */
+    private double HourRate;
+
+    /** Gross income of the last parsed line, in cents */
+    private long GrossCents;
+
+    /** The value of the last number converted */
+    private double Number;
+
+    /**
+     * Default constructor for PayrollRecordParser
+     */
+    public PayrollRecordParser() {
+    }
+
+    /**
+     * Parses and validates a line read from the payroll file
+     * @param Line The line to parse
+     * @throws InvalidFileFormatException If a field is missing or is not a number, or the gross income is too large
+     * @throws NegativeValueException     If the ID, the hours or the rate is negative
+     * @throws MinimumWageException       If the hourly rate is below the minimum wage
+     */
+    public void parse(String Line) throws InvalidFileFormatException, NegativeValueException, MinimumWageException {
+        validate(Line).throwException();
+    }
+
+    /**
+     * Parses a line stored as raw bytes and throws the exception of its reject reason, see validate
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first byte of the line
+     * @param Length The number of bytes of the line
+     * @throws InvalidFileFormatException If a field is missing or is not a number, or the gross income is too large
+     * @throws NegativeValueException     If the ID, the hours or the rate is negative
+     * @throws MinimumWageException       If the hourly rate is below the minimum wage
+     */
+    public void parse(byte[] Buffer, int Offset, int Length)
+            throws InvalidFileFormatException, NegativeValueException, MinimumWageException {
+        validate(Buffer, Offset, Length).throwException();
+    }
+
+    /**
+     * Parses a line stored in a character buffer and throws the exception of its reject reason
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first character of the line
+     * @param Length The number of characters of the line
+     * @throws InvalidFileFormatException If a field is missing or is not a number, or the gross income is too large
+     * @throws NegativeValueException     If the ID, the hours or the rate is negative
+     * @throws MinimumWageException       If the hourly rate is below the minimum wage
+     */
+    public void parse(char[] Buffer, int Offset, int Length)
+            throws InvalidFileFormatException, NegativeValueException, MinimumWageException {
+        validate(Buffer, Offset, Length).throwException();
+    }
+
+    /**
+     * Parses and validates a line read from the payroll file, without throwing
+     * @param Line The line to parse
+     * @return NONE if the line is valid, otherwise the reason it is rejected
+     */
+    public RejectReason validate(String Line) {
+        int Length = Line.length();
+        if (Length > LineBuffer.length) {
+            LineBuffer = new char[Math.max(Length, LineBuffer.length * 2)];
+        }
+        Line.getChars(0, Length, LineBuffer, 0);
+        return validate(LineBuffer, 0, Length);
+    }
+
+    /**
+     * Parses and validates a line stored as raw bytes, as read from the payroll file, without throwing
+     * ASCII lines are read without being decoded, other lines are decoded with the
+     * default charset, like a FileReader does it
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first byte of the line
+     * @param Length The number of bytes of the line
+     * @return NONE if the line is valid, otherwise the reason it is rejected
+     */
+    public RejectReason validate(byte[] Buffer, int Offset, int Length) {
+        if (Length > LineBuffer.length) {
+            LineBuffer = new char[Math.max(Length, LineBuffer.length * 2)];
+        }
+        for (int Index = 0; Index < Length; Index++) {
+            byte Current = Buffer[Offset + Index];
+            if (Current < 0) {
+                return validate(new String(Buffer, Offset, Length, Charset.defaultCharset()));
+            }
+            LineBuffer[Index] = (char) Current;
+        }
+        return validate(LineBuffer, 0, Length);
+    }
+
+    /**
+     * Checks if a line stored as raw bytes is empty once trimmed, like Line.trim().isEmpty()
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first byte of the line
+     * @param Length The number of bytes of the line
+     * @return true if the line only holds spaces or control characters
+     */
+    public static boolean isBlank(byte[] Buffer, int Offset, int Length) {
+        for (int Index = Offset; Index < Offset + Length; Index++) {
+            if (Buffer[Index] < 0 || Buffer[Index] > ' ') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses and validates a line stored in a character buffer, without throwing
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first character of the line
+     * @param Length The number of characters of the line
+     * @return NONE if the line is valid, otherwise the reason it is rejected
+     */
+    public RejectReason validate(char[] Buffer, int Offset, int Length) {
+
+        int End = Offset + Length;
+        TokenEnd = Offset;
+
+        // Checks and read Employee ID
+        if (!nextToken(Buffer, End) || !parseLong(Buffer)) return RejectReason.INVALID_ID;
+        if (ID < 0) return RejectReason.NEGATIVE_ID;
+
+        // Checks and read First Name
+        if (!nextToken(Buffer, End)) return RejectReason.MISSING_FIRST_NAME;
+        int FirstStart = TokenStart;
+        int FirstEnd = TokenEnd;
+
+        // Validate and read Last Name
+        if (!nextToken(Buffer, End)) return RejectReason.MISSING_LAST_NAME;
+        int LastStart = TokenStart;
+        int LastEnd = TokenEnd;
+
+        // Validate and read Hours Worked
+        if (!nextToken(Buffer, End) || !parseDouble(Buffer)) return RejectReason.INVALID_HOURS;
+        HoursWorked = Number;
+        if (HoursWorked < 0) return RejectReason.NEGATIVE_HOURS;
+
+        // Validate and read Hourly Rate
+        if (!nextToken(Buffer, End) || !parseDouble(Buffer)) return RejectReason.INVALID_RATE;
+        HourRate = Number;
+        if (HourRate < 0) return RejectReason.NEGATIVE_RATE;
+        if (HourRate < PayrollManager.MINIMUM_WAGE) return RejectReason.BELOW_MINIMUM_WAGE;
+
+        // Calculate the gross income, which must fit in the cents of the report
+        if (!Employee.isGrossInRange(HoursWorked, HourRate)) return RejectReason.GROSS_OUT_OF_RANGE;
+        GrossCents = Employee.calculateGrossCents(HoursWorked, HourRate);
+
+        // Only a valid line creates its names
+        FirstName = new String(Buffer, FirstStart, FirstEnd - FirstStart);
+        LastName = new String(Buffer, LastStart, LastEnd - LastStart);
+        return RejectReason.NONE;
+    }
+
+    /**
+     * Builds an Employee from the last parsed line
+     * @return A new Employee holding the parsed values
+     */
+    public Employee toEmployee() {
+        return new Employee(ID, FirstName, LastName, HoursWorked, HourRate);
+    }
+
+    /**
+     * Gets the employee ID of the last parsed line
+     * @return The employee ID
+     */
+    public long getID() {
+        return ID;
+    }
+
+    /**
+     * Gets the first name of the last parsed line
+     * @return The first name
+     */
+    public String getFirstName() {
+        return FirstName;
+    }
+
+    /**
+     * Gets the last name of the last parsed line
+     * @return The last name
+     */
+    public String getLastName() {
+        return LastName;
+    }
+
+    /**
+     * Gets the number of hours worked of the last parsed line
+     * @return The number of hours worked per week
+     */
+    public double getHoursWorked() {
+        return HoursWorked;
+    }
+
+    /**
+     * Gets the hourly rate of the last parsed line
+     * @return The hourly rate
+     */
+    public double getHourRate() {
+        return HourRate;
+    }
+
+    /**
+     * Gets the gross income of the last parsed line, in cents
+     * @return The yearly gross income, in cents
+     */
+    public long getGrossCents() {
+        return GrossCents;
+    }
+
+    /**
+     * Moves to the next whitespace separated token, the same separators a Scanner uses
+     * @param Buffer The buffer holding the line
+     * @param End    The end (exclusive) of the line
+     * @return true if a token was found
+     */
+    private boolean nextToken(char[] Buffer, int End) {
+        int Index = TokenEnd;
+        while (Index < End && Character.isWhitespace(Buffer[Index])) Index++;
+        if (Index == End) return false;
+        TokenStart = Index;
+        while (Index < End && !Character.isWhitespace(Buffer[Index])) Index++;
+        TokenEnd = Index;
+        return true;
+    }
+
+    /**
+     * Converts the current token to a long, stored as the ID
+     * @param Buffer The buffer holding the line
+     * @return true if the token is a long
+     */
+    private boolean parseLong(char[] Buffer) {
+        int Index = TokenStart;
+        boolean Negative = false;
+        if (Buffer[Index] == '-' || Buffer[Index] == '+') {
+            Negative = Buffer[Index] == '-';
+            Index++;
+        }
+        int Digits = TokenEnd - Index;
+        if (Digits > 0 && cannotStartNumber(Buffer[Index], LONG_LETTERS)) return false;
+        if (!PLAIN_NUMBERS || Digits == 0 || Digits > MAX_LONG_DIGITS) return scanLong(Buffer);
+
+        long Value = 0;
+        for (; Index < TokenEnd; Index++) {
+            int Digit = Buffer[Index] - '0';
+            if (Digit < 0 || Digit > 9) return scanLong(Buffer);
+            Value = Value * 10 + Digit;
+        }
+        ID = Negative ? -Value : Value;
+        return true;
+    }
+
+    /**
+     * Converts the current token to a double, stored as the Number
+     * @param Buffer The buffer holding the line
+     * @return true if the token is a double
+     */
+    private boolean parseDouble(char[] Buffer) {
+        int Index = TokenStart;
+        boolean Negative = false;
+        if (Buffer[Index] == '-' || Buffer[Index] == '+') {
+            Negative = Buffer[Index] == '-';
+            Index++;
+        }
+        if (Index < TokenEnd && cannotStartNumber(Buffer[Index], DOUBLE_LETTERS)) return false;
+        if (!PLAIN_NUMBERS || Index == TokenEnd) return scanDouble(Buffer);
+
+        long Mantissa = 0;
+        int Digits = 0;           // Digits before and after the decimal point
+        int Decimals = -1;        // Digits after the decimal point, -1 while no point was found
+        for (; Index < TokenEnd; Index++) {
+            char Current = Buffer[Index];
+            if (Current == '.' && Decimals < 0) {
+                Decimals = 0;
+                continue;
+            }
+            int Digit = Current - '0';
+            if (Digit < 0 || Digit > 9) break;
+            if (++Digits > MAX_EXACT_DIGITS) return scanDouble(Buffer);
+            Mantissa = Mantissa * 10 + Digit;
+            if (Decimals >= 0) Decimals++;
+        }
+        // A lone "." is not a number, ".5" and "5." are
+        if (Digits == 0) return scanDouble(Buffer);
+
+        // Optional exponent such as 1e2 or 2.5E-1
+        int Exponent = 0;
+        if (Index < TokenEnd) {
+            if (Buffer[Index] != 'e' && Buffer[Index] != 'E') return scanDouble(Buffer);
+            Index++;
+            boolean NegativeExponent = false;
+            if (Index < TokenEnd && (Buffer[Index] == '-' || Buffer[Index] == '+')) {
+                NegativeExponent = Buffer[Index] == '-';
+                Index++;
+            }
+            if (Index == TokenEnd || TokenEnd - Index > 3) return scanDouble(Buffer);
+            for (; Index < TokenEnd; Index++) {
+                int Digit = Buffer[Index] - '0';
+                if (Digit < 0 || Digit > 9) return scanDouble(Buffer);
+                Exponent = Exponent * 10 + Digit;
+            }
+            if (NegativeExponent) Exponent = -Exponent;
+        }
+        Exponent -= Math.max(Decimals, 0);
+        if (Exponent < -22 || Exponent > 22) return scanDouble(Buffer);
+
+        // Both the mantissa and the power of ten are exact, so one operation is correctly rounded
+        double Value = (double) Mantissa;
+        if (Exponent < 0) {
+            Value = Value / POWERS_OF_TEN[-Exponent];
+        } else if (Exponent > 0) {
+            Value = Value * POWERS_OF_TEN[Exponent];
+        }
+        Number = Negative ? -Value : Value;
+        return true;
+    }
+
+    /**
+     * Checks if a token is surely not a number from its first character after the sign,
+     * which spares a Scanner for the words found where a number is expected
+     * @param First   The first character of the token after the sign
+     * @param Letters The ASCII letters a number can start with
+     * @return true if the character is an ASCII letter that no number starts with
+     */
+    private static boolean cannotStartNumber(char First, String Letters) {
+        return (First >= 'a' && First <= 'z' || First >= 'A' && First <= 'Z') && Letters.indexOf(First) < 0;
+    }
+
+    /**
+     * Converts the current token to a long with a Scanner, used for the unusual cases
+     * @param Buffer The buffer holding the line
+     * @return true if the token is a long, stored as the ID
+     */
+    private boolean scanLong(char[] Buffer) {
+        try (Scanner TokenScanner = new Scanner(new String(Buffer, TokenStart, TokenEnd - TokenStart))) {
+            if (!TokenScanner.hasNextLong()) return false;
+            ID = TokenScanner.nextLong();
+            return true;
+        } catch (InputMismatchException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts the current token to a double with a Scanner, used for the unusual cases
+     * @param Buffer The buffer holding the line
+     * @return true if the token is a double, stored as the Number
+     */
+    private boolean scanDouble(char[] Buffer) {
+        try (Scanner TokenScanner = new Scanner(new String(Buffer, TokenStart, TokenEnd - TokenStart))) {
+            if (!TokenScanner.hasNextDouble()) return false;
+            Number = TokenScanner.nextDouble();
+            return true;
+        } catch (InputMismatchException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lists the ASCII letters a number read by a Scanner can start with in the default locale
+     * @param Decimal true for a double, which can also be NaN or Infinity
+     * @return The letters, usually none for a long and "NI" for a double
+     */
+    static String startLetters(boolean Decimal) {
+        Locale Format = Locale.getDefault(Locale.Category.FORMAT);
+        StringBuilder Starts = new StringBuilder();
+        NumberFormat Numbers = NumberFormat.getNumberInstance(Format);
+        if (Numbers instanceof DecimalFormat) {
+            DecimalFormat Decimals = (DecimalFormat) Numbers;
+            Starts.append(Decimals.getPositivePrefix()).append(Decimals.getNegativePrefix());
+        } else {
+            // Unknown prefixes, any letter may start a number
+            return "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        }
+        if (Decimal) {
+            DecimalFormatSymbols Symbols = DecimalFormatSymbols.getInstance(Format);
+            Starts.append("NI").append(Symbols.getNaN()).append(Symbols.getInfinity());
+        }
+        return Starts.toString();
+    }
+
+    /**
+     * Checks if the default locale writes numbers with ASCII digits, a '-' sign and a '.' decimal point
+     * @return true if the direct conversion matches what a Scanner would read
+     */
+    static boolean usesPlainNumbers() {
+        DecimalFormatSymbols Symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        return Symbols.getDecimalSeparator() == '.'
+                && Symbols.getMinusSign() == '-'
+                && Symbols.getZeroDigit() == '0';
+    }
+}
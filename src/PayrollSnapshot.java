@@ -0,0 +1,633 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * Compiled binary copy of a validated payroll file
+ *
+ * A snapshot is written once from the text payroll file. Every line is validated at that
+ * time: the valid lines become rows of fixed-width columns (ID, gross income in cents,
+ * hours worked, hourly rate and the numbers of the first and last names), the names are
+ * stored once each in a dictionary, and the rejected lines are kept with their position in
+ * the text file so that the error log can be rebuilt in the same order.
+ *
+ * A snapshot is read through memory mapped views of its file: the columns are never copied
+ * or parsed, a row is read straight from the mapped pages. Only the names used are decoded,
+ * once each. The rows are replayed through a StreamingPayroll, so the report and error files
+ * match the ones written from the text file.
+ *
+ * Layout, little-endian, every section starting on a multiple of 8 bytes:
+ * >header: magic, version, row, name and rejected line counts, the size of the variable
+ *          sections, the size and modification time of the text file and a CRC32C of
+ *          everything after the header
+ * >the validation settings and the path of the text file, as UTF-8
+ * >the columns: IDs, gross incomes, hours and rates, first and last name numbers
+ * >the name dictionary: start of each name, then their UTF-8 bytes
+ * >the rejected lines: position in the text file, number of rows before them, start of
+ *                      each line, then their bytes as read from the text file
+ *
+ * Validation depends on the minimum wage, the locale and the charset. A snapshot written
+ * with other settings is refused, a snapshot older than its text file is used with a warning.
+ */
+public class PayrollSnapshot implements Closeable {
+
+    /** First bytes of a snapshot file, "PSNP" */
+    private static final int MAGIC = 0x50534E50;
+
+    /** Version of the snapshot layout, other versions are refused */
+    private static final int VERSION = 1;
+
+    /** Size of the header */
+    private static final int HEADER_BYTES = 72;
+
+    /** Size of the buffer used to write a snapshot */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /** Number of bytes mapped at once to verify the checksum */
+    private static final int CHECKSUM_WINDOW = 1 << 30;
+
+    /** The channel of the snapshot file */
+    private final FileChannel Channel;
+
+    /** Size of the snapshot file */
+    private final long FileSize;
+
+    /** Number of rows */
+    private final int Rows;
+
+    /** Number of distinct names */
+    private final int NameCount;
+
+    /** Number of rejected lines */
+    private final int RejectedCount;
+
+    /** Mapped columns of the rows */
+    private final LongBuffer IDs;
+    private final LongBuffer GrossCents;
+    private final DoubleBuffer HoursWorked;
+    private final DoubleBuffer HourRates;
+    private final IntBuffer FirstNames;
+    private final IntBuffer LastNames;
+
+    /** Start of each name in the name bytes, with the end of the last name after it */
+    private final IntBuffer NameStarts;
+
+    /** Position of each rejected line in the text file */
+    private final LongBuffer RejectedOffsets;
+
+    /** Number of rows before each rejected line */
+    private final IntBuffer RejectedRows;
+
+    /** Start of each rejected line in the rejected bytes, with the end of the last line after it */
+    private final IntBuffer RejectedStarts;
+
+    /** The UTF-8 bytes of every distinct name */
+    private final ByteBuffer NameBytes;
+
+    /** The bytes of every rejected line */
+    private final ByteBuffer RejectedBytes;
+
+    /** Names already decoded, by name number */
+    private final String[] NameStrings;
+
+    /** Holds the bytes of the name or line being decoded */
+    private byte[] Scratch = new byte[64];
+
+    /** Position of the next section while the file is mapped */
+    private long NextSection;
+
+    /**
+     * Maps the sections of an open snapshot file
+     * @param channel The channel of the snapshot file
+     * @param header  The header, already checked
+     * @param file    The snapshot file, for the messages
+     * @throws IOException If the file is damaged or was written with other settings
+     */
+    private PayrollSnapshot(FileChannel channel, ByteBuffer header, Path file) throws IOException {
+        this.Channel = channel;
+        this.FileSize = channel.size();
+        this.Rows = header.getInt(8);
+        this.NameCount = header.getInt(12);
+        this.RejectedCount = header.getInt(16);
+        int SettingsLength = header.getInt(20);
+        int SourceLength = header.getInt(24);
+        long NameBytesSize = header.getLong(32);
+        long RejectedBytesSize = header.getLong(40);
+        if (Rows < 0 || NameCount < 0 || RejectedCount < 0 || SettingsLength < 0 || SourceLength < 0) {
+            throw new IOException(file + " is damaged");
+        }
+
+        NextSection = HEADER_BYTES;
+        String Settings = decode(section(SettingsLength, file), 0, SettingsLength, StandardCharsets.UTF_8);
+        String Source = decode(section(SourceLength, file), 0, SourceLength, StandardCharsets.UTF_8);
+        this.IDs = section(8L * Rows, file).asLongBuffer();
+        this.GrossCents = section(8L * Rows, file).asLongBuffer();
+        this.HoursWorked = section(8L * Rows, file).asDoubleBuffer();
+        this.HourRates = section(8L * Rows, file).asDoubleBuffer();
+        this.FirstNames = section(4L * Rows, file).asIntBuffer();
+        this.LastNames = section(4L * Rows, file).asIntBuffer();
+        this.NameStarts = section(4L * (NameCount + 1), file).asIntBuffer();
+        this.RejectedOffsets = section(8L * RejectedCount, file).asLongBuffer();
+        this.RejectedRows = section(4L * RejectedCount, file).asIntBuffer();
+        this.RejectedStarts = section(4L * (RejectedCount + 1), file).asIntBuffer();
+        this.NameBytes = section(NameBytesSize, file);
+        this.RejectedBytes = section(RejectedBytesSize, file);
+        if (((NextSection + 7) & ~7L) != FileSize) {
+            throw new IOException(file + " is damaged");
+        }
+        this.NameStrings = new String[NameCount];
+
+        if (!Settings.equals(settings())) {
+            throw new IOException(file + " was validated with other settings (" + Settings
+                    + "), write it again with --write-snapshot");
+        }
+
+        // The snapshot is still used when the text file changed, but the report may be out of date
+        Path SourceFile = Paths.get(Source);
+        if (Files.exists(SourceFile) && (Files.size(SourceFile) != header.getLong(48)
+                || Files.getLastModifiedTime(SourceFile).toMillis() != header.getLong(56))) {
+            System.out.println("Warning: " + Source + " changed since " + file + " was written, the snapshot is used as it is.");
+        }
+    }
+
+    /**
+     * Checks if a file starts like a snapshot
+     * @param File The file
+     * @return true if the file starts with the snapshot magic, false otherwise or if it cannot be read
+     */
+    public static boolean isSnapshot(Path File) {
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            ByteBuffer Magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (Magic.hasRemaining()) {
+                if (Channel.read(Magic) < 0) return false;
+            }
+            return Magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a snapshot and verifies its checksum
+     * @param File The snapshot file
+     * @return The snapshot, to be closed
+     * @throws IOException If the file cannot be read, is not a snapshot, is damaged or was
+     *                     written with other settings
+     */
+    public static PayrollSnapshot open(Path File) throws IOException {
+        FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ);
+        try {
+            long Size = Channel.size();
+            if (Size < HEADER_BYTES) {
+                throw new IOException(File + " is not a payroll snapshot");
+            }
+            ByteBuffer Header = Channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (Header.getInt(0) != MAGIC) {
+                throw new IOException(File + " is not a payroll snapshot");
+            }
+            if (Header.getInt(4) != VERSION) {
+                throw new IOException(File + " was written by another version, write it again with --write-snapshot");
+            }
+
+            CRC32C Checksum = new CRC32C();
+            for (long Position = HEADER_BYTES; Position < Size; Position += CHECKSUM_WINDOW) {
+                Checksum.update(Channel.map(FileChannel.MapMode.READ_ONLY, Position, Math.min(CHECKSUM_WINDOW, Size - Position)));
+            }
+            if (Checksum.getValue() != Header.getLong(64)) {
+                throw new IOException(File + " is damaged, its checksum does not match");
+            }
+            return new PayrollSnapshot(Channel, Header, File);
+        } catch (IOException | RuntimeException e) {
+            Channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Validates every line of a text payroll file and writes the snapshot of it
+     * The snapshot is written to a temporary file first, then moved over the old one.
+     * @param Reader The mapped text payroll file
+     * @param Source The path of the text payroll file
+     * @param File   The snapshot file
+     * @return The number of rows and of rejected lines written, in this order
+     * @throws IOException If the text file cannot be read or the snapshot cannot be written
+     */
+    public static int[] write(MappedPayrollReader Reader, Path Source, Path File) throws IOException {
+        long SourceSize = Files.size(Source);
+        long SourceModified = Files.getLastModifiedTime(Source).toMillis();
+        Compiler Lines = new Compiler();
+        try {
+            Reader.forEachLine(Lines);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        EmployeeTable Table = Lines.Table;
+        int Rows = Table.size();
+        int NameCount = Table.getNameCount();
+
+        byte[] Settings = settings().getBytes(StandardCharsets.UTF_8);
+        byte[] SourceBytes = Source.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path Temporary = File.resolveSibling(File.getFileName() + ".tmp");
+        try (FileChannel Channel = FileChannel.open(Temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SectionWriter Out = new SectionWriter(Channel);
+            Out.putBytes(Settings, 0, Settings.length);
+            Out.putBytes(SourceBytes, 0, SourceBytes.length);
+            for (int Row = 0; Row < Rows; Row++) Out.putLong(Table.getID(Row));
+            Out.align();
+            for (int Row = 0; Row < Rows; Row++) Out.putLong(Table.getGrossCents(Row));
+            Out.align();
+            for (int Row = 0; Row < Rows; Row++) Out.putLong(Double.doubleToRawLongBits(Table.getHoursWorked(Row)));
+            Out.align();
+            for (int Row = 0; Row < Rows; Row++) Out.putLong(Double.doubleToRawLongBits(Table.getHourRate(Row)));
+            Out.align();
+            for (int Row = 0; Row < Rows; Row++) Out.putInt(Table.getFirstNameNumber(Row));
+            Out.align();
+            for (int Row = 0; Row < Rows; Row++) Out.putInt(Table.getLastNameNumber(Row));
+            Out.align();
+            for (int Name = 0; Name <= NameCount; Name++) Out.putInt(Table.getNameStart(Name));
+            Out.align();
+            for (int Line = 0; Line < Lines.RejectedCount; Line++) Out.putLong(Lines.RejectedOffsets[Line]);
+            Out.align();
+            for (int Line = 0; Line < Lines.RejectedCount; Line++) Out.putInt(Lines.RejectedRows[Line]);
+            Out.align();
+            for (int Line = 0; Line <= Lines.RejectedCount; Line++) Out.putInt(Lines.RejectedStarts[Line]);
+            Out.align();
+            int NameBytesSize = Table.getNameStart(NameCount);
+            Out.putBytes(Table.getNameArena(), 0, NameBytesSize);
+            int RejectedBytesSize = Lines.RejectedStarts[Lines.RejectedCount];
+            Out.putBytes(Lines.RejectedBytes, 0, RejectedBytesSize);
+            Out.flush();
+
+            ByteBuffer Header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            Header.putInt(MAGIC).putInt(VERSION).putInt(Rows).putInt(NameCount).putInt(Lines.RejectedCount)
+                    .putInt(Settings.length).putInt(SourceBytes.length).putInt(0)
+                    .putLong(NameBytesSize).putLong(RejectedBytesSize)
+                    .putLong(SourceSize).putLong(SourceModified).putLong(Out.Checksum.getValue());
+            Header.flip();
+            long Position = 0;
+            while (Header.hasRemaining()) {
+                Position += Channel.write(Header, Position);
+            }
+        }
+        Files.move(Temporary, File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new int[]{Rows, Lines.RejectedCount};
+    }
+
+    /**
+     * Writes every row and rejected line of the snapshot, in the order of the text file
+     * @param Stream The payroll receiving the employees and the rejected lines
+     */
+    public void replay(StreamingPayroll Stream) {
+        int Rejected = 0;
+        for (int Row = 0; Row < Rows; Row++) {
+            while (Rejected < RejectedCount && RejectedRows.get(Rejected) <= Row) {
+                Stream.processInvalidLine(getRejectedLine(Rejected++));
+            }
+            Stream.processEmployee(IDs.get(Row), name(FirstNames.get(Row)), name(LastNames.get(Row)), GrossCents.get(Row));
+        }
+        while (Rejected < RejectedCount) {
+            Stream.processInvalidLine(getRejectedLine(Rejected++));
+        }
+    }
+
+    /**
+     * Gets the number of rows
+     * @return The number of valid employee lines of the text file
+     */
+    public int size() {
+        return Rows;
+    }
+
+    /**
+     * Gets the employee ID of a row
+     * @param Row The index of the row
+     * @return The employee ID
+     */
+    public long getID(int Row) {
+        return IDs.get(Row);
+    }
+
+    /**
+     * Gets the first name of a row
+     * @param Row The index of the row
+     * @return The first name
+     */
+    public String getFirstName(int Row) {
+        return name(FirstNames.get(Row));
+    }
+
+    /**
+     * Gets the last name of a row
+     * @param Row The index of the row
+     * @return The last name
+     */
+    public String getLastName(int Row) {
+        return name(LastNames.get(Row));
+    }
+
+    /**
+     * Gets the number of hours worked per week of a row
+     * @param Row The index of the row
+     * @return The number of hours worked per week
+     */
+    public double getHoursWorked(int Row) {
+        return HoursWorked.get(Row);
+    }
+
+    /**
+     * Gets the hourly rate of a row
+     * @param Row The index of the row
+     * @return The hourly rate
+     */
+    public double getHourRate(int Row) {
+        return HourRates.get(Row);
+    }
+
+    /**
+     * Gets the gross income of a row
+     * @param Row The index of the row
+     * @return The yearly gross income, in cents
+     */
+    public long getGrossCents(int Row) {
+        return GrossCents.get(Row);
+    }
+
+    /**
+     * Gets the number of rejected lines
+     * @return The number of invalid lines of the text file
+     */
+    public int getRejectedCount() {
+        return RejectedCount;
+    }
+
+    /**
+     * Gets the position of a rejected line in the text file
+     * @param Line The index of the rejected line
+     * @return The position of the first byte of the line
+     */
+    public long getRejectedOffset(int Line) {
+        return RejectedOffsets.get(Line);
+    }
+
+    /**
+     * Gets the text of a rejected line, decoded like the text file
+     * @param Line The index of the rejected line
+     * @return The rejected line, without its line terminator
+     */
+    public String getRejectedLine(int Line) {
+        int Start = RejectedStarts.get(Line);
+        return decode(RejectedBytes, Start, RejectedStarts.get(Line + 1) - Start, Charset.defaultCharset());
+    }
+
+    /**
+     * Closes the channel of the snapshot file
+     * The mapped views stay readable until they are garbage collected
+     * @throws IOException If the channel cannot be closed
+     */
+    public void close() throws IOException {
+        Channel.close();
+    }
+
+    /**
+     * Describes everything the validation of a line depends on
+     * @return The minimum wage, the locale and the charset
+     */
+    private static String settings() {
+        return PayrollManager.MINIMUM_WAGE + " " + Locale.getDefault() + " " + Charset.defaultCharset();
+    }
+
+    /**
+     * Maps the next section of the file
+     * @param Bytes The size of the section
+     * @param File  The snapshot file, for the messages
+     * @return The little-endian view of the section
+     * @throws IOException If the section goes past the end of the file or is larger than 2 GB
+     */
+    private ByteBuffer section(long Bytes, Path File) throws IOException {
+        long Start = (NextSection + 7) & ~7L;
+        if (Bytes < 0 || Bytes > Integer.MAX_VALUE || Start + Bytes > FileSize) {
+            throw new IOException(File + " is damaged");
+        }
+        NextSection = Start + Bytes;
+        MappedByteBuffer Section = Channel.map(FileChannel.MapMode.READ_ONLY, Start, Bytes);
+        return Section.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gets the String of a name, decoding it from the mapped dictionary the first time
+     * @param Name The number of the name
+     * @return The name
+     */
+    private String name(int Name) {
+        String Text = NameStrings[Name];
+        if (Text == null) {
+            int Start = NameStarts.get(Name);
+            Text = decode(NameBytes, Start, NameStarts.get(Name + 1) - Start, StandardCharsets.UTF_8);
+            NameStrings[Name] = Text;
+        }
+        return Text;
+    }
+
+    /**
+     * Decodes bytes of a mapped section
+     * @param Section The section
+     * @param Start   The index of the first byte
+     * @param Length  The number of bytes
+     * @param Encoding The charset of the bytes
+     * @return The decoded text
+     */
+    private String decode(ByteBuffer Section, int Start, int Length, Charset Encoding) {
+        if (Scratch.length < Length) {
+            Scratch = new byte[Math.max(Length, Scratch.length * 2)];
+        }
+        Section.get(Start, Scratch, 0, Length);
+        return new String(Scratch, 0, Length, Encoding);
+    }
+
+    /**
+     * Validates the lines of the text file while a snapshot is written
+     * The valid lines go to a table, the rejected ones are kept as bytes.
+     */
+    private static class Compiler implements MappedPayrollReader.LineHandler {
+
+        /** Reads the fields of each line */
+        private final PayrollRecordParser Parser = new PayrollRecordParser();
+
+        /** The valid lines */
+        private final EmployeeTable Table = new EmployeeTable(1024);
+
+        /** Position of each rejected line in the text file */
+        private long[] RejectedOffsets = new long[64];
+
+        /** Number of rows before each rejected line */
+        private int[] RejectedRows = new int[64];
+
+        /** Start of each rejected line in the rejected bytes, with the end of the last line after it */
+        private int[] RejectedStarts = new int[65];
+
+        /** The bytes of every rejected line */
+        private byte[] RejectedBytes = new byte[4096];
+
+        /** Number of rejected lines */
+        private int RejectedCount;
+
+        /**
+         * Validates one line and keeps it as a row or as a rejected line
+         * Empty lines are skipped, like in every other mode
+         * @param Buffer   The buffer holding the line
+         * @param Offset   The index of the first byte of the line
+         * @param Length   The number of bytes of the line
+         * @param Position The position of the line in the file
+         */
+        public void handleLine(byte[] Buffer, int Offset, int Length, long Position) {
+            if (PayrollRecordParser.isBlank(Buffer, Offset, Length)) return;
+            if (Parser.validate(Buffer, Offset, Length) == RejectReason.NONE) {
+                Table.add(Parser);
+            } else {
+                reject(Buffer, Offset, Length, Position);
+            }
+        }
+
+        /**
+         * Keeps an invalid line
+         * @param Buffer   The buffer holding the line
+         * @param Offset   The index of the first byte of the line
+         * @param Length   The number of bytes of the line
+         * @param Position The position of the line in the file
+         */
+        private void reject(byte[] Buffer, int Offset, int Length, long Position) {
+            int End = RejectedStarts[RejectedCount];
+            if ((long) End + Length > Integer.MAX_VALUE) {
+                throw new UncheckedIOException(new IOException("The rejected lines take more than 2 GB, the snapshot cannot hold them"));
+            }
+            if (RejectedCount + 2 > RejectedStarts.length) {
+                int Capacity = RejectedOffsets.length * 2;
+                RejectedOffsets = Arrays.copyOf(RejectedOffsets, Capacity);
+                RejectedRows = Arrays.copyOf(RejectedRows, Capacity);
+                RejectedStarts = Arrays.copyOf(RejectedStarts, Capacity + 1);
+            }
+            if (End + Length > RejectedBytes.length) {
+                RejectedBytes = Arrays.copyOf(RejectedBytes, (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(2L * RejectedBytes.length, (long) End + Length)));
+            }
+            System.arraycopy(Buffer, Offset, RejectedBytes, End, Length);
+            RejectedOffsets[RejectedCount] = Position;
+            RejectedRows[RejectedCount] = Table.size();
+            RejectedCount++;
+            RejectedStarts[RejectedCount] = End + Length;
+        }
+    }
+
+    /**
+     * Writes the sections of a snapshot through a buffer, keeping their checksum
+     */
+    private static class SectionWriter {
+
+        /** The channel of the snapshot file, placed after the header */
+        private final FileChannel Channel;
+
+        /** Buffer of the bytes not written yet */
+        private final ByteBuffer Buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        /** Checksum of every byte after the header */
+        private final CRC32C Checksum = new CRC32C();
+
+        /** Position in the file of the next byte */
+        private long Position = HEADER_BYTES;
+
+        /**
+         * Constructs a SectionWriter
+         * @param channel The channel of the snapshot file
+         * @throws IOException If the channel cannot be positioned
+         */
+        SectionWriter(FileChannel channel) throws IOException {
+            this.Channel = channel;
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+         * Writes a long
+         * @param Value The value
+         * @throws IOException If the file cannot be written
+         */
+        void putLong(long Value) throws IOException {
+            if (Buffer.remaining() < 8) flush();
+            Buffer.putLong(Value);
+            Position += 8;
+        }
+
+        /**
+         * Writes an int
+         * @param Value The value
+         * @throws IOException If the file cannot be written
+         */
+        void putInt(int Value) throws IOException {
+            if (Buffer.remaining() < 4) flush();
+            Buffer.putInt(Value);
+            Position += 4;
+        }
+
+        /**
+         * Writes bytes, then pads them to a multiple of 8
+         * @param Bytes  The array holding the bytes
+         * @param Offset The index of the first byte
+         * @param Length The number of bytes
+         * @throws IOException If the file cannot be written
+         */
+        void putBytes(byte[] Bytes, int Offset, int Length) throws IOException {
+            while (Length > 0) {
+                if (!Buffer.hasRemaining()) flush();
+                int Part = Math.min(Length, Buffer.remaining());
+                Buffer.put(Bytes, Offset, Part);
+                Offset += Part;
+                Length -= Part;
+                Position += Part;
+            }
+            align();
+        }
+
+        /**
+         * Pads the file with zeros up to a multiple of 8 bytes
+         * @throws IOException If the file cannot be written
+         */
+        void align() throws IOException {
+            while ((Position & 7) != 0) {
+                if (!Buffer.hasRemaining()) flush();
+                Buffer.put((byte) 0);
+                Position++;
+            }
+        }
+
+        /**
+         * Writes the buffered bytes to the file
+         * @throws IOException If the file cannot be written
+         */
+        void flush() throws IOException {
+            Buffer.flip();
+            Checksum.update(Buffer.duplicate());
+            while (Buffer.hasRemaining()) {
+                Channel.write(Buffer);
+            }
+            Buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import deductions.DeductionCache;
+import deductions.DeductionSet;
+import deductions.RuleEvaluator;
+import deductions.RuleSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Worker process of a ShardedPayroll
+ *
+ * Started by the coordinator with the same class path, the worker connects back to it on the
+ * loopback address, says hello with the deductions it loaded and its validation settings, then processes
+ * the shards it is sent until it is told to stop. Each shard is read from the payroll file
+ * through a MappedPayrollReader and run through a StreamingPayroll writing to memory buffers.
+ *
+ * Usage:
+ * >java -cp out PayrollWorker PORT TAX_YEAR PROVINCE ERROR_REASONS CACHE_CAPACITY classic|compiled|interpreted
+ */
+public class PayrollWorker {
+
+    /**
+     * Default constructor for PayrollWorker
+     */
+    private PayrollWorker() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 6) {
+            System.out.println("Error... PayrollWorker is started by the --workers mode of PayrollManager");
+            System.exit(2);
+        }
+        int Port = Integer.parseInt(args[0]);
+        DeductionSet Deductions = new DeductionSet(Integer.parseInt(args[1]), args[2]);
+        boolean ErrorReasons = Boolean.parseBoolean(args[3]);
+        int CacheCapacity = Integer.parseInt(args[4]);
+        if (!args[5].equals("classic")) {
+            RuleSet Rules = RuleSet.of(Deductions);
+            Deductions = Deductions.withRules(args[5].equals("compiled")
+                    ? RuleEvaluator.create(Rules) : RuleEvaluator.createInterpreter(Rules));
+        }
+        // One cache for the whole run, like one thread of ParallelPayroll
+        DeductionCache Cache = CacheCapacity > 0 ? new DeductionCache(Deductions, CacheCapacity) : null;
+
+        try (Socket Coordinator = new Socket(InetAddress.getLoopbackAddress(), Port)) {
+            Coordinator.setTcpNoDelay(true);
+            DataInputStream In = new DataInputStream(new BufferedInputStream(Coordinator.getInputStream()));
+            DataOutputStream Out = new DataOutputStream(new BufferedOutputStream(Coordinator.getOutputStream(), 64 * 1024));
+            Out.writeInt(ShardedPayroll.MAGIC);
+            Out.writeInt(ShardedPayroll.VERSION);
+            Out.writeLong(ProcessHandle.current().pid());
+            Out.writeUTF(ShardedPayroll.settings(Deductions));
+            Out.flush();
+
+            MappedPayrollReader Reader = null;
+            String ReaderFile = null;
+            try {
+                while (In.readByte() == ShardedPayroll.SHARD) {
+                    int Number = In.readInt();
+                    String File = In.readUTF();
+                    long Start = In.readLong();
+                    long End = In.readLong();
+                    Out.writeInt(Number);
+                    try {
+                        if (!File.equals(ReaderFile)) {
+                            if (Reader != null) Reader.close();
+                            Reader = new MappedPayrollReader(File);
+                            ReaderFile = File;
+                        }
+                        StringWriter Report = new StringWriter();
+                        StringWriter Errors = new StringWriter();
+                        StreamingPayroll Stream = new StreamingPayroll(new PrintWriter(Report), new PrintWriter(Errors), null, Deductions);
+                        Stream.setCache(Cache);
+                        Stream.setErrorReasons(ErrorReasons);
+                        Reader.forEachLine(Start, End, (Buffer, Offset, Length, Position) -> Stream.processLine(Buffer, Offset, Length));
+                        Stream.finish();
+                        Out.writeInt(Stream.getLineCounter());
+                        Out.writeInt(Stream.getErrorLineCounter());
+                        ShardedPayroll.writeText(Out, Report.toString());
+                        ShardedPayroll.writeText(Out, Errors.toString());
+                    } catch (IOException | RuntimeException e) {
+                        Out.writeInt(-1);
+                        Out.writeUTF(String.valueOf(e.getMessage()));
+                    }
+                    Out.flush();
+                }
+            } finally {
+                if (Reader != null) Reader.close();
+            }
+        } catch (IOException e) {
+            // The coordinator stopped, nothing is left to do
+            System.exit(1);
+        }
+    }
+}
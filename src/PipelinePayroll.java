@@ -0,0 +1,533 @@
+import deductions.DeductionCache;
+import deductions.DeductionSet;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Processes the payroll as a pipeline of three stages running at the same time
+ *
+ * A reader thread copies the lines of the mapped payroll file into batches, a pool of
+ * compute workers validates them, calculates their deductions and renders their rows, and
+ * the calling thread writes the batches to the report and error files, in the order of
+ * the file. Reading, calculating and writing therefore overlap, and the report and error
+ * files are identical to the ones of the sequential run.
+ *
+ * The stages hand whole batches of lines to each other through bounded queues, so a queue
+ * is locked once per batch rather than once per line. A fixed number of batches circulate:
+ * the reader waits for the writer to give one back when they are all in use, which bounds
+ * the memory used and slows the reader down to the pace of the slowest stage.
+ *
+ * The time each stage spends waiting for another and the depth of the queues are measured,
+ * to show which stage holds the others back.
+ */
+public class PipelinePayroll {
+
+    /** Largest number of lines in a batch */
+    private static final int BATCH_LINES = 4096;
+
+    /** Number of batches circulating for each compute worker */
+    private static final int BATCHES_PER_WORKER = 4;
+
+    /**
+     * A batch of lines and, once computed, its report rows and invalid lines
+     */
+    private static class Batch {
+
+        /** The bytes of the lines, one after the other */
+        private byte[] Bytes = new byte[64 * 1024];
+
+        /** Start of each line in Bytes, the end of the last line at index Count */
+        private final int[] Starts = new int[BATCH_LINES + 1];
+
+        /** Number of lines in the batch */
+        private int Count;
+
+        /** The rendered report rows */
+        private final CharArrayWriter Report = new CharArrayWriter(64 * 1024);
+
+        /** The rendered invalid lines */
+        private final CharArrayWriter Errors = new CharArrayWriter(1024);
+
+        /** Number of valid employee lines of the batch */
+        private int LineCounter;
+
+        /** Number of invalid lines of the batch */
+        private int ErrorLineCounter;
+
+        /** True once the batch is computed, guarded by the batch itself */
+        private boolean Computed;
+
+        /**
+         * Empties the batch before it is filled again
+         */
+        private void clear() {
+            Count = 0;
+            Starts[0] = 0;
+            Report.reset();
+            Errors.reset();
+            LineCounter = 0;
+            ErrorLineCounter = 0;
+            Computed = false;
+        }
+
+        /**
+         * Copies a line at the end of the batch
+         * @param Buffer The buffer holding the line
+         * @param Offset The index of the first byte of the line
+         * @param Length The number of bytes of the line
+         */
+        private void add(byte[] Buffer, int Offset, int Length) {
+            int End = Starts[Count];
+            if (End + Length > Bytes.length) {
+                byte[] Grown = new byte[Math.max(End + Length, Bytes.length * 2)];
+                System.arraycopy(Bytes, 0, Grown, 0, End);
+                Bytes = Grown;
+            }
+            System.arraycopy(Buffer, Offset, Bytes, End, Length);
+            Starts[++Count] = End + Length;
+        }
+
+        /**
+         * Checks if the batch cannot take another line
+         * @return true when the batch holds as many lines as it can
+         */
+        private boolean isFull() {
+            return Count == BATCH_LINES;
+        }
+
+        /**
+         * Marks the batch as computed and wakes up the writer waiting for it
+         */
+        private synchronized void markComputed() {
+            Computed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the batch is computed
+         * @throws InterruptedException If the writer is interrupted while waiting
+         */
+        private synchronized void awaitComputed() throws InterruptedException {
+            while (!Computed) wait();
+        }
+    }
+
+    /**
+     * A Writer appending to the buffer of the batch being computed
+     * Lets a worker keep one StreamingPayroll for every batch it computes
+     */
+    private static class BatchWriter extends Writer {
+
+        /** The buffer written to */
+        private CharArrayWriter Target;
+
+        @Override
+        public void write(char[] Buffer, int Offset, int Length) {
+            Target.write(Buffer, Offset, Length);
+        }
+
+        @Override
+        public void write(String Text, int Offset, int Length) {
+            Target.write(Text, Offset, Length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Marks the end of the payroll file in the queues */
+    private static final Batch END = new Batch();
+
+    /** The reader of the payroll file */
+    private final MappedPayrollReader Reader;
+
+    /** Number of compute workers */
+    private final int Workers;
+
+    /** The deductions applied to every employee, shared by every worker */
+    private final DeductionSet Deductions;
+
+    /** The batches free to be filled by the reader */
+    private final BlockingQueue<Batch> FreeBatches;
+
+    /** The batches filled by the reader, waiting for a worker */
+    private final BlockingQueue<Batch> ComputeQueue;
+
+    /** Every batch filled by the reader in the order of the file, waiting for the writer */
+    private final BlockingQueue<Batch> WriteQueue;
+
+    /** Displays the progress of the run, null when no progress is displayed */
+    private ProgressReporter Progress;
+
+    /** Number of gross incomes each worker caches the deductions of, 0 for no cache */
+    private int CacheCapacity;
+
+    /** True when the error log gets a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /** Receives the metrics of every worker at the end of the run, null when no metrics are kept */
+    private PayrollMetrics Metrics;
+
+    /** Every deduction cache created, to add up their counters */
+    private final List<DeductionCache> Caches = new ArrayList<>();
+
+    /** The first failure of the reader or of a worker, null when none failed */
+    private volatile Throwable Failure;
+
+    /** Number of valid employee lines processed */
+    private int LineCounter;
+
+    /** Number of invalid lines written to the error log */
+    private int ErrorLineCounter;
+
+    /** Number of batches written */
+    private int BatchCounter;
+
+    /** Time the reader waited for a free batch, in nanoseconds */
+    private long ReadStallNanos;
+
+    /** Time the workers waited for a batch to compute, added up, in nanoseconds */
+    private long ComputeStallNanos;
+
+    /** Time the writer waited for the next batch to be computed, in nanoseconds */
+    private long WriteStallNanos;
+
+    /** Depth of the compute queue each time the reader added a batch: sum and maximum */
+    private long ComputeDepthSum;
+    private int ComputeDepthMax;
+
+    /** Depth of the write queue each time the writer took a batch: sum and maximum */
+    private long WriteDepthSum;
+    private int WriteDepthMax;
+
+    /**
+     * Constructs a PipelinePayroll reading the given payroll file
+     * @param reader     The reader of the payroll file
+     * @param workers    The number of compute workers
+     * @param deductions The deductions applied to every employee
+     */
+    public PipelinePayroll(MappedPayrollReader reader, int workers, DeductionSet deductions) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+        }
+        this.Reader = reader;
+        this.Workers = workers;
+        this.Deductions = deductions;
+        int Batches = workers * BATCHES_PER_WORKER;
+        this.FreeBatches = new ArrayBlockingQueue<>(Batches);
+        // The end markers take a place of their own in the queues
+        this.ComputeQueue = new ArrayBlockingQueue<>(Batches + workers);
+        this.WriteQueue = new ArrayBlockingQueue<>(Batches + 1);
+        for (int Index = 0; Index < Batches; Index++) {
+            FreeBatches.add(new Batch());
+        }
+    }
+
+    /**
+     * Displays a progress line at a fixed interval while the batches are written
+     * @param progress The progress reporter, null for no progress line
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.Progress = progress;
+    }
+
+    /**
+     * Gives each worker a deduction cache of the given capacity
+     * @param capacity The number of gross incomes cached by each worker, 0 for no cache
+     */
+    public void setCacheCapacity(int capacity) {
+        this.CacheCapacity = capacity;
+    }
+
+    /**
+     * Adds a column with the reject reason of each line to the error log
+     * @param errorReasons true to add the reason column
+     */
+    public void setErrorReasons(boolean errorReasons) {
+        this.ErrorReasons = errorReasons;
+    }
+
+    /**
+     * Keeps metrics on each worker and adds them up at the end of the run
+     * The stall times and queue depths of the stages are added to the metrics too
+     * @param metrics The metrics receiving the stage times of every worker, null to keep no metrics
+     */
+    public void setMetrics(PayrollMetrics metrics) {
+        this.Metrics = metrics;
+    }
+
+    /**
+     * Processes the whole payroll file and writes the rows and the invalid lines in order
+     * The report header must already be written
+     * @param ReportWriter The writer of the payroll report
+     * @param ErrorWriter  The writer of the error log
+     * @throws IOException If the payroll file cannot be read
+     */
+    public void run(PrintWriter ReportWriter, PrintWriter ErrorWriter) throws IOException {
+        List<PayrollMetrics> WorkerMetrics = new ArrayList<>();
+        List<Thread> Threads = new ArrayList<>();
+        long[] WorkerStalls = new long[Workers];
+        for (int Index = 0; Index < Workers; Index++) {
+            PayrollMetrics Measured = Metrics != null ? new PayrollMetrics() : null;
+            if (Measured != null) WorkerMetrics.add(Measured);
+            int Worker = Index;
+            Threads.add(new Thread(() -> compute(Worker, Measured, WorkerStalls), "payroll-compute-" + Index));
+        }
+        Threads.add(new Thread(this::read, "payroll-reader"));
+        for (Thread Current : Threads) {
+            Current.setDaemon(true);
+            Current.start();
+        }
+
+        try {
+            // Write the batches in the order the reader filled them
+            while (true) {
+                Batch Next = WriteQueue.take();
+                if (Next == END) break;
+                int Depth = WriteQueue.size();
+                WriteDepthSum += Depth;
+                WriteDepthMax = Math.max(WriteDepthMax, Depth);
+
+                long Waiting = System.nanoTime();
+                Next.awaitComputed();
+                WriteStallNanos += System.nanoTime() - Waiting;
+
+                if (Failure == null) {
+                    Next.Report.writeTo(ReportWriter);
+                    Next.Errors.writeTo(ErrorWriter);
+                    LineCounter += Next.LineCounter;
+                    ErrorLineCounter += Next.ErrorLineCounter;
+                    BatchCounter++;
+                    if (Progress != null) Progress.report(LineCounter, ErrorLineCounter);
+                }
+                Next.clear();
+                FreeBatches.put(Next);
+            }
+            for (Thread Current : Threads) {
+                Current.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread Current : Threads) {
+                Current.interrupt();
+            }
+            throw new IOException("Payroll processing interrupted", e);
+        }
+
+        for (long Stall : WorkerStalls) {
+            ComputeStallNanos += Stall;
+        }
+        if (Failure instanceof IOException) throw (IOException) Failure;
+        if (Failure != null) throw new IOException("Could not process the payroll", Failure);
+
+        if (Metrics != null) {
+            for (PayrollMetrics Current : WorkerMetrics) {
+                Metrics.add(Current);
+            }
+            Metrics.addMeasure("pipeline.workers", String.valueOf(Workers));
+            Metrics.addMeasure("pipeline.batches", String.valueOf(BatchCounter));
+            Metrics.addMeasure("pipeline.read.stallMillis", String.valueOf(ReadStallNanos / 1_000_000));
+            Metrics.addMeasure("pipeline.compute.stallMillis", String.valueOf(ComputeStallNanos / 1_000_000));
+            Metrics.addMeasure("pipeline.write.stallMillis", String.valueOf(WriteStallNanos / 1_000_000));
+            Metrics.addMeasure("pipeline.computeQueue.meanDepth", meanDepth(ComputeDepthSum));
+            Metrics.addMeasure("pipeline.computeQueue.maxDepth", String.valueOf(ComputeDepthMax));
+            Metrics.addMeasure("pipeline.writeQueue.meanDepth", meanDepth(WriteDepthSum));
+            Metrics.addMeasure("pipeline.writeQueue.maxDepth", String.valueOf(WriteDepthMax));
+        }
+    }
+
+    /**
+     * The reader stage: fills the free batches with the lines of the file
+     * Always ends with the end markers, even when the file cannot be read
+     */
+    private void read() {
+        Batch[] Current = new Batch[1];
+        try {
+            Current[0] = takeFree();
+            Reader.forEachLine((Buffer, Offset, Length, Position) -> {
+                Current[0].add(Buffer, Offset, Length);
+                if (Current[0].isFull()) {
+                    submit(Current[0]);
+                    Current[0] = takeFree();
+                }
+            });
+            if (Current[0].Count > 0) {
+                submit(Current[0]);
+            } else {
+                FreeBatches.add(Current[0]);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            // Every worker and the writer stop at their end marker, the queues keep a place for them
+            for (int Index = 0; Index < Workers; Index++) {
+                ComputeQueue.add(END);
+            }
+            WriteQueue.add(END);
+        }
+    }
+
+    /**
+     * Waits for a free batch, which is how the reader slows down when the other stages fall behind
+     * @return The free batch
+     */
+    private Batch takeFree() {
+        long Waiting = System.nanoTime();
+        try {
+            Batch Free = FreeBatches.take();
+            ReadStallNanos += System.nanoTime() - Waiting;
+            return Free;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Payroll reader interrupted", e);
+        }
+    }
+
+    /**
+     * Hands a filled batch to the workers and to the writer
+     * Never waits: no more batches circulate than the queues can hold
+     * @param Filled The filled batch
+     */
+    private void submit(Batch Filled) {
+        WriteQueue.add(Filled);
+        ComputeQueue.add(Filled);
+        int Depth = ComputeQueue.size();
+        ComputeDepthSum += Depth;
+        ComputeDepthMax = Math.max(ComputeDepthMax, Depth);
+    }
+
+    /**
+     * The compute stage: validates and calculates the batches, one StreamingPayroll per worker
+     * @param Worker   The index of the worker
+     * @param Measured The metrics of the worker, null when no metrics are kept
+     * @param Stalls   The time each worker waited for a batch, in nanoseconds
+     */
+    private void compute(int Worker, PayrollMetrics Measured, long[] Stalls) {
+        BatchWriter ReportTarget = new BatchWriter();
+        BatchWriter ErrorTarget = new BatchWriter();
+        StreamingPayroll Stream = new StreamingPayroll(new PrintWriter(ReportTarget), new PrintWriter(ErrorTarget), null, Deductions);
+        if (CacheCapacity > 0) {
+            DeductionCache Cache = new DeductionCache(Deductions, CacheCapacity);
+            synchronized (Caches) {
+                Caches.add(Cache);
+            }
+            Stream.setCache(Cache);
+        }
+        Stream.setMetrics(Measured);
+        Stream.setErrorReasons(ErrorReasons);
+        long Allocated = Measured != null ? PayrollMetrics.threadAllocatedBytes() : 0;
+
+        try {
+            while (true) {
+                long Waiting = System.nanoTime();
+                Batch Next = ComputeQueue.take();
+                Stalls[Worker] += System.nanoTime() - Waiting;
+                if (Next == END) break;
+
+                try {
+                    if (Failure == null) {
+                        ReportTarget.Target = Next.Report;
+                        ErrorTarget.Target = Next.Errors;
+                        int Lines = Stream.getLineCounter();
+                        int ErrorLines = Stream.getErrorLineCounter();
+                        for (int Line = 0; Line < Next.Count; Line++) {
+                            Stream.processLine(Next.Bytes, Next.Starts[Line], Next.Starts[Line + 1] - Next.Starts[Line]);
+                        }
+                        Stream.finish();
+                        Next.LineCounter = Stream.getLineCounter() - Lines;
+                        Next.ErrorLineCounter = Stream.getErrorLineCounter() - ErrorLines;
+                    }
+                } catch (RuntimeException e) {
+                    fail(e);
+                } finally {
+                    // The writer waits for every batch, even one that failed
+                    Next.markComputed();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (Measured != null) {
+            Measured.addAllocatedBytes(Allocated < 0 ? -1 : PayrollMetrics.threadAllocatedBytes() - Allocated);
+        }
+    }
+
+    /**
+     * Keeps the first failure of the run, the batches still in the pipeline are then skipped
+     * @param Cause The failure
+     */
+    private void fail(Throwable Cause) {
+        synchronized (this) {
+            if (Failure == null) Failure = Cause;
+        }
+    }
+
+    /**
+     * Formats the average depth of a queue
+     * @param DepthSum The depths of the queue added up
+     * @return The average depth, with 1 decimal place
+     */
+    private String meanDepth(long DepthSum) {
+        return String.format(Locale.ROOT, "%.1f", BatchCounter > 0 ? (double) DepthSum / BatchCounter : 0);
+    }
+
+    /**
+     * Gets the number of valid employee lines processed
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines logged
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Describes how long each stage waited for another and how full the queues were
+     * @return The stall times and queue depths of the run
+     */
+    public String getStageSummary() {
+        return String.format(Locale.ROOT,
+                "%d batches; reader waited %d ms for a free batch, workers %d ms for lines, writer %d ms for rows;"
+                        + " compute queue depth %s (max %d), write queue depth %s (max %d)",
+                BatchCounter, ReadStallNanos / 1_000_000, ComputeStallNanos / 1_000_000, WriteStallNanos / 1_000_000,
+                meanDepth(ComputeDepthSum), ComputeDepthMax, meanDepth(WriteDepthSum), WriteDepthMax);
+    }
+
+    /**
+     * Describes the counters of the deduction caches of every worker, added up
+     * @return The hits, misses, evictions and hit rate, or null when no cache is used
+     */
+    public String getCacheSummary() {
+        if (CacheCapacity <= 0) return null;
+        long Hits = 0;
+        long Misses = 0;
+        long Evictions = 0;
+        synchronized (Caches) {
+            for (DeductionCache Current : Caches) {
+                Hits += Current.getHits();
+                Misses += Current.getMisses();
+                Evictions += Current.getEvictions();
+            }
+        }
+        return DeductionCache.summary(Hits, Misses, Evictions);
+    }
+}
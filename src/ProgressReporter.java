@@ -0,0 +1,58 @@
+/**
+ * Displays a progress line on the console at a fixed interval
+ *
+ * The clock is only read every few calls, so reporting costs almost nothing per line.
+ */
+public class ProgressReporter {
+
+    /** Number of calls to update between two readings of the clock */
+    private static final int CHECK_EVERY = 1024;
+
+    /** Time between two progress lines, in nanoseconds */
+    private final long IntervalNanos;
+
+    /** Time the processing started */
+    private final long StartNanos = System.nanoTime();
+
+    /** Time the next progress line is due */
+    private long NextReportNanos;
+
+    /** Number of calls to update since the clock was last read */
+    private int Calls;
+
+    /**
+     * Constructs a ProgressReporter
+     * @param intervalSeconds The time between two progress lines, in seconds
+     */
+    public ProgressReporter(int intervalSeconds) {
+        this.IntervalNanos = intervalSeconds * 1_000_000_000L;
+        this.NextReportNanos = StartNanos + IntervalNanos;
+    }
+
+    /**
+     * Displays a progress line if the interval has elapsed
+     * @param LineCounter      Number of valid employee lines processed so far
+     * @param ErrorLineCounter Number of invalid lines logged so far
+     */
+    public void update(long LineCounter, long ErrorLineCounter) {
+        if (++Calls < CHECK_EVERY) return;
+        Calls = 0;
+        report(LineCounter, ErrorLineCounter);
+    }
+
+    /**
+     * Displays a progress line if the interval has elapsed, reading the clock right away
+     * @param LineCounter      Number of valid employee lines processed so far
+     * @param ErrorLineCounter Number of invalid lines logged so far
+     */
+    public void report(long LineCounter, long ErrorLineCounter) {
+        long Now = System.nanoTime();
+        if (Now < NextReportNanos) return;
+        NextReportNanos = Now + IntervalNanos;
+
+        long Lines = LineCounter + ErrorLineCounter;
+        double Seconds = (Now - StartNanos) / 1e9;
+        System.out.printf("> %d lines processed (%d valid, %d invalid), %.0f lines/s%n",
+                Lines, LineCounter, ErrorLineCounter, Lines / Seconds);
+    }
+}
@@ -0,0 +1,102 @@
+import exceptions.InvalidFileFormatException;
+import exceptions.MinimumWageException;
+import exceptions.NegativeValueException;
+
+/**
+ * Why a line of the payroll file was rejected, as returned by PayrollRecordParser.validate()
+ *
+ * Each reason keeps the message and the type of the exception parse() throws for it,
+ * so a reason can always be turned back into that exception.
+ */
+public enum RejectReason {
+
+    /** The line is valid */
+    NONE(null, null),
+
+    /** The ID is missing or is not a whole number */
+    INVALID_ID(InvalidFileFormatException.class, "Invalid Employee ID!"),
+
+    /** The ID is negative */
+    NEGATIVE_ID(NegativeValueException.class, "Employee ID cannot be negative!"),
+
+    /** There is no first name */
+    MISSING_FIRST_NAME(InvalidFileFormatException.class, "Missing First Name!"),
+
+    /** There is no last name */
+    MISSING_LAST_NAME(InvalidFileFormatException.class, "Missing Last Name!"),
+
+    /** The hours worked are missing or are not a number */
+    INVALID_HOURS(InvalidFileFormatException.class, "Invalid Hours Worked!"),
+
+    /** The hours worked are negative */
+    NEGATIVE_HOURS(NegativeValueException.class, "Hours Worked cannot be negative!"),
+
+    /** The hourly rate is missing or is not a number */
+    INVALID_RATE(InvalidFileFormatException.class, "Invalid Hour Rate!"),
+
+    /** The hourly rate is negative */
+    NEGATIVE_RATE(NegativeValueException.class, "Hour Rate cannot be negative!"),
+
+    /** The hourly rate is below the minimum wage */
+    BELOW_MINIMUM_WAGE(MinimumWageException.class, "Minimum Wage cannot be less than " + PayrollManager.MINIMUM_WAGE),
+
+    /** The gross income does not fit in the cents of the report */
+    GROSS_OUT_OF_RANGE(InvalidFileFormatException.class, "Gross Income is out of range!");
+
+    /** Every reason, by ordinal, without the copy values() makes */
+    private static final RejectReason[] REASONS = values();
+
+    /** The type of the exception thrown for this reason, null for NONE */
+    private final Class<? extends Exception> ExceptionType;
+
+    /** The message of the exception thrown for this reason, null for NONE */
+    private final String Message;
+
+    /**
+     * Constructs a RejectReason
+     * @param exceptionType The type of the exception thrown for this reason
+     * @param message       The message of the exception
+     */
+    RejectReason(Class<? extends Exception> exceptionType, String message) {
+        this.ExceptionType = exceptionType;
+        this.Message = message;
+    }
+
+    /**
+     * Gets the type of the exception parse() throws for this reason
+     * @return The exception type, null for NONE
+     */
+    public Class<? extends Exception> getExceptionType() {
+        return ExceptionType;
+    }
+
+    /**
+     * Gets the message of the exception parse() throws for this reason
+     * @return The message, null for NONE
+     */
+    public String getMessage() {
+        return Message;
+    }
+
+    /**
+     * Throws the exception parse() throws for this reason
+     * Does nothing for NONE
+     * @throws InvalidFileFormatException If a field is missing or is not a number, or the gross income is too large
+     * @throws NegativeValueException     If the ID, the hours or the rate is negative
+     * @throws MinimumWageException       If the hourly rate is below the minimum wage
+     */
+    public void throwException() throws InvalidFileFormatException, NegativeValueException, MinimumWageException {
+        if (ExceptionType == InvalidFileFormatException.class) throw new InvalidFileFormatException(Message);
+        if (ExceptionType == NegativeValueException.class) throw new NegativeValueException(Message);
+        if (ExceptionType == MinimumWageException.class) throw new MinimumWageException(Message);
+    }
+
+    /**
+     * Gets a reason from its ordinal
+     * @param Ordinal The ordinal of the reason
+     * @return The reason, null if there is none with this ordinal
+     */
+    public static RejectReason fromOrdinal(int Ordinal) {
+        return Ordinal >= 0 && Ordinal < REASONS.length ? REASONS[Ordinal] : null;
+    }
+}
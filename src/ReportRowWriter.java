@@ -0,0 +1,186 @@
+import deductions.Money;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes the employee rows of the payroll report
+ *
+ * A row has the same fixed width columns as PayrollManager.REPORT_ROW, the
+ * "| %-3d | %-10s | %-10s | %12.2f | %10.2f | %12.2f |" format, but it is rendered by hand
+ * into a reused character buffer instead of going through printf. The amounts are given
+ * in cents and written with integer arithmetic, and the buffer is written out in large blocks.
+ *
+ * The characters written are exactly the ones printf would write. Locales that do not
+ * write numbers like 20.50 fall back to String.format.
+ */
+public class ReportRowWriter {
+
+    /** Size of the buffer, written out when full */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** True when the default locale writes numbers with ASCII digits, '-' and '.' */
+    private static final boolean PLAIN_NUMBERS = PayrollRecordParser.usesPlainNumbers();
+
+    /** The writer receiving the rows */
+    private final PrintWriter Out;
+
+    /** The characters written after each row */
+    private final String RowEnd;
+
+    /** The buffer the rows are rendered into */
+    private char[] Buffer = new char[BUFFER_SIZE];
+
+    /** Number of characters waiting in the buffer */
+    private int Count;
+
+    /**
+     * Constructs a ReportRowWriter
+     * @param out    The writer receiving the rows
+     * @param rowEnd The characters written after each row, "\n" for the console and "\n\n" for the report file
+     */
+    public ReportRowWriter(PrintWriter out, String rowEnd) {
+        this.Out = out;
+        this.RowEnd = rowEnd;
+    }
+
+    /**
+     * Writes one employee row
+     * @param ID              The employee ID
+     * @param FirstName       The first name of the employee
+     * @param LastName        The last name of the employee
+     * @param GrossCents      The gross income, in cents
+     * @param TotalCents      The total of the deductions, in cents
+     * @param NetCents        The net income, in cents
+     */
+    public void writeRow(long ID, String FirstName, String LastName,
+                         long GrossCents, long TotalCents, long NetCents) {
+        // Room for the separators, the longest long, the names and three long amounts
+        int Needed = 128 + FirstName.length() + LastName.length() + RowEnd.length();
+        if (Count + Needed > Buffer.length) {
+            flush();
+            if (Needed > Buffer.length) Buffer = new char[Needed];
+        }
+
+        appendText("| ");
+        appendID(ID);
+        appendText(" | ");
+        appendPadded(FirstName, 10);
+        appendText(" | ");
+        appendPadded(LastName, 10);
+        appendText(" | ");
+        appendAmount(GrossCents, 12);
+        appendText(" | ");
+        appendAmount(TotalCents, 10);
+        appendText(" | ");
+        appendAmount(NetCents, 12);
+        appendText(" |");
+        appendText(RowEnd);
+    }
+
+    /**
+     * Writes the buffered rows to the underlying writer
+     */
+    public void flush() {
+        if (Count > 0) {
+            Out.write(Buffer, 0, Count);
+            Count = 0;
+        }
+    }
+
+    /**
+     * Appends text as is
+     * @param Text The text to append
+     */
+    private void appendText(String Text) {
+        Text.getChars(0, Text.length(), Buffer, Count);
+        Count += Text.length();
+    }
+
+    /**
+     * Appends text padded with spaces on the right, like %-Ns
+     * @param Text  The text to append
+     * @param Width The minimum width
+     */
+    private void appendPadded(String Text, int Width) {
+        appendText(Text);
+        for (int Index = Text.length(); Index < Width; Index++) {
+            Buffer[Count++] = ' ';
+        }
+    }
+
+    /**
+     * Appends the employee ID padded with spaces on the right, like %-3d
+     * @param ID The employee ID
+     */
+    private void appendID(long ID) {
+        if (!PLAIN_NUMBERS || ID == Long.MIN_VALUE) {
+            appendText(String.format("%-3d", ID));
+            return;
+        }
+        int Start = Count;
+        if (ID < 0) {
+            Buffer[Count++] = '-';
+            ID = -ID;
+        }
+        Count += digitCount(ID);
+        writeDigits(ID, Count);
+        while (Count - Start < 3) {
+            Buffer[Count++] = ' ';
+        }
+    }
+
+    /**
+     * Appends an amount with 2 decimals padded with spaces on the left, like %N.2f
+     * @param Cents The amount, in cents
+     * @param Width The minimum width
+     */
+    private void appendAmount(long Cents, int Width) {
+        if (!PLAIN_NUMBERS || Cents >= Money.MAX_CENTS || Cents <= -Money.MAX_CENTS) {
+            // Out of the range where the double of the amount has the same cents
+            appendText(String.format("%" + Width + ".2f", Money.toDollars(Cents)));
+            return;
+        }
+
+        boolean Negative = Cents < 0;
+        long Absolute = Math.abs(Cents);
+        long Units = Absolute / 100;
+        int Length = (Negative ? 1 : 0) + digitCount(Units) + 3;
+        for (int Index = Length; Index < Width; Index++) {
+            Buffer[Count++] = ' ';
+        }
+        if (Negative) Buffer[Count++] = '-';
+        Count += digitCount(Units);
+        writeDigits(Units, Count);
+        int Decimals = (int) (Absolute % 100);
+        Buffer[Count++] = '.';
+        Buffer[Count++] = (char) ('0' + Decimals / 10);
+        Buffer[Count++] = (char) ('0' + Decimals % 10);
+    }
+
+    /**
+     * Writes the digits of a number backwards, ending just before a position
+     * @param Value The non-negative number
+     * @param End   The position right after the last digit
+     */
+    private void writeDigits(long Value, int End) {
+        int Index = End;
+        do {
+            Buffer[--Index] = (char) ('0' + Value % 10);
+            Value /= 10;
+        } while (Value != 0);
+    }
+
+    /**
+     * Counts the decimal digits of a number
+     * @param Value The non-negative number
+     * @return The number of digits, 1 for 0
+     */
+    private static int digitCount(long Value) {
+        int Digits = 1;
+        while (Value >= 10) {
+            Value /= 10;
+            Digits++;
+        }
+        return Digits;
+    }
+}
@@ -0,0 +1,466 @@
+import deductions.DeductionSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes the payroll in several worker processes, coordinated over loopback sockets
+ *
+ * The coordinator cuts the payroll file in shards at line boundaries, like ParallelPayroll,
+ * and starts N PayrollWorker processes with the same class path, JVM options, locale and charset.
+ * Each worker connects back to the coordinator, which checks that it loaded the same tax brackets
+ * and runs with the same validation and formatting settings, then processes the shards it
+ * is given: it reads the byte range of the shard from the payroll file itself, and sends back
+ * the report rows and the invalid lines of the shard. The coordinator appends them to the
+ * report and error files in the order of the shards, so both files are identical to the ones
+ * written by the sequential run.
+ *
+ * Protocol, in the big-endian format of DataOutputStream:
+ * >Worker hello:     MAGIC, VERSION, the process ID of the worker, the description of the deductions,
+ *                    the minimum wage, the locale and the charset (UTF)
+ * >Shard request:    SHARD, the shard number, the payroll file (UTF), the start and end positions
+ * >Shard result:     the shard number, the valid and invalid line counts, then the report rows
+ *                    and the invalid lines, each as a length and UTF-8 bytes; a failed shard
+ *                    has a valid line count of -1 and a message (UTF) instead
+ * >End of the run:   STOP
+ * Only a few shards per worker are in progress at the same time, so the memory used does
+ * not depend on the size of the payroll file.
+ */
+public class ShardedPayroll {
+
+    /** Identifies the hello of a worker, "PRWK" */
+    static final int MAGIC = 0x5052574B;
+
+    /** Version of the protocol */
+    static final int VERSION = 2;
+
+    /** Request of a shard */
+    static final byte SHARD = 1;
+
+    /** End of the run, the worker exits */
+    static final byte STOP = 0;
+
+    /** Largest size of a shard, 8 MB */
+    private static final long MAX_SHARD_SIZE = 8L * 1024 * 1024;
+
+    /** Smallest size of a shard, 64 KB */
+    private static final long MIN_SHARD_SIZE = 64L * 1024;
+
+    /** Number of shards waiting to be written for each worker */
+    private static final int SHARDS_PER_WORKER = 4;
+
+    /** Time the workers have to connect back, in milliseconds */
+    private static final int CONNECT_TIMEOUT = 30_000;
+
+    /**
+     * The output of one shard
+     */
+    private static class ShardResult {
+
+        /** The report rows of the shard */
+        private final String Report;
+
+        /** The invalid lines of the shard */
+        private final String Errors;
+
+        /** Number of valid employee lines of the shard */
+        private final int LineCounter;
+
+        /** Number of invalid lines of the shard */
+        private final int ErrorLineCounter;
+
+        /**
+         * Constructs the output of a shard
+         * @param report           The report rows of the shard
+         * @param errors           The invalid lines of the shard
+         * @param lineCounter      Number of valid employee lines of the shard
+         * @param errorLineCounter Number of invalid lines of the shard
+         */
+        private ShardResult(String report, String errors, int lineCounter, int errorLineCounter) {
+            this.Report = report;
+            this.Errors = errors;
+            this.LineCounter = lineCounter;
+            this.ErrorLineCounter = errorLineCounter;
+        }
+    }
+
+    /**
+     * The connection to one worker process
+     */
+    private static class Worker implements Closeable {
+
+        /** The worker process */
+        private final Process Process;
+
+        /** The socket connected to the worker */
+        private final Socket Socket;
+
+        /** Receives the results of the worker */
+        private final DataInputStream In;
+
+        /** Sends the requests to the worker */
+        private final DataOutputStream Out;
+
+        /**
+         * Constructs the connection to a worker
+         * @param process The worker process
+         * @param socket  The socket connected to the worker
+         * @param in      The stream the hello of the worker was read from
+         * @throws IOException If the output stream of the socket cannot be opened
+         */
+        private Worker(Process process, Socket socket, DataInputStream in) throws IOException {
+            this.Process = process;
+            this.Socket = socket;
+            this.In = in;
+            this.Out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Has the worker process one shard
+         * @param Number The number of the shard
+         * @param File   The payroll file
+         * @param Start  The position of the first byte of the shard
+         * @param End    The position right after the last byte of the shard
+         * @return The output of the shard
+         * @throws IOException If the worker failed or stopped
+         */
+        private ShardResult process(int Number, String File, long Start, long End) throws IOException {
+            Out.writeByte(SHARD);
+            Out.writeInt(Number);
+            Out.writeUTF(File);
+            Out.writeLong(Start);
+            Out.writeLong(End);
+            Out.flush();
+
+            if (In.readInt() != Number) throw new IOException("A payroll worker answered for another shard");
+            int Lines = In.readInt();
+            if (Lines < 0) throw new IOException("A payroll worker failed: " + In.readUTF());
+            int Errors = In.readInt();
+            String Report = readText(In);
+            String ErrorText = readText(In);
+            return new ShardResult(Report, ErrorText, Lines, Errors);
+        }
+
+        /**
+         * Stops the worker and waits for its process to end
+         */
+        @Override
+        public void close() {
+            try {
+                Out.writeByte(STOP);
+                Out.flush();
+            } catch (IOException e) {
+                // The worker already stopped
+            }
+            try {
+                Socket.close();
+            } catch (IOException e) {
+                // Nothing more to do with the socket
+            }
+            try {
+                if (!Process.waitFor(5, TimeUnit.SECONDS)) Process.destroyForcibly();
+            } catch (InterruptedException e) {
+                Process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** The reader of the payroll file, used to find the line boundaries */
+    private final MappedPayrollReader Reader;
+
+    /** The payroll file, read by the workers */
+    private final String File;
+
+    /** Number of worker processes */
+    private final int Workers;
+
+    /** The deductions the workers must calculate */
+    private final DeductionSet Deductions;
+
+    /** System properties the validation and the formatting of the rows depend on, given to every worker */
+    private static final String[] FORMAT_PROPERTIES = {
+            "user.language", "user.country", "user.variant", "user.script", "file.encoding"
+    };
+
+    /** Arguments given to every worker after the port */
+    private final List<String> WorkerArguments = new ArrayList<>();
+
+    /** Number of valid employee lines processed */
+    private int LineCounter;
+
+    /** Number of invalid lines written to the error log */
+    private int ErrorLineCounter;
+
+    /** Number of shards processed */
+    private int ShardCounter;
+
+    /** Time taken to start the workers until they all connected, in milliseconds */
+    private long StartMillis;
+
+    /** Displays the progress of the run, null when no progress is displayed */
+    private ProgressReporter Progress;
+
+    /**
+     * Constructs a ShardedPayroll reading the given payroll file
+     * @param reader         The reader of the payroll file
+     * @param file           The payroll file
+     * @param workers        The number of worker processes
+     * @param deductions     The deductions applied to every employee
+     * @param taxYear        The tax year of the brackets, for the workers
+     * @param province       The jurisdiction code of the provincial brackets, for the workers
+     * @param errorReasons   True when the error log gets a reject reason column
+     * @param cacheCapacity  Number of gross incomes each worker caches the deductions of, 0 for no cache
+     * @param ruleMode       How the workers calculate the deductions, null for the deduction objects
+     */
+    public ShardedPayroll(MappedPayrollReader reader, Path file, int workers, DeductionSet deductions,
+                          int taxYear, String province, boolean errorReasons, int cacheCapacity, String ruleMode) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+        }
+        this.Reader = reader;
+        this.File = file.toAbsolutePath().toString();
+        this.Workers = workers;
+        this.Deductions = deductions;
+        WorkerArguments.add(Integer.toString(taxYear));
+        WorkerArguments.add(province);
+        WorkerArguments.add(Boolean.toString(errorReasons));
+        WorkerArguments.add(Integer.toString(cacheCapacity));
+        WorkerArguments.add(ruleMode == null ? "classic" : ruleMode);
+    }
+
+    /**
+     * Displays a progress line at a fixed interval while the shards are written
+     * @param progress The progress reporter, null for no progress line
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.Progress = progress;
+    }
+
+    /**
+     * Processes the whole payroll file in the workers and writes the rows and the invalid lines in order
+     * The report header must already be written
+     * @param ReportWriter The writer of the payroll report
+     * @param ErrorWriter  The writer of the error log
+     * @throws IOException If a worker cannot be started or fails, or the payroll file cannot be read
+     */
+    public void run(PrintWriter ReportWriter, PrintWriter ErrorWriter) throws IOException {
+        long FileSize = Reader.size();
+        long ShardSize = Math.max(MIN_SHARD_SIZE, Math.min(MAX_SHARD_SIZE, FileSize / (Workers * SHARDS_PER_WORKER)));
+
+        BlockingQueue<Worker> Idle = new ArrayBlockingQueue<>(Workers);
+        List<Worker> Started = new ArrayList<>();
+        ExecutorService Dispatch = Executors.newFixedThreadPool(Workers);
+        ArrayDeque<Future<ShardResult>> Pending = new ArrayDeque<>();
+        try {
+            long Before = System.nanoTime();
+            start(Started);
+            Idle.addAll(Started);
+            StartMillis = (System.nanoTime() - Before) / 1_000_000;
+
+            long ShardStart = 0;
+            int Number = 0;
+            while (ShardStart < FileSize || !Pending.isEmpty()) {
+                // Keep every worker busy while the oldest shard is being written
+                while (ShardStart < FileSize && Pending.size() < Workers * SHARDS_PER_WORKER) {
+                    long Start = ShardStart;
+                    long End = Reader.nextLineStart(Math.min(FileSize, Start + ShardSize));
+                    int Shard = Number++;
+                    Pending.add(Dispatch.submit(() -> {
+                        Worker Current = Idle.take();
+                        try {
+                            return Current.process(Shard, File, Start, End);
+                        } finally {
+                            Idle.add(Current);
+                        }
+                    }));
+                    ShardStart = End;
+                }
+
+                ShardResult Result = Pending.remove().get();
+                ReportWriter.write(Result.Report);
+                ErrorWriter.write(Result.Errors);
+                LineCounter += Result.LineCounter;
+                ErrorLineCounter += Result.ErrorLineCounter;
+                ShardCounter++;
+                if (Progress != null) Progress.report(LineCounter, ErrorLineCounter);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Payroll processing interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Could not process the payroll", e.getCause());
+        } finally {
+            Dispatch.shutdownNow();
+            for (Worker Current : Started) {
+                Current.close();
+            }
+        }
+    }
+
+    /**
+     * Starts the worker processes and waits until each one connected and said hello
+     * @param Started Receives the workers started, so they are stopped even if one fails
+     * @throws IOException If a worker cannot be started, does not connect in time or loaded other brackets
+     */
+    private void start(List<Worker> Started) throws IOException {
+        try (ServerSocket Server = new ServerSocket(0, Workers, InetAddress.getLoopbackAddress())) {
+            Server.setSoTimeout(CONNECT_TIMEOUT);
+            List<String> Command = new ArrayList<>();
+            Command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            Command.addAll(jvmOptions());
+            Command.add("-cp");
+            Command.add(System.getProperty("java.class.path"));
+            Command.add("PayrollWorker");
+            Command.add(Integer.toString(Server.getLocalPort()));
+            Command.addAll(WorkerArguments);
+
+            List<Process> Processes = new ArrayList<>();
+            for (int Index = 0; Index < Workers; Index++) {
+                Processes.add(new ProcessBuilder(Command).inheritIO().start());
+            }
+            try {
+                for (int Index = 0; Index < Workers; Index++) {
+                    Socket Accepted = Server.accept();
+                    Accepted.setTcpNoDelay(true);
+                    Accepted.setSoTimeout(CONNECT_TIMEOUT);
+                    DataInputStream Hello = new DataInputStream(new BufferedInputStream(Accepted.getInputStream(), 64 * 1024));
+                    if (Hello.readInt() != MAGIC || Hello.readInt() != VERSION) {
+                        Accepted.close();
+                        throw new IOException("A payroll worker of another version connected");
+                    }
+                    // The processes connect in any order, the process ID tells which one this is
+                    long ID = Hello.readLong();
+                    Process Connected = null;
+                    for (Process Current : Processes) {
+                        if (Current.pid() == ID) Connected = Current;
+                    }
+                    if (Connected == null) {
+                        Accepted.close();
+                        throw new IOException("An unknown process connected as a payroll worker");
+                    }
+                    Started.add(new Worker(Connected, Accepted, Hello));
+                    String WorkerSettings = Hello.readUTF();
+                    if (!WorkerSettings.equals(settings(Deductions))) {
+                        throw new IOException("A payroll worker runs with other settings: " + WorkerSettings
+                                + " instead of " + settings(Deductions));
+                    }
+                    // A shard may take long, only the hello has a deadline
+                    Accepted.setSoTimeout(0);
+                }
+            } catch (SocketTimeoutException e) {
+                for (Process Current : Processes) Current.destroyForcibly();
+                throw new IOException("The payroll workers did not connect within " + CONNECT_TIMEOUT / 1000 + " seconds");
+            } catch (IOException e) {
+                for (Process Current : Processes) Current.destroyForcibly();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the JVM options of this process, given to every worker
+     * The debugging agents are left out, they would compete for their ports. The locale and
+     * the charset are set explicitly, in case they were changed after the start.
+     * @return The options, before the class path
+     */
+    private static List<String> jvmOptions() {
+        List<String> Options = new ArrayList<>();
+        for (String Argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (Argument.startsWith("-agentlib") || Argument.startsWith("-agentpath")
+                    || Argument.startsWith("-javaagent") || Argument.startsWith("-Xrunjdwp")) continue;
+            Options.add(Argument);
+        }
+        for (String Property : FORMAT_PROPERTIES) {
+            String Value = System.getProperty(Property);
+            if (Value != null) Options.add("-D" + Property + "=" + Value);
+        }
+        return Options;
+    }
+
+    /**
+     * Describes the settings the rows of a worker depend on
+     * Validation depends on the minimum wage, the locale and the charset, like for IncrementalPayroll,
+     * and the deductions on the tax brackets.
+     * @param Deductions The deductions of the process
+     * @return The settings, compared between the coordinator and each worker
+     */
+    static String settings(DeductionSet Deductions) {
+        return Deductions.describe() + " " + PayrollManager.MINIMUM_WAGE + " "
+                + Locale.getDefault() + " " + Charset.defaultCharset();
+    }
+
+    /**
+     * Reads a text sent as a length and UTF-8 bytes
+     * @param In The stream of a worker
+     * @return The text
+     * @throws IOException If the stream ends
+     */
+    static String readText(DataInputStream In) throws IOException {
+        byte[] Bytes = new byte[In.readInt()];
+        In.readFully(Bytes);
+        return new String(Bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a text as a length and UTF-8 bytes
+     * @param Out  The stream of the coordinator
+     * @param Text The text
+     * @throws IOException If the stream is closed
+     */
+    static void writeText(DataOutputStream Out, String Text) throws IOException {
+        byte[] Bytes = Text.getBytes(StandardCharsets.UTF_8);
+        Out.writeInt(Bytes.length);
+        Out.write(Bytes);
+    }
+
+    /**
+     * Gets the number of valid employee lines processed
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines logged
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+
+    /**
+     * Describes how the shards were processed
+     * @return The number of shards and workers, and the time taken to start the workers
+     */
+    public String getShardSummary() {
+        return ShardCounter + " shards on " + Workers + " worker processes, started in " + StartMillis + " ms";
+    }
+}
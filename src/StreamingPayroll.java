@@ -0,0 +1,339 @@
+import deductions.DeductionCache;
+import deductions.DeductionSet;
+import deductions.PeriodDeductions;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Processes the payroll one line at a time
+ *
+ * Each line is validated, run through the deductions and written to the report
+ * (or to the error log) as soon as it is read. No employee is kept in memory, so
+ * the memory used stays the same whatever the size of the payroll file and there
+ * is no limit on the number of employees.
+ *
+ * The report and error files are identical to the ones written by the default mode
+ */
+public class StreamingPayroll {
+
+    /** The writer of the payroll report */
+    private final PrintWriter ReportWriter;
+
+    /** The writer of the error log */
+    private final PrintWriter ErrorWriter;
+
+    /** Reads the fields of each line, reused for every line */
+    private final PayrollRecordParser LineParser = new PayrollRecordParser();
+
+    /** Calculates every deduction of a line at once */
+    private final DeductionSet Deductions;
+
+    /** Receives the deductions of the current line, reused for every line */
+    private final long[] DeductionResult = DeductionSet.newResult();
+
+    /** The console the rows and the invalid lines are displayed on, null when the echo is off */
+    private final PrintWriter Console;
+
+    /** Renders the rows of the report file */
+    private final ReportRowWriter ReportRows;
+
+    /** Renders the rows displayed on the console, null when the console echo is off */
+    private final ReportRowWriter ConsoleRows;
+
+    /** Number of valid employee lines processed */
+    private int LineCounter;
+
+    /** Number of invalid lines written to the error log */
+    private int ErrorLineCounter;
+
+    /** Displays the progress of the run, null when no progress is displayed */
+    private ProgressReporter Progress;
+
+    /** Remembers the deductions of recent gross incomes, null to calculate every employee */
+    private DeductionCache Cache;
+
+    /** Calculates the deductions of one pay period from the year to date, null for yearly amounts */
+    private PeriodDeductions Period;
+
+    /** Records the time of each stage and the rejected lines, null when no metrics are kept */
+    private PayrollMetrics Metrics;
+
+    /** True when the error log gets a column with the reject reason of each line */
+    private boolean ErrorReasons;
+
+    /**
+     * Constructs a StreamingPayroll writing to the given report and error writers
+     * @param reportWriter The writer of the payroll report
+     * @param errorWriter  The writer of the error log
+     */
+    public StreamingPayroll(PrintWriter reportWriter, PrintWriter errorWriter) {
+        this(reportWriter, errorWriter, new PrintWriter(System.out), new DeductionSet());
+    }
+
+    /**
+     * Constructs a StreamingPayroll writing to the given report and error writers
+     * @param reportWriter The writer of the payroll report
+     * @param errorWriter  The writer of the error log
+     * @param console      The console the rows and the invalid lines are displayed on, null for no echo
+     * @param deductions   The deductions applied to every employee
+     */
+    public StreamingPayroll(PrintWriter reportWriter, PrintWriter errorWriter, PrintWriter console, DeductionSet deductions) {
+        this.ReportWriter = reportWriter;
+        this.ErrorWriter = errorWriter;
+        this.Console = console;
+        this.Deductions = deductions;
+        this.ReportRows = new ReportRowWriter(reportWriter, "\n\n");
+        this.ConsoleRows = console != null ? new ReportRowWriter(console, "\n") : null;
+    }
+
+    /**
+     * Displays a progress line at a fixed interval while the lines are processed
+     * @param progress The progress reporter, null for no progress line
+     */
+    public void setProgress(ProgressReporter progress) {
+        this.Progress = progress;
+    }
+
+    /**
+     * Looks up the deductions of each employee in a cache before calculating them
+     * @param cache The cache, null to calculate every employee
+     */
+    public void setCache(DeductionCache cache) {
+        this.Cache = cache;
+    }
+
+    /**
+     * Reports the pay of one pay period instead of the yearly amounts
+     * The deductions of each employee depend on the year to date, which every row updates.
+     * @param period The pay period calculation, null for yearly amounts
+     */
+    public void setPayPeriod(PeriodDeductions period) {
+        this.Period = period;
+    }
+
+    /**
+     * Records the time of each stage of every line and counts the rejected lines
+     * @param metrics The metrics, null to keep no metrics
+     */
+    public void setMetrics(PayrollMetrics metrics) {
+        this.Metrics = metrics;
+    }
+
+    /**
+     * Adds a column with the reject reason of each line to the error log
+     * The reason follows the line, after a tab
+     * @param errorReasons true to add the reason column
+     */
+    public void setErrorReasons(boolean errorReasons) {
+        this.ErrorReasons = errorReasons;
+    }
+
+    /**
+     * Writes the report header to the console and to the report file
+     */
+    public void writeHeader() {
+        if (Console != null) {
+            Console.println();
+            Console.println(PayrollManager.REPORT_TITLE);
+            Console.println(PayrollManager.REPORT_RULE);
+            Console.println(PayrollManager.REPORT_HEADER);
+            Console.println(PayrollManager.REPORT_RULE);
+        }
+
+        ReportWriter.println(PayrollManager.REPORT_TITLE);
+        ReportWriter.println(PayrollManager.REPORT_RULE);
+        ReportWriter.println(PayrollManager.REPORT_HEADER);
+        ReportWriter.println(PayrollManager.REPORT_RULE);
+    }
+
+    /**
+     * Validates a line, calculates its deductions and writes the result
+     * Empty lines are skipped, invalid lines are written to the error log
+     * @param Line The line read from the payroll file
+     */
+    public void processLine(String Line) {
+
+        if (Line.trim().isEmpty()) return; // Skips line if any empty lines in the file
+
+        long Started = Metrics != null ? System.nanoTime() : 0;
+        RejectReason Reason = LineParser.validate(Line);
+        if (Reason != RejectReason.NONE) {
+            if (Metrics != null) rejected(Reason, Started);
+            writeError(Line, Reason);
+            return;
+        }
+        writeRow(Started);
+    }
+
+    /**
+     * Validates a line stored as raw bytes, calculates its deductions and writes the result
+     * The line is only decoded to a String when it has to go to the error log
+     * @param Buffer The buffer holding the line
+     * @param Offset The index of the first byte of the line
+     * @param Length The number of bytes of the line
+     */
+    public void processLine(byte[] Buffer, int Offset, int Length) {
+
+        if (PayrollRecordParser.isBlank(Buffer, Offset, Length)) return; // Skips empty lines
+
+        long Started = Metrics != null ? System.nanoTime() : 0;
+        RejectReason Reason = LineParser.validate(Buffer, Offset, Length);
+        if (Reason != RejectReason.NONE) {
+            if (Metrics != null) rejected(Reason, Started);
+            writeError(new String(Buffer, Offset, Length, Charset.defaultCharset()), Reason);
+            return;
+        }
+        writeRow(Started);
+    }
+
+    /**
+     * Writes an invalid line to the error log and to the console
+     * Used for lines already known to be invalid, like the rejected lines of a snapshot.
+     * When the error log has a reason column, the line is validated again to find its reason.
+     * @param Line The invalid line
+     */
+    public void processInvalidLine(String Line) {
+        writeError(Line, ErrorReasons ? LineParser.validate(Line) : null);
+    }
+
+    /**
+     * Writes an invalid line to the error log and to the console
+     * @param Line   The invalid line
+     * @param Reason The reason the line was rejected, written when the error log has a reason column
+     */
+    private void writeError(String Line, RejectReason Reason) {
+        long Started = Metrics != null ? System.nanoTime() : 0;
+        ErrorLineCounter++;
+        ErrorWriter.print(Line);                         // Write invalid line to error file
+        if (ErrorReasons) {
+            ErrorWriter.print('\t');
+            ErrorWriter.print(Reason.name());
+        }
+        ErrorWriter.println();
+        if (Console != null) {
+            ConsoleRows.flush();                          // Keep the console in the order of the file
+            Console.println("> Error line: " + Line);    // Display invalid line to console
+        }
+        if (Metrics != null) Metrics.recordReport(System.nanoTime() - Started);
+        if (Progress != null) Progress.update(LineCounter, ErrorLineCounter);
+    }
+
+    /**
+     * Calculates the deductions of an employee already validated and writes its report row
+     * Used for employees that do not come from a text line, like the rows of a snapshot
+     * @param ID         The employee ID
+     * @param FirstName  The first name of the employee
+     * @param LastName   The last name of the employee
+     * @param GrossCents The yearly gross income, in cents
+     */
+    public void processEmployee(long ID, String FirstName, String LastName, long GrossCents) {
+        writeEmployee(ID, FirstName, LastName, GrossCents, Metrics != null ? System.nanoTime() : 0);
+    }
+
+    /**
+     * Calculates the deductions of the last parsed line and writes its report row
+     * @param Started The time the line started being parsed, 0 when no metrics are kept
+     */
+    private void writeRow(long Started) {
+        long Parsed = 0;
+        if (Metrics != null) {
+            Parsed = System.nanoTime();
+            Metrics.recordParse(Parsed - Started);
+        }
+        writeEmployee(LineParser.getID(), LineParser.getFirstName(), LineParser.getLastName(),
+                LineParser.getGrossCents(), Parsed);
+    }
+
+    /**
+     * Calculates the deductions of an employee and writes its report row
+     * @param ID         The employee ID
+     * @param FirstName  The first name of the employee
+     * @param LastName   The last name of the employee
+     * @param GrossCents The yearly gross income, in cents
+     * @param Started    The time the calculation starts, 0 when no metrics are kept
+     */
+    private void writeEmployee(long ID, String FirstName, String LastName, long GrossCents, long Started) {
+        LineCounter++;
+
+        // Calculate total deductions and net income, in cents
+        if (Period != null) {
+            // The row shows the pay of the period
+            GrossCents = Period.periodGross(GrossCents);
+            Period.calculate(ID, GrossCents, DeductionResult);
+        } else if (Cache != null) {
+            Cache.calculateAll(GrossCents, DeductionResult);
+        } else {
+            Deductions.calculateAll(GrossCents, DeductionResult);
+        }
+        long TotalCents = DeductionResult[DeductionSet.TOTAL];
+        long NetCents = DeductionResult[DeductionSet.NET_INCOME];
+        long Calculated = Metrics != null ? System.nanoTime() : 0;
+
+        if (Console != null) {
+            ConsoleRows.writeRow(ID, FirstName, LastName, GrossCents, TotalCents, NetCents);
+        }
+
+        ReportRows.writeRow(ID, FirstName, LastName, GrossCents, TotalCents, NetCents);
+        if (Metrics != null) {
+            Metrics.recordDeductions(Calculated - Started);
+            Metrics.recordReport(System.nanoTime() - Calculated);
+        }
+        if (Progress != null) Progress.update(LineCounter, ErrorLineCounter);
+    }
+
+    /**
+     * Counts a rejected line and records the time spent parsing it
+     * @param Reason  The reason the line was rejected
+     * @param Started The time the line started being parsed
+     */
+    private void rejected(RejectReason Reason, long Started) {
+        Metrics.recordParse(System.nanoTime() - Started);
+        Metrics.countRejected(Reason);
+    }
+
+    /**
+     * Writes the rows still waiting in the row buffers
+     * Must be called once every line has been processed
+     */
+    public void finish() {
+        ReportRows.flush();
+        if (Console != null) {
+            ConsoleRows.flush();
+            Console.flush();
+        }
+    }
+
+    /**
+     * Writes the rows still waiting in the row buffer of the report, to take a checkpoint
+     * The writers themselves are not flushed.
+     */
+    public void flush() {
+        ReportRows.flush();
+    }
+
+    /**
+     * Goes on from the counters of a checkpoint, the lines before it are already in the outputs
+     * @param lineCounter      Number of valid employee lines processed before the checkpoint
+     * @param errorLineCounter Number of invalid lines logged before the checkpoint
+     */
+    public void resume(int lineCounter, int errorLineCounter) {
+        this.LineCounter = lineCounter;
+        this.ErrorLineCounter = errorLineCounter;
+    }
+
+    /**
+     * Gets the number of valid employee lines processed so far
+     * @return The number of valid lines
+     */
+    public int getLineCounter() {
+        return LineCounter;
+    }
+
+    /**
+     * Gets the number of invalid lines logged so far
+     * @return The number of invalid lines
+     */
+    public int getErrorLineCounter() {
+        return ErrorLineCounter;
+    }
+}
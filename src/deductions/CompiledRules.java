@@ -0,0 +1,54 @@
+package deductions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Template of the classes RuleCompiler defines for each rule set
+ *
+ * This class itself is never loaded: RuleCompiler reads its bytes and defines a hidden copy
+ * of it for every rule set, with the method handle of the rules as class data. RULES is then
+ * a constant of that copy only, so the JIT compiler inlines the whole handle, bounds, rates
+ * and caps included, into calculateAll().
+ */
+final class CompiledRules extends RuleEvaluator {
+
+    /** The rules of this class, a (long, long[])void handle filling the result buffer */
+    private static final MethodHandle RULES;
+
+    static {
+        try {
+            RULES = MethodHandles.classData(MethodHandles.lookup(), "_", MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** The description of the rules */
+    private final String Description;
+
+    /**
+     * Constructs a CompiledRules
+     * @param description The description of the rules
+     */
+    CompiledRules(String description) {
+        this.Description = description;
+    }
+
+    @Override
+    public void calculateAll(long GrossCents, long[] Result) {
+        try {
+            RULES.invokeExact(GrossCents, Result);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // The handle only calls methods without checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return Description;
+    }
+}
@@ -1,12 +1,25 @@
 package deductions;
 /**
  * Abstract class representing a tax deduction based on gross income
- * All subclasses must implement the calculateTax() method
+ * All subclasses must implement the calculateCents(long) method
+ *
+ * Amounts are calculated in cents with the fixed-point arithmetic of Money, the
+ * calculate(double) and calculateTax() methods convert from and to dollars.
+ *
+ * The calculation does not depend on any state, so a single instance built with the
+ * no-argument constructor can be shared to calculate the deduction of every employee.
+ * Instances built with a gross income keep working through calculateTax().
  */
 public abstract class Deduction {
     /** The employee gross income used for tax calculations */
     protected double GrossIncome;
 
+    /**
+     * Constructs a Deduction without any gross income, to be used through calculateCents(long)
+     */
+    protected Deduction() {
+    }
+
     /**
      * Constructs a Deduction initiator with a given gross income
      * @param GrossIncome The employee gross income
@@ -16,9 +29,28 @@ public abstract class Deduction {
     }
 
     /**
-     * Abstract method that calculates the specific tax or deduction
+     * Abstract method that calculates the specific tax or deduction for a gross income in cents
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated tax or deduction amount, rounded to the cent
+     */
+    public abstract long calculateCents(long GrossCents);
+
+    /**
+     * Calculates the specific tax or deduction for a gross income
+     * @param GrossIncome The employee gross income
+     * @return The calculated tax or deduction amount, rounded to the cent
+     * @throws ArithmeticException If the gross income is not a number or is too large
+     */
+    public double calculate(double GrossIncome) {
+        return Money.toDollars(calculateCents(Money.fromDollars(GrossIncome)));
+    }
+
+    /**
+     * Calculates the specific tax or deduction for the gross income given to the constructor
      * @return The calculated tax or deduction amount
      */
-    public abstract double calculateTax();
+    public double calculateTax() {
+        return calculate(GrossIncome);
+    }
 }
 
@@ -0,0 +1,238 @@
+package deductions;
+/**
+ * Bounded cache of the deductions calculated by a DeductionSet, keyed by gross income
+ *
+ * Employees paid on the same rate grid for the same standard hours share their gross income,
+ * so a few thousand distinct amounts can cover a whole payroll. The cache keeps the whole
+ * result buffer of the most recently used gross incomes and evicts the least recently used
+ * one when it is full. A cache belongs to one DeductionSet, so the tax year and the province
+ * of the rules are part of its key.
+ *
+ * The entries live in primitive arrays: an open addressing table finds the entry of a gross
+ * income, and a doubly linked list through the entries keeps their order of use. A lookup
+ * does not create any object. A cache is not thread safe, each thread needs its own.
+ */
+public class DeductionCache {
+
+    /** The deductions calculated on a miss */
+    private final DeductionSet Deductions;
+
+    /** Largest number of entries */
+    private final int Capacity;
+
+    /** The gross income of each entry, in cents */
+    private final long[] Keys;
+
+    /** The result buffers of the entries, RESULT_SIZE values per entry */
+    private final long[] Values;
+
+    /** The entry used just before each entry, -1 for the least recently used */
+    private final int[] Older;
+
+    /** The entry used just after each entry, -1 for the most recently used */
+    private final int[] Newer;
+
+    /** Open addressing table of the entry numbers plus one, 0 for an empty slot */
+    private final int[] Slots;
+
+    /** The most recently used entry, -1 when empty */
+    private int Newest = -1;
+
+    /** The least recently used entry, -1 when empty */
+    private int Oldest = -1;
+
+    /** Number of entries */
+    private int Size;
+
+    /** Number of lookups answered from the cache */
+    private long Hits;
+
+    /** Number of lookups calculated by the DeductionSet */
+    private long Misses;
+
+    /** Number of entries evicted to make room */
+    private long Evictions;
+
+    /**
+     * Constructs a DeductionCache
+     * @param deductions The deductions calculated on a miss
+     * @param capacity   The largest number of gross incomes kept
+     * @throws IllegalArgumentException If the capacity is not positive
+     */
+    public DeductionCache(DeductionSet deductions, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.Deductions = deductions;
+        this.Capacity = capacity;
+        this.Keys = new long[capacity];
+        this.Values = new long[capacity * DeductionSet.RESULT_SIZE];
+        this.Older = new int[capacity];
+        this.Newer = new int[capacity];
+        // At most half full
+        this.Slots = new int[Integer.highestOneBit(capacity) * 4];
+    }
+
+    /**
+     * Calculates every deduction, their total and the net income for a gross income,
+     * from the cache when the gross income was seen recently
+     * @param GrossCents The employee gross income, in cents
+     * @param Result     The buffer receiving the amounts in cents, at least RESULT_SIZE long
+     */
+    public void calculateAll(long GrossCents, long[] Result) {
+        int Mask = Slots.length - 1;
+        int Slot = slot(GrossCents, Mask);
+        while (Slots[Slot] != 0) {
+            int Entry = Slots[Slot] - 1;
+            if (Keys[Entry] == GrossCents) {
+                Hits++;
+                System.arraycopy(Values, Entry * DeductionSet.RESULT_SIZE, Result, 0, DeductionSet.RESULT_SIZE);
+                if (Entry != Newest) {
+                    unlink(Entry);
+                    linkNewest(Entry);
+                }
+                return;
+            }
+            Slot = (Slot + 1) & Mask;
+        }
+
+        Misses++;
+        Deductions.calculateAll(GrossCents, Result);
+
+        int Entry;
+        if (Size < Capacity) {
+            Entry = Size++;
+        } else {
+            // Reuse the least recently used entry
+            Entry = Oldest;
+            Evictions++;
+            unlink(Entry);
+            removeSlot(Entry);
+            // The slot of the new key may have moved
+            Slot = slot(GrossCents, Mask);
+            while (Slots[Slot] != 0) {
+                Slot = (Slot + 1) & Mask;
+            }
+        }
+        Keys[Entry] = GrossCents;
+        System.arraycopy(Result, 0, Values, Entry * DeductionSet.RESULT_SIZE, DeductionSet.RESULT_SIZE);
+        Slots[Slot] = Entry + 1;
+        linkNewest(Entry);
+    }
+
+    /**
+     * Gets the deductions calculated on a miss
+     * @return The DeductionSet of the cache
+     */
+    public DeductionSet getDeductions() {
+        return Deductions;
+    }
+
+    /**
+     * Gets the largest number of entries
+     * @return The capacity of the cache
+     */
+    public int getCapacity() {
+        return Capacity;
+    }
+
+    /**
+     * Gets the number of gross incomes kept
+     * @return The number of entries
+     */
+    public int size() {
+        return Size;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache
+     * @return The number of hits
+     */
+    public long getHits() {
+        return Hits;
+    }
+
+    /**
+     * Gets the number of lookups calculated by the DeductionSet
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return Misses;
+    }
+
+    /**
+     * Gets the number of entries evicted to make room
+     * @return The number of evictions
+     */
+    public long getEvictions() {
+        return Evictions;
+    }
+
+    /**
+     * Describes hit, miss and eviction counters
+     * @param Hits      The number of hits
+     * @param Misses    The number of misses
+     * @param Evictions The number of evictions
+     * @return The counters and the hit rate, in one line
+     */
+    public static String summary(long Hits, long Misses, long Evictions) {
+        long Lookups = Hits + Misses;
+        double Rate = Lookups == 0 ? 0 : 100.0 * Hits / Lookups;
+        return Hits + " hits, " + Misses + " misses, " + Evictions + " evictions ("
+                + String.format("%.1f", Rate) + "% hit rate)";
+    }
+
+    /**
+     * Removes an entry from the order of use
+     * @param Entry The entry
+     */
+    private void unlink(int Entry) {
+        if (Older[Entry] >= 0) Newer[Older[Entry]] = Newer[Entry]; else Oldest = Newer[Entry];
+        if (Newer[Entry] >= 0) Older[Newer[Entry]] = Older[Entry]; else Newest = Older[Entry];
+    }
+
+    /**
+     * Makes an entry the most recently used
+     * @param Entry The entry, not linked
+     */
+    private void linkNewest(int Entry) {
+        Older[Entry] = Newest;
+        Newer[Entry] = -1;
+        if (Newest >= 0) Newer[Newest] = Entry; else Oldest = Entry;
+        Newest = Entry;
+    }
+
+    /**
+     * Removes an entry from the table, moving back the entries probed after it
+     * @param Entry The entry
+     */
+    private void removeSlot(int Entry) {
+        int Mask = Slots.length - 1;
+        int Hole = slot(Keys[Entry], Mask);
+        while (Slots[Hole] != Entry + 1) {
+            Hole = (Hole + 1) & Mask;
+        }
+        int Next = (Hole + 1) & Mask;
+        while (Slots[Next] != 0) {
+            int Home = slot(Keys[Slots[Next] - 1], Mask);
+            // The entry can fill the hole if the hole is between its home slot and its slot
+            if (((Next - Home) & Mask) >= ((Next - Hole) & Mask)) {
+                Slots[Hole] = Slots[Next];
+                Hole = Next;
+            }
+            Next = (Next + 1) & Mask;
+        }
+        Slots[Hole] = 0;
+    }
+
+    /**
+     * Finds the home slot of a gross income
+     * @param GrossCents The gross income, in cents
+     * @param Mask       The size of the table minus one
+     * @return The first slot to look at
+     */
+    private static int slot(long GrossCents, int Mask) {
+        long Mixed = GrossCents * 0x9E3779B97F4A7C15L;
+        return (int) (Mixed ^ (Mixed >>> 32)) & Mask;
+    }
+}
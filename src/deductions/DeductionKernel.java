@@ -0,0 +1,66 @@
+package deductions;
+/**
+ * Calculates the deductions of a whole column of gross incomes in one call
+ *
+ * The results go to columns laid out like the result buffer of DeductionSet: column
+ * PROVINCIAL_TAX holds the provincial tax of every row, and so on up to NET_INCOME.
+ * Every kernel gives exactly the amounts of DeductionSet.calculateAll(), row by row.
+ *
+ * create() returns the vectorized kernel when it is available and the scalar one
+ * otherwise. The vectorized kernel uses the jdk.incubator.vector module; it is compiled
+ * from the src-vector folder and only loaded when the JVM runs with
+ * --add-modules jdk.incubator.vector, so the rest of the program never depends on it.
+ */
+public abstract class DeductionKernel {
+
+    /** Class name of the vectorized kernel, loaded by reflection */
+    private static final String VECTOR_KERNEL = "deductions.VectorDeductionKernel";
+
+    /**
+     * Creates the fastest kernel available for a set of deductions
+     * @param Deductions The deductions to calculate
+     * @return The vectorized kernel, or the scalar kernel when the Vector API cannot be used
+     */
+    public static DeductionKernel create(DeductionSet Deductions) {
+        try {
+            Class<?> Vector = Class.forName(VECTOR_KERNEL);
+            return (DeductionKernel) Vector.getConstructor(DeductionSet.class).newInstance(Deductions);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Not compiled in, module not added, or rules the vector lanes cannot hold
+            return new ScalarDeductionKernel(Deductions);
+        }
+    }
+
+    /**
+     * Creates the scalar kernel, which works on every JVM
+     * @param Deductions The deductions to calculate
+     * @return The scalar kernel
+     */
+    public static DeductionKernel createScalar(DeductionSet Deductions) {
+        return new ScalarDeductionKernel(Deductions);
+    }
+
+    /**
+     * Creates the result columns for a number of rows
+     * @param Rows The number of rows
+     * @return RESULT_SIZE columns of Rows amounts
+     */
+    public static long[][] newColumns(int Rows) {
+        return new long[DeductionSet.RESULT_SIZE][Rows];
+    }
+
+    /**
+     * Calculates every deduction, their total and the net income of a range of rows
+     * @param GrossCents The gross incomes, in cents
+     * @param From       The first row (inclusive)
+     * @param To         The last row (exclusive)
+     * @param Columns    The RESULT_SIZE columns receiving the amounts in cents, at the same rows
+     */
+    public abstract void calculateColumns(long[] GrossCents, int From, int To, long[][] Columns);
+
+    /**
+     * Describes how the kernel calculates
+     * @return A short description, such as "scalar" or "vector 4 lanes"
+     */
+    public abstract String describe();
+}
@@ -0,0 +1,200 @@
+package deductions;
+/**
+ * Calculates every deduction of an employee in a single call
+ *
+ * The set holds one shared instance of each deduction and writes the amounts into a
+ * result buffer given by the caller, so calculating an employee does not create any object.
+ * Every amount is in cents, so the total of the deductions and the net income always add
+ * up to the gross income.
+ * A set has no state of its own and can be shared between threads, as long as each
+ * thread uses its own result buffer.
+ */
+public class DeductionSet {
+
+    /** Index of the provincial tax in the result buffer */
+    public static final int PROVINCIAL_TAX = 0;
+
+    /** Index of the federal tax in the result buffer */
+    public static final int FEDERAL_TAX = 1;
+
+    /** Index of the Employment Insurance in the result buffer */
+    public static final int EMPLOYMENT_INSURANCE = 2;
+
+    /** Index of the Quebec Parental Insurance Plan in the result buffer */
+    public static final int PARENTAL_PLAN = 3;
+
+    /** Index of the Quebec Pension Plan in the result buffer */
+    public static final int PENSION_PLAN = 4;
+
+    /** Index of the total of the deductions in the result buffer */
+    public static final int TOTAL = 5;
+
+    /** Index of the net income in the result buffer */
+    public static final int NET_INCOME = 6;
+
+    /** Size of the result buffer */
+    public static final int RESULT_SIZE = 7;
+
+    /** The provincial tax calculation */
+    private final ProvincialTax Provincial;
+
+    /** The federal tax calculation */
+    private final FederalTax Federal;
+
+    /** The jurisdictions, years and bracket fingerprints of the tax tables */
+    private final String Description;
+
+    /** The Employment Insurance calculation */
+    private final EmploymentInsurance Insurance = new EmploymentInsurance();
+
+    /** The Quebec Parental Insurance Plan calculation */
+    private final QCParentalPlan ParentalPlan = new QCParentalPlan();
+
+    /** The Quebec Pension Plan calculation */
+    private final QCPensionPlan PensionPlan = new QCPensionPlan();
+
+    /** The evaluator calculating the deductions instead of the calculations above, null for none */
+    private final RuleEvaluator Rules;
+
+    /**
+     * Default constructor for DeductionSet
+     * Uses the federal and Quebec brackets of the default tax year
+     */
+    public DeductionSet() {
+        this(TaxBracketTable.DEFAULT_YEAR, TaxBracketTable.QUEBEC);
+    }
+
+    /**
+     * Constructs a DeductionSet for a tax year and a province
+     * @param Year     The tax year of the brackets
+     * @param Province The jurisdiction code of the provincial brackets
+     * @throws IllegalArgumentException If the bracket file has no bracket for the year or the province
+     */
+    public DeductionSet(int Year, String Province) {
+        TaxBracketTable FederalBrackets = TaxBracketTable.forJurisdiction(TaxBracketTable.FEDERAL, Year);
+        TaxBracketTable ProvincialBrackets = TaxBracketTable.forJurisdiction(Province, Year);
+        this.Federal = new FederalTax(FederalBrackets);
+        this.Provincial = new ProvincialTax(ProvincialBrackets);
+        this.Description = describe(FederalBrackets) + " " + describe(ProvincialBrackets);
+        this.Rules = null;
+    }
+
+    /**
+     * Constructs a copy of a DeductionSet calculating through an evaluator of its rules
+     * @param base  The set copied
+     * @param rules The evaluator of the rules of the set
+     */
+    private DeductionSet(DeductionSet base, RuleEvaluator rules) {
+        this.Federal = base.Federal;
+        this.Provincial = base.Provincial;
+        this.Description = base.Description;
+        this.Rules = rules;
+    }
+
+    /**
+     * Creates a copy of the set whose calculateAll() runs an evaluator of its rules
+     * The amounts are the same, only the way they are calculated changes.
+     * @param Evaluator The evaluator, built from RuleSet.of() on this set
+     * @return A new DeductionSet
+     */
+    public DeductionSet withRules(RuleEvaluator Evaluator) {
+        return new DeductionSet(this, Evaluator);
+    }
+
+    /**
+     * Describes how calculateAll() calculates
+     * @return "classic" for the deduction objects, or the description of the rule evaluator
+     */
+    public String describeEvaluator() {
+        return Rules == null ? "classic" : Rules.describe();
+    }
+
+    /**
+     * Describes the tax tables used by the set
+     * Two sets with the same description calculate the same amounts.
+     * @return The jurisdiction, year and bracket fingerprint of each tax table
+     */
+    public String describe() {
+        return Description;
+    }
+
+    /**
+     * Describes one tax table
+     * @param Brackets The tax table
+     * @return The jurisdiction, year and bracket fingerprint of the table
+     */
+    private static String describe(TaxBracketTable Brackets) {
+        return Brackets.getJurisdiction() + " " + Brackets.getYear() + " " + Long.toHexString(Brackets.fingerprint());
+    }
+
+    /**
+     * Creates a result buffer of the right size
+     * @return A new result buffer
+     */
+    public static long[] newResult() {
+        return new long[RESULT_SIZE];
+    }
+
+    /**
+     * Gets the provincial tax calculation, for the batch kernels
+     * @return The provincial tax
+     */
+    ProvincialTax getProvincial() {
+        return Provincial;
+    }
+
+    /**
+     * Gets the federal tax calculation, for the batch kernels
+     * @return The federal tax
+     */
+    FederalTax getFederal() {
+        return Federal;
+    }
+
+    /**
+     * Gets the Employment Insurance calculation, for the batch kernels
+     * @return The Employment Insurance
+     */
+    EmploymentInsurance getInsurance() {
+        return Insurance;
+    }
+
+    /**
+     * Gets the Quebec Parental Insurance Plan calculation, for the batch kernels
+     * @return The Quebec Parental Insurance Plan
+     */
+    QCParentalPlan getParentalPlan() {
+        return ParentalPlan;
+    }
+
+    /**
+     * Gets the Quebec Pension Plan calculation, for the batch kernels
+     * @return The Quebec Pension Plan
+     */
+    QCPensionPlan getPensionPlan() {
+        return PensionPlan;
+    }
+
+    /**
+     * Calculates every deduction, their total and the net income for a gross income
+     * @param GrossCents The employee gross income, in cents
+     * @param Result     The buffer receiving the amounts in cents, at least RESULT_SIZE long
+     */
+    public void calculateAll(long GrossCents, long[] Result) {
+        if (Rules != null) {
+            Rules.calculateAll(GrossCents, Result);
+            return;
+        }
+        Result[PROVINCIAL_TAX] = Provincial.calculateCents(GrossCents);
+        Result[FEDERAL_TAX] = Federal.calculateCents(GrossCents);
+        Result[EMPLOYMENT_INSURANCE] = Insurance.calculateCents(GrossCents);
+        Result[PARENTAL_PLAN] = ParentalPlan.calculateCents(GrossCents);
+        Result[PENSION_PLAN] = PensionPlan.calculateCents(GrossCents);
+
+        // Each deduction is already rounded to the cent, the sums are exact
+        long Total = Result[PROVINCIAL_TAX] + Result[FEDERAL_TAX] + Result[EMPLOYMENT_INSURANCE]
+                + Result[PARENTAL_PLAN] + Result[PENSION_PLAN];
+        Result[TOTAL] = Total;
+        Result[NET_INCOME] = GrossCents - Total;
+    }
+}
@@ -4,14 +4,20 @@ package deductions;
  */
 public class EmploymentInsurance extends Deduction {
 
-    /** The maximum salary considered for EI deductions */
-    final double MAX_EI_SALARY = 65700;
+    /** The maximum salary considered for EI deductions, in cents */
+    final long MAX_EI_SALARY = 6_570_000;
 
-    /** The maximum EI deduction amount */
-    final double MAX_EI_DEDUCTION = 1077.48;
+    /** The maximum EI deduction amount, in cents */
+    final long MAX_EI_DEDUCTION = 107_748;
 
-    /** The EI tax rate */
-    final double EIRate = (1.64 / 100);
+    /** The EI tax rate, in millionths */
+    final long EIRate = Money.rateFromPercent(1.64);
+
+    /**
+     * Constructs an EmploymentInsurance without any gross income, to be shared through calculateCents(long)
+     */
+    public EmploymentInsurance() {
+    }
 
     /**
      * Constructs an EmploymentInsurance instance with a given gross income
@@ -23,13 +29,14 @@ public class EmploymentInsurance extends Deduction {
 
     /**
      * Calculates the Employment Insurance deduction
-     * @return The calculated EI deduction amount
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated EI deduction amount, in cents
      */
-    public double calculateTax() {
-        if (GrossIncome >= MAX_EI_SALARY) {
+    public long calculateCents(long GrossCents) {
+        if (GrossCents >= MAX_EI_SALARY) {
             return MAX_EI_DEDUCTION;
         } else {
-            return GrossIncome * EIRate;
+            return Money.applyRate(GrossCents, EIRate);
         }
     }
 }
\ No newline at end of file
@@ -1,42 +1,53 @@
 package deductions;
 /**
  * Represents the federal tax calculation based on gross income
+ * The brackets come from the federal TaxBracketTable of the tax year
  */
 public class FederalTax extends Deduction {
 
+    /** The federal tax brackets */
+    private final TaxBracketTable Brackets;
+
+    /**
+     * Constructs a FederalTax without any gross income, to be shared through calculateCents(long)
+     * The brackets of the default tax year are used
+     */
+    public FederalTax() {
+        this.Brackets = TaxBracketTable.forJurisdiction(TaxBracketTable.FEDERAL);
+    }
+
+    /**
+     * Constructs a FederalTax using the given brackets, to be shared through calculateCents(long)
+     * @param Brackets The federal tax brackets
+     */
+    public FederalTax(TaxBracketTable Brackets) {
+        this.Brackets = Brackets;
+    }
+
     /**
      * Constructs a FederalTax instance with a given gross income
+     * The brackets of the default tax year are used
      * @param GrossIncome The employee gross income
      */
     public FederalTax(double GrossIncome) {
         super(GrossIncome);
+        this.Brackets = TaxBracketTable.forJurisdiction(TaxBracketTable.FEDERAL);
     }
 
     /**
      * Calculates the federal tax based on different income brackets
-     * @return The calculated federal tax amount
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated federal tax amount, in cents
      */
-    public double calculateTax() {
-
-        boolean NoTax = GrossIncome < 16129;
-        boolean Margin15 = 16129 <= GrossIncome && GrossIncome <= 57375;
-        boolean Margin21 = 57375 < GrossIncome && GrossIncome <= 114750;
-        boolean Margin26 = 114751 < GrossIncome && GrossIncome <= 177882;
-        boolean Margin29 = 177883 < GrossIncome && GrossIncome <= 253414;
-        boolean Margin33 = 253414 < GrossIncome;
+    public long calculateCents(long GrossCents) {
+        return Brackets.calculateCents(GrossCents);
+    }
 
-        if (NoTax) {
-            return 0;
-        } else if (Margin15) {
-            return (GrossIncome * 15) / 100;
-        } else if (Margin21) {
-            return (GrossIncome * 20.5) / 100;
-        } else if (Margin26) {
-            return (GrossIncome * 26) / 100;
-        } else if (Margin29) {
-            return (GrossIncome * 29) / 100;
-        } else if (Margin33) {
-            return (GrossIncome * 33) / 100;
-        } else return GrossIncome;
+    /**
+     * Gets the federal tax brackets, for the batch kernels
+     * @return The bracket table
+     */
+    TaxBracketTable getBrackets() {
+        return Brackets;
     }
-}
\ No newline at end of file
+}
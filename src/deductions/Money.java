@@ -0,0 +1,95 @@
+package deductions;
+/**
+ * Fixed-point money arithmetic on amounts held as a long number of cents
+ *
+ * Rates are held as a long number of millionths, so 1.64 % is 16400. Applying a rate
+ * to an amount only uses integer arithmetic and rounds once, to the nearest cent with
+ * halves rounded up. Amounts added or subtracted in cents never drift, so the deductions
+ * of an employee always add up with the net income to the gross income.
+ */
+public final class Money {
+
+    /** Number of cents in a dollar */
+    public static final long CENTS_PER_DOLLAR = 100;
+
+    /** Number of millionths in one percent */
+    public static final long MILLIONTHS_PER_PERCENT = 10_000;
+
+    /** Number of millionths in a whole */
+    private static final long MILLIONTHS = 1_000_000;
+
+    /** Largest amount, in cents, that can be multiplied by a rate of 100 % without overflow */
+    private static final long MAX_DIRECT_CENTS = Long.MAX_VALUE / MILLIONTHS - 1;
+
+    /**
+     * Largest amount accepted, in cents, exclusive: 10 trillion dollars, or 10^15 cents
+     * It is below 2^53, so every amount below it converts to a double and back to the same cents.
+     */
+    public static final long MAX_CENTS = 10_000_000_000_000L * CENTS_PER_DOLLAR;
+
+    /**
+     * Default constructor for Money
+     * Only static methods are provided
+     */
+    private Money() {
+    }
+
+    /**
+     * Checks if an amount in dollars can be held in cents
+     * @param Dollars The amount in dollars
+     * @return true if the amount is a number whose cents are below MAX_CENTS
+     */
+    public static boolean fits(double Dollars) {
+        return Math.abs(Dollars * 100.00) < MAX_CENTS; // false for NaN
+    }
+
+    /**
+     * Converts an amount in dollars to cents, rounding to the nearest cent
+     * @param Dollars The amount in dollars
+     * @return The amount in cents
+     * @throws ArithmeticException If the amount is not a number or is too large
+     */
+    public static long fromDollars(double Dollars) {
+        if (!fits(Dollars)) {
+            throw new ArithmeticException("Amount out of range: " + Dollars);
+        }
+        return Math.round(Dollars * 100.00);
+    }
+
+    /**
+     * Converts an amount in cents to dollars
+     * @param Cents The amount in cents
+     * @return The closest double to the amount in dollars
+     */
+    public static double toDollars(long Cents) {
+        return Cents / 100.00;
+    }
+
+    /**
+     * Converts a rate in percent to millionths, rounding to the nearest millionth
+     * @param Percent The rate in percent
+     * @return The rate in millionths
+     */
+    public static long rateFromPercent(double Percent) {
+        return Math.round(Percent * MILLIONTHS_PER_PERCENT);
+    }
+
+    /**
+     * Applies a rate to an amount, rounding to the nearest cent
+     * @param Cents The amount in cents
+     * @param Rate  The rate in millionths
+     * @return The amount times the rate, in cents
+     * @throws ArithmeticException If the result does not fit in a long
+     */
+    public static long applyRate(long Cents, long Rate) {
+        if (Cents >= 0 && Cents <= MAX_DIRECT_CENTS && Rate >= 0 && Rate <= MILLIONTHS) {
+            // Usual case, the product cannot overflow
+            return (Cents * Rate + MILLIONTHS / 2) / MILLIONTHS;
+        }
+        // Split the amount so that no product overflows: Cents * Rate = (Whole * 10^6 + Part) * Rate
+        long Whole = Math.floorDiv(Cents, MILLIONTHS);
+        long Part = Math.floorMod(Cents, MILLIONTHS);
+        return Math.addExact(Math.multiplyExact(Whole, Rate),
+                Math.floorDiv(Part * Rate + MILLIONTHS / 2, MILLIONTHS));
+    }
+}
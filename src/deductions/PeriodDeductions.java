@@ -0,0 +1,105 @@
+package deductions;
+/**
+ * Calculates the deductions of one pay period from the year to date of each employee
+ *
+ * The taxes are annualized: the pay of the period is taxed at the rate of the bracket its
+ * yearly equivalent falls in. The contributions apply their salary cap and their largest
+ * yearly amount to the year to date, so an employee stops contributing in the period the
+ * cap is reached, and never pays more over the year than the yearly calculation.
+ *
+ * Each calculation adds the pay and the deductions of the period to the YearToDateStore.
+ */
+public class PeriodDeductions {
+
+    /** The yearly rules */
+    private final DeductionSet Deductions;
+
+    /** The amounts paid since the start of the year, updated by every calculation */
+    private final YearToDateStore YearToDate;
+
+    /** Number of pay periods in the year */
+    private final int PeriodsPerYear;
+
+    /**
+     * Constructs a PeriodDeductions
+     * @param deductions The yearly rules
+     * @param yearToDate The amounts paid since the start of the year, which sets the number of periods
+     */
+    public PeriodDeductions(DeductionSet deductions, YearToDateStore yearToDate) {
+        this.Deductions = deductions;
+        this.YearToDate = yearToDate;
+        this.PeriodsPerYear = yearToDate.getPeriodsPerYear();
+    }
+
+    /**
+     * Converts a yearly gross income to the gross income of one pay period
+     * @param YearlyCents The yearly gross income, in cents
+     * @return The gross income of the period, rounded to the nearest cent
+     */
+    public long periodGross(long YearlyCents) {
+        return Math.floorDiv(YearlyCents + PeriodsPerYear / 2, PeriodsPerYear);
+    }
+
+    /**
+     * Calculates every deduction of one pay period, their total and the net income,
+     * and adds them to the year to date of the employee
+     * @param ID         The employee ID
+     * @param GrossCents The gross income of the period, in cents
+     * @param Result     The buffer receiving the amounts of the period in cents, at least RESULT_SIZE long
+     */
+    public void calculate(long ID, long GrossCents, long[] Result) {
+        int Row = YearToDate.row(ID);
+        long Yearly = GrossCents * PeriodsPerYear;
+        long GrossToDate = YearToDate.getGross(Row);
+
+        Result[DeductionSet.PROVINCIAL_TAX] = Money.applyRate(GrossCents,
+                Deductions.getProvincial().getBrackets().rateOf(Yearly));
+        Result[DeductionSet.FEDERAL_TAX] = Money.applyRate(GrossCents,
+                Deductions.getFederal().getBrackets().rateOf(Yearly));
+
+        EmploymentInsurance Insurance = Deductions.getInsurance();
+        Result[DeductionSet.EMPLOYMENT_INSURANCE] = capped(GrossCents, GrossToDate,
+                YearToDate.getAmount(Row, DeductionSet.EMPLOYMENT_INSURANCE),
+                Insurance.MAX_EI_SALARY, Insurance.MAX_EI_DEDUCTION, Insurance.EIRate);
+        QCParentalPlan Parental = Deductions.getParentalPlan();
+        Result[DeductionSet.PARENTAL_PLAN] = capped(GrossCents, GrossToDate,
+                YearToDate.getAmount(Row, DeductionSet.PARENTAL_PLAN),
+                Parental.MAX_QPIP_SALARY, Parental.MAX_QPIP_DEDUCTION, Parental.QPIPRate);
+        QCPensionPlan Pension = Deductions.getPensionPlan();
+        Result[DeductionSet.PENSION_PLAN] = capped(GrossCents, GrossToDate,
+                YearToDate.getAmount(Row, DeductionSet.PENSION_PLAN),
+                Pension.MAX_QPP_SALARY, Pension.MAX_QPP_DEDUCTION, Pension.QPPRate);
+
+        long Total = Result[DeductionSet.PROVINCIAL_TAX] + Result[DeductionSet.FEDERAL_TAX]
+                + Result[DeductionSet.EMPLOYMENT_INSURANCE] + Result[DeductionSet.PARENTAL_PLAN]
+                + Result[DeductionSet.PENSION_PLAN];
+        Result[DeductionSet.TOTAL] = Total;
+        Result[DeductionSet.NET_INCOME] = GrossCents - Total;
+
+        YearToDate.add(Row, GrossCents, Result);
+    }
+
+    /**
+     * Calculates a contribution of the period, within what is left of its yearly caps
+     * @param GrossCents  The gross income of the period, in cents
+     * @param GrossToDate The gross income paid before the period, in cents
+     * @param PaidToDate  The contribution paid before the period, in cents
+     * @param MaxSalary   The yearly salary above which nothing is due, in cents
+     * @param MaxAmount   The largest yearly contribution, in cents
+     * @param Rate        The rate, in millionths
+     * @return The contribution of the period, in cents
+     */
+    private static long capped(long GrossCents, long GrossToDate, long PaidToDate, long MaxSalary, long MaxAmount, long Rate) {
+        long Insurable = Math.min(GrossCents, Math.max(0, MaxSalary - GrossToDate));
+        long Amount = Money.applyRate(Insurable, Rate);
+        return Math.min(Amount, Math.max(0, MaxAmount - PaidToDate));
+    }
+
+    /**
+     * Gets the amounts paid since the start of the year
+     * @return The year-to-date store
+     */
+    public YearToDateStore getYearToDate() {
+        return YearToDate;
+    }
+}
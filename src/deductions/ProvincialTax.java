@@ -1,36 +1,53 @@
 package deductions;
 /**
  * Represents the provincial tax calculation based on gross income
+ * The brackets come from the Quebec TaxBracketTable of the tax year, unless others are given
  */
 public class ProvincialTax extends Deduction {
 
+    /** The provincial tax brackets */
+    private final TaxBracketTable Brackets;
+
+    /**
+     * Constructs a ProvincialTax without any gross income, to be shared through calculateCents(long)
+     * The Quebec brackets of the default tax year are used
+     */
+    public ProvincialTax() {
+        this.Brackets = TaxBracketTable.forJurisdiction(TaxBracketTable.QUEBEC);
+    }
+
+    /**
+     * Constructs a ProvincialTax using the given brackets, to be shared through calculateCents(long)
+     * @param Brackets The provincial tax brackets
+     */
+    public ProvincialTax(TaxBracketTable Brackets) {
+        this.Brackets = Brackets;
+    }
+
     /**
      * Constructs a ProvincialTax instance with a given gross income
+     * The Quebec brackets of the default tax year are used
      * @param GrossIncome The employee gross income
      */
     public ProvincialTax(double GrossIncome){
         super(GrossIncome);
+        this.Brackets = TaxBracketTable.forJurisdiction(TaxBracketTable.QUEBEC);
     }
 
     /**
      * Calculates the provincial tax based on different income brackets
-     * @return The calculated provincial tax amount
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated provincial tax amount, in cents
      */
-    public double calculateTax() {
-
-        boolean Margin14 = 18571 < GrossIncome && GrossIncome <= 53255;
-        boolean Margin19 = 53255 < GrossIncome && GrossIncome <= 106495;
-        boolean Margin24 = 106495 < GrossIncome && GrossIncome <= 129590;
-        boolean Margin26 = 129590 < GrossIncome;
+    public long calculateCents(long GrossCents) {
+        return Brackets.calculateCents(GrossCents);
+    }
 
-        if (Margin14) {
-            return (GrossIncome * 14) / 100;
-        } else if (Margin19) {
-            return (GrossIncome * 19) / 100;
-        } else if (Margin24) {
-            return (GrossIncome * 24) / 100;
-        } else if (Margin26) {
-            return (GrossIncome * 25.75) / 100;
-        } else return GrossIncome;
+    /**
+     * Gets the provincial tax brackets, for the batch kernels
+     * @return The bracket table
+     */
+    TaxBracketTable getBrackets() {
+        return Brackets;
     }
-}
\ No newline at end of file
+}
@@ -4,14 +4,20 @@ package deductions;
  */
 public class QCParentalPlan extends Deduction {
 
-    /** The maximum salary considered for QPIP deductions */
-    final double MAX_QPIP_SALARY = 98000;
+    /** The maximum salary considered for QPIP deductions, in cents */
+    final long MAX_QPIP_SALARY = 9_800_000;
 
-    /** The maximum QPIP deduction amount */
-    final double MAX_QPIP_DEDUCTION = 494.12;
+    /** The maximum QPIP deduction amount, in cents */
+    final long MAX_QPIP_DEDUCTION = 49_412;
 
-    /** The QPIP tax rate */
-    final double QPIPRate = 0.494 / 100;
+    /** The QPIP tax rate, in millionths */
+    final long QPIPRate = Money.rateFromPercent(0.494);
+
+    /**
+     * Constructs a QCParentalPlan without any gross income, to be shared through calculateCents(long)
+     */
+    public QCParentalPlan() {
+    }
 
     /**
      * Constructs a QCParentalPlan instance with a given gross income
@@ -23,13 +29,14 @@ public class QCParentalPlan extends Deduction {
 
     /**
      * Calculates the Quebec Parental Insurance Plan deduction
-     * @return The calculated QPIP deduction amount
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated QPIP deduction amount, in cents
      */
-    public double calculateTax() {
-        if (GrossIncome >= MAX_QPIP_SALARY) {
+    public long calculateCents(long GrossCents) {
+        if (GrossCents >= MAX_QPIP_SALARY) {
             return MAX_QPIP_DEDUCTION;
         } else {
-            return GrossIncome * QPIPRate;
+            return Money.applyRate(GrossCents, QPIPRate);
         }
     }
 }
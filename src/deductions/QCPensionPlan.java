@@ -4,14 +4,20 @@ package deductions;
  */
 public class QCPensionPlan extends Deduction {
 
-    /** The maximum salary considered for QPP deductions */
-    final double MAX_QPP_SALARY = 71300;
+    /** The maximum salary considered for QPP deductions, in cents */
+    final long MAX_QPP_SALARY = 7_130_000;
 
-    /** The maximum QPP deduction amount */
-    final double MAX_QPP_DEDUCTION = 7700.40;
+    /** The maximum QPP deduction amount, in cents */
+    final long MAX_QPP_DEDUCTION = 770_040;
 
-    /** The QPP tax rate */
-    final double QPPRate = (10.8 / 100);
+    /** The QPP tax rate, in millionths */
+    final long QPPRate = Money.rateFromPercent(10.8);
+
+    /**
+     * Constructs a QCPensionPlan without any gross income, to be shared through calculateCents(long)
+     */
+    public QCPensionPlan() {
+    }
 
     /**
      * Constructs a QCPensionPlan instance with a given gross income
@@ -23,13 +29,14 @@ public class QCPensionPlan extends Deduction {
 
     /**
      * Calculates the Quebec Pension Plan deduction
-     * @return The calculated QPP deduction amount
+     * @param GrossCents The employee gross income, in cents
+     * @return The calculated QPP deduction amount, in cents
      */
-    public double calculateTax() {
-        if (GrossIncome >= MAX_QPP_SALARY) {
+    public long calculateCents(long GrossCents) {
+        if (GrossCents >= MAX_QPP_SALARY) {
             return MAX_QPP_DEDUCTION;
         } else {
-            return GrossIncome * QPPRate;
+            return Money.applyRate(GrossCents, QPPRate);
         }
     }
 }
\ No newline at end of file
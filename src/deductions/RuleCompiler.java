@@ -0,0 +1,172 @@
+package deductions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles a RuleSet into a class of its own
+ *
+ * Each rule becomes a tree of method handles whose leaves are constants: a bracket rule is a
+ * balanced tree of comparisons with its bounds, the same search as TaxBracketTable, ending in
+ * Money.applyRate() with the rate of the bracket bound in; a capped rule is one comparison with
+ * its cap. The rules are chained into a single (long, long[])void handle that fills the result
+ * buffer and adds up the total and the net income.
+ *
+ * The handle is then given as class data to a hidden copy of CompiledRules, where it is a
+ * static final constant: the JIT compiler inlines it completely, so the compiled rules run
+ * like a method written by hand for one tax year and one province.
+ */
+final class RuleCompiler {
+
+    /** Money.applyRate(long, long)long */
+    private static final MethodHandle APPLY_RATE;
+
+    /** above(long, long)boolean */
+    private static final MethodHandle ABOVE;
+
+    /** atLeast(long, long)boolean */
+    private static final MethodHandle AT_LEAST;
+
+    /** addUp(long, long[])void */
+    private static final MethodHandle ADD_UP;
+
+    /** long[] element setter, (long[], int, long)void */
+    private static final MethodHandle SET = MethodHandles.arrayElementSetter(long[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup Lookup = MethodHandles.lookup();
+            MethodType Compare = MethodType.methodType(boolean.class, long.class, long.class);
+            APPLY_RATE = Lookup.findStatic(Money.class, "applyRate",
+                    MethodType.methodType(long.class, long.class, long.class));
+            ABOVE = Lookup.findStatic(RuleCompiler.class, "above", Compare);
+            AT_LEAST = Lookup.findStatic(RuleCompiler.class, "atLeast", Compare);
+            ADD_UP = Lookup.findStatic(RuleCompiler.class, "addUp",
+                    MethodType.methodType(void.class, long.class, long[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Only static methods are provided
+     */
+    private RuleCompiler() {
+    }
+
+    /**
+     * Compiles a rule set
+     * @param Rules The rules to compile
+     * @return A new instance of the hidden class of the rules
+     * @throws ReflectiveOperationException If the template class cannot be read or defined
+     */
+    static RuleEvaluator compile(RuleSet Rules) throws ReflectiveOperationException {
+        MethodHandle Body = ADD_UP;
+        // Built from the last rule, so the first rule runs first
+        for (int Index = Rules.getRules().size() - 1; Index >= 0; Index--) {
+            RuleSet.Rule Current = Rules.getRules().get(Index);
+            MethodHandle Amount = Current.isBrackets()
+                    ? brackets(Current.Bounds, Current.Rates, 0, Current.Rates.length - 1)
+                    : capped(Current.Cap, Current.Max, Current.Rate);
+            // (long[] Result, long Gross)void storing the amount at the index of the rule
+            MethodHandle Store = MethodHandles.filterArguments(
+                    MethodHandles.insertArguments(SET, 1, Current.Index), 1, Amount);
+            Store = MethodHandles.permuteArguments(Store,
+                    MethodType.methodType(void.class, long.class, long[].class), 1, 0);
+            Body = MethodHandles.foldArguments(Body, Store);
+        }
+
+        MethodHandles.Lookup Hidden = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(template(), Body, true);
+        MethodHandle Constructor = Hidden.findConstructor(Hidden.lookupClass(),
+                MethodType.methodType(void.class, String.class));
+        try {
+            return (RuleEvaluator) Constructor.invoke("compiled");
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds the search of the bracket of an income, as a balanced tree of comparisons
+     * @param Bounds The lower bounds of the brackets, in cents
+     * @param Rates  The rates of the brackets, in millionths
+     * @param Low    The first bracket the income may fall in
+     * @param High   The last bracket the income may fall in
+     * @return A (long)long handle calculating the tax of an income in these brackets
+     */
+    private static MethodHandle brackets(long[] Bounds, long[] Rates, int Low, int High) {
+        if (Low == High) {
+            return MethodHandles.insertArguments(APPLY_RATE, 1, Rates[Low]);
+        }
+        int Middle = (Low + High + 1) >>> 1;
+        return MethodHandles.guardWithTest(MethodHandles.insertArguments(ABOVE, 1, Bounds[Middle]),
+                brackets(Bounds, Rates, Middle, High), brackets(Bounds, Rates, Low, Middle - 1));
+    }
+
+    /**
+     * Builds a capped contribution
+     * @param Cap  The salary from which the largest amount is due, in cents
+     * @param Max  The largest amount, in cents
+     * @param Rate The flat rate, in millionths
+     * @return A (long)long handle calculating the contribution of an income
+     */
+    private static MethodHandle capped(long Cap, long Max, long Rate) {
+        MethodHandle Largest = MethodHandles.dropArguments(
+                MethodHandles.constant(long.class, Max), 0, long.class);
+        return MethodHandles.guardWithTest(MethodHandles.insertArguments(AT_LEAST, 1, Cap),
+                Largest, MethodHandles.insertArguments(APPLY_RATE, 1, Rate));
+    }
+
+    /**
+     * Reads the bytes of the template class
+     * @return The class file of CompiledRules
+     * @throws ClassNotFoundException If the class file cannot be read
+     */
+    private static byte[] template() throws ClassNotFoundException {
+        try (InputStream In = RuleCompiler.class.getResourceAsStream("CompiledRules.class")) {
+            if (In == null) throw new ClassNotFoundException("CompiledRules.class");
+            return In.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException("CompiledRules.class", e);
+        }
+    }
+
+    /**
+     * Checks if an income is strictly above a bracket bound
+     * @param GrossCents The gross income, in cents
+     * @param Bound      The lower bound of the bracket, in cents
+     * @return true if the income falls in the bracket or a higher one
+     */
+    private static boolean above(long GrossCents, long Bound) {
+        return GrossCents > Bound;
+    }
+
+    /**
+     * Checks if an income reaches a salary cap
+     * @param GrossCents The gross income, in cents
+     * @param Cap        The salary cap, in cents
+     * @return true if the largest amount is due
+     */
+    private static boolean atLeast(long GrossCents, long Cap) {
+        return GrossCents >= Cap;
+    }
+
+    /**
+     * Adds up the deductions already in the result buffer
+     * @param GrossCents The gross income, in cents
+     * @param Result     The result buffer, holding every deduction
+     */
+    private static void addUp(long GrossCents, long[] Result) {
+        long Total = Result[DeductionSet.PROVINCIAL_TAX] + Result[DeductionSet.FEDERAL_TAX]
+                + Result[DeductionSet.EMPLOYMENT_INSURANCE] + Result[DeductionSet.PARENTAL_PLAN]
+                + Result[DeductionSet.PENSION_PLAN];
+        Result[DeductionSet.TOTAL] = Total;
+        Result[DeductionSet.NET_INCOME] = GrossCents - Total;
+    }
+}
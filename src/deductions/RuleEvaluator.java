@@ -0,0 +1,47 @@
+package deductions;
+/**
+ * Calculates every deduction of a RuleSet in a single call, like DeductionSet.calculateAll()
+ *
+ * create() compiles the rules once into a class of their own, where every bound, rate and cap
+ * is a constant of the code; the interpreter walks the rules for each income instead. Both
+ * give exactly the amounts of DeductionSet.calculateAll(), and both can be shared between
+ * threads as long as each thread uses its own result buffer.
+ */
+public abstract class RuleEvaluator {
+
+    /**
+     * Creates the compiled evaluator of a rule set
+     * @param Rules The rules to calculate
+     * @return The compiled evaluator, or the interpreter when the rules cannot be compiled
+     */
+    public static RuleEvaluator create(RuleSet Rules) {
+        try {
+            return RuleCompiler.compile(Rules);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Template class not found, or a JVM without hidden classes
+            return new RuleInterpreter(Rules);
+        }
+    }
+
+    /**
+     * Creates the interpreter of a rule set, which works on every JVM
+     * @param Rules The rules to calculate
+     * @return The interpreter
+     */
+    public static RuleEvaluator createInterpreter(RuleSet Rules) {
+        return new RuleInterpreter(Rules);
+    }
+
+    /**
+     * Calculates every deduction, their total and the net income for a gross income
+     * @param GrossCents The employee gross income, in cents
+     * @param Result     The buffer receiving the amounts in cents, at least RESULT_SIZE long
+     */
+    public abstract void calculateAll(long GrossCents, long[] Result);
+
+    /**
+     * Describes how the evaluator calculates
+     * @return A short description, such as "compiled" or "interpreted"
+     */
+    public abstract String describe();
+}
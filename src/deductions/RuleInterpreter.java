@@ -0,0 +1,84 @@
+package deductions;
+
+import java.util.List;
+
+/**
+ * Calculates the deductions of a RuleSet by walking its rules for each income
+ *
+ * The rules are flattened into arrays, so the loop reads numbers only and calls no deduction
+ * object. It is the fallback of the compiled evaluator and the reference it is checked against.
+ */
+class RuleInterpreter extends RuleEvaluator {
+
+    /** The result index of each rule */
+    private final int[] Indexes;
+
+    /** The lower bounds of the brackets of each rule, null for a capped rule */
+    private final long[][] Bounds;
+
+    /** The rates of the brackets of each rule, null for a capped rule */
+    private final long[][] Rates;
+
+    /** The salary cap of each capped rule, in cents */
+    private final long[] Caps;
+
+    /** The largest amount of each capped rule, in cents */
+    private final long[] Maxes;
+
+    /** The flat rate of each capped rule, in millionths */
+    private final long[] FlatRates;
+
+    /**
+     * Constructs a RuleInterpreter
+     * @param rules The rules to calculate
+     */
+    RuleInterpreter(RuleSet rules) {
+        List<RuleSet.Rule> All = rules.getRules();
+        int Size = All.size();
+        this.Indexes = new int[Size];
+        this.Bounds = new long[Size][];
+        this.Rates = new long[Size][];
+        this.Caps = new long[Size];
+        this.Maxes = new long[Size];
+        this.FlatRates = new long[Size];
+        for (int Index = 0; Index < Size; Index++) {
+            RuleSet.Rule Current = All.get(Index);
+            Indexes[Index] = Current.Index;
+            Bounds[Index] = Current.Bounds;
+            Rates[Index] = Current.Rates;
+            Caps[Index] = Current.Cap;
+            Maxes[Index] = Current.Max;
+            FlatRates[Index] = Current.Rate;
+        }
+    }
+
+    @Override
+    public void calculateAll(long GrossCents, long[] Result) {
+        long Total = 0;
+        for (int Index = 0; Index < Indexes.length; Index++) {
+            long Amount;
+            long[] Lower = Bounds[Index];
+            if (Lower != null) {
+                // Last bracket whose lower bound is strictly below the income, the first one has none
+                int Bracket = Lower.length - 1;
+                while (Bracket > 0 && GrossCents <= Lower[Bracket]) {
+                    Bracket--;
+                }
+                Amount = Money.applyRate(GrossCents, Rates[Index][Bracket]);
+            } else if (GrossCents >= Caps[Index]) {
+                Amount = Maxes[Index];
+            } else {
+                Amount = Money.applyRate(GrossCents, FlatRates[Index]);
+            }
+            Result[Indexes[Index]] = Amount;
+            Total += Amount;
+        }
+        Result[DeductionSet.TOTAL] = Total;
+        Result[DeductionSet.NET_INCOME] = GrossCents - Total;
+    }
+
+    @Override
+    public String describe() {
+        return "interpreted";
+    }
+}
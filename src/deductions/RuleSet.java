@@ -0,0 +1,178 @@
+package deductions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative description of the deductions of a tax year and a province
+ *
+ * Each rule fills one deduction of the result buffer of DeductionSet and is one of two kinds:
+ * >Brackets: the whole gross income is taxed at the rate of the last bracket whose lower bound
+ *  it is strictly above, like TaxBracketTable
+ * >Capped: the gross income is taxed at a flat rate, and the largest amount is due from a salary cap
+ * The rules only hold numbers, so they can be interpreted by RuleInterpreter or turned into
+ * specialized code by RuleCompiler, with the same results as DeductionSet.calculateAll().
+ */
+public class RuleSet {
+
+    /**
+     * One deduction of the set
+     */
+    static class Rule {
+
+        /** The index of the deduction in the result buffer */
+        final int Index;
+
+        /** The name of the deduction */
+        final String Name;
+
+        /** The lower bounds of the brackets in cents, null for a capped rule */
+        final long[] Bounds;
+
+        /** The rates of the brackets in millionths, null for a capped rule */
+        final long[] Rates;
+
+        /** The salary from which the largest amount is due, in cents */
+        final long Cap;
+
+        /** The largest amount, in cents */
+        final long Max;
+
+        /** The flat rate, in millionths */
+        final long Rate;
+
+        /**
+         * Constructs a bracket rule
+         * @param index  The index of the deduction in the result buffer
+         * @param name   The name of the deduction
+         * @param bounds The lower bounds of the brackets in cents, the first one Long.MIN_VALUE
+         * @param rates  The rates of the brackets in millionths
+         */
+        Rule(int index, String name, long[] bounds, long[] rates) {
+            this.Index = index;
+            this.Name = name;
+            this.Bounds = bounds;
+            this.Rates = rates;
+            this.Cap = 0;
+            this.Max = 0;
+            this.Rate = 0;
+        }
+
+        /**
+         * Constructs a capped rule
+         * @param index The index of the deduction in the result buffer
+         * @param name  The name of the deduction
+         * @param cap   The salary from which the largest amount is due, in cents
+         * @param max   The largest amount, in cents
+         * @param rate  The flat rate, in millionths
+         */
+        Rule(int index, String name, long cap, long max, long rate) {
+            this.Index = index;
+            this.Name = name;
+            this.Bounds = null;
+            this.Rates = null;
+            this.Cap = cap;
+            this.Max = max;
+            this.Rate = rate;
+        }
+
+        /**
+         * Checks if the rule is a bracket rule
+         * @return true for brackets, false for a capped rate
+         */
+        boolean isBrackets() {
+            return Bounds != null;
+        }
+
+        /**
+         * Describes the rule
+         * @return The name and the numbers of the rule, in one line
+         */
+        @Override
+        public String toString() {
+            StringBuilder Text = new StringBuilder(Name);
+            if (isBrackets()) {
+                Text.append(" brackets");
+                for (int Bracket = 0; Bracket < Bounds.length; Bracket++) {
+                    Text.append(Bracket == 0 ? " from 0" : " above " + Money.toDollars(Bounds[Bracket]));
+                    Text.append(" at ").append(Rates[Bracket] / (double) Money.MILLIONTHS_PER_PERCENT).append('%');
+                }
+            } else {
+                Text.append(" at ").append(Rate / (double) Money.MILLIONTHS_PER_PERCENT).append('%')
+                        .append(", ").append(Money.toDollars(Max)).append(" from ").append(Money.toDollars(Cap));
+            }
+            return Text.toString();
+        }
+    }
+
+    /** The rules, in the order of the result buffer */
+    private final List<Rule> Rules;
+
+    /** The jurisdictions, years and bracket fingerprints of the tax tables */
+    private final String Description;
+
+    /**
+     * Constructs a RuleSet
+     * @param rules       The rules, in the order of the result buffer
+     * @param description The jurisdictions and years of the tax tables
+     */
+    private RuleSet(List<Rule> rules, String description) {
+        this.Rules = Collections.unmodifiableList(rules);
+        this.Description = description;
+    }
+
+    /**
+     * Describes the rules of a DeductionSet
+     * @param Deductions The deductions
+     * @return The rules, calculating the same amounts as the DeductionSet
+     */
+    public static RuleSet of(DeductionSet Deductions) {
+        List<Rule> Rules = new ArrayList<>();
+        TaxBracketTable Provincial = Deductions.getProvincial().getBrackets();
+        Rules.add(new Rule(DeductionSet.PROVINCIAL_TAX, "Provincial tax " + Provincial.getJurisdiction(),
+                Provincial.getLowerBounds(), Provincial.getRates()));
+        TaxBracketTable Federal = Deductions.getFederal().getBrackets();
+        Rules.add(new Rule(DeductionSet.FEDERAL_TAX, "Federal tax",
+                Federal.getLowerBounds(), Federal.getRates()));
+        EmploymentInsurance Insurance = Deductions.getInsurance();
+        Rules.add(new Rule(DeductionSet.EMPLOYMENT_INSURANCE, "Employment Insurance",
+                Insurance.MAX_EI_SALARY, Insurance.MAX_EI_DEDUCTION, Insurance.EIRate));
+        QCParentalPlan Parental = Deductions.getParentalPlan();
+        Rules.add(new Rule(DeductionSet.PARENTAL_PLAN, "Quebec Parental Insurance Plan",
+                Parental.MAX_QPIP_SALARY, Parental.MAX_QPIP_DEDUCTION, Parental.QPIPRate));
+        QCPensionPlan Pension = Deductions.getPensionPlan();
+        Rules.add(new Rule(DeductionSet.PENSION_PLAN, "Quebec Pension Plan",
+                Pension.MAX_QPP_SALARY, Pension.MAX_QPP_DEDUCTION, Pension.QPPRate));
+        return new RuleSet(Rules, Deductions.describe());
+    }
+
+    /**
+     * Gets the rules
+     * @return The rules, in the order of the result buffer
+     */
+    List<Rule> getRules() {
+        return Rules;
+    }
+
+    /**
+     * Describes the tax tables of the rules
+     * @return The jurisdiction, year and bracket fingerprint of each tax table
+     */
+    public String describe() {
+        return Description;
+    }
+
+    /**
+     * Lists the rules
+     * @return One line per rule
+     */
+    @Override
+    public String toString() {
+        StringBuilder Text = new StringBuilder();
+        for (Rule Current : Rules) {
+            Text.append(Current).append('\n');
+        }
+        return Text.toString();
+    }
+}
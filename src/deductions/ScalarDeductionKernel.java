@@ -0,0 +1,73 @@
+package deductions;
+/**
+ * Calculates a column of gross incomes one deduction at a time
+ *
+ * Each deduction runs over the whole range before the next one, so every loop calls a
+ * single calculation and the JIT compiler can inline it. The amounts come from the same
+ * calculateCents() methods as DeductionSet.calculateAll(), so they are always identical.
+ * This is the reference the vectorized kernel is checked against.
+ */
+class ScalarDeductionKernel extends DeductionKernel {
+
+    /** The deductions calculated */
+    private final DeductionSet Deductions;
+
+    /**
+     * Constructs a ScalarDeductionKernel
+     * @param deductions The deductions to calculate
+     */
+    ScalarDeductionKernel(DeductionSet deductions) {
+        this.Deductions = deductions;
+    }
+
+    @Override
+    public void calculateColumns(long[] GrossCents, int From, int To, long[][] Columns) {
+        calculate(Deductions.getProvincial(), GrossCents, From, To, Columns[DeductionSet.PROVINCIAL_TAX]);
+        calculate(Deductions.getFederal(), GrossCents, From, To, Columns[DeductionSet.FEDERAL_TAX]);
+        calculate(Deductions.getInsurance(), GrossCents, From, To, Columns[DeductionSet.EMPLOYMENT_INSURANCE]);
+        calculate(Deductions.getParentalPlan(), GrossCents, From, To, Columns[DeductionSet.PARENTAL_PLAN]);
+        calculate(Deductions.getPensionPlan(), GrossCents, From, To, Columns[DeductionSet.PENSION_PLAN]);
+        addUp(GrossCents, From, To, Columns);
+    }
+
+    /**
+     * Calculates one deduction for a range of rows
+     * @param Calculation The deduction
+     * @param GrossCents  The gross incomes, in cents
+     * @param From        The first row (inclusive)
+     * @param To          The last row (exclusive)
+     * @param Column      The column receiving the deduction
+     */
+    private static void calculate(Deduction Calculation, long[] GrossCents, int From, int To, long[] Column) {
+        for (int Row = From; Row < To; Row++) {
+            Column[Row] = Calculation.calculateCents(GrossCents[Row]);
+        }
+    }
+
+    /**
+     * Adds up the deductions of a range of rows into their total and the net income
+     * @param GrossCents The gross incomes, in cents
+     * @param From       The first row (inclusive)
+     * @param To         The last row (exclusive)
+     * @param Columns    The result columns, the five deductions already calculated
+     */
+    static void addUp(long[] GrossCents, int From, int To, long[][] Columns) {
+        long[] Provincial = Columns[DeductionSet.PROVINCIAL_TAX];
+        long[] Federal = Columns[DeductionSet.FEDERAL_TAX];
+        long[] Insurance = Columns[DeductionSet.EMPLOYMENT_INSURANCE];
+        long[] Parental = Columns[DeductionSet.PARENTAL_PLAN];
+        long[] Pension = Columns[DeductionSet.PENSION_PLAN];
+        long[] Total = Columns[DeductionSet.TOTAL];
+        long[] Net = Columns[DeductionSet.NET_INCOME];
+        for (int Row = From; Row < To; Row++) {
+            long Sum = Provincial[Row] + Federal[Row] + Insurance[Row] + Parental[Row] + Pension[Row];
+            Total[Row] = Sum;
+            Net[Row] = GrossCents[Row] - Sum;
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "scalar";
+    }
+}
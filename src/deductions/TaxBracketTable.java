@@ -0,0 +1,288 @@
+package deductions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of tax brackets for one jurisdiction and one tax year
+ *
+ * The whole gross income is taxed at the rate of the bracket it falls in. The brackets
+ * are stored as two sorted arrays, the lower bounds in cents and the rates in millionths,
+ * and the bracket of an income is found with a binary search.
+ *
+ * Tables are loaded from a text file with one bracket per line:
+ * >Jurisdiction Year LowerBound RatePercent
+ * A bracket applies to the incomes above its lower bound, or from its lower bound when
+ * the bound is written with a leading ">=". The first bracket of a table applies to every
+ * income below the second one. Lines starting with '#' are comments.
+ */
+public class TaxBracketTable {
+
+    /** The file the default tables are loaded from */
+    public static final String DEFAULT_FILE = "data/taxBrackets.txt";
+
+    /** The tax year used when none is given */
+    public static final int DEFAULT_YEAR = 2025;
+
+    /** Jurisdiction code of the federal brackets */
+    public static final String FEDERAL = "FED";
+
+    /** Jurisdiction code of the Quebec brackets */
+    public static final String QUEBEC = "QC";
+
+    /** Brackets used when the default file is not found, same as the 2025 lines of DEFAULT_FILE */
+    private static final String[] BUILT_IN_BRACKETS = {
+            "FED 2025 0 0", "FED 2025 >=16129 15", "FED 2025 57375 20.5",
+            "FED 2025 114750 26", "FED 2025 177882 29", "FED 2025 253414 33",
+            "QC 2025 0 0", "QC 2025 18571 14", "QC 2025 53255 19",
+            "QC 2025 106495 24", "QC 2025 129590 25.75"
+    };
+
+    /** Cache of the lines of the default file, read once */
+    private static List<String> DefaultLines;
+
+    /** Cache of the tables already built from the default file, by jurisdiction and year */
+    private static final Map<String, TaxBracketTable> DefaultTables = new HashMap<>();
+
+    /** The jurisdiction of the table */
+    private final String Jurisdiction;
+
+    /** The tax year of the table */
+    private final int Year;
+
+    /**
+     * Lower bounds of the brackets, in increasing order
+     * An income belongs to the last bracket whose bound it is strictly above.
+     * Inclusive bounds are stored as the cent just below them.
+     */
+    private final long[] LowerBounds;
+
+    /** Rates of the brackets, in millionths */
+    private final long[] Rates;
+
+    /**
+     * Constructs a table from its sorted bounds and rates
+     * @param jurisdiction The jurisdiction of the table
+     * @param year         The tax year of the table
+     * @param lowerBounds  The lower bounds of the brackets in cents, in increasing order
+     * @param rates        The rates of the brackets, in millionths
+     */
+    private TaxBracketTable(String jurisdiction, int year, long[] lowerBounds, long[] rates) {
+        this.Jurisdiction = jurisdiction;
+        this.Year = year;
+        this.LowerBounds = lowerBounds;
+        this.Rates = rates;
+    }
+
+    /**
+     * Gets the table of a jurisdiction for the default tax year from the default file
+     * @param Jurisdiction The jurisdiction code, such as FED or QC
+     * @return The bracket table
+     */
+    public static TaxBracketTable forJurisdiction(String Jurisdiction) {
+        return forJurisdiction(Jurisdiction, DEFAULT_YEAR);
+    }
+
+    /**
+     * Gets the table of a jurisdiction and a tax year from the default file
+     * When the default file does not exist, the built-in 2025 brackets are used
+     * @param Jurisdiction The jurisdiction code, such as FED or QC
+     * @param Year         The tax year
+     * @return The bracket table
+     * @throws IllegalArgumentException If the file has no bracket for the jurisdiction and year
+     * @throws IllegalStateException    If the default file cannot be read
+     */
+    public static synchronized TaxBracketTable forJurisdiction(String Jurisdiction, int Year) {
+        String Key = Jurisdiction + " " + Year;
+        TaxBracketTable Table = DefaultTables.get(Key);
+        if (Table == null) {
+            Table = parse(defaultLines(), Jurisdiction, Year, DEFAULT_FILE);
+            DefaultTables.put(Key, Table);
+        }
+        return Table;
+    }
+
+    /**
+     * Loads the table of a jurisdiction and a tax year from a bracket file
+     * @param File         The bracket file
+     * @param Jurisdiction The jurisdiction code, such as FED or QC
+     * @param Year         The tax year
+     * @return The bracket table
+     * @throws IOException              If the file cannot be read
+     * @throws IllegalArgumentException If the file has no bracket for the jurisdiction and year
+     */
+    public static TaxBracketTable load(Path File, String Jurisdiction, int Year) throws IOException {
+        return parse(Files.readAllLines(File), Jurisdiction, Year, File.toString());
+    }
+
+    /**
+     * Reads the lines of the default file once
+     * @return The lines of the default file, or the built-in brackets if it does not exist
+     */
+    private static List<String> defaultLines() {
+        if (DefaultLines == null) {
+            try {
+                DefaultLines = Files.readAllLines(Paths.get(DEFAULT_FILE));
+            } catch (NoSuchFileException e) {
+                DefaultLines = builtInLines();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + DEFAULT_FILE, e);
+            }
+        }
+        return DefaultLines;
+    }
+
+    /**
+     * Gets the built-in brackets, used when the default file does not exist
+     * @return The lines of the built-in brackets, in the format of the bracket file
+     */
+    static List<String> builtInLines() {
+        return Arrays.asList(BUILT_IN_BRACKETS.clone());
+    }
+
+    /**
+     * Builds the table of a jurisdiction and a tax year from the lines of a bracket file
+     * @param Lines        The lines of the file
+     * @param Jurisdiction The jurisdiction code
+     * @param Year         The tax year
+     * @param Source       The name of the file, used in error messages
+     * @return The bracket table
+     * @throws IllegalArgumentException If a line is malformed or no bracket matches
+     */
+    static TaxBracketTable parse(List<String> Lines, String Jurisdiction, int Year, String Source) {
+        List<long[]> Brackets = new ArrayList<>();
+        int LineNumber = 0;
+        for (String Line : Lines) {
+            LineNumber++;
+            String Trimmed = Line.trim();
+            if (Trimmed.isEmpty() || Trimmed.startsWith("#")) continue;
+
+            String[] Fields = Trimmed.split("\\s+");
+            if (Fields.length != 4) {
+                throw new IllegalArgumentException(Source + ":" + LineNumber + ": expected 4 fields, found " + Fields.length);
+            }
+            if (!Fields[0].equals(Jurisdiction)) continue;
+            try {
+                if (Integer.parseInt(Fields[1]) != Year) continue;
+                boolean Inclusive = Fields[2].startsWith(">=");
+                long Bound = Money.fromDollars(Double.parseDouble(Inclusive ? Fields[2].substring(2) : Fields[2]));
+                long Rate = Money.rateFromPercent(Double.parseDouble(Fields[3]));
+                // "Income >= bound" is the same as "income > the cent just below bound"
+                Brackets.add(new long[]{Inclusive ? Bound - 1 : Bound, Rate});
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new IllegalArgumentException(Source + ":" + LineNumber + ": invalid number in \"" + Trimmed + "\"");
+            }
+        }
+        if (Brackets.isEmpty()) {
+            throw new IllegalArgumentException("No tax brackets for " + Jurisdiction + " " + Year + " in " + Source);
+        }
+
+        long[] LowerBounds = new long[Brackets.size()];
+        long[] Rates = new long[Brackets.size()];
+        for (int Index = 0; Index < Brackets.size(); Index++) {
+            LowerBounds[Index] = Brackets.get(Index)[0];
+            Rates[Index] = Brackets.get(Index)[1];
+            if (Index > 0 && LowerBounds[Index] <= LowerBounds[Index - 1]) {
+                throw new IllegalArgumentException("Tax brackets of " + Jurisdiction + " " + Year
+                        + " in " + Source + " are not in increasing order");
+            }
+        }
+        // The first bracket covers every income below the second one
+        LowerBounds[0] = Long.MIN_VALUE;
+        return new TaxBracketTable(Jurisdiction, Year, LowerBounds, Rates);
+    }
+
+    /**
+     * Finds the bracket a gross income falls in
+     * @param GrossCents The employee gross income, in cents
+     * @return The index of the bracket
+     */
+    public int findBracket(long GrossCents) {
+        // Last bracket whose lower bound is strictly below the income
+        int Low = 0;
+        int High = LowerBounds.length - 1;
+        while (Low < High) {
+            int Middle = (Low + High + 1) >>> 1;
+            if (GrossCents > LowerBounds[Middle]) {
+                Low = Middle;
+            } else {
+                High = Middle - 1;
+            }
+        }
+        return Low;
+    }
+
+    /**
+     * Calculates the tax of a gross income
+     * @param GrossCents The employee gross income, in cents
+     * @return The tax in cents, the whole income taxed at the rate of its bracket
+     */
+    public long calculateCents(long GrossCents) {
+        return Money.applyRate(GrossCents, Rates[findBracket(GrossCents)]);
+    }
+
+    /**
+     * Gets the rate of the bracket a gross income falls in
+     * @param GrossCents The employee gross income, in cents
+     * @return The rate, in millionths
+     */
+    long rateOf(long GrossCents) {
+        return Rates[findBracket(GrossCents)];
+    }
+
+    /**
+     * Gets the jurisdiction of the table
+     * @return The jurisdiction code
+     */
+    public String getJurisdiction() {
+        return Jurisdiction;
+    }
+
+    /**
+     * Gets the tax year of the table
+     * @return The tax year
+     */
+    public int getYear() {
+        return Year;
+    }
+
+    /**
+     * Gets a fingerprint of the brackets, which changes when a bound or a rate changes
+     * @return A hash of the bounds and the rates
+     */
+    public long fingerprint() {
+        return 31L * Arrays.hashCode(LowerBounds) + Arrays.hashCode(Rates);
+    }
+
+    /**
+     * Gets the number of brackets of the table
+     * @return The number of brackets
+     */
+    public int size() {
+        return Rates.length;
+    }
+
+    /**
+     * Gets the lower bounds of the brackets, for the batch kernels
+     * @return A copy of the bounds in cents, in increasing order
+     */
+    long[] getLowerBounds() {
+        return LowerBounds.clone();
+    }
+
+    /**
+     * Gets the rates of the brackets, for the batch kernels
+     * @return A copy of the rates in millionths
+     */
+    long[] getRates() {
+        return Rates.clone();
+    }
+}
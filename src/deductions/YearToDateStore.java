@@ -0,0 +1,432 @@
+package deductions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Gross income and deductions paid to each employee since the start of the tax year
+ *
+ * The amounts are kept in one primitive array, a row of ROW_SIZE longs per employee, and an
+ * open addressing table finds the row of an employee ID. A lookup does not create any object
+ * and the amounts of an employee share one or two cache lines, so a whole pay period of a
+ * large payroll is accumulated in a few milliseconds. The store is not thread safe.
+ *
+ * The store is saved between runs as a binary file: a header with the tax year and the pay
+ * periods, then the IDs and the rows, each written in one piece. It is written to a temporary
+ * file first and renamed, so a run that stops halfway keeps the store of the previous period.
+ */
+public class YearToDateStore {
+
+    /** The file the store is saved to when none is given */
+    public static final String DEFAULT_FILE = "data/payrollYtd.bin";
+
+    /** Number of deductions kept, from PROVINCIAL_TAX to PENSION_PLAN of DeductionSet, at the same index in a row */
+    public static final int DEDUCTIONS = DeductionSet.PENSION_PLAN + 1;
+
+    /** Index of the gross income in a row */
+    private static final int GROSS = DEDUCTIONS;
+
+    /** Index of the number of pay periods paid in a row */
+    private static final int PERIODS = DEDUCTIONS + 1;
+
+    /** Number of longs of a row */
+    private static final int ROW_SIZE = DEDUCTIONS + 2;
+
+    /** First bytes of a store file, "PYTD" */
+    private static final int MAGIC = 0x50595444;
+
+    /** Version of the file layout */
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic, version, year, periods per year, last period and row count */
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+    /** Size of the buffer used to read and write the file */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /** Number of rows allocated for an empty store */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The tax year the amounts belong to */
+    private final int Year;
+
+    /** Number of pay periods in the year */
+    private final int PeriodsPerYear;
+
+    /** Last pay period accumulated, 0 before the first one */
+    private int LastPeriod;
+
+    /** The employee ID of each row */
+    private long[] IDs;
+
+    /** The rows: each deduction and the gross income paid to date in cents, and the number of periods paid */
+    private long[] Rows;
+
+    /** Open addressing table of the row numbers plus one, 0 for an empty slot */
+    private int[] Slots;
+
+    /** Number of rows */
+    private int Size;
+
+    /** The row found by the last call to row(), -1 before the first one */
+    private int LastRow = -1;
+
+    /**
+     * Constructs an empty store for a tax year
+     * @param year           The tax year
+     * @param periodsPerYear The number of pay periods in the year
+     * @throws IllegalArgumentException If the number of pay periods is not positive
+     */
+    public YearToDateStore(int year, int periodsPerYear) {
+        this(year, periodsPerYear, 0, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty store with room for a number of rows
+     * @param year           The tax year
+     * @param periodsPerYear The number of pay periods in the year
+     * @param lastPeriod     The last pay period accumulated
+     * @param capacity       The number of rows allocated
+     * @throws IllegalArgumentException If the number of pay periods is not positive
+     */
+    private YearToDateStore(int year, int periodsPerYear, int lastPeriod, int capacity) {
+        if (periodsPerYear <= 0) {
+            throw new IllegalArgumentException("Pay periods per year must be positive: " + periodsPerYear);
+        }
+        this.Year = year;
+        this.PeriodsPerYear = periodsPerYear;
+        this.LastPeriod = lastPeriod;
+        allocate(Math.max(capacity, INITIAL_CAPACITY));
+    }
+
+    /**
+     * Starts the next pay period of the year
+     * @return The number of the new period, from 1 to the number of periods per year
+     * @throws IllegalStateException If every pay period of the year was already accumulated
+     */
+    public int nextPeriod() {
+        if (LastPeriod >= PeriodsPerYear) {
+            throw new IllegalStateException("Every pay period of " + Year + " is already paid");
+        }
+        return ++LastPeriod;
+    }
+
+    /**
+     * Finds the row of an employee
+     * @param ID The employee ID
+     * @return The row, or -1 if the employee was not paid this year
+     */
+    public int find(long ID) {
+        int Mask = Slots.length - 1;
+        int Slot = slot(ID, Mask);
+        while (Slots[Slot] != 0) {
+            int Row = Slots[Slot] - 1;
+            if (IDs[Row] == ID) return Row;
+            Slot = (Slot + 1) & Mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the row of an employee, adding an empty one the first time the employee is paid
+     * The payroll lists its employees in the same order every period, so the row after the last
+     * one found is tried first: a whole period then reads the columns in order and only looks
+     * at the table, in random order, for the employees that moved.
+     * @param ID The employee ID
+     * @return The row
+     */
+    public int row(long ID) {
+        int Next = LastRow + 1;
+        if (Next < Size && IDs[Next] == ID) {
+            return LastRow = Next;
+        }
+        int Mask = Slots.length - 1;
+        int Slot = slot(ID, Mask);
+        while (Slots[Slot] != 0) {
+            int Row = Slots[Slot] - 1;
+            if (IDs[Row] == ID) return LastRow = Row;
+            Slot = (Slot + 1) & Mask;
+        }
+        if (Size == IDs.length) {
+            grow();
+            // The slots were rebuilt
+            Mask = Slots.length - 1;
+            Slot = slot(ID, Mask);
+            while (Slots[Slot] != 0) {
+                Slot = (Slot + 1) & Mask;
+            }
+        }
+        int Row = Size++;
+        IDs[Row] = ID;
+        Slots[Slot] = Row + 1;
+        return LastRow = Row;
+    }
+
+    /**
+     * Adds the pay of one period to the amounts of an employee
+     * @param Row        The row of the employee
+     * @param GrossCents The gross income of the period, in cents
+     * @param Result     The deductions of the period in cents, indexed like the DeductionSet results
+     */
+    public void add(int Row, long GrossCents, long[] Result) {
+        int Start = Row * ROW_SIZE;
+        for (int Deduction = 0; Deduction < DEDUCTIONS; Deduction++) {
+            Rows[Start + Deduction] += Result[Deduction];
+        }
+        Rows[Start + GROSS] += GrossCents;
+        Rows[Start + PERIODS]++;
+    }
+
+    /**
+     * Gets the employee ID of a row
+     * @param Row The row
+     * @return The employee ID
+     */
+    public long getID(int Row) {
+        return IDs[Row];
+    }
+
+    /**
+     * Gets the number of pay periods an employee was paid
+     * @param Row The row of the employee
+     * @return The number of periods
+     */
+    public int getPeriods(int Row) {
+        return (int) Rows[Row * ROW_SIZE + PERIODS];
+    }
+
+    /**
+     * Gets the gross income of an employee to date
+     * @param Row The row of the employee
+     * @return The gross income, in cents
+     */
+    public long getGross(int Row) {
+        return Rows[Row * ROW_SIZE + GROSS];
+    }
+
+    /**
+     * Gets one deduction paid by an employee to date
+     * @param Row       The row of the employee
+     * @param Deduction The deduction, from PROVINCIAL_TAX to PENSION_PLAN of DeductionSet
+     * @return The amount, in cents
+     */
+    public long getAmount(int Row, int Deduction) {
+        return Rows[Row * ROW_SIZE + Deduction];
+    }
+
+    /**
+     * Gets the tax year of the amounts
+     * @return The tax year
+     */
+    public int getYear() {
+        return Year;
+    }
+
+    /**
+     * Gets the number of pay periods in the year
+     * @return The number of periods
+     */
+    public int getPeriodsPerYear() {
+        return PeriodsPerYear;
+    }
+
+    /**
+     * Gets the last pay period accumulated
+     * @return The period number, 0 before the first one
+     */
+    public int getLastPeriod() {
+        return LastPeriod;
+    }
+
+    /**
+     * Gets the number of employees paid this year
+     * @return The number of rows
+     */
+    public int size() {
+        return Size;
+    }
+
+    /**
+     * Loads a store saved by save()
+     * @param File The store file
+     * @return The store, or null if the file does not exist
+     * @throws IOException If the file cannot be read or is not a store file
+     */
+    public static YearToDateStore load(Path File) throws IOException {
+        try (FileChannel Channel = FileChannel.open(File, StandardOpenOption.READ)) {
+            ByteBuffer Buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            Buffer.limit(0);
+            fill(Channel, Buffer, HEADER_BYTES);
+            if (Buffer.getInt() != MAGIC || Buffer.getInt() != VERSION) {
+                throw new IOException(File + " is not a year-to-date file");
+            }
+            int Year = Buffer.getInt();
+            int PeriodsPerYear = Buffer.getInt();
+            int LastPeriod = Buffer.getInt();
+            int Count = Buffer.getInt();
+            long RowBytes = (long) (ROW_SIZE + 1) * Long.BYTES;
+            if (PeriodsPerYear <= 0 || LastPeriod < 0 || LastPeriod > PeriodsPerYear
+                    || Count < 0 || Count * RowBytes + HEADER_BYTES != Channel.size()) {
+                throw new IOException(File + " is damaged");
+            }
+
+            YearToDateStore Store = new YearToDateStore(Year, PeriodsPerYear, LastPeriod, Count);
+            readLongs(Channel, Buffer, Store.IDs, Count);
+            readLongs(Channel, Buffer, Store.Rows, Count * ROW_SIZE);
+
+            int Mask = Store.Slots.length - 1;
+            for (int Row = 0; Row < Count; Row++) {
+                if (!Store.link(Row, Mask)) {
+                    throw new IOException(File + " holds employee " + Store.IDs[Row] + " twice");
+                }
+            }
+            Store.Size = Count;
+            return Store;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the store, replacing the file only once it is fully written
+     * @param File The store file
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path File) throws IOException {
+        Path Temporary = File.resolveSibling(File.getFileName() + ".tmp");
+        try (FileChannel Channel = FileChannel.open(Temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer Buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            Buffer.putInt(MAGIC).putInt(VERSION).putInt(Year).putInt(PeriodsPerYear).putInt(LastPeriod).putInt(Size);
+            writeLongs(Channel, Buffer, IDs, Size);
+            writeLongs(Channel, Buffer, Rows, Size * ROW_SIZE);
+            drain(Channel, Buffer);
+        }
+        Files.move(Temporary, File, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads an array of longs from the file
+     * @param Channel The file
+     * @param Buffer  The read buffer, holding the bytes read ahead
+     * @param Column  The array receiving the values
+     * @param Count   The number of values
+     * @throws IOException If the file ends before the column
+     */
+    private static void readLongs(FileChannel Channel, ByteBuffer Buffer, long[] Column, int Count) throws IOException {
+        for (int Row = 0; Row < Count; ) {
+            fill(Channel, Buffer, Long.BYTES);
+            int Longs = Math.min(Count - Row, Buffer.remaining() / Long.BYTES);
+            Buffer.asLongBuffer().get(Column, Row, Longs);
+            Buffer.position(Buffer.position() + Longs * Long.BYTES);
+            Row += Longs;
+        }
+    }
+
+    /**
+     * Writes an array of longs to the file
+     * @param Channel The file
+     * @param Buffer  The write buffer, holding the bytes not written yet
+     * @param Column  The array
+     * @param Count   The number of values
+     * @throws IOException If the file cannot be written
+     */
+    private static void writeLongs(FileChannel Channel, ByteBuffer Buffer, long[] Column, int Count) throws IOException {
+        for (int Row = 0; Row < Count; ) {
+            if (Buffer.remaining() < Long.BYTES) drain(Channel, Buffer);
+            int Longs = Math.min(Count - Row, Buffer.remaining() / Long.BYTES);
+            Buffer.asLongBuffer().put(Column, Row, Longs);
+            Buffer.position(Buffer.position() + Longs * Long.BYTES);
+            Row += Longs;
+        }
+    }
+
+    /**
+     * Makes sure the read buffer holds at least a number of bytes
+     * @param Channel The file
+     * @param Buffer  The read buffer
+     * @param Bytes   The number of bytes needed
+     * @throws IOException If the file ends before
+     */
+    private static void fill(FileChannel Channel, ByteBuffer Buffer, int Bytes) throws IOException {
+        if (Buffer.remaining() >= Bytes) return;
+        Buffer.compact();
+        while (Buffer.position() < Bytes) {
+            if (Channel.read(Buffer) < 0) throw new IOException("Year-to-date file is truncated");
+        }
+        Buffer.flip();
+    }
+
+    /**
+     * Writes the bytes of the write buffer and empties it
+     * @param Channel The file
+     * @param Buffer  The write buffer
+     * @throws IOException If the file cannot be written
+     */
+    private static void drain(FileChannel Channel, ByteBuffer Buffer) throws IOException {
+        Buffer.flip();
+        while (Buffer.hasRemaining()) {
+            Channel.write(Buffer);
+        }
+        Buffer.clear();
+    }
+
+    /**
+     * Allocates the rows and an empty table for a number of rows
+     * @param Capacity The number of rows
+     */
+    private void allocate(int Capacity) {
+        IDs = new long[Capacity];
+        Rows = new long[Capacity * ROW_SIZE];
+        // At most half full
+        Slots = new int[Integer.highestOneBit(Capacity - 1) * 4];
+    }
+
+    /**
+     * Doubles the number of rows and rebuilds the table
+     */
+    private void grow() {
+        int Capacity = IDs.length * 2;
+        IDs = Arrays.copyOf(IDs, Capacity);
+        Rows = Arrays.copyOf(Rows, Capacity * ROW_SIZE);
+        Slots = new int[Integer.highestOneBit(Capacity - 1) * 4];
+        int Mask = Slots.length - 1;
+        for (int Row = 0; Row < Size; Row++) {
+            link(Row, Mask);
+        }
+    }
+
+    /**
+     * Puts a row in the first free slot of its ID
+     * @param Row  The row
+     * @param Mask The size of the table minus one
+     * @return false if another row already has the same ID
+     */
+    private boolean link(int Row, int Mask) {
+        int Slot = slot(IDs[Row], Mask);
+        while (Slots[Slot] != 0) {
+            if (IDs[Slots[Slot] - 1] == IDs[Row]) return false;
+            Slot = (Slot + 1) & Mask;
+        }
+        Slots[Slot] = Row + 1;
+        return true;
+    }
+
+    /**
+     * Finds the home slot of an employee ID
+     * @param ID   The employee ID
+     * @param Mask The size of the table minus one
+     * @return The first slot to look at
+     */
+    private static int slot(long ID, int Mask) {
+        long Mixed = ID * 0x9E3779B97F4A7C15L;
+        return (int) (Mixed ^ (Mixed >>> 32)) & Mask;
+    }
+}
@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a run killed at random points and resumed from its checkpoints writes the same files as a run never killed
+ *
+ * Every run is a JVM of its own on the compiled classes, checkpointing every second. It is
+ * killed with SIGKILL after a random delay and started again until it completes. A killed run
+ * must never leave a partial report, and the last run must write the report and the error log
+ * byte for byte like the run never killed, then delete the checkpoint and the part files.
+ */
+class PayrollCheckpointTest {
+
+    /** Number of lines of the payroll file, a few seconds of work */
+    private static final int ROWS = 400_000;
+
+    /** Number of runs killed and resumed until they complete */
+    private static final int TRIALS = 3;
+
+    /** Number of kills after which a run is left to complete */
+    private static final int MAX_KILLS = 20;
+
+    /** Shortest time before a run is killed, in milliseconds */
+    private static final int MIN_DELAY_MILLIS = 500;
+
+    @Test
+    void resumedRunsWriteTheSameFiles(@TempDir Path Directory) throws Exception {
+        Path Reference = prepare(Directory.resolve("reference"));
+        long Started = System.nanoTime();
+        assertEquals(0, start(Reference).waitFor(), "the run never killed failed");
+        int RunMillis = (int) ((System.nanoTime() - Started) / 1_000_000);
+        byte[] Report = Files.readAllBytes(Reference.resolve(PayrollManager.REPORT_OUT));
+        byte[] Errors = Files.readAllBytes(Reference.resolve(PayrollManager.ERROR_OUT));
+
+        Random Delays = new Random();
+        int Resumes = 0;
+        for (int Trial = 0; Trial < TRIALS; Trial++) {
+            Path Run = prepare(Directory.resolve("run" + Trial));
+            for (int Kills = 0; ; Kills++) {
+                Process Current = start(Run);
+                // Anywhere from the start of the JVM to the end of a whole run
+                long Delay = MIN_DELAY_MILLIS + Delays.nextInt(RunMillis);
+                boolean Completed = Kills >= MAX_KILLS || Current.waitFor(Delay, TimeUnit.MILLISECONDS);
+                if (!Completed) {
+                    Current.destroyForcibly().waitFor();
+                }
+                if (new String(Files.readAllBytes(Run.resolve("console.txt")), Charset.defaultCharset()).contains("> Resuming")) {
+                    Resumes++;
+                }
+                if (Completed && Current.waitFor() == 0) break;
+                assertFalse(Completed, "run " + Trial + " failed");
+                // The final files are only there once whole, when the kill came after they were moved
+                if (Files.exists(Run.resolve(PayrollManager.REPORT_OUT))) {
+                    assertArrayEquals(Report, Files.readAllBytes(Run.resolve(PayrollManager.REPORT_OUT)), "report of killed run " + Trial);
+                }
+            }
+            assertArrayEquals(Report, Files.readAllBytes(Run.resolve(PayrollManager.REPORT_OUT)), "report of run " + Trial);
+            assertArrayEquals(Errors, Files.readAllBytes(Run.resolve(PayrollManager.ERROR_OUT)), "error log of run " + Trial);
+            assertFalse(Files.exists(Run.resolve(PayrollCheckpoint.DEFAULT_FILE)), "run " + Trial + " left its checkpoint");
+            try (Stream<Path> Listed = Files.list(Run.resolve("data"))) {
+                assertFalse(Listed.anyMatch(Part -> Part.toString().endsWith(PayrollCheckpoint.PART_SUFFIX)),
+                        "run " + Trial + " left a part file");
+            }
+        }
+        assertTrue(Resumes > 0, "no run resumed from a checkpoint");
+    }
+
+    /**
+     * Creates the folder of a run with the same payroll file and tax brackets
+     * @param Run The folder of the run
+     * @return The folder of the run
+     * @throws IOException If a file cannot be written
+     */
+    private static Path prepare(Path Run) throws IOException {
+        Files.createDirectories(Run.resolve("data"));
+        SyntheticPayroll.write(Run.resolve(PayrollManager.PAYROLL_IN), ROWS, 0.1, 42);
+        Files.copy(Paths.get("data/taxBrackets.txt"), Run.resolve("data/taxBrackets.txt"));
+        return Run;
+    }
+
+    /**
+     * Starts PayrollManager in the folder of a run, checkpointing every second
+     * @param Run The folder of the run
+     * @return The process of the run
+     * @throws IOException If the JVM cannot be started
+     */
+    private static Process start(Path Run) throws IOException {
+        String Java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String Classes = System.getProperty("payroll.classes", "out");
+        return new ProcessBuilder(Java, "-cp", new File(Classes).getAbsolutePath(), "PayrollManager",
+                "--mmap", "--checkpoint", "1", "--quiet")
+                .directory(Run.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(Run.resolve("console.txt").toFile())
+                .start();
+    }
+}
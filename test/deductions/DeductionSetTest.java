@@ -0,0 +1,92 @@
+package deductions;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the deductions of a randomized payroll reconcile to the cent
+ *
+ * For every gross income, the five deductions add up to the total, and the total and the
+ * net income add up to the gross income. The rule evaluators, the kernels and the cache
+ * must give exactly the amounts of DeductionSet.
+ */
+class DeductionSetTest {
+
+    /** Number of random gross incomes */
+    private static final int ROWS = 200_000;
+
+    @Test
+    void grossEqualsDeductionsPlusNet() {
+        DeductionSet Deductions = new DeductionSet();
+        long[] Result = DeductionSet.newResult();
+        for (long Gross : randomGross(ROWS, 7)) {
+            Deductions.calculateAll(Gross, Result);
+            long Sum = 0;
+            for (int Column = DeductionSet.PROVINCIAL_TAX; Column <= DeductionSet.PENSION_PLAN; Column++) {
+                Sum += Result[Column];
+            }
+            assertEquals(Sum, Result[DeductionSet.TOTAL], "total of " + Gross + " cents");
+            assertEquals(Gross, Result[DeductionSet.TOTAL] + Result[DeductionSet.NET_INCOME], "net of " + Gross + " cents");
+        }
+    }
+
+    @Test
+    void everyCalculationGivesTheSameAmounts() {
+        DeductionSet Deductions = new DeductionSet();
+        RuleSet Rules = RuleSet.of(Deductions);
+        RuleEvaluator[] Evaluators = {RuleEvaluator.create(Rules), RuleEvaluator.createInterpreter(Rules)};
+        DeductionCache Cache = new DeductionCache(Deductions, 64);
+        DeductionKernel[] Kernels = {DeductionKernel.create(Deductions), DeductionKernel.createScalar(Deductions)};
+
+        long[] Gross = randomGross(ROWS, 11);
+        long[][][] Columns = new long[Kernels.length][][];
+        for (int Kernel = 0; Kernel < Kernels.length; Kernel++) {
+            Columns[Kernel] = DeductionKernel.newColumns(Gross.length);
+            Kernels[Kernel].calculateColumns(Gross, 0, Gross.length, Columns[Kernel]);
+        }
+
+        long[] Expected = DeductionSet.newResult();
+        long[] Result = DeductionSet.newResult();
+        for (int Row = 0; Row < Gross.length; Row++) {
+            Deductions.calculateAll(Gross[Row], Expected);
+            for (RuleEvaluator Evaluator : Evaluators) {
+                Evaluator.calculateAll(Gross[Row], Result);
+                assertArrayEquals(Expected, Result, Evaluator.describe() + " at " + Gross[Row] + " cents");
+            }
+            Cache.calculateAll(Gross[Row], Result);
+            assertArrayEquals(Expected, Result, "cache at " + Gross[Row] + " cents");
+            for (int Kernel = 0; Kernel < Kernels.length; Kernel++) {
+                for (int Column = 0; Column < DeductionSet.RESULT_SIZE; Column++) {
+                    assertEquals(Expected[Column], Columns[Kernel][Column][Row],
+                            Kernels[Kernel].describe() + " column " + Column + " at " + Gross[Row] + " cents");
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes random gross incomes like the ones of a payroll file
+     * Most come from hours and rates with cents, the others are spread up to the largest amount accepted.
+     * @param Rows The number of gross incomes
+     * @param Seed The seed of the random numbers
+     * @return The gross incomes, in cents
+     */
+    private static long[] randomGross(int Rows, long Seed) {
+        Random Numbers = new Random(Seed);
+        long[] Gross = new long[Rows];
+        for (int Row = 0; Row < Rows; Row++) {
+            if (Row % 10 == 9) {
+                Gross[Row] = (long) (Numbers.nextDouble() * Numbers.nextDouble() * Money.MAX_CENTS);
+            } else {
+                double Hours = Numbers.nextInt(8001) / 100.0;
+                double Rate = Numbers.nextInt(20001) / 100.0;
+                Gross[Row] = Money.fromDollars(52.00 * Rate * Hours);
+            }
+        }
+        return Gross;
+    }
+}
@@ -0,0 +1,57 @@
+package deductions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the conversions and the rounding of Money
+ */
+class MoneyTest {
+
+    @Test
+    void largestAmountHoldsInADouble() {
+        assertTrue(Money.MAX_CENTS <= 1L << 53, "MAX_CENTS is above 2^53");
+        assertTrue(Money.fits(Money.toDollars(Money.MAX_CENTS - 1)));
+        assertFalse(Money.fits(Money.toDollars(Money.MAX_CENTS)));
+        assertFalse(Money.fits(Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.fromDollars(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void everyAmountConvertsToDollarsAndBack() {
+        Random Numbers = new Random(3);
+        for (int Index = 0; Index < 1_000_000; Index++) {
+            // Half of the amounts within a million cents of the largest one
+            long Cents = Index % 2 == 0 ? Money.MAX_CENTS - 1 - Numbers.nextInt(1_000_000)
+                    : (long) (Numbers.nextDouble() * Money.MAX_CENTS);
+            assertEquals(Cents, Money.fromDollars(Money.toDollars(Cents)), "round trip of " + Cents + " cents");
+            assertEquals(-Cents, Money.fromDollars(Money.toDollars(-Cents)), "round trip of " + -Cents + " cents");
+        }
+    }
+
+    @Test
+    void applyRateRoundsHalvesUp() {
+        Random Numbers = new Random(5);
+        BigDecimal Million = BigDecimal.valueOf(1_000_000);
+        for (int Index = 0; Index < 1_000_000; Index++) {
+            long Cents = Index % 4 == 0 ? Numbers.nextLong() >> 1 : (long) (Numbers.nextDouble() * Money.MAX_CENTS);
+            long Rate = Numbers.nextInt(1_000_001);
+            long Expected = BigDecimal.valueOf(Cents).multiply(BigDecimal.valueOf(Rate))
+                    .divide(Million, 0, RoundingMode.HALF_UP).longValueExact();
+            // HALF_UP rounds negative halves away from zero, applyRate rounds them up
+            if (Cents < 0 && BigDecimal.valueOf(Cents).multiply(BigDecimal.valueOf(Rate)).remainder(Million)
+                    .abs().equals(BigDecimal.valueOf(500_000))) {
+                Expected++;
+            }
+            assertEquals(Expected, Money.applyRate(Cents, Rate), Cents + " cents at " + Rate + " millionths");
+        }
+    }
+}
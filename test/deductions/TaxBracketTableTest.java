@@ -0,0 +1,134 @@
+package deductions;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the bracket an income falls in, at every bound of the bracket file and of the built-in brackets
+ *
+ * The expected bounds and rates are read from the lines with BigDecimal, independently of Money.
+ * Every bound is checked at the exact cent, one cent on each side, and at the doubles just
+ * above and below the bound in dollars, which must round to the bound itself.
+ */
+class TaxBracketTableTest {
+
+    @Test
+    void everyBoundOfTheBracketFile() throws IOException {
+        checkEveryBound(Files.readAllLines(Paths.get(TaxBracketTable.DEFAULT_FILE)), TaxBracketTable.DEFAULT_FILE);
+    }
+
+    @Test
+    void everyBoundOfTheBuiltInBrackets() {
+        checkEveryBound(TaxBracketTable.builtInLines(), "built-in brackets");
+    }
+
+    @Test
+    void builtInBracketsMatchTheDefaultYearOfTheBracketFile() throws IOException {
+        List<String> FileLines = Files.readAllLines(Paths.get(TaxBracketTable.DEFAULT_FILE));
+        for (String Jurisdiction : new String[]{TaxBracketTable.FEDERAL, TaxBracketTable.QUEBEC}) {
+            TaxBracketTable FromFile = TaxBracketTable.parse(FileLines, Jurisdiction, TaxBracketTable.DEFAULT_YEAR, "file");
+            TaxBracketTable BuiltIn = TaxBracketTable.parse(TaxBracketTable.builtInLines(), Jurisdiction,
+                    TaxBracketTable.DEFAULT_YEAR, "built-in");
+            assertArrayEquals(FromFile.getLowerBounds(), BuiltIn.getLowerBounds(), Jurisdiction + " bounds");
+            assertArrayEquals(FromFile.getRates(), BuiltIn.getRates(), Jurisdiction + " rates");
+        }
+    }
+
+    @Test
+    void inclusiveBoundBelongsToItsBracket() {
+        List<String> Lines = Arrays.asList("T 2000 0 0", "T 2000 >=100 10", "T 2000 200 20");
+        TaxBracketTable Table = TaxBracketTable.parse(Lines, "T", 2000, "test");
+        assertArrayEquals(new long[]{Long.MIN_VALUE, 9_999, 20_000}, Table.getLowerBounds());
+        assertEquals(0, Table.findBracket(9_999));
+        assertEquals(1, Table.findBracket(10_000));
+        assertEquals(1, Table.findBracket(20_000));
+        assertEquals(2, Table.findBracket(20_001));
+        assertEquals(0, Table.findBracket(0));
+        assertEquals(0, Table.findBracket(-1));
+        assertEquals(1_000, Table.calculateCents(10_000));
+        assertEquals(4_000, Table.calculateCents(20_001));
+    }
+
+    /**
+     * Checks every bound of every table found in bracket lines
+     * @param Lines  The lines, in the format of the bracket file
+     * @param Source The name of the lines, used in the messages
+     */
+    private static void checkEveryBound(List<String> Lines, String Source) {
+        // The brackets of each jurisdiction and year, in the order of the lines
+        Map<String, List<String[]>> Tables = new LinkedHashMap<>();
+        for (String Line : Lines) {
+            String Trimmed = Line.trim();
+            if (Trimmed.isEmpty() || Trimmed.startsWith("#")) continue;
+            String[] Fields = Trimmed.split("\\s+");
+            Tables.computeIfAbsent(Fields[0] + " " + Fields[1], Key -> new ArrayList<>()).add(Fields);
+        }
+        assertFalse(Tables.isEmpty(), Source + " has no brackets");
+
+        for (Map.Entry<String, List<String[]>> Entry : Tables.entrySet()) {
+            List<String[]> Brackets = Entry.getValue();
+            String Jurisdiction = Brackets.get(0)[0];
+            int Year = Integer.parseInt(Brackets.get(0)[1]);
+            TaxBracketTable Table = TaxBracketTable.parse(Lines, Jurisdiction, Year, Source);
+            assertEquals(Brackets.size(), Table.size(), Entry.getKey() + " size");
+
+            long[] Rates = new long[Brackets.size()];
+            for (int Index = 0; Index < Brackets.size(); Index++) {
+                Rates[Index] = new BigDecimal(Brackets.get(Index)[3]).movePointRight(4).longValueExact();
+            }
+            assertArrayEquals(Rates, Table.getRates(), Entry.getKey() + " rates");
+
+            long[] Stored = Table.getLowerBounds();
+            assertEquals(Long.MIN_VALUE, Stored[0], Entry.getKey() + " first bound");
+            for (int Index = 1; Index < Brackets.size(); Index++) {
+                String Bound = Brackets.get(Index)[2];
+                boolean Inclusive = Bound.startsWith(">=");
+                String Text = Inclusive ? Bound.substring(2) : Bound;
+                long Cents = new BigDecimal(Text).movePointRight(2).longValueExact();
+                double Dollars = Double.parseDouble(Text);
+                String Name = Entry.getKey() + " bound " + Bound;
+
+                // An inclusive bound is stored as the cent just below it
+                assertEquals(Inclusive ? Cents - 1 : Cents, Stored[Index], Name + " stored");
+
+                int AtBound = Inclusive ? Index : Index - 1;
+                checkBracket(Table, Rates, Cents, AtBound, Name + " exact");
+                checkBracket(Table, Rates, Cents - 1, Index - 1, Name + " minus one cent");
+                checkBracket(Table, Rates, Cents + 1, Index, Name + " plus one cent");
+                checkBracket(Table, Rates, Money.fromDollars(Dollars), AtBound, Name + " in dollars");
+                checkBracket(Table, Rates, Money.fromDollars(Math.nextUp(Dollars)), AtBound, Name + " next up");
+                checkBracket(Table, Rates, Money.fromDollars(Math.nextDown(Dollars)), AtBound, Name + " next down");
+                checkBracket(Table, Rates, Money.fromDollars(Dollars - 0.01), Index - 1, Name + " minus 0.01 dollars");
+                checkBracket(Table, Rates, Money.fromDollars(Dollars + 0.01), Index, Name + " plus 0.01 dollars");
+            }
+        }
+    }
+
+    /**
+     * Checks the bracket, the rate and the tax of an income
+     * @param Table      The bracket table
+     * @param Rates      The expected rates of the brackets, in millionths
+     * @param GrossCents The income, in cents
+     * @param Expected   The index of the bracket the income falls in
+     * @param Name       The name of the case, used in the messages
+     */
+    private static void checkBracket(TaxBracketTable Table, long[] Rates, long GrossCents, int Expected, String Name) {
+        assertEquals(Expected, Table.findBracket(GrossCents), Name + ": bracket of " + GrossCents + " cents");
+        assertEquals(Rates[Expected], Table.rateOf(GrossCents), Name + ": rate of " + GrossCents + " cents");
+        assertEquals(Money.applyRate(GrossCents, Rates[Expected]), Table.calculateCents(GrossCents),
+                Name + ": tax of " + GrossCents + " cents");
+    }
+}